@@ -0,0 +1,132 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+/**
+ * Compares two JMH result files (written with -rf json), e.g. of two releases.
+ *
+ * For each benchmark and parameters found in both files, prints the scores and their change.
+ * A change is marked when it is larger than both the threshold and the sum of the errors of the
+ * two scores. The exit status is 1 if any benchmark regressed.
+ *
+ * Usage: BenchmarkCompare [--threshold=percent] baseline.json current.json
+ */
+public class BenchmarkCompare {
+
+	private static class Score {
+		String mode;
+		double score;
+		double error;
+		String unit;
+	}
+
+	public static void main(String[] args) throws IOException {
+		double threshold = 10;
+		String[] files = new String[2];
+		int n = 0;
+		for (String arg : args) {
+			if (arg.startsWith("--threshold=")) {
+				threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+			} else if (n < 2) {
+				files[n++] = arg;
+			}
+		}
+		if (n < 2) {
+			System.err.println("Usage: BenchmarkCompare [--threshold=percent] baseline.json current.json");
+			System.exit(2);
+		}
+
+		Map<String, Score> baseline = read(files[0]);
+		Map<String, Score> current = read(files[1]);
+
+		int regressions = 0;
+		System.out.println(String.format(Locale.ROOT, "%-90s %14s %14s %9s  %s", "Benchmark", "Baseline", "Current", "Change", "Unit"));
+		for (Map.Entry<String, Score> entry : current.entrySet()) {
+			Score before = baseline.get(entry.getKey());
+			Score after = entry.getValue();
+			if (before == null || !before.unit.equals(after.unit)) {
+				System.out.println(String.format(Locale.ROOT, "%-90s %14s %14.3f %9s  %s", entry.getKey(), "-", after.score, "new", after.unit));
+				continue;
+			}
+
+			double change = 100*(after.score-before.score)/before.score;
+			boolean significant = Math.abs(change) > threshold
+					&& Math.abs(after.score-before.score) > error(before)+error(after);
+			String mark = "";
+			if (significant) {
+				// in the throughput modes more is better, in the time modes less is better
+				boolean worse = after.mode.equals("thrpt") ? change < 0 : change > 0;
+				mark = worse ? "  REGRESSION" : "  improvement";
+				if (worse) regressions++;
+			}
+			System.out.println(String.format(Locale.ROOT, "%-90s %14.3f %14.3f %+8.1f%%  %s%s",
+					entry.getKey(), before.score, after.score, change, after.unit, mark));
+		}
+		for (String key : baseline.keySet()) {
+			if (!current.containsKey(key)) {
+				System.out.println(String.format(Locale.ROOT, "%-90s %14.3f %14s %9s", key, baseline.get(key).score, "-", "removed"));
+			}
+		}
+
+		System.out.println(regressions+" regression(s) above "+threshold+"%");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	private static double error(Score score) {
+		return Double.isNaN(score.error) ? 0 : score.error;
+	}
+
+	/*
+	 * The scores of a result file, by benchmark name and parameters
+	 */
+	private static Map<String, Score> read(String file) throws IOException {
+		Map<String, Score> scores = new LinkedHashMap<>();
+		try (Reader reader = new FileReader(file);
+			 JsonReader json = Json.createReader(reader))
+		{
+			JsonArray results = json.readArray();
+			for (JsonValue value : results) {
+				JsonObject result = (JsonObject) value;
+				String name = result.getString("benchmark");
+				StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.')-1)+1));
+				JsonObject params = result.getJsonObject("params");
+				if (params != null) {
+					for (String param : params.keySet()) {
+						key.append(' ').append(param).append('=').append(params.getString(param));
+					}
+				}
+
+				JsonObject metric = result.getJsonObject("primaryMetric");
+				Score score = new Score();
+				score.mode = result.getString("mode");
+				score.score = number(metric.get("score"));
+				score.error = number(metric.get("scoreError"));
+				score.unit = metric.getString("scoreUnit");
+				scores.put(key.toString(), score);
+			}
+		}
+		return scores;
+	}
+
+	/*
+	 * JMH writes "NaN" (a string) when there is no error estimate
+	 */
+	private static double number(JsonValue value) {
+		if (value instanceof JsonNumber) {
+			return ((JsonNumber) value).doubleValue();
+		}
+		return Double.NaN;
+	}
+}
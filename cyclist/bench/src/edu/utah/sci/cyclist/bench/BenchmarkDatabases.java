@@ -0,0 +1,147 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.bench.CyclusDatabaseGenerator.Scale;
+import edu.utah.sci.cyclist.core.model.Blob;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.core.util.SimulationTablesPostProcessor;
+
+/**
+ * The databases used by the benchmarks.
+ *
+ * The databases are generated once per scale and kept in the directory given by the
+ * cyclist.bench.dir system property (by default cyclist-bench in the temporary directory), so
+ * repeated runs, and the forks of a run, use the same files. A file is named after its scale and
+ * the version of the generator, so a change to the generator does not reuse stale databases.
+ */
+public class BenchmarkDatabases {
+	static Logger log = Logger.getLogger(BenchmarkDatabases.class);
+
+	// increase when the generated content changes
+	private static final int VERSION = 1;
+
+	public static File getDirectory() {
+		String dir = System.getProperty("cyclist.bench.dir");
+		File file = dir != null ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "cyclist-bench");
+		file.mkdirs();
+		return file;
+	}
+
+	/**
+	 * @param scale
+	 * @return a database with the raw Cyclus tables only
+	 * @throws SQLException
+	 */
+	public static synchronized File getRaw(Scale scale) throws SQLException {
+		File file = new File(getDirectory(), name(scale, "raw"));
+		if (!file.exists()) {
+			File tmp = new File(file.getPath()+".tmp");
+			new CyclusDatabaseGenerator(scale).generate(tmp);
+			rename(tmp, file);
+		}
+		return file;
+	}
+
+	/**
+	 * @param scale
+	 * @return a database which was post processed, as after it is loaded by the application
+	 * @throws SQLException
+	 */
+	public static synchronized File getProcessed(Scale scale) throws SQLException {
+		File file = new File(getDirectory(), name(scale, "processed"));
+		if (!file.exists()) {
+			File tmp = copy(getRaw(scale));
+			if (!new SimulationTablesPostProcessor().processTask(open(tmp))) {
+				throw new SQLException("Post processing of "+tmp+" failed");
+			}
+			rename(tmp, file);
+		}
+		return file;
+	}
+
+	/**
+	 * @param file
+	 * @return a copy of the file in the benchmark directory, deleted on exit
+	 * @throws SQLException
+	 */
+	public static File copy(File file) throws SQLException {
+		try {
+			File copy = File.createTempFile("copy-", ".sqlite", getDirectory());
+			copy.deleteOnExit();
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return copy;
+		} catch (IOException e) {
+			throw new SQLException("Can not copy "+file, e);
+		}
+	}
+
+	/**
+	 * Create a data source for a database file, the same way the application does for a
+	 * sqlite file it loads
+	 * @param file
+	 * @return the data source
+	 */
+	public static CyclistDatasource open(File file) {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Can not load sqlite driver", e);
+		}
+
+		String path = file.getAbsolutePath();
+		CyclistDatasource ds = new CyclistDatasource();
+		ds.setURL("jdbc:sqlite:/"+path);
+
+		Properties p = ds.getProperties();
+		p.setProperty("driver", "sqlite");
+		p.setProperty("type", "SQLite");
+		p.setProperty("path", path);
+		p.setProperty("name", file.getName());
+		return ds;
+	}
+
+	/**
+	 * @param ds
+	 * @return the (first) simulation of the database
+	 * @throws SQLException
+	 */
+	public static Simulation getSimulation(CyclistDatasource ds) throws SQLException {
+		try (Connection conn = ds.getConnection();
+			 Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT SimId, Duration FROM Info"))
+		{
+			if (!rs.next()) {
+				throw new SQLException("No simulation in "+ds.getURL());
+			}
+			Simulation sim = new Simulation(new Blob(rs.getBytes(1)));
+			sim.setDuration(rs.getInt(2));
+			sim.setDataSource(ds);
+			return sim;
+		}
+	}
+
+	private static String name(Scale scale, String kind) {
+		return "cyclus-"+scale.name().toLowerCase()+"-v"+VERSION+"-"+kind+".sqlite";
+	}
+
+	private static void rename(File from, File to) throws SQLException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new SQLException("Can not create "+to, e);
+		}
+		log.info("Created "+to);
+	}
+}
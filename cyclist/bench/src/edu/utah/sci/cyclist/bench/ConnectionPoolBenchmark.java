@@ -0,0 +1,112 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utah.sci.cyclist.bench.CyclusDatabaseGenerator.Scale;
+import edu.utah.sci.cyclist.core.model.JdbcConnectionPool;
+
+/**
+ * A short query on a new connection and on a connection of the {@link JdbcConnectionPool}, from
+ * more threads than the pool has connections. The database is a SQLite file standing in for a
+ * database server, so the cost of a new connection is a lower bound of the cost with a server.
+ * The statistics of the pool (waits and churn) are printed at the end of each trial.
+ *
+ * The sqlite driver crashes when connections are opened concurrently, so the connections of the
+ * pool are opened in the setup and the unpooled connections are opened one at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+	private static final String QUERY = "SELECT count(*) FROM Transactions WHERE SenderId=?";
+	private static final Object OPEN_LOCK = new Object();
+
+	@Param({ "SMALL" })
+	public Scale scale;
+
+	@Param({ "4" })
+	public int connections;
+
+	private String _url;
+	private JdbcConnectionPool _pool;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_url = "jdbc:sqlite:/"+BenchmarkDatabases.getRaw(scale).getAbsolutePath();
+		_pool = new JdbcConnectionPool(_url, new Properties(), 1, connections, JdbcConnectionPool.IDLE_TIMEOUT);
+
+		List<Connection> open = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			open.add(_pool.getConnection());
+		}
+		for (Connection conn : open) {
+			conn.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void report() {
+		System.out.println();
+		System.out.println(_pool);
+		_pool.closeIdle();
+	}
+
+	@Benchmark
+	public long unpooled() throws SQLException {
+		Connection conn;
+		synchronized (OPEN_LOCK) {
+			conn = DriverManager.getConnection(_url);
+		}
+		try {
+			return query(conn);
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Benchmark
+	public long pooled() throws SQLException {
+		try (Connection conn = _pool.getConnection()) {
+			return query(conn);
+		}
+	}
+
+	private long query(Connection conn) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareStatement(QUERY)) {
+			stmt.setInt(1, ThreadLocalRandom.current().nextInt(scale.agents));
+			try (ResultSet rs = stmt.executeQuery()) {
+				rs.next();
+				return rs.getLong(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a synthetic Cyclus output database: the raw tables a Cyclus run produces (Info,
+ * AgentEntry, AgentExit, Resources, ResCreators, Transactions and Compositions) for a single
+ * simulation, at a configurable scale. The database can then be post processed like a real one.
+ *
+ * The facilities form a fuel cycle: sources create new resources, the middle stages forward the
+ * resources they received (as child resources, so the inventories of an agent are the intervals
+ * between receiving and forwarding a resource) and the sinks keep them. The output only depends
+ * on the parameters and the seed.
+ *
+ * Usage: CyclusDatabaseGenerator [--scale=small|medium|large] [--agents=n] [--steps=n] [--nuclides=n]
+ *        [--qualities=n] [--transactions=n] [--seed=n] file
+ */
+public class CyclusDatabaseGenerator {
+	static Logger log = Logger.getLogger(CyclusDatabaseGenerator.class);
+
+	private static final int BATCH_SIZE = 10000;
+	private static final int MAX_NUCLIDES_PER_QUALITY = 100;
+
+	private static final String[] COMMODITIES = { "natl_u", "enriched_u", "fresh_fuel", "spent_fuel", "waste" };
+	private static final String[] SPECS = { ":cycamore:Source", ":cycamore:Enrichment", ":cycamore:FuelFab",
+			":cycamore:Reactor", ":cycamore:Sink" };
+
+	private static final String[] CREATE = {
+		"CREATE TABLE Info (SimId BLOB, Handle TEXT, InitialYear INTEGER, InitialMonth INTEGER, Duration INTEGER, "
+			+ "ParentSimId BLOB, ParentType TEXT, BranchTime INTEGER, CyclusVersion TEXT, CyclusVersionDescribe TEXT, "
+			+ "SqliteVersion TEXT, Hdf5Version TEXT, BoostVersion TEXT, LibXML2Version TEXT, CoinCBCVersion TEXT)",
+		"CREATE TABLE AgentEntry (SimId BLOB, AgentId INTEGER, Kind TEXT, Spec TEXT, Prototype TEXT, ParentId INTEGER, "
+			+ "Lifetime INTEGER, EnterTime INTEGER)",
+		"CREATE TABLE AgentExit (SimId BLOB, AgentId INTEGER, ExitTime INTEGER)",
+		"CREATE TABLE Resources (SimId BLOB, ResourceId INTEGER, ObjId INTEGER, Type TEXT, TimeCreated INTEGER, "
+			+ "Quantity REAL, Units TEXT, QualId INTEGER, Parent1 INTEGER, Parent2 INTEGER)",
+		"CREATE TABLE ResCreators (SimId BLOB, ResourceId INTEGER, AgentId INTEGER)",
+		"CREATE TABLE Transactions (SimId BLOB, TransactionId INTEGER, SenderId INTEGER, ReceiverId INTEGER, "
+			+ "ResourceId INTEGER, Commodity TEXT, Time INTEGER)",
+		"CREATE TABLE Compositions (SimId BLOB, QualId INTEGER, NucId INTEGER, MassFrac REAL)",
+	};
+
+	/**
+	 * Preset sizes
+	 */
+	public enum Scale {
+		SMALL(50, 240, 100, 100, 10000),
+		MEDIUM(200, 1000, 500, 500, 200000),
+		LARGE(1000, 1200, 3000, 2000, 2000000);
+
+		public final int agents;
+		public final int steps;
+		public final int nuclides;
+		public final int qualities;
+		public final int transactions;
+
+		Scale(int agents, int steps, int nuclides, int qualities, int transactions) {
+			this.agents = agents;
+			this.steps = steps;
+			this.nuclides = nuclides;
+			this.qualities = qualities;
+			this.transactions = transactions;
+		}
+	}
+
+	private int _agents;
+	private int _steps;
+	private int _nuclides;
+	private int _qualities;
+	private int _transactions;
+	private long _seed = 1;
+
+	private Random _random;
+	private byte[] _simId;
+
+	public CyclusDatabaseGenerator() {
+		this(Scale.SMALL);
+	}
+
+	public CyclusDatabaseGenerator(Scale scale) {
+		_agents = scale.agents;
+		_steps = scale.steps;
+		_nuclides = scale.nuclides;
+		_qualities = scale.qualities;
+		_transactions = scale.transactions;
+	}
+
+	/**
+	 * @param n number of facilities (at least one per stage of the fuel cycle)
+	 * @return this
+	 */
+	public CyclusDatabaseGenerator agents(int n) {
+		_agents = Math.max(n, SPECS.length);
+		return this;
+	}
+
+	/**
+	 * @param n duration of the simulation
+	 * @return this
+	 */
+	public CyclusDatabaseGenerator steps(int n) {
+		_steps = n;
+		return this;
+	}
+
+	/**
+	 * @param n number of distinct nuclides used by the compositions
+	 * @return this
+	 */
+	public CyclusDatabaseGenerator nuclides(int n) {
+		_nuclides = n;
+		return this;
+	}
+
+	/**
+	 * @param n number of distinct compositions
+	 * @return this
+	 */
+	public CyclusDatabaseGenerator qualities(int n) {
+		_qualities = n;
+		return this;
+	}
+
+	/**
+	 * @param n number of transactions
+	 * @return this
+	 */
+	public CyclusDatabaseGenerator transactions(int n) {
+		_transactions = n;
+		return this;
+	}
+
+	public CyclusDatabaseGenerator seed(long seed) {
+		_seed = seed;
+		return this;
+	}
+
+	/**
+	 * @return the id of the simulation of the last generated database
+	 */
+	public byte[] getSimulationId() {
+		return _simId;
+	}
+
+	/**
+	 * Write the database. An existing file is replaced.
+	 * @param file
+	 * @throws SQLException
+	 */
+	public void generate(File file) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		if (file.exists() && !file.delete()) {
+			throw new SQLException("Can not replace "+file);
+		}
+
+		_random = new Random(_seed);
+		UUID uuid = new UUID(_random.nextLong(), _random.nextLong());
+		_simId = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+file.getAbsolutePath())) {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("PRAGMA journal_mode=OFF");
+				stmt.execute("PRAGMA synchronous=OFF");
+				for (String sql : CREATE) {
+					stmt.execute(sql);
+				}
+			}
+			conn.setAutoCommit(false);
+			writeInfo(conn);
+			int[] stage = writeAgents(conn);
+			writeCompositions(conn);
+			writeResources(conn, stage);
+			conn.commit();
+		}
+		log.info(String.format(Locale.ROOT, "Generated %s: %d agents, %d steps, %d nuclides, %d qualities, %d transactions in %.1f sec",
+				file.getName(), _agents, _steps, _nuclides, _qualities, _transactions, (System.currentTimeMillis()-t0)/1000.0));
+	}
+
+	private void writeInfo(Connection conn) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareStatement(
+				"INSERT INTO Info (SimId, Handle, InitialYear, InitialMonth, Duration, ParentSimId, ParentType, BranchTime, CyclusVersion) "
+				+ "VALUES (?, '', 2000, 1, ?, ?, 'init', -1, 'synthetic')"))
+		{
+			stmt.setBytes(1, _simId);
+			stmt.setInt(2, _steps);
+			stmt.setBytes(3, new byte[16]);
+			stmt.executeUpdate();
+		}
+	}
+
+	/*
+	 * A region, an institution per 20 facilities and the facilities. The facilities are assigned
+	 * to the stages of the fuel cycle in turn.
+	 * Returns the stage of each facility, indexed by agent id.
+	 */
+	private int[] writeAgents(Connection conn) throws SQLException {
+		int insts = Math.max(1, _agents/20);
+		int firstFacility = 1+insts;
+		int prototypes = Math.max(SPECS.length, _agents/5);
+		int[] stage = new int[firstFacility+_agents];
+		Arrays.fill(stage, -1);
+
+		try (PreparedStatement entry = conn.prepareStatement("INSERT INTO AgentEntry VALUES (?,?,?,?,?,?,?,?)");
+			 PreparedStatement exit = conn.prepareStatement("INSERT INTO AgentExit VALUES (?,?,?)"))
+		{
+			addAgent(entry, 0, "Region", ":agents:NullRegion", "region", -1, -1, 0);
+			for (int i = 0; i < insts; i++) {
+				addAgent(entry, 1+i, "Inst", ":agents:NullInst", "inst_"+i, 0, -1, 0);
+			}
+			for (int i = 0; i < _agents; i++) {
+				int id = firstFacility+i;
+				int proto = i % prototypes;
+				stage[id] = proto % SPECS.length;
+				int enter = _random.nextInt(Math.max(1, _steps/10));
+				// a quarter of the facilities is decommissioned before the end
+				int lifetime = _random.nextInt(4) == 0 ? _steps/2+_random.nextInt(Math.max(1, _steps/2)) : -1;
+				addAgent(entry, id, "Facility", SPECS[stage[id]], "proto_"+proto, 1+i%insts, lifetime, enter);
+				if (lifetime > 0 && enter+lifetime < _steps) {
+					exit.setBytes(1, _simId);
+					exit.setInt(2, id);
+					exit.setInt(3, enter+lifetime);
+					exit.addBatch();
+				}
+			}
+			entry.executeBatch();
+			exit.executeBatch();
+		}
+		return stage;
+	}
+
+	private void addAgent(PreparedStatement stmt, int id, String kind, String spec, String prototype, int parent, int lifetime, int enter)
+			throws SQLException
+	{
+		stmt.setBytes(1, _simId);
+		stmt.setInt(2, id);
+		stmt.setString(3, kind);
+		stmt.setString(4, spec);
+		stmt.setString(5, prototype);
+		stmt.setInt(6, parent);
+		stmt.setInt(7, lifetime);
+		stmt.setInt(8, enter);
+		stmt.addBatch();
+	}
+
+	/*
+	 * Each quality is a random subset of the nuclides with normalized mass fractions
+	 */
+	private void writeCompositions(Connection conn) throws SQLException {
+		int[] nuclides = nuclideIds(_nuclides);
+		int rows = 0;
+		try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO Compositions VALUES (?,?,?,?)")) {
+			for (int q = 1; q <= _qualities; q++) {
+				int n = 1+_random.nextInt(Math.min(nuclides.length, MAX_NUCLIDES_PER_QUALITY));
+				TreeSet<Integer> picked = new TreeSet<>();
+				while (picked.size() < n) {
+					picked.add(nuclides[_random.nextInt(nuclides.length)]);
+				}
+				double[] frac = new double[n];
+				double sum = 0;
+				for (int i = 0; i < n; i++) {
+					frac[i] = _random.nextDouble();
+					sum += frac[i];
+				}
+				int i = 0;
+				for (int nucid : picked) {
+					stmt.setBytes(1, _simId);
+					stmt.setInt(2, q);
+					stmt.setInt(3, nucid);
+					stmt.setDouble(4, frac[i++]/sum);
+					stmt.addBatch();
+					if (++rows % BATCH_SIZE == 0) stmt.executeBatch();
+				}
+			}
+			stmt.executeBatch();
+		}
+	}
+
+	/*
+	 * Distinct, valid nuclide ids (ZZZAAAMMMM), the common actinides first
+	 */
+	private int[] nuclideIds(int n) {
+		int[] common = { 922350000, 922380000, 942390000, 942400000, 942410000, 952410000, 551370000, 380900000 };
+		TreeSet<Integer> set = new TreeSet<>();
+		for (int i = 0; i < common.length && set.size() < n; i++) {
+			set.add(common[i]);
+		}
+		n = Math.min(n, 100*150);
+		while (set.size() < n) {
+			int z = 1+_random.nextInt(100);
+			int a = z+_random.nextInt((int) (z*1.6)+2);
+			set.add(z*10000000+a*10000);
+		}
+		int[] list = new int[set.size()];
+		int i = 0;
+		for (int nucid : set) list[i++] = nucid;
+		return list;
+	}
+
+	/*
+	 * The transactions are spread evenly over the time steps. At each transaction the sender
+	 * either forwards a resource it received (a child resource with the received one as parent)
+	 * or creates a new one, and sends it to a facility of the next stage.
+	 */
+	private void writeResources(Connection conn, int[] stage) throws SQLException {
+		List<List<Integer>> byStage = new ArrayList<>();
+		for (int s = 0; s < SPECS.length; s++) byStage.add(new ArrayList<>());
+		for (int id = 0; id < stage.length; id++) {
+			if (stage[id] >= 0) byStage.get(stage[id]).add(id);
+		}
+
+		// the resources each agent received and did not forward yet
+		List<List<int[]>> held = new ArrayList<>();
+		for (int id = 0; id < stage.length; id++) held.add(new ArrayList<>());
+
+		int resourceId = 0;
+		long rows = 0;
+		try (PreparedStatement res = conn.prepareStatement("INSERT INTO Resources VALUES (?,?,?,'Material',?,?,'kg',?,?,0)");
+			 PreparedStatement creator = conn.prepareStatement("INSERT INTO ResCreators VALUES (?,?,?)");
+			 PreparedStatement tr = conn.prepareStatement("INSERT INTO Transactions VALUES (?,?,?,?,?,?,?)"))
+		{
+			for (int t = 0; t < _transactions; t++) {
+				int time = (int) ((long) t*_steps/_transactions);
+				int s = _random.nextInt(SPECS.length-1);
+				List<Integer> senders = byStage.get(s);
+				int sender = senders.get(_random.nextInt(senders.size()));
+				List<Integer> receivers = byStage.get(s+1);
+				int receiver = receivers.get(_random.nextInt(receivers.size()));
+
+				List<int[]> inventory = held.get(sender);
+				int parent = 0;
+				int qual;
+				double quantity;
+				if (s > 0 && !inventory.isEmpty()) {
+					int[] r = inventory.remove(_random.nextInt(inventory.size()));
+					parent = r[0];
+					qual = r[1];
+					quantity = 1+_random.nextDouble()*100;
+				} else {
+					qual = 1+_random.nextInt(_qualities);
+					quantity = 1+_random.nextDouble()*1000;
+				}
+
+				resourceId++;
+				res.setBytes(1, _simId);
+				res.setInt(2, resourceId);
+				res.setInt(3, resourceId);
+				res.setInt(4, time);
+				res.setDouble(5, quantity);
+				res.setInt(6, qual);
+				res.setInt(7, parent);
+				res.addBatch();
+
+				if (parent == 0) {
+					creator.setBytes(1, _simId);
+					creator.setInt(2, resourceId);
+					creator.setInt(3, sender);
+					creator.addBatch();
+				}
+
+				tr.setBytes(1, _simId);
+				tr.setInt(2, t+1);
+				tr.setInt(3, sender);
+				tr.setInt(4, receiver);
+				tr.setInt(5, resourceId);
+				tr.setString(6, COMMODITIES[s]);
+				tr.setInt(7, time);
+				tr.addBatch();
+
+				if (stage[receiver] < SPECS.length-1) {
+					held.get(receiver).add(new int[] { resourceId, qual });
+				}
+
+				if (++rows % BATCH_SIZE == 0) {
+					res.executeBatch();
+					creator.executeBatch();
+					tr.executeBatch();
+				}
+			}
+			res.executeBatch();
+			creator.executeBatch();
+			tr.executeBatch();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CyclusDatabaseGenerator generator = new CyclusDatabaseGenerator();
+		String file = null;
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				file = arg;
+				continue;
+			}
+			String[] kv = arg.substring(2).split("=", 2);
+			if (kv.length != 2) usage();
+			switch (kv[0]) {
+			case "scale":
+				Scale scale = Scale.valueOf(kv[1].toUpperCase(Locale.ROOT));
+				generator = new CyclusDatabaseGenerator(scale).seed(generator._seed);
+				break;
+			case "agents": generator.agents(Integer.parseInt(kv[1])); break;
+			case "steps": generator.steps(Integer.parseInt(kv[1])); break;
+			case "nuclides": generator.nuclides(Integer.parseInt(kv[1])); break;
+			case "qualities": generator.qualities(Integer.parseInt(kv[1])); break;
+			case "transactions": generator.transactions(Integer.parseInt(kv[1])); break;
+			case "seed": generator.seed(Long.parseLong(kv[1])); break;
+			default: usage();
+			}
+		}
+		if (file == null) usage();
+
+		Class.forName("org.sqlite.JDBC");
+		generator.generate(new File(file));
+	}
+
+	private static void usage() {
+		System.err.println("Usage: CyclusDatabaseGenerator [--scale=small|medium|large] [--agents=n] [--steps=n] [--nuclides=n]"
+				+ " [--qualities=n] [--transactions=n] [--seed=n] file");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,129 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javafx.collections.FXCollections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utah.sci.cyclist.core.controller.IMemento;
+import edu.utah.sci.cyclist.core.controller.StreamMemento;
+import edu.utah.sci.cyclist.core.controller.XMLMemento;
+import edu.utah.sci.cyclist.core.model.DataType;
+import edu.utah.sci.cyclist.core.model.Field;
+import edu.utah.sci.cyclist.core.model.Filter;
+import edu.utah.sci.cyclist.core.model.Table;
+
+/**
+ * Saving and reading a workspace: a number of views, each with a few filters whose selected
+ * values are saved as the application saves them, with the DOM based XMLMemento and with
+ * StreamMemento
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MementoBenchmark {
+	private static final int FILTERS_PER_VIEW = 3;
+
+	@Param({ "10", "100" })
+	public int views;
+
+	@Param({ "100", "1000" })
+	public int values;
+
+	private List<Filter> _filters = new ArrayList<>();
+	private String _xml;
+
+	@Setup
+	public void setup() throws IOException {
+		Table table = new Table("Transactions");
+		for (int i = 0; i < FILTERS_PER_VIEW; i++) {
+			Field field = new Field("Field"+i);
+			field.setDataType(new DataType(DataType.Role.DIMENSION, DataType.Type.TEXT, DataType.Interpretation.DISCRETE, DataType.Classification.C));
+			field.setTable(table);
+			List<Object> list = new ArrayList<>();
+			for (int v = 0; v < values; v++) {
+				list.add("value_"+i+"_"+v);
+			}
+			field.setValues(FXCollections.observableArrayList(list));
+			Filter filter = new Filter(field, false);
+			for (int v = 0; v < values; v += 2) {
+				filter.selectValue(list.get(v), true);
+			}
+			_filters.add(filter);
+		}
+		_xml = save();
+	}
+
+	@Benchmark
+	public String save() throws IOException {
+		XMLMemento root = XMLMemento.createWriteRoot("root");
+		fill(root);
+		StringWriter writer = new StringWriter();
+		root.save(writer);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public String saveStream() throws IOException {
+		StreamMemento root = StreamMemento.createWriteRoot("root");
+		fill(root);
+		StringWriter writer = new StringWriter();
+		root.save(writer);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public int restore() throws Exception {
+		return read(XMLMemento.createReadRoot(new StringReader(_xml)));
+	}
+
+	@Benchmark
+	public int restoreStream() throws Exception {
+		return read(StreamMemento.createReadRoot(new StringReader(_xml)));
+	}
+
+	private void fill(IMemento root) {
+		IMemento workspace = root.createChild("workspace");
+		for (int i = 0; i < views; i++) {
+			IMemento view = workspace.createChild("view");
+			view.putString("UID", "view_"+i);
+			view.putString("title", "View "+i);
+			for (Filter filter : _filters) {
+				filter.save(view.createChild("filter"));
+			}
+		}
+	}
+
+	private int read(IMemento root) {
+		int n = 0;
+		for (IMemento view : root.getChild("workspace").getChildren("view")) {
+			n += view.getString("UID").length();
+			for (IMemento filter : view.getChildren("filter")) {
+				n += filter.getChild("field").getString("name").length();
+				for (IMemento value : filter.getChild("selected").getChildren("value")) {
+					n += value.getTextData().length();
+				}
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,71 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.utah.sci.cyclist.core.util.NuclideUtils;
+import edu.utah.sci.cyclist.neup.model.Nuclide;
+import edu.utah.sci.cyclist.neup.model.NuclideFilter;
+
+/**
+ * Parsing and naming nuclides, in the forms the views accept, and decoding the nucid column of
+ * a result set into {@link Nuclide}s
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NuclideUtilsBenchmark {
+	private static final String[] NAMES = { "U235", "U238", "Pu239", "pu240", "242Am", "Am242M", "Cs137", "Sr90",
+			"922350000", "942390", "Np237", "Cm244" };
+	private static final int[] IDS = { 922350000, 922380000, 942390000, 942400000, 952420001, 551370000, 380900000,
+			932370000, 962440000, 10010000 };
+
+	@Benchmark
+	public void id(Blackhole bh) throws Exception {
+		for (String name : NAMES) {
+			bh.consume(NuclideUtils.id(name));
+		}
+	}
+
+	@Benchmark
+	public void name(Blackhole bh) throws Exception {
+		for (int id : IDS) {
+			bh.consume(NuclideUtils.name(id));
+		}
+	}
+
+	@Benchmark
+	public void create(Blackhole bh) {
+		for (int id : IDS) {
+			bh.consume(Nuclide.create(id));
+		}
+	}
+
+	@Benchmark
+	public void decodeNames(Blackhole bh) {
+		Nuclide.Decoder decoder = new Nuclide.Decoder();
+		for (int i = 0; i < 10; i++) {
+			for (String name : NAMES) {
+				bh.consume(decoder.apply(name));
+			}
+		}
+	}
+
+	@Benchmark
+	public NuclideFilter parseFilter() {
+		return NuclideFilter.parse("90-96, 94239, 95241, 551370000, 38");
+	}
+}
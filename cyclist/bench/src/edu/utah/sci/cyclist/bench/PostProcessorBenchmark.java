@@ -0,0 +1,62 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utah.sci.cyclist.bench.CyclusDatabaseGenerator.Scale;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.util.SimulationTablesPostProcessor;
+
+/**
+ * Post processing a database which was just written by Cyclus. Each iteration processes a
+ * fresh copy of the raw database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PostProcessorBenchmark {
+
+	@Param({ "SMALL" })
+	public Scale scale;
+
+	private File _copy;
+	private CyclistDatasource _ds;
+
+	@Setup(Level.Iteration)
+	public void setup() throws SQLException {
+		_copy = BenchmarkDatabases.copy(BenchmarkDatabases.getRaw(scale));
+		_ds = BenchmarkDatabases.open(_copy);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		_copy.delete();
+	}
+
+	@Benchmark
+	public Boolean processTask() {
+		Boolean ok = new SimulationTablesPostProcessor().processTask(_ds);
+		if (!ok) {
+			throw new IllegalStateException("Post processing failed");
+		}
+		return ok;
+	}
+}
@@ -0,0 +1,108 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utah.sci.cyclist.core.model.DataType;
+import edu.utah.sci.cyclist.core.model.Field;
+import edu.utah.sci.cyclist.core.model.Filter;
+import edu.utah.sci.cyclist.core.model.Table;
+import edu.utah.sci.cyclist.core.util.QueryBuilder;
+
+/**
+ * Building the SQL of a view: the conditions of its filters and the whole query.
+ * The filters select half of their values, so none of them reduces to "1=1".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+	/** number of values of the nuclide filter (sets above SQLQuery.TEMP_TABLE_THRESHOLD use a temporary table) */
+	@Param({ "10", "300", "3000" })
+	public int values;
+
+	private Table _table;
+	private Filter _nuclides;
+	private Filter _commodities;
+	private List<Field> _fields;
+
+	@Setup
+	public void setup() {
+		_table = new Table("QuantityInventory");
+
+		List<Object> nucids = new ArrayList<>();
+		for (int i = 0; i < values; i++) {
+			nucids.add(10000000+i*10000);
+		}
+		_nuclides = filter("NucId", DataType.Type.NUMERIC, nucids);
+
+		List<Object> commodities = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			commodities.add("commodity_"+i);
+		}
+		_commodities = filter("Commodity", DataType.Type.TEXT, commodities);
+
+		_fields = Arrays.asList(field("Time", DataType.Type.INT_TIME), field("AgentId", DataType.Type.NUMERIC),
+				field("Quantity", DataType.Type.NUMERIC));
+	}
+
+	private Field field(String name, DataType.Type type) {
+		Field field = new Field(name);
+		field.setDataType(new DataType(DataType.Role.DIMENSION, type, DataType.Interpretation.DISCRETE, DataType.Classification.C));
+		field.setTable(_table);
+		return field;
+	}
+
+	private Filter filter(String name, DataType.Type type, List<Object> values) {
+		Field field = field(name, type);
+		ObservableList<Object> list = FXCollections.observableArrayList(values);
+		field.setValues(list);
+		Filter filter = new Filter(field, false);
+		for (int i = 0; i < values.size(); i += 2) {
+			filter.selectValue(values.get(i), true);
+		}
+		return filter;
+	}
+
+	@Benchmark
+	public String filterToString() {
+		// drop the cached text
+		_nuclides.setValid(false);
+		return _nuclides.toString();
+	}
+
+	@Benchmark
+	public String filterToSQL() {
+		return _nuclides.toSQL().getKey();
+	}
+
+	@Benchmark
+	public String build() {
+		return new QueryBuilder(_table)
+			.fields(_fields)
+			.filters(Arrays.asList(_nuclides, _commodities))
+			.build()
+			.getKey();
+	}
+}
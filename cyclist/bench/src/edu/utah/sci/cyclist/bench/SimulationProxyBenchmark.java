@@ -0,0 +1,108 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.utah.sci.cyclist.bench.CyclusDatabaseGenerator.Scale;
+import edu.utah.sci.cyclist.core.event.Pair;
+import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.neup.model.Inventory;
+import edu.utah.sci.cyclist.neup.model.NuclideFilter;
+import edu.utah.sci.cyclist.neup.model.Range;
+import edu.utah.sci.cyclist.neup.model.Transaction;
+import edu.utah.sci.cyclist.neup.model.proxy.SimulationProxy;
+
+/**
+ * The flow and inventory queries of the Cyclus views, for the busiest agent (or its prototype)
+ * of a post processed database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulationProxyBenchmark {
+	private static final String BUSIEST_AGENT_QUERY =
+			"SELECT f.AgentId, f.Prototype FROM Transactions t JOIN Facilities f ON t.SimId = f.SimId AND t.ReceiverId = f.AgentId "
+			+ "GROUP BY f.AgentId ORDER BY count(*) DESC";
+
+	/** the number of agents whose inventories are fetched by {@link #inventories(Blackhole)} */
+	private static final int AGENTS = 10;
+
+	@Param({ "SMALL" })
+	public Scale scale;
+
+	@Param({ "AgentId", "Prototype" })
+	public String type;
+
+	private SimulationProxy _proxy;
+	private Range<Integer> _timerange;
+	private String _value;
+	private List<Pair<String, String>> _keys = new ArrayList<>();
+	private NuclideFilter _actinides = NuclideFilter.elements(89, 103);
+
+	@Setup
+	public void setup() throws SQLException {
+		Simulation sim = BenchmarkDatabases.getSimulation(BenchmarkDatabases.open(BenchmarkDatabases.getProcessed(scale)));
+		_proxy = new SimulationProxy(sim);
+		_timerange = new Range<>(0, sim.getDuration());
+
+		try (Connection conn = sim.getDataSource().getConnection();
+			 Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(BUSIEST_AGENT_QUERY))
+		{
+			int column = type.equals("AgentId") ? 1 : 2;
+			while (rs.next() && _keys.size() < AGENTS) {
+				Pair<String, String> key = new Pair<>(type, rs.getString(column));
+				if (_keys.stream().noneMatch(k -> k.v2.equals(key.v2))) {
+					_keys.add(key);
+				}
+			}
+		}
+		_value = _keys.get(0).v2;
+	}
+
+	@Benchmark
+	public List<Transaction> outgoingTransactions() throws SQLException {
+		return _proxy.getTransactions(type, _value, _timerange, true);
+	}
+
+	@Benchmark
+	public List<Transaction> incomingTransactions() throws SQLException {
+		return _proxy.getTransactions(type, _value, _timerange, false);
+	}
+
+	@Benchmark
+	public List<Inventory> inventory() throws SQLException {
+		return _proxy.getInventory2(type, _value);
+	}
+
+	@Benchmark
+	public List<Inventory> actinidesInventory() throws SQLException {
+		return _proxy.getInventory2(type, _value, _actinides);
+	}
+
+	@Benchmark
+	public void inventories(Blackhole bh) throws SQLException {
+		_proxy.getInventories(_keys, NuclideFilter.ALL, (i, list) -> bh.consume(list));
+	}
+}
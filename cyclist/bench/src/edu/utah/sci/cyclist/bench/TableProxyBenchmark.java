@@ -0,0 +1,76 @@
+package edu.utah.sci.cyclist.bench;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utah.sci.cyclist.bench.CyclusDatabaseGenerator.Scale;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.Table;
+import edu.utah.sci.cyclist.core.model.TableData;
+import edu.utah.sci.cyclist.core.model.proxy.QueryResultCache;
+import edu.utah.sci.cyclist.core.model.proxy.TableProxy;
+
+/**
+ * Reading query results into columnar form, from the database and from the result cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableProxyBenchmark {
+
+	@Param({ "SMALL" })
+	public Scale scale;
+
+	@Param({ "SELECT * FROM Transactions",
+			 "SELECT * FROM Inventories",
+			 "SELECT AgentId, Time, sum(Quantity) FROM QuantityInventoryBase GROUP BY AgentId, Time" })
+	public String query;
+
+	private CyclistDatasource _ds;
+	private TableProxy _proxy;
+
+	@Setup(Level.Trial)
+	public void setup() throws SQLException {
+		_ds = BenchmarkDatabases.open(BenchmarkDatabases.getProcessed(scale));
+		Table table = new Table("Transactions");
+		table.setDataSource(_ds);
+		_proxy = new TableProxy(table);
+	}
+
+	/**
+	 * Clear the cache before each call of {@link #uncached()}
+	 */
+	@State(Scope.Thread)
+	public static class EmptyCache {
+		@Setup(Level.Invocation)
+		public void clear() {
+			QueryResultCache.getInstance().clear();
+		}
+	}
+
+	@Benchmark
+	public TableData uncached(EmptyCache cache) throws SQLException {
+		return _proxy.getData(query);
+	}
+
+	@Benchmark
+	public TableData cached() throws SQLException {
+		return _proxy.getData(query);
+	}
+}
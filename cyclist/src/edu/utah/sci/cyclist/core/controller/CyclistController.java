@@ -23,21 +23,25 @@
 package edu.utah.sci.cyclist.core.controller;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.Reader;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.ObjectProperty;
@@ -46,6 +50,8 @@ import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker.State;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.MenuItem;
@@ -63,10 +69,13 @@ import edu.utah.sci.cyclist.core.event.notification.EventBus;
 import edu.utah.sci.cyclist.core.model.Context;
 import edu.utah.sci.cyclist.core.model.CyclistDatasource;
 import edu.utah.sci.cyclist.core.model.Field;
+import edu.utah.sci.cyclist.core.model.JdbcConnectionPool;
 import edu.utah.sci.cyclist.core.model.Model;
 import edu.utah.sci.cyclist.core.model.Preferences;
 import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.core.model.SQLiteConnectionPool;
 import edu.utah.sci.cyclist.core.model.Table;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
 import edu.utah.sci.cyclist.core.presenter.DatasourcesPresenter;
 import edu.utah.sci.cyclist.core.presenter.InputPresenter;
 import edu.utah.sci.cyclist.core.presenter.SchemaPresenter;
@@ -86,7 +95,11 @@ import edu.utah.sci.cyclist.core.ui.wizards.SaveWsWizard;
 import edu.utah.sci.cyclist.core.ui.wizards.SimulationWizard;
 import edu.utah.sci.cyclist.core.ui.wizards.SqliteLoaderWizard;
 import edu.utah.sci.cyclist.core.util.LoadSqlite;
+import edu.utah.sci.cyclist.core.util.PhaseTimer;
+import edu.utah.sci.cyclist.core.util.Showing;
 import edu.utah.sci.cyclist.core.util.StreamUtils;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 
 
 public class CyclistController {
@@ -100,9 +113,12 @@ public class CyclistController {
 	private String SAVE_FILE = "workspace-config.xml";
 	private WorkDirectoryController _workDirectoryController;
 	private Boolean _dirtyFlag = false;
+	private int _restoreGeneration = 0;
     public static CyclusService _cyclusService;
 	
 	private static final String SIMULATIONS_TABLES_FILE = "SimulationTablesDef.xml";
+	// seconds to wait for a server while the workspace is restored
+	private static final int CONNECT_TIMEOUT = 5;
 	
 	/**
 	 * Constructor
@@ -450,8 +466,9 @@ public class CyclistController {
 					selection.addListener(new ChangeListener<Boolean>(){
 						@Override
 						public void changed(ObservableValue<? extends Boolean> arg0, Boolean oldVal,Boolean newVal) {
-							if(newVal){
-								save();
+							//Stay in the current workspace if it could not be saved
+							if(newVal && !written(save())){
+								return;
 							}
 							selectWorkspace();
 						}
@@ -619,22 +636,53 @@ public class CyclistController {
 			selection.addListener(new ChangeListener<Boolean>(){
 				@Override
 				public void changed(ObservableValue<? extends Boolean> arg0, Boolean oldVal,Boolean newVal) {
-					if(newVal){
-						save();
+					//Do not exit if the workspace could not be saved
+					if(newVal && !written(save())){
+						return;
 					}
-					System.exit(0);
+					exit();
 				}
 			});
 		}else{
-			System.exit(0);
+			exit();
 		}
 	}
 	
-	private void save() {	
-		saveAs(getLastChosenWorkDirectory());
+	/*
+	 * Wait for the workspace to be written, close the pooled connections (which logs the
+	 * statistics of the server pools) and exit
+	 */
+	private void exit() {
+		MementoFile.flushAll();
+		SQLiteConnectionPool.closeAll();
+		JdbcConnectionPool.closeAll();
+		System.exit(0);
+	}
+	
+	private CompletableFuture<Boolean> save() {	
+		return saveAs(getLastChosenWorkDirectory());
+	}
+	
+	/*
+	 * Wait for a save of the workspace
+	 * @return false if the workspace could not be written
+	 */
+	private boolean written(Future<Boolean> save) {
+		try {
+			save.get();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
 	}
 	
-	private void saveAs(String workdir) {
+	/*
+	 * The workspace is only marked as saved once the file was written
+	 */
+	private CompletableFuture<Boolean> saveAs(String workdir) {
 		
 		IMemento child;
 		File saveDir = new File(workdir);
@@ -643,7 +691,7 @@ public class CyclistController {
 	
 		File saveFile = new File(workdir+"/"+SAVE_FILE);
 
-		XMLMemento memento = XMLMemento.createWriteRoot("root");
+		StreamMemento memento = StreamMemento.createWriteRoot("root");
 			
 		// Save the data sources
 		for(CyclistDatasource source: _model.getSources()){			
@@ -695,17 +743,33 @@ public class CyclistController {
 		_screen.save(mainWs);
 			
 		
-		try {
-			memento.save(new PrintWriter(saveFile));
-			_dirtyFlag = false;
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		} 	
-		
+		// Serialize and write in the background
+		CompletableFuture<Boolean> save = MementoFile.get(saveFile).save(memento);
+		save.whenComplete((changed, e) -> Platform.runLater(() -> {
+			if(e == null){
+				_dirtyFlag = false;
+			}else{
+				_dirtyFlag = true;
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				log.error("Can not save the workspace to "+saveFile+": "+cause.getMessage());
+			}
+		}));
+		return save;
 	}
 	
+	/*
+	 * Restores the workspace in stages, so the main window shows up before the slow parts are done:
+	 * - structure: the datasources, tables, simulations and settings are read from the save file
+	 * - views: the tools of the workspace are restored once the window is showing. The views query
+	 *   their data only when they are showing themselves.
+	 * - hydrate: the connections of the server datasources are opened and the missing table schemas
+	 *   are read, in parallel in the background
+	 * The time of each stage is logged once all of them are done.
+	 */
 	private void restore() {
+		final int generation = ++_restoreGeneration;
+		final PhaseTimer timer = new PhaseTimer("Restore workspace");
+		timer.start("clear");
 	
 		String currDirectory = _workDirectoryController.getWorkDirectories().get(_workDirectoryController.getLastChosenIndex());
 		
@@ -720,19 +784,26 @@ public class CyclistController {
 		
 		_screen.getRemoteServers().clear();
 			
-		Context ctx = new Context();
+		final Context ctx = new Context();
+		timer.start("simulation-tables");
 		readSimulationsTables(ctx);
 		
+		// Wait for a save of the file which may still be in progress
+		timer.start("flush");
+		MementoFile.get(saveFile).flush();
+		
 		// If we have a save file, read it in
 		if(saveFile.exists()){			
-			Reader reader;
+			InputStream input;
 			try {
-				reader = new FileReader(saveFile);
+				input = new FileInputStream(saveFile);
 				try {
 					// Create the root memento
-					XMLMemento memento = XMLMemento.createReadRoot(reader);
+					timer.start("read");
+					StreamMemento memento = StreamMemento.createReadRoot(input);
 				
 					// Read in the data sources
+					timer.start("structure");
 					IMemento[] sources = memento.getChildren("CyclistDatasource");
 					for(IMemento source: sources){
 						CyclistDatasource datasource = new CyclistDatasource();
@@ -792,21 +863,97 @@ public class CyclistController {
 					IMemento mainWs = memento.getChild("main-window");
 					restoreMainScreen(mainWs.getChild("geom"));
 					_screen.restore(mainWs, ctx);
+					timer.end();
 					
-					IMemento toolsRoot = memento.getChild("workspace");
-					if(toolsRoot != null){
-						_presenter.restore(toolsRoot, ctx);
-					}
+					final AtomicInteger stages = new AtomicInteger(2);
+					Runnable done = () -> {
+						if (stages.decrementAndGet() == 0) timer.report();
+					};
+					
+					hydrate(timer, done);
+					
+					// the views are restored once the shell is on screen
+					final IMemento toolsRoot = memento.getChild("workspace");
+					Showing.whenShowing(_screen, () -> Platform.runLater(() -> {
+						if (generation != _restoreGeneration) {
+							// another workspace was selected in the meantime
+							return;
+						}
+						long t0 = System.currentTimeMillis();
+						if(toolsRoot != null){
+							_presenter.restore(toolsRoot, ctx);
+						}
+						timer.record("views", t0);
+						done.run();
+					}));
 								
 				} catch (Exception e) {
 					log.error("Error during restore: "+e.getMessage());
 					e.printStackTrace();
+				} finally {
+					input.close();
 				}
-			} catch (FileNotFoundException e) {
+			} catch (IOException e) {
 				log.error("Error during restore: "+e.getMessage());
 				e.printStackTrace();
 			} 		
+		} else {
+			timer.report();
+		}
+	}
+	
+	/*
+	 * Opens the connections of the server datasources and reads the schemas of the tables which
+	 * were saved without one, in parallel at prefetch priority: after the queries of the showing
+	 * views, but not queued behind the long running background jobs. 
+	 * The SQLite datasources are opened on demand since they are cheap to open.
+	 */
+	private void hydrate(final PhaseTimer timer, final Runnable done) {
+		final long t0 = System.currentTimeMillis();
+		List<Task<?>> tasks = new ArrayList<>();
+		
+		for (final CyclistDatasource ds : _model.getSources()) {
+			if (ds.isSQLite()) continue;
+			tasks.add(TaskScheduler.getInstance().submit("connect:"+ds.getUID(), Priority.PREFETCH, () -> new QueryTask<Void>() {
+				@Override
+				protected Void query() throws Exception {
+					try (Connection conn = ds.getConnection()) {
+						// the connection goes back to the pool of the datasource
+						if (!conn.isValid(CONNECT_TIMEOUT)) {
+							log.warn("Connection to "+ds.getURL()+" is not valid");
+						}
+					} catch (SQLException e) {
+						log.warn("Can not connect to "+ds.getURL()+": "+e.getMessage());
+					}
+					return null;
+				}
+			}));
+		}
+		
+		for (Table table : _model.getTables()) {
+			Task<?> task = table.hydrateSchema();
+			if (task != null) tasks.add(task);
 		}
+		
+		final AtomicInteger remaining = new AtomicInteger(tasks.size()+1);
+		Runnable taskDone = () -> {
+			if (remaining.decrementAndGet() == 0) {
+				timer.record("hydrate", t0);
+				done.run();
+			}
+		};
+		for (Task<?> task : tasks) {
+			if (task.isDone()) {
+				taskDone.run();
+			} else {
+				task.stateProperty().addListener((o, prev, state) -> {
+					if (state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED) {
+						taskDone.run();
+					}
+				});
+			}
+		}
+		taskDone.run();
 	}
 	
 	/*
@@ -821,9 +968,10 @@ public class CyclistController {
 				InputStream in = Cyclist.class.getResourceAsStream("assets/"+SIMULATIONS_TABLES_FILE);
 				Files.copy(in, path);
 			}
-			File simulationsFile = path.toFile();
-			Reader reader = new FileReader(simulationsFile);
-			XMLMemento memento = XMLMemento.createReadRoot(reader);
+			StreamMemento memento;
+			try (InputStream input = Files.newInputStream(path)) {
+				memento = StreamMemento.createReadRoot(input);
+			}
 			
 			// Restore tables
 			for(IMemento node: memento.getChildren("Table")){
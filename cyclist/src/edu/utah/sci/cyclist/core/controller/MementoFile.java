@@ -0,0 +1,199 @@
+package edu.utah.sci.cyclist.core.controller;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Saves the memento of a workspace to a file on a background thread, so the caller (the FX
+ * thread) only pays for building the memento tree.
+ *
+ * The file keeps the text of each top level section (child of the root) of the last save, with a
+ * hash of its content. A save serializes only the sections whose hash changed and reuses the text of
+ * the others. If no section changed the file is not written at all, so saving often is cheap.
+ *
+ * The file is written to a temporary file which then replaces it, so a failed save does not
+ * destroy the previous workspace. Saves of the same file are written in order.
+ */
+public class MementoFile {
+	static Logger log = Logger.getLogger(MementoFile.class);
+
+	private static final String XML_VERSION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+	private static final Map<String, MementoFile> _files = new ConcurrentHashMap<>();
+	private static final ExecutorService _writer = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "cyclist-save");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final File _file;
+	private String _rootType = null;
+	private List<Section> _sections = new ArrayList<>();
+	private Future<Boolean> _last = null;
+
+	/*
+	 * The text of a top level section, as it was last written
+	 */
+	private static class Section {
+		final String type;
+		final long hash;
+		final String text;
+
+		Section(String type, long hash, String text) {
+			this.type = type;
+			this.hash = hash;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the MementoFile of the file, creating it if needed
+	 */
+	public static MementoFile get(File file) {
+		return _files.computeIfAbsent(file.getAbsolutePath(), path -> new MementoFile(new File(path)));
+	}
+
+	/**
+	 * Wait for the pending saves of all the files
+	 */
+	public static void flushAll() {
+		for (MementoFile file : _files.values()) {
+			file.flush();
+		}
+	}
+
+	private MementoFile(File file) {
+		_file = file;
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Saves the memento in the background. The memento must not be modified afterwards.
+	 * @param memento the root memento of the document
+	 * @return completes with true once the file was written, false if nothing changed since the
+	 * last save, and exceptionally if the file could not be written
+	 */
+	public synchronized CompletableFuture<Boolean> save(StreamMemento memento) {
+		CompletableFuture<Boolean> save = CompletableFuture.supplyAsync(() -> {
+			try {
+				return write(memento);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, _writer);
+		_last = save;
+		return save;
+	}
+
+	/**
+	 * Wait for the pending saves of this file
+	 */
+	public void flush() {
+		Future<Boolean> last;
+		synchronized (this) {
+			last = _last;
+		}
+		if (last == null) return;
+		try {
+			last.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// already logged by write
+		}
+	}
+
+	/*
+	 * Runs on the writer thread
+	 */
+	private boolean write(StreamMemento memento) throws IOException {
+		long t0 = System.currentTimeMillis();
+		List<StreamMemento> children = memento.getChildren();
+		List<Section> sections = new ArrayList<>(children.size());
+		boolean changed = !memento.getType().equals(_rootType) || children.size() != _sections.size() || !_file.exists();
+		int written = 0;
+
+		for (int i = 0; i < children.size(); i++) {
+			StreamMemento child = children.get(i);
+			long hash = child.contentHash();
+			Section prev = i < _sections.size() ? _sections.get(i) : null;
+			if (prev != null && prev.hash == hash && prev.type.equals(child.getType())) {
+				sections.add(prev);
+			} else {
+				StringWriter text = new StringWriter();
+				child.write(text);
+				sections.add(new Section(child.getType(), hash, text.toString()));
+				changed = true;
+				written++;
+			}
+		}
+
+		if (!changed) {
+			log.debug(_file+" is unchanged");
+			return false;
+		}
+		// the sections are only kept for a root without attributes or text
+		boolean plain = memento.getAttributeKeys().length == 0 && memento.getTextData() == null;
+
+		File tmp = new File(_file.getPath()+".tmp");
+		try {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8))) {
+				if (plain) {
+					write(out, memento.getType(), sections);
+				} else {
+					memento.save(out);
+				}
+			}
+			Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			log.error("Can not save "+_file+": "+e.getMessage());
+			tmp.delete();
+			throw e;
+		}
+
+		_rootType = plain ? memento.getType() : null;
+		_sections = sections;
+		log.debug("Saved "+_file+": "+written+" of "+sections.size()+" sections changed, "
+				+(System.currentTimeMillis()-t0)+" ms");
+		return true;
+	}
+
+	private static void write(Writer out, String root, List<Section> sections) throws IOException {
+		out.write(XML_VERSION);
+		out.write('\n');
+		out.write('<');
+		out.write(root);
+		out.write('>');
+		for (Section section : sections) {
+			out.write('\n');
+			out.write(section.text);
+		}
+		out.write('\n');
+		out.write("</");
+		out.write(root);
+		out.write('>');
+	}
+}
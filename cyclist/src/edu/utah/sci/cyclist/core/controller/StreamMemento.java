@@ -0,0 +1,473 @@
+package edu.utah.sci.cyclist.core.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A memento which keeps its tree in plain objects instead of a DOM, so building the tree of a
+ * large workspace (e.g. the thousands of selected values of a filter) is cheap.
+ *
+ * Documents are read with a StAX stream reader and written directly from the tree. The format is
+ * the one of {@link XMLMemento}, and either class reads the files written by the other.
+ *
+ * A tree which is not modified any more can be saved or hashed on any thread.
+ */
+public final class StreamMemento implements IMemento {
+	private static final String XML_VERSION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	private static final XMLInputFactory _inputFactory = XMLInputFactory.newInstance();
+
+	static {
+		_inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		_inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	}
+
+	private final String _type;
+	private Map<String, String> _attributes = null;
+	private String _text = null;
+	private List<StreamMemento> _children = null;
+
+	private StreamMemento(String type) {
+		_type = type;
+	}
+
+	/**
+	 * @param type the type of the root element
+	 * @return the root memento for writing a document
+	 */
+	public static StreamMemento createWriteRoot(String type) {
+		return new StreamMemento(type);
+	}
+
+	/**
+	 * Reads a document
+	 * @param input a UTF-8 encoded document
+	 * @return the memento of the root element
+	 * @throws XMLStreamException if the document is not valid or has no element
+	 */
+	public static StreamMemento createReadRoot(InputStream input) throws XMLStreamException {
+		XMLStreamReader reader = _inputFactory.createXMLStreamReader(input);
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads a document
+	 * @param input
+	 * @return the memento of the root element
+	 * @throws XMLStreamException if the document is not valid or has no element
+	 */
+	public static StreamMemento createReadRoot(Reader input) throws XMLStreamException {
+		XMLStreamReader reader = _inputFactory.createXMLStreamReader(input);
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/*
+	 * Build the tree of the document. As in XMLMemento, the text of an element is its first
+	 * text node; the whitespace between child elements is not kept.
+	 */
+	private static StreamMemento read(XMLStreamReader reader) throws XMLStreamException {
+		List<StreamMemento> stack = new ArrayList<>();
+		StreamMemento root = null;
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				StreamMemento element = new StreamMemento(reader.getLocalName());
+				int n = reader.getAttributeCount();
+				if (n > 0) {
+					element._attributes = new LinkedHashMap<>(n*2);
+					for (int i = 0; i < n; i++) {
+						element._attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+					}
+				}
+				if (stack.isEmpty()) {
+					root = element;
+				} else {
+					stack.get(stack.size()-1).add(element);
+				}
+				stack.add(element);
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				StreamMemento done = stack.remove(stack.size()-1);
+				if (done._children != null && done._text != null && done._text.trim().isEmpty()) {
+					done._text = null;
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (!stack.isEmpty()) {
+					StreamMemento current = stack.get(stack.size()-1);
+					if (current._text == null) {
+						current._text = reader.getText();
+					}
+				}
+				break;
+			}
+		}
+		if (root == null) {
+			throw new XMLStreamException("No element in the document");
+		}
+		return root;
+	}
+
+	private void add(StreamMemento child) {
+		if (_children == null) {
+			_children = new ArrayList<>(4);
+		}
+		_children.add(child);
+	}
+
+	/**
+	 * @return the children of this memento, of all types, in document order
+	 */
+	public List<StreamMemento> getChildren() {
+		return _children == null ? Collections.<StreamMemento>emptyList() : _children;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public IMemento createChild(String type) {
+		StreamMemento child = new StreamMemento(type);
+		add(child);
+		return child;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public IMemento createChild(String type, String id) {
+		IMemento child = createChild(type);
+		child.putString(TAG_ID, id == null ? "" : id);
+		return child;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public IMemento getChild(String type) {
+		if (_children != null) {
+			for (StreamMemento child : _children) {
+				if (child._type.equals(type)) {
+					return child;
+				}
+			}
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public IMemento[] getChildren(String type) {
+		if (_children == null) {
+			return new IMemento[0];
+		}
+		List<IMemento> list = new ArrayList<>(_children.size());
+		for (StreamMemento child : _children) {
+			if (child._type.equals(type)) {
+				list.add(child);
+			}
+		}
+		return list.toArray(new IMemento[list.size()]);
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public Float getFloat(String key) {
+		String value = getString(key);
+		if (value == null) return null;
+		try {
+			return Float.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public Double getDouble(String key) {
+		String value = getString(key);
+		if (value == null) return null;
+		try {
+			return Double.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public String getType() {
+		return _type;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public String getID() {
+		String id = getString(TAG_ID);
+		return id == null ? "" : id;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public Integer getInteger(String key) {
+		String value = getString(key);
+		if (value == null) return null;
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public String getString(String key) {
+		return _attributes == null ? null : _attributes.get(key);
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public Boolean getBoolean(String key) {
+		String value = getString(key);
+		return value == null ? null : Boolean.valueOf(value);
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public String getTextData() {
+		return _text;
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public String[] getAttributeKeys() {
+		return _attributes == null ? new String[0] : _attributes.keySet().toArray(new String[_attributes.size()]);
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putFloat(String key, float value) {
+		putString(key, String.valueOf(value));
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putDouble(String key, double value) {
+		putString(key, String.valueOf(value));
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putInteger(String key, int value) {
+		putString(key, String.valueOf(value));
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento. Copies the attributes of any memento, and the children
+	 * and their text of a StreamMemento.
+	 */
+	@Override
+	public void putMemento(IMemento memento) {
+		for (String key : memento.getAttributeKeys()) {
+			putString(key, memento.getString(key));
+		}
+		if (memento instanceof StreamMemento) {
+			for (StreamMemento child : ((StreamMemento) memento).getChildren()) {
+				StreamMemento copy = (StreamMemento) createChild(child._type);
+				copy.putMemento(child);
+				copy._text = child._text;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putString(String key, String value) {
+		if (value == null) return;
+		if (_attributes == null) {
+			_attributes = new LinkedHashMap<>(8);
+		}
+		_attributes.put(key, value);
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putBoolean(String key, boolean value) {
+		putString(key, value ? "true" : "false");
+	}
+
+	/* (non-Javadoc)
+	 * Method declared in IMemento.
+	 */
+	@Override
+	public void putTextData(String data) {
+		_text = data;
+	}
+
+	/**
+	 * A hash of the type, attributes, text and children of this memento, e.g. to find the
+	 * parts of a document which changed since it was last saved
+	 * @return
+	 */
+	public long contentHash() {
+		long h = _type.hashCode();
+		if (_attributes != null) {
+			for (Map.Entry<String, String> entry : _attributes.entrySet()) {
+				h = 31*h + entry.getKey().hashCode();
+				h = 31*h + entry.getValue().hashCode();
+			}
+		}
+		h = 31*h + (_text == null ? 0 : _text.hashCode());
+		if (_children != null) {
+			for (StreamMemento child : _children) {
+				// mix the child hash so that moving a value between children changes the hash
+				h = 1000003*h ^ child.contentHash();
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Writes the document of this memento, with the XML declaration
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void save(Writer writer) throws IOException {
+		writer.write(XML_VERSION);
+		writer.write('\n');
+		write(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Writes this memento (without the XML declaration). As XMLMemento, elements are separated by
+	 * new lines, except next to a text node, which would change the text when it is read back.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(Writer writer) throws IOException {
+		boolean hasChildren = _children != null || _text != null;
+		writer.write('<');
+		writer.write(_type);
+		if (_attributes != null) {
+			for (Map.Entry<String, String> entry : _attributes.entrySet()) {
+				writer.write(' ');
+				writer.write(entry.getKey());
+				writer.write("=\"");
+				escape(writer, entry.getValue());
+				writer.write('"');
+			}
+		}
+		if (!hasChildren) {
+			writer.write("/>");
+			return;
+		}
+		writer.write('>');
+
+		boolean prevWasText = false;
+		if (_text != null) {
+			escape(writer, _text);
+			prevWasText = true;
+		}
+		if (_children != null) {
+			for (StreamMemento child : _children) {
+				if (!prevWasText) {
+					writer.write('\n');
+				}
+				child.write(writer);
+				prevWasText = false;
+			}
+		}
+		if (!prevWasText) {
+			writer.write('\n');
+		}
+		writer.write("</");
+		writer.write(_type);
+		writer.write('>');
+	}
+
+	/*
+	 * Encode the special XML characters, and the white space characters which would
+	 * otherwise be normalized when the document is read
+	 */
+	private static void escape(Writer writer, String s) throws IOException {
+		int start = 0;
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			String replacement;
+			switch (c) {
+			case '<': replacement = "&lt;"; break;
+			case '>': replacement = "&gt;"; break;
+			case '"': replacement = "&quot;"; break;
+			case '\'': replacement = "&apos;"; break;
+			case '&': replacement = "&amp;"; break;
+			case '\r': replacement = "&#x0D;"; break;
+			case '\n': replacement = "&#x0A;"; break;
+			case '\t': replacement = "&#x09;"; break;
+			default:
+				// characters which are not allowed in XML are dropped
+				replacement = c < 32 ? "" : null;
+			}
+			if (replacement != null) {
+				writer.write(s, start, i-start);
+				writer.write(replacement);
+				start = i+1;
+			}
+		}
+		writer.write(s, start, n-start);
+	}
+}
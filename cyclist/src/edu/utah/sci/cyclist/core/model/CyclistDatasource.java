@@ -23,15 +23,16 @@
 package edu.utah.sci.cyclist.core.model;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.util.UUID;
-import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 
 import javafx.beans.property.SimpleStringProperty;
@@ -50,11 +51,6 @@ public class CyclistDatasource implements DataSource, Resource {
 	private boolean _ready = false;
 	private String _id = UUID.randomUUID().toString();
 	
-	// SQLite hack
-	static private final Semaphore _SQLiteSemaphore = new Semaphore(1, true);
-	static private Connection _SQLiteConnection = null;
-	static private Thread _currentThread = null;
-	
 	private static final String SQLITE_PREFIX = "jdbc:sqlite:/";
 	
 	
@@ -209,49 +205,62 @@ public class CyclistDatasource implements DataSource, Resource {
         if (isSQLite()) {
         	connection = getSQLiteConnection();
         } else {
-        	connection = DriverManager.getConnection(_url, _properties);
+        	connection = JdbcConnectionPool.get(_url, _properties).getConnection();
         }
         return connection;
 	}
 	
-	public void releaseConnection() {
+	/**
+	 * Returns a connection that may modify the database.
+	 * For SQLite this is the single writer lane of the file. For other databases it is a
+	 * regular pooled connection.
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection getWriteConnection() throws SQLException {
 		if (isSQLite()) {
-			if (_currentThread != Thread.currentThread()) {
-				log.warn("SQLite: wrong thread close connection: ignored");
-				return;
-			}
-			try {
-				_SQLiteConnection.close();
-				_SQLiteConnection = null;
-			} catch (SQLException e) {
-				log.warn("Error while closing sqlite connection: ",e);
-				e.printStackTrace();
-			}
-			_SQLiteSemaphore.release();
+			return getSQLitePool().getWriteConnection();
+		} else {
+			return getConnection();
+		}
+	}
+	
+	/**
+	 * Close the idle pooled connections, e.g. after the underlying file was replaced.
+	 */
+	public void closeIdleConnections() {
+		if (_url == null) return;
+		if (isSQLite()) {
+			SQLiteConnectionPool.get(_url, _properties).closeIdle();
+		} else {
+			JdbcConnectionPool.get(_url, _properties).closeIdle();
 		}
 	}
 	
+	/**
+	 * Replace the SQLite file of the datasource by another file. The pooled connections of the file
+	 * are drained and closed first, since an open file can not be replaced on Windows.
+	 * @param file the new database file, which is moved over the current one
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public void replaceFile(File file) throws SQLException, IOException {
+		final File target = new File(_url.replace(SQLITE_PREFIX, ""));
+		SQLiteConnectionPool.get(_url, _properties).exclusive(() -> 
+			Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+	}
+	
 	private Connection getSQLiteConnection() throws SQLException {
+		return getSQLitePool().getReadConnection();
+	}
+	
+	private SQLiteConnectionPool getSQLitePool() throws SQLException {
 		//If file doesn't exist the sqlite driver, creates one, and returns it without any error.
 		//In order to show an error, when non-existing file is chosen - have to check the existence of the file.
 		File file = new File(_url.replace(SQLITE_PREFIX, ""));
 		if (!file.exists()) {
 			throw new SQLException("SQLite: no such file ["+_url+"]");
 		}
-		
-		try {		
-			_SQLiteSemaphore.acquire();
-		} catch (InterruptedException e) { //InterruptedException
-			// ignore. Thread was waiting on the semaphore
-		}
-		
-		try {
-			_SQLiteConnection =  DriverManager.getConnection(_url, _properties);
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new SQLException("SQLite getConnection failed", e);
-		}
-		_currentThread = Thread.currentThread();
-		return _SQLiteConnection;
+		return SQLiteConnectionPool.get(_url, _properties);
 	}
  }
\ No newline at end of file
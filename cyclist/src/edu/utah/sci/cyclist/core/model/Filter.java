@@ -23,6 +23,7 @@ import edu.utah.sci.cyclist.core.model.DataType.Classification;
 import edu.utah.sci.cyclist.core.model.DataType.FilterType;
 import edu.utah.sci.cyclist.core.model.DataType.Role;
 import edu.utah.sci.cyclist.core.model.DataType.Type;
+import edu.utah.sci.cyclist.core.util.SQLQuery;
 
 public class Filter implements Observable, Resource {
 	static Logger log = Logger.getLogger(Filter.class);
@@ -422,6 +423,23 @@ public class Filter implements Observable, Resource {
 		return _toStringCache;
 	}
 	
+	/**
+	 * The condition of the filter with its values as parameters
+	 * @return
+	 */
+	public SQLQuery toSQL() {
+		SQLQuery query = new SQLQuery();
+		if (_allSelected) {
+			query.append("1=1");
+		} else if (isRange()) {
+			query.append(getName()).append(" >= ").param(getSelectedRange().min)
+				.append(" AND ").append(getName()).append(" <= ").param(getSelectedRange().max);
+		} else {
+			query.in(getName(), _selectedItems);
+		}
+		return query;
+	}
+	
 	public void setValid(Boolean isValid) {
 		_valid = isValid;
 	}
@@ -0,0 +1,420 @@
+package edu.utah.sci.cyclist.core.model;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A pool of connections to a database server, for the datasources which are not SQLite files.
+ *
+ * Opening a connection to a server costs a network round trip and an authentication handshake,
+ * so connections are kept open and lent to the queries. At most {@link #MAX_CONNECTIONS} are
+ * open per url and user; when all of them are in use a caller waits for one to be returned.
+ *
+ * Idle connections are closed after {@link #IDLE_TIMEOUT}, except for {@link #MIN_IDLE} of them.
+ * A connection which was idle for a while is validated before it is lent, since the server may
+ * have dropped it in the mean time (e.g. MySQL's wait_timeout).
+ *
+ * Connections are returned to the pool when they are closed. An open transaction is rolled back
+ * and the statements which are still open are closed, which also ends a streamed result set.
+ * Closing may happen on any thread.
+ *
+ * Each connection keeps its recently prepared statements. Preparing the same SQL again on the
+ * connection reuses the statement.
+ *
+ * The pool counts the connections it opened and closed and the time callers waited for a connection.
+ * The counts are logged (debug) when the idle connections are evicted, and at info level by {@link #closeAll()}.
+ */
+public class JdbcConnectionPool {
+	static Logger log = Logger.getLogger(JdbcConnectionPool.class);
+
+	public static final int MIN_IDLE = 1;
+	public static final int MAX_CONNECTIONS = 8;
+	public static final long IDLE_TIMEOUT = 5*60*1000;
+	private static final long VALIDATE_AFTER = 10*1000;
+	private static final int VALIDATION_TIMEOUT = 5;
+	private static final long MAX_WAIT = 60*1000;
+	private static final long SLOW_WAIT = 1000;
+	private static final long EVICTION_PERIOD = 30*1000;
+	private static final int MAX_CACHED_STATEMENTS = 32;
+
+	private static final Map<String, JdbcConnectionPool> _pools = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService _evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "cyclist-pool-evictor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		_evictor.scheduleWithFixedDelay(() -> {
+			for (JdbcConnectionPool pool : _pools.values()) {
+				pool.evict();
+			}
+		}, EVICTION_PERIOD, EVICTION_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	private final String _url;
+	private final Properties _properties;
+	private final String _validationQuery;
+	private final int _minIdle;
+	private final int _maxConnections;
+	private final long _idleTimeout;
+	private final Semaphore _permits;
+	private final ConcurrentLinkedDeque<Pooled> _idle = new ConcurrentLinkedDeque<>();
+
+	private final AtomicLong _opened = new AtomicLong();
+	private final AtomicLong _closed = new AtomicLong();
+	private final AtomicLong _borrowed = new AtomicLong();
+	private final AtomicLong _totalWait = new AtomicLong();
+	private final AtomicLong _maxWait = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _invalid = new AtomicLong();
+	private long _reported = 0;
+
+	/*
+	 * A connection of the pool
+	 */
+	private static class Pooled {
+		final Connection conn;
+		final StatementCache statements;
+		volatile long lastUsed = System.currentTimeMillis();
+
+		Pooled(Connection conn) {
+			this.conn = conn;
+			this.statements = new StatementCache(conn, MAX_CACHED_STATEMENTS);
+		}
+	}
+
+	/**
+	 * Returns the pool for the given url and user, creating it if needed.
+	 * @param url
+	 * @param properties connection properties of the datasource. New connections use the current properties.
+	 * @return
+	 */
+	public static JdbcConnectionPool get(String url, Properties properties) {
+		String key = url+"|"+properties.getProperty("user", "");
+		return _pools.computeIfAbsent(key, k -> new JdbcConnectionPool(url, properties, MIN_IDLE, MAX_CONNECTIONS, IDLE_TIMEOUT));
+	}
+
+	/**
+	 * Close the idle connections of every pool and log the statistics of the pools.
+	 */
+	public static void closeAll() {
+		for (JdbcConnectionPool pool : _pools.values()) {
+			pool.closeIdle();
+			log.info(pool);
+		}
+	}
+
+	/**
+	 * A pool which is not shared with the datasources. Its idle connections are only evicted by
+	 * calling {@link #evict()}.
+	 * @param url
+	 * @param properties
+	 * @param minIdle the number of idle connections which are not evicted
+	 * @param maxConnections
+	 * @param idleTimeout (ms)
+	 */
+	public JdbcConnectionPool(String url, Properties properties, int minIdle, int maxConnections, long idleTimeout) {
+		_url = url;
+		_properties = properties;
+		_minIdle = minIdle;
+		_maxConnections = maxConnections;
+		_idleTimeout = idleTimeout;
+		_permits = new Semaphore(maxConnections, true);
+		_validationQuery = url.startsWith("jdbc:oracle") ? "SELECT 1 FROM DUAL" : "SELECT 1";
+	}
+
+	public String getURL() {
+		return _url;
+	}
+
+	/**
+	 * Returns a connection. The connection is returned to the pool when it is closed.
+	 * @return
+	 * @throws SQLException if no connection became available in time
+	 */
+	public Connection getConnection() throws SQLException {
+		long start = System.currentTimeMillis();
+		acquire(start);
+		try {
+			Pooled pooled;
+			while ((pooled = _idle.pollFirst()) != null && !isValid(pooled)) {
+				_invalid.incrementAndGet();
+				close(pooled);
+			}
+			if (pooled == null) {
+				pooled = open();
+			}
+			_borrowed.incrementAndGet();
+			waited(System.currentTimeMillis() - start);
+			return wrap(pooled);
+		} catch (SQLException | RuntimeException e) {
+			_permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the idle connections
+	 */
+	public void closeIdle() {
+		Pooled pooled;
+		while ((pooled = _idle.pollFirst()) != null) {
+			close(pooled);
+		}
+	}
+
+	/**
+	 * Close the connections which have been idle for longer than the idle timeout, keeping the minimum
+	 * number of idle connections. The least recently used connections are at the end of the deque.
+	 */
+	public void evict() {
+		long now = System.currentTimeMillis();
+		Pooled pooled;
+		while (_idle.size() > _minIdle && (pooled = _idle.peekLast()) != null && now - pooled.lastUsed > _idleTimeout) {
+			if (_idle.removeLastOccurrence(pooled)) {
+				close(pooled);
+			}
+		}
+
+		long activity = _borrowed.get() + _closed.get();
+		if (activity != _reported) {
+			_reported = activity;
+			log.debug(this);
+		}
+	}
+
+	/**
+	 * @return the number of connections the pool opened
+	 */
+	public long getOpened() {
+		return _opened.get();
+	}
+
+	/**
+	 * @return the number of connections the pool closed (idle, invalid or broken)
+	 */
+	public long getClosed() {
+		return _closed.get();
+	}
+
+	/**
+	 * @return the number of times a connection was lent
+	 */
+	public long getBorrowed() {
+		return _borrowed.get();
+	}
+
+	/**
+	 * @return the number of connections which are in use
+	 */
+	public int getActive() {
+		return _maxConnections - _permits.availablePermits();
+	}
+
+	public int getIdle() {
+		return _idle.size();
+	}
+
+	/**
+	 * @return the average time (ms) callers waited for a connection, including the time to open it
+	 */
+	public double getAverageWait() {
+		long n = _borrowed.get() + _timeouts.get();
+		return n == 0 ? 0 : (double) _totalWait.get() / n;
+	}
+
+	/**
+	 * @return the longest time (ms) a caller waited for a connection
+	 */
+	public long getMaxWait() {
+		return _maxWait.get();
+	}
+
+	/**
+	 * @return the number of callers which did not get a connection in time
+	 */
+	public long getTimeouts() {
+		return _timeouts.get();
+	}
+
+	/**
+	 * @return the number of idle connections which failed validation
+	 */
+	public long getInvalid() {
+		return _invalid.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Pool %s: %d active, %d idle, %d borrowed, %d opened, %d closed, %d invalid, wait avg %.1f ms max %d ms, %d timeouts",
+				_url, getActive(), getIdle(), getBorrowed(), getOpened(), getClosed(), getInvalid(), getAverageWait(), getMaxWait(), getTimeouts());
+	}
+
+	private void acquire(long start) throws SQLException {
+		boolean acquired;
+		try {
+			acquired = _permits.tryAcquire(MAX_WAIT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection to "+_url, e);
+		}
+		if (!acquired) {
+			long wait = System.currentTimeMillis() - start;
+			waited(wait);
+			_timeouts.incrementAndGet();
+			throw new SQLException("No connection to "+_url+" available after "+wait/1000+" sec ("+_maxConnections+" in use)");
+		}
+	}
+
+	private void waited(long wait) {
+		_totalWait.addAndGet(wait);
+		_maxWait.accumulateAndGet(wait, Math::max);
+		if (wait > SLOW_WAIT) {
+			log.debug("Waited "+wait/1000.0+" sec for a connection to "+_url);
+		}
+	}
+
+	private Pooled open() throws SQLException {
+		Connection conn = DriverManager.getConnection(_url, _properties);
+		_opened.incrementAndGet();
+		return new Pooled(conn);
+	}
+
+	private boolean isValid(Pooled pooled) {
+		if (System.currentTimeMillis() - pooled.lastUsed < VALIDATE_AFTER) return true;
+		try (Statement stmt = pooled.conn.createStatement()) {
+			stmt.setQueryTimeout(VALIDATION_TIMEOUT);
+			stmt.execute(_validationQuery);
+			return true;
+		} catch (SQLException e) {
+			log.debug("Discarding an idle connection to "+_url+": "+e.getMessage());
+			return false;
+		}
+	}
+
+	private void release(Pooled pooled) {
+		boolean reuse;
+		try {
+			reuse = !pooled.conn.isClosed();
+			if (reuse && !pooled.conn.getAutoCommit()) {
+				pooled.conn.rollback();
+				pooled.conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			log.debug("Discarding a connection to "+_url+": "+e.getMessage());
+			reuse = false;
+		}
+
+		if (reuse) {
+			pooled.lastUsed = System.currentTimeMillis();
+			_idle.offerFirst(pooled);
+		} else {
+			close(pooled);
+		}
+		_permits.release();
+	}
+
+	private void close(Pooled pooled) {
+		pooled.statements.clear();
+		try {
+			pooled.conn.close();
+		} catch (SQLException e) {
+			log.debug("Error while closing a connection to "+_url+": "+e.getMessage());
+		}
+		_closed.incrementAndGet();
+	}
+
+	private Connection wrap(Pooled pooled) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class},
+				new PooledConnectionHandler(pooled));
+	}
+
+	/*
+	 * Hands out a pooled connection. close() returns the connection to the pool
+	 * instead of closing the underlying connection.
+	 */
+	private class PooledConnectionHandler implements InvocationHandler {
+		private final Pooled _pooled;
+		private final AtomicBoolean _released = new AtomicBoolean(false);
+		private final List<Statement> _statements = new ArrayList<>();
+
+		public PooledConnectionHandler(Pooled pooled) {
+			_pooled = pooled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (_released.compareAndSet(false, true)) {
+					closeStatements();
+					release(_pooled);
+				}
+				return null;
+			case "isClosed":
+				return _released.get() || _pooled.conn.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled["+_pooled.conn+"]";
+			default:
+				if (_released.get()) {
+					throw new SQLException("Connection was already returned to the pool");
+				}
+				if (method.getName().equals("prepareStatement") && args.length == 1) {
+					return _pooled.statements.prepare((String) args[0]);
+				}
+				Object result;
+				try {
+					result = method.invoke(_pooled.conn, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Statement) {
+					synchronized (_statements) {
+						_statements.add((Statement) result);
+					}
+				}
+				return result;
+			}
+		}
+
+		private void closeStatements() {
+			_pooled.statements.giveBackAll();
+			synchronized (_statements) {
+				for (Statement stmt : _statements) {
+					try {
+						stmt.close();
+					} catch (SQLException e) {
+						log.debug("Error while closing a statement: "+e.getMessage());
+					}
+				}
+				_statements.clear();
+			}
+		}
+	}
+}
@@ -7,9 +7,15 @@ public class Preferences {
 	public static String CURRENT_SERVER = "Current server";
 	public static String RUN_DEFAULT = "Run default";
 	public static final String CLOUDIUS_URL = "http://cycrun.fuelcycle.org";
+	public static final int DEFAULT_TRANSACTIONS_MEMORY_MB = 256;
+	public static final int DEFAULT_RESULT_CACHE_MEMORY_MB = 128;
+	public static final int DEFAULT_REPLICA_MAX_AGE_MIN = 60;
 	
 	private static Preferences _instance = new Preferences();
 	private String _defaultServer = CLOUDIUS_URL;
+	private int _transactionsMemory = DEFAULT_TRANSACTIONS_MEMORY_MB;
+	private int _resultCacheMemory = DEFAULT_RESULT_CACHE_MEMORY_MB;
+	private int _replicaMaxAge = DEFAULT_REPLICA_MAX_AGE_MIN;
 	
 	public static Preferences getInstance() {
 		return _instance;
@@ -23,13 +29,64 @@ public class Preferences {
 		_defaultServer = defaultServer;
 	}
 	
+	/**
+	 * @return the maximum memory (in MB) used to preload the transactions of a simulation. 0 disables preloading.
+	 */
+	public int getTransactionsMemory(){
+		return _transactionsMemory;
+	}
+	
+	public void setTransactionsMemory(int mb){
+		_transactionsMemory = mb;
+	}
+	
+	/**
+	 * @return the maximum memory (in MB) used to cache query results shared by the views. 0 disables the cache.
+	 */
+	public int getResultCacheMemory(){
+		return _resultCacheMemory;
+	}
+	
+	public void setResultCacheMemory(int mb){
+		_resultCacheMemory = mb;
+	}
+	
+	/**
+	 * @return the age (in minutes) after which the local copy of a table is checked against the remote table. 0 disables the checks.
+	 */
+	public int getReplicaMaxAge(){
+		return _replicaMaxAge;
+	}
+	
+	public void setReplicaMaxAge(int minutes){
+		_replicaMaxAge = minutes;
+	}
+	
 	public void save(IMemento memento){
 		IMemento defaultServer = memento.createChild("defaultServer");
 		defaultServer.putString("value", _defaultServer);
+		IMemento transactionsMemory = memento.createChild("transactionsMemory");
+		transactionsMemory.putInteger("value", _transactionsMemory);
+		IMemento resultCacheMemory = memento.createChild("resultCacheMemory");
+		resultCacheMemory.putInteger("value", _resultCacheMemory);
+		IMemento replicaMaxAge = memento.createChild("replicaMaxAge");
+		replicaMaxAge.putInteger("value", _replicaMaxAge);
 	}
 	
 	public void restore(IMemento memento){
 		if (memento == null) return;
 		_defaultServer = memento.getChild("defaultServer").getString("value");
+		IMemento transactionsMemory = memento.getChild("transactionsMemory");
+		if (transactionsMemory != null && transactionsMemory.getInteger("value") != null) {
+			_transactionsMemory = transactionsMemory.getInteger("value");
+		}
+		IMemento resultCacheMemory = memento.getChild("resultCacheMemory");
+		if (resultCacheMemory != null && resultCacheMemory.getInteger("value") != null) {
+			_resultCacheMemory = resultCacheMemory.getInteger("value");
+		}
+		IMemento replicaMaxAge = memento.getChild("replicaMaxAge");
+		if (replicaMaxAge != null && replicaMaxAge.getInteger("value") != null) {
+			_replicaMaxAge = replicaMaxAge.getInteger("value");
+		}
 	}
 }
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (c) 2013 SCI Institute, University of Utah.
+ * All rights reserved.
+ *
+ * License for the specific language governing rights and limitations under Permission
+ * is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions: The above copyright notice
+ * and this permission notice shall be included in all copies  or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+ *  A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * Contributors:
+ *     Yarden Livnat
+ *******************************************************************************/
+package edu.utah.sci.cyclist.core.model;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * A pool of SQLite connections for a single database file.
+ *
+ * Readers receive read-only connections from a bounded pool, so independent views
+ * can query the same file (and different files) in parallel. All modifications go
+ * through a single writer lane per file.
+ *
+ * If the database uses a rollback journal a writer must not run while readers are
+ * active, so the writer drains all the reader permits before it starts. In WAL mode
+ * readers and the writer proceed concurrently.
+ *
+ * Connections are returned to the pool when they are closed. Closing may happen on any
+ * thread.
+ *
+ * Each reader connection keeps its recently prepared statements. Preparing the same SQL
+ * again on the connection reuses the statement, so repeated queries skip parsing and planning.
+ */
+public class SQLiteConnectionPool {
+	static Logger log = Logger.getLogger(SQLiteConnectionPool.class);
+
+	public static final int MAX_READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private static final String BUSY_TIMEOUT = "30000";
+	private static final String JOURNAL_MODE_QUERY = "PRAGMA journal_mode";
+	private static final int MAX_CACHED_STATEMENTS = 32;
+
+	private static final Map<String, SQLiteConnectionPool> _pools = new ConcurrentHashMap<>();
+
+	private final String _url;
+	private final Properties _readProperties;
+	private final Properties _writeProperties;
+	private final int _maxReaders;
+	private final Semaphore _readers;
+	private final Semaphore _writer = new Semaphore(1, true);
+	private final ConcurrentLinkedDeque<Connection> _idle = new ConcurrentLinkedDeque<>();
+	private final Map<Connection, StatementCache> _prepared = Collections.synchronizedMap(new IdentityHashMap<>());
+	private volatile Boolean _wal = null;
+
+	/**
+	 * Returns the pool for the given url, creating it if needed.
+	 * Datasources that point to the same file share the same pool.
+	 * @param url
+	 * @param properties connection properties of the datasource
+	 * @return
+	 */
+	public static SQLiteConnectionPool get(String url, Properties properties) {
+		return _pools.computeIfAbsent(url, u -> new SQLiteConnectionPool(u, properties, MAX_READERS));
+	}
+
+	/**
+	 * Close all the idle connections of every pool.
+	 */
+	public static void closeAll() {
+		for (SQLiteConnectionPool pool : _pools.values()) {
+			pool.closeIdle();
+		}
+	}
+
+	private SQLiteConnectionPool(String url, Properties properties, int maxReaders) {
+		_url = url;
+		_maxReaders = maxReaders;
+		_readers = new Semaphore(maxReaders, true);
+
+		SQLiteConfig config = new SQLiteConfig(properties);
+		config.setBusyTimeout(BUSY_TIMEOUT);
+		_writeProperties = merge(properties, config.toProperties());
+
+		// Readers do not use shared-cache: a shared cache serializes all its
+		// connections on a single b-tree mutex which defeats the purpose of the pool.
+		config.setReadOnly(true);
+		config.setSharedCache(false);
+		_readProperties = merge(properties, config.toProperties());
+	}
+
+	public String getURL() {
+		return _url;
+	}
+
+	public boolean isWAL() {
+		return _wal != null && _wal;
+	}
+
+	/**
+	 * Returns a read-only connection. The connection is returned to the pool when it is closed.
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection getReadConnection() throws SQLException {
+		acquire(_readers, 1);
+		try {
+			Connection conn = _idle.pollFirst();
+			if (conn == null || conn.isClosed()) {
+				conn = open(_readProperties);
+			}
+			if (_wal == null) {
+				_wal = detectWAL(conn);
+			}
+			return wrap(conn, false, 0);
+		} catch (SQLException | RuntimeException e) {
+			_readers.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the connection of the writer lane. Only one writer connection per file can
+	 * be active at a time. Unless the database is in WAL mode, active readers are drained
+	 * first and new readers wait until the writer connection is closed. A thread must
+	 * therefore not hold a read connection while it asks for the writer connection.
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection getWriteConnection() throws SQLException {
+		acquire(_writer, 1);
+		int readers = 0;
+		try {
+			if (!isWAL()) {
+				readers = _maxReaders;
+				acquire(_readers, readers);
+			}
+			Connection conn = open(_writeProperties);
+			if (_wal == null) {
+				_wal = detectWAL(conn);
+			}
+			return wrap(conn, true, readers);
+		} catch (SQLException | RuntimeException e) {
+			_readers.release(readers);
+			_writer.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * An operation on the database file
+	 */
+	@FunctionalInterface
+	public interface FileOperation {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Run an operation while no connection to the file is open, e.g. to replace the file.
+	 * Waits until the active readers and the writer are returned and closes the idle connections
+	 * first, since a file which is open can not be replaced on every platform (Windows).
+	 * New connections wait until the operation is done.
+	 * A thread must not hold a connection of the pool while it calls this.
+	 * @param operation
+	 * @throws SQLException if interrupted while waiting for the connections
+	 * @throws IOException
+	 */
+	public void exclusive(FileOperation operation) throws SQLException, IOException {
+		acquire(_writer, 1);
+		try {
+			acquire(_readers, _maxReaders);
+			try {
+				closeIdle();
+				operation.run();
+			} finally {
+				_readers.release(_maxReaders);
+			}
+		} finally {
+			_writer.release();
+		}
+	}
+
+	/**
+	 * Close the idle connections. Call this when the underlying file is replaced.
+	 */
+	public void closeIdle() {
+		Connection conn;
+		while ((conn = _idle.pollFirst()) != null) {
+			close(conn);
+		}
+		_wal = null;
+	}
+
+	private void acquire(Semaphore semaphore, int permits) throws SQLException {
+		try {
+			semaphore.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("SQLite: interrupted while waiting for a connection to "+_url, e);
+		}
+	}
+
+	private Connection open(Properties properties) throws SQLException {
+		try {
+			return DriverManager.getConnection(_url, properties);
+		} catch (Exception e) {
+			throw new SQLException("SQLite getConnection failed", e);
+		}
+	}
+
+	private boolean detectWAL(Connection conn) {
+		try (Statement stmt = conn.createStatement()) {
+			ResultSet rs = stmt.executeQuery(JOURNAL_MODE_QUERY);
+			return rs.next() && "wal".equalsIgnoreCase(rs.getString(1));
+		} catch (SQLException e) {
+			log.warn("SQLite: can not detect journal mode of "+_url+": "+e.getMessage());
+			return false;
+		}
+	}
+
+	private void release(Connection conn, boolean writer, int readers) {
+		if (writer) {
+			close(conn);
+			_readers.release(readers);
+			_writer.release();
+			return;
+		}
+
+		try {
+			if (!conn.isClosed() && !conn.getAutoCommit()) {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			log.warn("SQLite: discarding a reader connection: "+e.getMessage());
+			close(conn);
+			conn = null;
+		}
+
+		if (conn != null && _idle.size() < _maxReaders) {
+			_idle.offerFirst(conn);
+		} else if (conn != null) {
+			close(conn);
+		}
+		_readers.release();
+	}
+
+	private void close(Connection conn) {
+		StatementCache cache = _prepared.remove(conn);
+		if (cache != null) {
+			cache.clear();
+		}
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			log.warn("Error while closing sqlite connection: ", e);
+		}
+	}
+
+	private StatementCache statements(Connection conn) {
+		return _prepared.computeIfAbsent(conn, c -> new StatementCache(c, MAX_CACHED_STATEMENTS));
+	}
+
+	private Connection wrap(Connection conn, boolean writer, int readers) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class},
+				new PooledConnectionHandler(conn, writer, readers));
+	}
+
+	private static Properties merge(Properties base, Properties overrides) {
+		Properties p = new Properties();
+		p.putAll(base);
+		p.putAll(overrides);
+		return p;
+	}
+
+	/*
+	 * Hands out a pooled connection. close() returns the connection to the pool
+	 * instead of closing the underlying sqlite connection.
+	 * Statements that are still open when the connection is returned are closed, since
+	 * an open sqlite statement keeps holding its lock on the file.
+	 */
+	private class PooledConnectionHandler implements InvocationHandler {
+		private final Connection _conn;
+		private final boolean _writer;
+		private final int _drained;
+		private final AtomicBoolean _released = new AtomicBoolean(false);
+		private final List<Statement> _statements = new ArrayList<>();
+
+		public PooledConnectionHandler(Connection conn, boolean writer, int drained) {
+			_conn = conn;
+			_writer = writer;
+			_drained = drained;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (_released.compareAndSet(false, true)) {
+					closeStatements();
+					release(_conn, _writer, _drained);
+				}
+				return null;
+			case "isClosed":
+				return _released.get() || _conn.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled["+_conn+"]";
+			default:
+				if (_released.get()) {
+					throw new SQLException("SQLite: connection was already returned to the pool");
+				}
+				if (!_writer && method.getName().equals("prepareStatement") && args.length == 1) {
+					return statements(_conn).prepare((String) args[0]);
+				}
+				Object result;
+				try {
+					result = method.invoke(_conn, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Statement) {
+					synchronized (_statements) {
+						_statements.add((Statement) result);
+					}
+				}
+				return result;
+			}
+		}
+
+		private void closeStatements() {
+			StatementCache cache = _prepared.get(_conn);
+			if (cache != null) {
+				cache.giveBackAll();
+			}
+			synchronized (_statements) {
+				for (Statement stmt : _statements) {
+					try {
+						stmt.close();
+					} catch (SQLException e) {
+						log.debug("SQLite: error while closing a statement: "+e.getMessage());
+					}
+				}
+				_statements.clear();
+			}
+		}
+	}
+}
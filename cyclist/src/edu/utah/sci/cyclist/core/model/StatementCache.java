@@ -0,0 +1,159 @@
+package edu.utah.sci.cyclist.core.model;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The prepared statements of a pooled connection, by SQL, in LRU order.
+ *
+ * {@link #prepare(String)} lends a cached statement (or prepares a new one); closing the lent
+ * statement returns it to the cache instead of closing it. A statement which is in use is not
+ * in the cache. The connection pools call {@link #giveBackAll()} when the connection is returned
+ * to the pool and {@link #clear()} when it is closed.
+ */
+class StatementCache {
+	static Logger log = Logger.getLogger(StatementCache.class);
+
+	private final Connection _conn;
+	private final int _max;
+	private final LinkedHashMap<String, PreparedStatement> _cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<PreparedStatement, Borrowed> _borrowed = new IdentityHashMap<>();
+
+	/*
+	 * A cached statement which is in use
+	 */
+	private static class Borrowed {
+		final String sql;
+		volatile ResultSet rs = null;
+
+		Borrowed(String sql) {
+			this.sql = sql;
+		}
+	}
+
+	/**
+	 * @param conn the underlying (not pooled) connection
+	 * @param max the maximum number of cached statements
+	 */
+	StatementCache(Connection conn, int max) {
+		_conn = conn;
+		_max = max;
+	}
+
+	/**
+	 * Borrow a cached statement of the connection. Closing the statement returns it to the cache.
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = take(sql);
+		if (stmt == null) {
+			stmt = _conn.prepareStatement(sql);
+		}
+		Borrowed borrowed = new Borrowed(sql);
+		synchronized (_borrowed) {
+			_borrowed.put(stmt, borrowed);
+		}
+		final PreparedStatement target = stmt;
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] {PreparedStatement.class},
+				(p, m, a) -> {
+					switch (m.getName()) {
+					case "close":
+						giveBack(target);
+						return null;
+					case "equals":
+						return p == a[0];
+					case "hashCode":
+						return System.identityHashCode(p);
+					default:
+						Object result;
+						try {
+							result = m.invoke(target, a);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+						if (result instanceof ResultSet) {
+							borrowed.rs = (ResultSet) result;
+						}
+						return result;
+					}
+				});
+	}
+
+	/**
+	 * Return the statements which are still in use to the cache
+	 */
+	void giveBackAll() {
+		List<PreparedStatement> borrowed;
+		synchronized (_borrowed) {
+			borrowed = new ArrayList<>(_borrowed.keySet());
+		}
+		for (PreparedStatement stmt : borrowed) {
+			giveBack(stmt);
+		}
+	}
+
+	/**
+	 * Close all the cached statements
+	 */
+	synchronized void clear() {
+		for (PreparedStatement stmt : _cache.values()) {
+			close(stmt);
+		}
+		_cache.clear();
+	}
+
+	private void giveBack(PreparedStatement stmt) {
+		Borrowed borrowed;
+		synchronized (_borrowed) {
+			borrowed = _borrowed.remove(stmt);
+		}
+		if (borrowed == null) return;
+		try {
+			// reset the statement so it does not hold a lock or a pending result
+			if (borrowed.rs != null) borrowed.rs.close();
+			stmt.clearParameters();
+			stmt.setMaxRows(0);
+			put(borrowed.sql, stmt);
+		} catch (SQLException e) {
+			log.debug("Discarding a cached statement: "+e.getMessage());
+			close(stmt);
+		}
+	}
+
+	private synchronized PreparedStatement take(String sql) {
+		return _cache.remove(sql);
+	}
+
+	private synchronized void put(String sql, PreparedStatement stmt) {
+		PreparedStatement prev = _cache.put(sql, stmt);
+		if (prev != null) close(prev);
+		if (_cache.size() > _max) {
+			Iterator<PreparedStatement> i = _cache.values().iterator();
+			close(i.next());
+			i.remove();
+		}
+	}
+
+	private static void close(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			log.debug("Error while closing a statement: "+e.getMessage());
+		}
+	}
+}
@@ -24,9 +24,6 @@
 package edu.utah.sci.cyclist.core.model;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.PrintWriter;
-import java.io.Reader;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
@@ -50,11 +47,15 @@ import org.apache.log4j.Logger;
 
 import edu.utah.sci.cyclist.core.controller.IMemento;
 import edu.utah.sci.cyclist.core.controller.WorkDirectoryController;
-import edu.utah.sci.cyclist.core.controller.XMLMemento;
-import edu.utah.sci.cyclist.core.util.DataFactory;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+import edu.utah.sci.cyclist.core.util.FieldValuesCache;
 import edu.utah.sci.cyclist.core.util.QueryBuilder;
 import edu.utah.sci.cyclist.core.util.SQL;
 import edu.utah.sci.cyclist.core.util.SQLUtil;
+import edu.utah.sci.cyclist.core.util.TableReplica;
+import edu.utah.sci.cyclist.core.util.TableStatistics;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 
 public class Table implements Resource {
 
@@ -90,10 +91,6 @@ public class Table implements Resource {
 	private int _dataSubset;
 	private String _saveDir = "";
 	private Boolean _isStandardSimulation = false;
-	//Holds the list of values of a field in the current table in a specified data source.
-	//First key - the data source.
-	//Then inside the specified data source it maps between a field and a list of values. 
-	private Map<String,Map<String,List<Object>>> _cachedFieldsValues = new HashMap<>();
 	
 	public Table() {
 		this("");
@@ -111,6 +108,7 @@ public class Table implements Resource {
 		_name = tbl.getName();
 		_alias = tbl.getAlias();
 		_sourceLocation = tbl.getSourceLocation();
+		_dataSubset = tbl.getDataSubset();
 		_datasource = tbl.getDataSource();
 		_localDataFile = tbl.getLocalDatafile();
 		_saveDir = tbl.getSaveDir();
@@ -216,7 +214,43 @@ public class Table implements Resource {
 
 	// Extract the table schema from the database
 	public void extractSchema(){
-		
+		for (Field field : readSchema()) {
+			_schema.addField(field);
+		}
+		_schema.update();
+	}
+	
+	/**
+	 * Extract the schema of a table which has no fields (e.g. a restored table whose schema was
+	 * not saved) in the background. The fields are added on the FX thread once they are read.
+	 * @return the task or null if the table already has a schema or no datasource
+	 */
+	public Task<List<Field>> hydrateSchema() {
+		if (_datasource == null || _schema.size() > 0) {
+			return null;
+		}
+		QueryTask<List<Field>> task = new QueryTask<List<Field>>() {
+			@Override
+			protected List<Field> query() throws Exception {
+				return readSchema();
+			}
+		};
+		task.setOnSucceeded(e -> {
+			if (_schema.size() == 0) {
+				for (Field field : task.getValue()) {
+					_schema.addField(field);
+				}
+				_schema.update();
+			}
+		});
+		return TaskScheduler.getInstance().submit("schema:"+_datasource.getUID()+"/"+getName(), Priority.PREFETCH, () -> task);
+	}
+	
+	/*
+	 * Read the fields of the table from the database metadata
+	 */
+	private List<Field> readSchema() {
+		List<Field> fields = new ArrayList<>();
 		try (Connection conn = _datasource.getConnection()) {
 			//printTypeInfo(conn);
 			DatabaseMetaData md = conn.getMetaData();
@@ -230,15 +264,12 @@ public class Table implements Resource {
 				field.set(FieldProperties.REMOTE_DATA_TYPE, rs.getInt("DATA_TYPE"));
 				field.set(FieldProperties.REMOTE_DATA_TYPE_NAME, rs.getString("TYPE_NAME"));
 				
-				_schema.addField(field);
+				fields.add(field);
 			}
 		} catch (Exception e) {
 			log.error("Error while parsing schema: "+e);
-		}finally{
-			_datasource.releaseConnection();
 		}
-		
-		_schema.update();
+		return fields;
 	}
 	
 	/*
@@ -452,19 +483,26 @@ public class Table implements Resource {
 	public Task<ObservableList<Object>> getFieldValues(CyclistDatasource ds1, final Field field, boolean force) {
 		final CyclistDatasource ds = getAvailableDataSource(ds1,force);
 			
-		Task<ObservableList<Object>> task = new Task<ObservableList<Object>>() {
+		QueryTask<ObservableList<Object>> task = new QueryTask<ObservableList<Object>>() {
 			@Override
-			protected ObservableList<Object> call() throws Exception {
+			protected ObservableList<Object> query() throws Exception {
 				List<Object> values = new ArrayList<>();
 				if (ds != null) {
-					values = readFieldValuesFromCache(field.getName(), ds);
-					//If couldn't find in the cache - try from the file.
-					if(values.size() == 0){
-						values = readFieldValuesFromFile(field.getName(),ds);
+					List<Object> cached = FieldValuesCache.get(getCacheDir(), ds, getName(), field.getName());
+					if (cached == null && ds.isSQLite()) {
+						// the statistics scan collects the values of all the low cardinality fields at once.
+						// The statistics of a server table aggregate every column, so a server is only
+						// asked for the values of this field.
+						updateMessage("scanning");
+						TableStatistics stats = TableStatistics.getOrCompute(getCacheDir(), ds, getName(), this::isCancelled);
+						if (stats != null) {
+							cached = FieldValuesCache.get(getCacheDir(), ds, getName(), field.getName());
+						}
 					}
-					if(values.size() == 0)
-					{
-						try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()){
+					if (cached != null) {
+						values = cached;
+					} else if (!isCancelled()) {
+						try (Connection conn = ds.getConnection(); Statement stmt = track(conn.createStatement())){
 							updateMessage("querying");
 						
 							// TODO: Fix this query building hack 
@@ -485,14 +523,13 @@ public class Table implements Resource {
 								values.add(convert[0].apply(rs.getObject(1)));
 							}
 
-							writeFieldValuesToCache(field.getName(), ds, values);
-							writeFieldValuesToFile(field.getName(), field.getType().toString(), field.getRole().toString(), ds, values);
+							if (!isCancelled()) {
+								FieldValuesCache.put(getCacheDir(), ds, getName(), field.getName(), values);
+							}
 						} catch (SQLException e) {
 							log.error("task sql exception: ",e);
 							updateMessage(e.getLocalizedMessage());
 							throw new Exception(e.getMessage(), e);
-						} finally {
-							ds.releaseConnection();
 						}
 					}
 				}
@@ -500,11 +537,9 @@ public class Table implements Resource {
 			}
 		};
 		
-		Thread th = new Thread(task);
-		th.setDaemon(true);
-		th.start();
-		
-		return task;
+		// identical requests (e.g. from several filters on the same field) share a single task
+		String key = "values:"+(ds != null ? ds.getUID() : "")+"/"+getName()+"/"+field.getName();
+		return TaskScheduler.getInstance().submit(key, Priority.FILTER, () -> task);
 	}
 	
 	
@@ -521,258 +556,22 @@ public class Table implements Resource {
 	}
 	public void setLocalDatafile(String workDir) {
 		_saveDir = workDir;
-		_localDataFile = workDir + "/" + getDataSource()+"/" + getName() + ".sqlite";
+		_localDataFile = getDataSource() != null ? TableReplica.getFile(workDir, getDataSource(), getName()).getPath()
+				: workDir + "/" + getDataSource()+"/" + getName() + ".sqlite";
 	}
 	
 	public String getSaveDir(){
 		return _saveDir;
 	}
 	
-	/* Saves the values of a chosen filter into a file 
-	 * Creates an xml file with the table name, and writes the filter's field name, its type, role and its values
-	 * If the field already exist in the file - do nothing. 
-	 * @param fieldName - String.
-	 * @param fieldType - DataType.Type enum.
-	 * @param role - DataType.Role enum
-	 * @param ds - data source.
-	 * @param List<Object> values - list of values to save.
-	 * */
-	private void writeFieldValuesToFile(String fieldName, String fieldType, String role ,CyclistDatasource ds, List<Object> values){
-		if(_saveDir == ""){
-			_saveDir = WorkDirectoryController.DEFAULT_WORKSPACE;
-		}
-		File defaultDir = new File(_saveDir);
-		if(!defaultDir.exists()){
-			defaultDir.mkdir();
-		}
-		
-		// If the save directory does not exist, create it
-		File saveDir = new File(_saveDir+ "/" + ds.getUID() +"/");
-		if (!saveDir.exists()){
-			saveDir.mkdir();
-		}
-			
-		// The save file
-		File saveFile = new File(saveDir+"/"+ getName() + ".xml");
-		
-		XMLMemento root;
-		IMemento fieldsNode = null;
-		Boolean writeNewNode= true;
-		
-		 try {
-			 //If file already exists - read the existing nodes, and add the new Field in its place.
-			 if(saveFile.exists()){
-				 Reader reader = new FileReader(saveFile);
-				 
-				 //Checks if the root node exists.
-				 try{
-					 root = XMLMemento.createReadRoot(reader);
-					 fieldsNode = root.getChild("Fields");
-				 }catch(Exception e){
-					 root = XMLMemento.createWriteRoot("root");
-				 }
-				 
-				 // Checks if the "Fields" node exists. 
-				 // If yes - try to find the Field node with the given name. 
-				 // If not - creates a new "Fields" node and mark that a new field node has to be written.
-				 if(fieldsNode != null)
-				 {
-					 //Check if the field node already exists. If yes - no need to write it again to the table xml file.
-					 if (getField(fieldsNode, fieldName) != null)
-					 {
-						 writeNewNode = false;
-					 }
-				 } else{
-					 fieldsNode = root.createChild("Fields");
-				 }
-			 } else{
-		
-				 // If new file - Create the root memento
-				 root = XMLMemento.createWriteRoot("root");
-				// Create Fields node
-				 fieldsNode = root.createChild("Fields");
-			 }
-	    
-			 //If no such field node yet - write the field and its values into the file.
-			 if(writeNewNode){
-				 writeFieldNodeToFile(fieldName, fieldType, role, fieldsNode, values);
-			 }
-			 root.save(new PrintWriter(saveFile));
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} 
-	}
-	
-	/*Checks if a given field already exists in the table xml file.
-	 * If field exists - return the field else- return null */
-	private IMemento getField(IMemento fields, String fieldName){
-		IMemento fieldResult = null;
-		try
-		{
-			 IMemento[] fieldNodes = fields.getChildren("Field");
-			 for (IMemento field:fieldNodes){
-				 String name = field.getString("name");
-				 if (name.equals(fieldName)){
-					 fieldResult = field;
-					 break;
-				 }
-			 }
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		return fieldResult;
-	}
-	
-	/* Creates a new Field node in the table xml file*/
-	private void writeFieldNodeToFile(String fieldName, String fieldType, String fieldRole, IMemento fieldsNode, List<Object> values){
-		
-		//Create the Field node
-		 IMemento FieldNode = fieldsNode.createChild("Field");
-		
-		 // Set the field name
-		 FieldNode.putString("name", fieldName);
-		 FieldNode.putString("type", fieldType);
-		 FieldNode.putString("role", fieldRole);
-		 if (values.size() > 0) {
-			 FieldNode.putString("class", values.get(0).getClass().getCanonicalName());
-		 }
-		 StringBuilder sb = new StringBuilder(); 
-		 for(Object value:values){
-			 if (value == null) {
-				 log.warn("*** Warning: field '"+fieldName+"' has a null value");
-			 } else  {
-				 sb.append(value.toString()+";");
-			 }
-		 }
-		 FieldNode.putTextData(sb.toString());
-	}
-	
-	/* Saves a distinct values list to the cache.
-	 * For a given field in the current table in the specified data source - 
-	 * write the list values to the cache, where the keys are the field and the data source.
-	 * 
-	 * @param String fieldName - the field to use as a key in the map.
-	 * @param  CyclistDatasource ds - the data source to to use as a key in the map.
-	 * @param List<Object> - the list of values to write in the cache for the specified keys.  */
-	private void writeFieldValuesToCache(String fieldName, CyclistDatasource ds, List<Object> values){
-		
-		Map<String,List<Object>> fieldValues = _cachedFieldsValues.get(ds.getUID());
-		
-		if(fieldValues == null){
-			fieldValues = new HashMap<String,List<Object>>();
-			fieldValues.put(fieldName, values);
-			_cachedFieldsValues.put(ds.getUID(), fieldValues);
-			
-		} else{
-			fieldValues.put(fieldName, values);
-		}
-	}
-	
-	/* Reads distinct values from the cache.
-	 * For a given field in the current table in the specified data source - 
-	 * if the data source key and the field key exist in the cache - read its values from the cache.
-	 * 
-	 * @param String fieldName - the field to look for in the map.
-	 * @param  CyclistDatasource ds - the data source to look for in the map   
-	 * @return List<Object> - the list of values found for the given data source and field.
-	 *                        (returns an empty list if not found)  */
-	
-	private List<Object> readFieldValuesFromCache(String fieldName, CyclistDatasource ds){
-		List<Object> values = new ArrayList<>();
-		Map<String,List<Object>> fieldValues = _cachedFieldsValues.get(ds.getUID());
-		if(fieldValues != null){
-			if(fieldValues.get(fieldName) != null){
-				values = fieldValues.get(fieldName);
-			}
-		}
-		return values;
-	}
-	
-	/* Reads distinct values from a file 
-	 * For a given field in a given table- 
-	 * if the table xml file exists and it contains the field values - read the values from the file 
-	 * Before reading - check the field type, and convert the values to the right type. 
-	 * @param fieldName - field name to search
-	 * @param ds - defines the file to look for the field properties 
-	 * */
-
-	private List<Object> readFieldValuesFromFile(String fieldName, CyclistDatasource ds){
-		
-		List<Object> values = new ArrayList<>();
+	/*
+	 * The directory of the field values cache
+	 */
+	private String getCacheDir() {
 		if(_saveDir == ""){
 			_saveDir = WorkDirectoryController.DEFAULT_WORKSPACE;
 		}
-		
-		// If the save file does not exist - return an empty list.
-		File saveFile = new File(_saveDir+ "/" + ds.getUID() +"/"+ getName() + ".xml");
-		if (!saveFile.exists()){
-			return values;
-		} else{
-			try{
-				 Reader reader = new FileReader(saveFile);
-				 XMLMemento root = XMLMemento.createReadRoot(reader);
-				 IMemento fieldsNode = root.getChild("Fields");
-				 IMemento field = getField(fieldsNode, fieldName);
-				 if(field != null){
-					 String className = field.getString("class");
-					 Function<String, Object> factory = DataFactory.findFactory(className);
-					 
-					 String[] tmpValues = field.getTextData().split(";");
-					 
-					 for (String value : tmpValues) {
-						 values.add(factory.apply(value));
-					 }
-//					 String type = field.getString("type") == null?"TEXT":field.getString("type");
-//					 try{
-//						 switch(DataType.Type.valueOf(type)){
-//							 case TEXT:
-//								 for(String value: tmpValues){
-//									 values.add(value);
-//								 }
-//								 break;
-//							 case NUMERIC:
-//								 String role = field.getString("role")==null? "MEASURE":field.getString("role");
-//								 if(DataType.Role.valueOf(role) == Role.MEASURE){
-//									 for(String value: tmpValues){
-//										 values.add(Double.parseDouble(value));
-//									 }
-//								 }else{
-//									 for(String value: tmpValues){
-//										 values.add(Integer.parseInt(value));
-//									 }
-//								 }
-//								 break;
-//							 case INT_TIME:
-//								 for(String value: tmpValues){
-//									 values.add(Integer.parseInt(value));
-//								 }
-//								 break;
-//							default: 
-//									 for(String value: tmpValues){
-//										 values.add(value);
-//									 }
-//						 }
-//					 }catch(NumberFormatException ex){
-//						 for(String value: tmpValues){
-//							 values.add(value);
-//						 }
-//					 }
-					 
-					 
-				 }
-				 //If reading from file - it means the values weren't found in the cache.
-				 //Save them in the cache for the next time.
-				 if(values.size() >0){
-					 writeFieldValuesToCache(fieldName, ds, values);
-				 }
-				 return values;
-			 }catch(Exception e){
-				return values;
-			 }
-		}
+		return _saveDir;
 	}
 	
 	/*
@@ -786,7 +585,25 @@ public class Table implements Resource {
 	private CyclistDatasource getAvailableDataSource(CyclistDatasource externalDs, boolean force){
 		CyclistDatasource lds = getDataSource();
 		CyclistDatasource ds = force ? ( externalDs != null ? externalDs : lds ) : (lds != null ? lds : externalDs);
-		return ds;
+		return getQueryDataSource(ds);
+	}
+	
+	/**
+	 * The data source the queries of this table run on. For a table which is kept locally
+	 * (LOCAL_ALL or LOCAL_SUBSET) this is its local replica once it is built; the replica is
+	 * built, and refreshed when it gets stale, in the background.
+	 * @param ds the data source of the table
+	 * @return the local replica of the table, or ds
+	 */
+	public CyclistDatasource getQueryDataSource(CyclistDatasource ds) {
+		return TableReplica.resolve(this, ds, getCacheDir());
+	}
+	
+	/**
+	 * Rebuild the local replica of this table, if it has one, in the background
+	 */
+	public void refreshReplica() {
+		TableReplica.refresh(this, getDataSource(), getCacheDir());
 	}
 	
 	
@@ -807,70 +624,89 @@ public class Table implements Resource {
 	public Task<ObservableValue<Range>> getFieldRange(CyclistDatasource externalDs, final Field field, boolean force) {
 		final CyclistDatasource ds = getAvailableDataSource(externalDs, force);
 		
-		Task<ObservableValue<Range>> task = new Task<ObservableValue<Range>>() {
+		QueryTask<ObservableValue<Range>> task = new QueryTask<ObservableValue<Range>>() {
 			
 			@Override
-			protected ObservableValue<Range> call() throws Exception {
+			protected ObservableValue<Range> query() throws Exception {
 				double min=0, max=0;
 
 				if (ds != null) {
-					try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()){
-						updateMessage("querying");
-						SQL.Functions function = SQL.Functions.VALUE;
-						if(field.getString(FieldProperties.AGGREGATION_FUNC) != null){
-							function = SQL.Functions.getEnum(field.getString(FieldProperties.AGGREGATION_FUNC));
+					TableStatistics.Column column = null;
+					try {
+						// the statistics of a server table are only used if they were already computed
+						// (e.g. by its replica); otherwise only this field is queried
+						TableStatistics stats;
+						if (ds.isSQLite()) {
+							updateMessage("scanning");
+							stats = TableStatistics.getOrCompute(getCacheDir(), ds, getName(), this::isCancelled);
+						} else {
+							stats = TableStatistics.get(getCacheDir(), ds, getName());
 						}
-						String query = "";
-						Boolean checkForSum = false;
-						
-//						switch(function){
-//						case AVG:
-//						case MIN:
-//						case MAX:
-//						case VALUE:
-//							query = "SELECT MIN("+field.getName()+") AS min, MAX(" + field.getName() + ") AS max FROM "+ getName();
-//							break;
-//						case COUNT:
-//							query = "SELECT 0 AS min, COUNT(" + field.getName() + ") AS max FROM "+ getName();
-//							break;
-//						case COUNT_DISTINCT:
-//							query = "SELECT 0 AS min, COUNT( DISTINCT " + field.getName() + ") AS max FROM "+ getName();
-//						case SUM:
-//							query = "SELECT SUM( CASE WHEN " + field.getName()+ " <0 THEN " + field.getName() + " ELSE 0 END) AS neg_sum, " +  
-//									"SUM( CASE WHEN " + field.getName()+ " >0 THEN " + field.getName() + " ELSE 0 END) AS pos_sum, " + 
-//									"MIN(" + field.getName() +") as min, MAX(" + field.getName() +") as max "+
-//									"FROM " + getName();
-//							checkForSum = true;
-//							break;
-//						}
-						
-						query = "SELECT MIN("+field.getName()+") AS min, MAX(" + field.getName() + ") AS max FROM "+ getName();
-						
-						log.debug("query: "+query);
-						ResultSet rs = stmt.executeQuery(query);
-						
-						while (rs.next()) {
-							if (isCancelled()) {
-								log.info("task canceled");
-								updateMessage("Canceled");
-								break;
+						column = stats != null ? stats.getColumn(field.getName()) : null;
+					} catch (SQLException e) {
+						log.warn("Can not compute the statistics of "+getName()+": "+e.getMessage());
+					}
+					
+					if (column != null && column.isNumeric()) {
+						min = column.getMin();
+						max = column.getMax();
+					} else if (!isCancelled()) {
+						try (Connection conn = ds.getConnection(); Statement stmt = track(conn.createStatement())){
+							updateMessage("querying");
+							SQL.Functions function = SQL.Functions.VALUE;
+							if(field.getString(FieldProperties.AGGREGATION_FUNC) != null){
+								function = SQL.Functions.getEnum(field.getString(FieldProperties.AGGREGATION_FUNC));
 							}
-						
-							min = rs.getDouble("min");
-							max = rs.getDouble("max");
-							if(checkForSum)
-							{
-								double posSum = rs.getDouble("pos_sum");
-								max= (posSum==0)?max:posSum;
-								
-								double negSum = rs.getDouble("neg_sum");
-								min= (negSum==0)?min:negSum;
+							String query = "";
+							Boolean checkForSum = false;
+							
+//							switch(function){
+//							case AVG:
+//							case MIN:
+//							case MAX:
+//							case VALUE:
+//								query = "SELECT MIN("+field.getName()+") AS min, MAX(" + field.getName() + ") AS max FROM "+ getName();
+//								break;
+//							case COUNT:
+//								query = "SELECT 0 AS min, COUNT(" + field.getName() + ") AS max FROM "+ getName();
+//								break;
+//							case COUNT_DISTINCT:
+//								query = "SELECT 0 AS min, COUNT( DISTINCT " + field.getName() + ") AS max FROM "+ getName();
+//							case SUM:
+//								query = "SELECT SUM( CASE WHEN " + field.getName()+ " <0 THEN " + field.getName() + " ELSE 0 END) AS neg_sum, " +  
+//										"SUM( CASE WHEN " + field.getName()+ " >0 THEN " + field.getName() + " ELSE 0 END) AS pos_sum, " + 
+//										"MIN(" + field.getName() +") as min, MAX(" + field.getName() +") as max "+
+//										"FROM " + getName();
+//								checkForSum = true;
+//								break;
+//							}
+							
+							query = "SELECT MIN("+field.getName()+") AS min, MAX(" + field.getName() + ") AS max FROM "+ getName();
+							
+							log.debug("query: "+query);
+							ResultSet rs = stmt.executeQuery(query);
+							
+							while (rs.next()) {
+								if (isCancelled()) {
+									log.info("task canceled");
+									updateMessage("Canceled");
+									break;
+								}
+							
+								min = rs.getDouble("min");
+								max = rs.getDouble("max");
+								if(checkForSum)
+								{
+									double posSum = rs.getDouble("pos_sum");
+									max= (posSum==0)?max:posSum;
+									
+									double negSum = rs.getDouble("neg_sum");
+									min= (negSum==0)?min:negSum;
+								}
 							}
+						}catch(Exception e){
+							e.printStackTrace();
 						}
-					}catch(Exception e){
-						e.printStackTrace();
-					}finally {
-						ds.releaseConnection();
 					}
 				}
 				final Range range = new Range(min, max);
@@ -885,11 +721,8 @@ public class Table implements Resource {
 			
 		};
 		
-		Thread th = new Thread(task);
-		th.setDaemon(true);
-		th.start();
-		
-		return task;
+		String key = "range:"+(ds != null ? ds.getUID() : "")+"/"+getName()+"/"+field.getName();
+		return TaskScheduler.getInstance().submit(key, Priority.FILTER, () -> task);
 		
 	}
 	
@@ -0,0 +1,867 @@
+package edu.utah.sci.cyclist.core.model;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.util.LongIntMap;
+import edu.utah.sci.cyclist.neup.model.Nuclide;
+
+/**
+ * The rows of a query result, stored by columns.
+ *
+ * Numeric columns are kept in primitive arrays and string columns are dictionary
+ * encoded, so a large result does not allocate an object per cell. The columns are
+ * filled directly from the typed ResultSet getters, based on the ResultSetMetaData.
+ * getValue() boxes a single cell and should only be used where an Object is really
+ * needed, e.g. a visible table cell.
+ */
+public class TableData {
+	static Logger log = Logger.getLogger(TableData.class);
+
+	public enum Type { INT, LONG, DOUBLE, STRING, OBJECT }
+
+	private static final int INITIAL_CAPACITY = 256;
+	// the longs below this magnitude are exact as doubles
+	private static final double EXACT_LONG = 0x1p53;
+
+	private String[] _names;
+	private Column[] _columns;
+	private int _size = 0;
+
+	private TableData(String[] names, Column[] columns) {
+		_names = names;
+		_columns = columns;
+	}
+
+	public static TableData empty() {
+		return new TableData(new String[0], new Column[0]);
+	}
+
+	public static TableData read(ResultSet rs) throws SQLException {
+		return read(rs, -1);
+	}
+
+	/**
+	 * Read the rows of a result set
+	 * @param rs
+	 * @param limit max number of rows to read or -1 to read all the rows
+	 * @return
+	 * @throws SQLException
+	 */
+	public static TableData read(ResultSet rs, int limit) throws SQLException {
+		TableData data = new Reader(rs).next(limit);
+		for (Column column : data._columns) {
+			column.trim(data._size);
+		}
+		return data;
+	}
+
+	/**
+	 * Decodes a result set in pages. Each call to next() returns the following rows
+	 * as a new TableData, which can be handed to another thread while the reader continues.
+	 */
+	public static class Reader {
+		private ResultSet _rs;
+		private String[] _names;
+		private int[] _types;
+		private boolean _done = false;
+
+		public Reader(ResultSet rs) throws SQLException {
+			_rs = rs;
+			ResultSetMetaData rmd = rs.getMetaData();
+			int cols = rmd.getColumnCount();
+			_names = new String[cols];
+			_types = new int[cols];
+			for (int c = 0; c < cols; c++) {
+				_names[c] = rmd.getColumnName(c+1);
+				try {
+					_types[c] = rmd.getColumnType(c+1);
+				} catch (SQLException e) {
+					log.warn("Error parsing sql meta data: "+e.getMessage());
+					_types[c] = Types.OTHER;
+				}
+			}
+		}
+
+		/**
+		 * @return true if all the rows were read
+		 */
+		public boolean isDone() {
+			return _done;
+		}
+
+		/**
+		 * Read the next rows
+		 * @param n max number of rows to read or -1 to read all the remaining rows
+		 * @return the rows. Fewer than n rows are returned only at the end of the result set.
+		 * @throws SQLException
+		 */
+		public TableData next(int n) throws SQLException {
+			int cols = _names.length;
+			Column[] columns = new Column[cols];
+			for (int c = 0; c < cols; c++) {
+				columns[c] = createColumn(_names[c], _types[c]);
+			}
+
+			TableData data = new TableData(_names, columns);
+			while (n < 0 || data._size < n) {
+				if (_done || !_rs.next()) {
+					_done = true;
+					break;
+				}
+				int row = data._size;
+				for (int c = 0; c < cols; c++) {
+					columns[c] = columns[c].read(_rs, c+1, row);
+				}
+				data._size++;
+			}
+			return data;
+		}
+	}
+
+	private static Column createColumn(String name, int type) {
+		boolean nucid = name.equalsIgnoreCase("nucid");
+
+		switch (type) {
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return nucid ? new NuclideColumn() : new IntColumn();
+		case Types.BIGINT:
+			return new LongColumn();
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return new DoubleColumn();
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			if (nucid) {
+				Nuclide.Decoder decoder = new Nuclide.Decoder();
+				return new ObjectColumn((rs, i) -> decoder.apply(rs.getString(i)));
+			}
+			return new StringColumn();
+		case Types.BLOB:
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+			return new ObjectColumn((rs, i) -> {
+				byte[] bytes = rs.getBytes(i);
+				return bytes == null ? null : new Blob(bytes);
+			});
+		default:
+			if (nucid) {
+				Nuclide.Decoder decoder = new Nuclide.Decoder();
+				return new ObjectColumn((rs, i) -> decoder.apply(rs.getObject(i)));
+			}
+			return new ObjectColumn((rs, i) -> rs.getObject(i));
+		}
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public int getColumnCount() {
+		return _columns.length;
+	}
+
+	public String getName(int col) {
+		return _names[col];
+	}
+
+	public int indexOf(String name) {
+		for (int c = 0; c < _names.length; c++) {
+			if (_names[c].equalsIgnoreCase(name)) return c;
+		}
+		return -1;
+	}
+
+	/**
+	 * The type in which the values of the column are exposed. INT, LONG and DOUBLE
+	 * columns should be accessed with the primitive getters.
+	 * @param col
+	 * @return
+	 */
+	public Type getType(int col) {
+		return _columns[col].type();
+	}
+
+	public boolean isNumeric(int col) {
+		Type type = _columns[col].type();
+		return type == Type.INT || type == Type.LONG || type == Type.DOUBLE;
+	}
+
+	public boolean isNull(int row, int col) {
+		return _columns[col].isNull(row);
+	}
+
+	public int getInt(int row, int col) {
+		return (int) _columns[col].getLong(row);
+	}
+
+	public long getLong(int row, int col) {
+		return _columns[col].getLong(row);
+	}
+
+	public double getDouble(int row, int col) {
+		return _columns[col].getDouble(row);
+	}
+
+	public String getString(int row, int col) {
+		Column column = _columns[col];
+		return column.isNull(row) ? null : column.getString(row);
+	}
+
+	/**
+	 * Returns the value of a cell as an object. Numeric values are boxed.
+	 * @param row
+	 * @param col
+	 * @return the value or null
+	 */
+	public Object getValue(int row, int col) {
+		Column column = _columns[col];
+		return column.isNull(row) ? null : column.get(row);
+	}
+
+	/**
+	 * Append the text of a cell without creating intermediate objects for numeric values.
+	 * Nothing is appended for a null value.
+	 * @param sb
+	 * @param row
+	 * @param col
+	 */
+	public void append(StringBuilder sb, int row, int col) {
+		Column column = _columns[col];
+		if (!column.isNull(row)) {
+			column.append(sb, row);
+		}
+	}
+
+	/**
+	 * @return the approximate memory used by the rows in bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (Column column : _columns) {
+			bytes += column.memory();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Append the rows of another page of the same query
+	 * @param page
+	 */
+	public void append(TableData page) {
+		if (page._columns.length != _columns.length) {
+			throw new IllegalArgumentException("TableData: can not append a page with "
+					+page._columns.length+" columns to "+_columns.length+" columns");
+		}
+		for (int c = 0; c < _columns.length; c++) {
+			_columns[c] = _columns[c].append(page._columns[c], _size, page._size);
+		}
+		_size += page._size;
+	}
+
+	/**
+	 * Returns the row indices [0, size) as a list. The list can be reordered (e.g. sorted
+	 * by a TableView) and rows can be added to it.
+	 * @return
+	 */
+	public List<Integer> rows() {
+		return rows(0, _size);
+	}
+
+	/**
+	 * Returns the row indices [from, to) as a list
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static List<Integer> rows(int from, int to) {
+		return new RowList(from, to);
+	}
+
+	/**
+	 * Group the rows by the values of the given columns.
+	 * @param cols
+	 * @return
+	 */
+	public Groups groupBy(int... cols) {
+		int[] group = new int[_size];
+		int count = _size > 0 ? 1 : 0;
+
+		for (int c : cols) {
+			Column column = _columns[c];
+			LongIntMap codes = new LongIntMap();
+			LongIntMap groups = new LongIntMap();
+			int n = 0;
+			int nullCode = -1;
+			count = 0;
+			for (int row = 0; row < _size; row++) {
+				int code;
+				if (column.isNull(row)) {
+					if (nullCode < 0) nullCode = n++;
+					code = nullCode;
+				} else {
+					long key = column.key(row);
+					code = codes.get(key);
+					if (code < 0) {
+						code = n++;
+						codes.put(key, code);
+					}
+				}
+				long packed = ((long) group[row] << 32) | code;
+				int g = groups.get(packed);
+				if (g < 0) {
+					g = count++;
+					groups.put(packed, g);
+				}
+				group[row] = g;
+			}
+		}
+
+		int[] first = new int[count];
+		Arrays.fill(first, -1);
+		for (int row = 0; row < _size; row++) {
+			if (first[group[row]] < 0) first[group[row]] = row;
+		}
+		return new Groups(count, group, first);
+	}
+
+	/**
+	 * The result of groupBy
+	 */
+	public static class Groups {
+		/** number of groups */
+		public final int count;
+		/** the group of each row */
+		public final int[] group;
+		/** the first row of each group */
+		public final int[] first;
+
+		private Groups(int count, int[] group, int[] first) {
+			this.count = count;
+			this.group = group;
+			this.first = first;
+		}
+	}
+
+	/*
+	 * Columns
+	 */
+
+	@FunctionalInterface
+	private interface ValueReader {
+		Object read(ResultSet rs, int index) throws SQLException;
+	}
+
+	private static abstract class Column {
+		private BitSet _nulls = null;
+
+		abstract Type type();
+
+		/*
+		 * Read the value of the current row of the result set.
+		 * Returns the column that holds the value: a column may be replaced by a wider one.
+		 */
+		abstract Column read(ResultSet rs, int index, int row) throws SQLException;
+
+		abstract Object get(int row);
+
+		/*
+		 * Identifies a (non null) value within this column
+		 */
+		abstract long key(int row);
+
+		abstract void trim(int size);
+
+		/*
+		 * Approximate memory used by the values
+		 */
+		abstract long memory();
+
+		long nullsMemory() {
+			return _nulls == null ? 0 : _nulls.size()/8;
+		}
+
+		/*
+		 * Append the values of a page of the same column.
+		 * Returns the column that holds the values: a column may be replaced by a wider one.
+		 */
+		abstract Column append(Column page, int size, int pageSize);
+
+		long getLong(int row) {
+			Object v = get(row);
+			return v instanceof Number ? ((Number) v).longValue()
+					: v instanceof CyclistData ? ((CyclistData) v).toNumber().longValue() : 0;
+		}
+
+		double getDouble(int row) {
+			Object v = get(row);
+			return v instanceof Number ? ((Number) v).doubleValue()
+					: v instanceof CyclistData ? ((CyclistData) v).toNumber().doubleValue() : Double.NaN;
+		}
+
+		String getString(int row) {
+			return get(row).toString();
+		}
+
+		void append(StringBuilder sb, int row) {
+			sb.append(getString(row));
+		}
+
+		boolean isNull(int row) {
+			return _nulls != null && _nulls.get(row);
+		}
+
+		void setNull(int row) {
+			if (_nulls == null) _nulls = new BitSet();
+			_nulls.set(row);
+		}
+
+		void copyNulls(Column other) {
+			_nulls = other._nulls;
+		}
+
+		void appendNulls(Column page, int size, int pageSize) {
+			if (page._nulls == null) return;
+			for (int i = page._nulls.nextSetBit(0); i >= 0 && i < pageSize; i = page._nulls.nextSetBit(i+1)) {
+				setNull(size+i);
+			}
+		}
+	}
+
+	private static class IntColumn extends Column {
+		int[] _values = new int[INITIAL_CAPACITY];
+
+		@Override
+		Type type() { return Type.INT; }
+
+		@Override
+		Column read(ResultSet rs, int index, int row) throws SQLException {
+			// an int is exact as a double, so a single read also detects the other values
+			double v = rs.getDouble(index);
+			if (rs.wasNull()) {
+				setNull(row);
+			} else if ((int) v != v) {
+				// sqlite types a column by the value of its first row: later values may be longs or reals
+				Column column = v == Math.rint(v) ? new LongColumn(this, row) : new DoubleColumn(this, row);
+				return column.read(rs, index, row);
+			}
+			if (row == _values.length) _values = Arrays.copyOf(_values, 2*row);
+			_values[row] = (int) v;
+			return this;
+		}
+
+		@Override
+		Object get(int row) { return _values[row]; }
+
+		@Override
+		long getLong(int row) { return _values[row]; }
+
+		@Override
+		double getDouble(int row) { return _values[row]; }
+
+		@Override
+		String getString(int row) { return Integer.toString(_values[row]); }
+
+		@Override
+		void append(StringBuilder sb, int row) { sb.append(_values[row]); }
+
+		@Override
+		long key(int row) { return _values[row]; }
+
+		@Override
+		void trim(int size) { _values = Arrays.copyOf(_values, size); }
+
+		@Override
+		long memory() { return 4L*_values.length + nullsMemory(); }
+
+		@Override
+		Column append(Column page, int size, int pageSize) {
+			if (page instanceof LongColumn) {
+				return new LongColumn(this, size).append(page, size, pageSize);
+			}
+			if (page instanceof DoubleColumn) {
+				return new DoubleColumn(this, size).append(page, size, pageSize);
+			}
+			IntColumn other = (IntColumn) page;
+			if (size+pageSize > _values.length) _values = Arrays.copyOf(_values, Math.max(2*_values.length, size+pageSize));
+			System.arraycopy(other._values, 0, _values, size, pageSize);
+			appendNulls(page, size, pageSize);
+			return this;
+		}
+	}
+
+	/*
+	 * Nuclide ids are stored as ints but exposed as Nuclide objects
+	 */
+	private static class NuclideColumn extends IntColumn {
+		@Override
+		Type type() { return Type.OBJECT; }
+
+		@Override
+		Object get(int row) { return Nuclide.create(_values[row]); }
+
+		@Override
+		String getString(int row) { return get(row).toString(); }
+
+		@Override
+		void append(StringBuilder sb, int row) { sb.append(get(row)); }
+	}
+
+	private static class LongColumn extends Column {
+		long[] _values;
+
+		LongColumn() {
+			_values = new long[INITIAL_CAPACITY];
+		}
+
+		LongColumn(IntColumn other, int size) {
+			_values = new long[Math.max(INITIAL_CAPACITY, 2*size)];
+			for (int i = 0; i < size; i++) {
+				_values[i] = other._values[i];
+			}
+			copyNulls(other);
+		}
+
+		@Override
+		Type type() { return Type.LONG; }
+
+		@Override
+		Column read(ResultSet rs, int index, int row) throws SQLException {
+			double d = rs.getDouble(index);
+			long v = (long) d;
+			if (rs.wasNull()) {
+				setNull(row);
+			} else if (v != d || Math.abs(d) >= EXACT_LONG) {
+				// beyond the precision of a double, or not a long (sqlite)
+				v = rs.getLong(index);
+				if (v != d) {
+					return new DoubleColumn(this, row).read(rs, index, row);
+				}
+			}
+			if (row == _values.length) _values = Arrays.copyOf(_values, 2*row);
+			_values[row] = v;
+			return this;
+		}
+
+		@Override
+		Object get(int row) { return _values[row]; }
+
+		@Override
+		long getLong(int row) { return _values[row]; }
+
+		@Override
+		double getDouble(int row) { return _values[row]; }
+
+		@Override
+		String getString(int row) { return Long.toString(_values[row]); }
+
+		@Override
+		void append(StringBuilder sb, int row) { sb.append(_values[row]); }
+
+		@Override
+		long key(int row) { return _values[row]; }
+
+		@Override
+		void trim(int size) { _values = Arrays.copyOf(_values, size); }
+
+		@Override
+		long memory() { return 8L*_values.length + nullsMemory(); }
+
+		@Override
+		Column append(Column page, int size, int pageSize) {
+			if (page instanceof DoubleColumn) {
+				return new DoubleColumn(this, size).append(page, size, pageSize);
+			}
+			if (size+pageSize > _values.length) _values = Arrays.copyOf(_values, Math.max(2*_values.length, size+pageSize));
+			if (page instanceof LongColumn) {
+				System.arraycopy(((LongColumn) page)._values, 0, _values, size, pageSize);
+			} else {
+				int[] values = ((IntColumn) page)._values;
+				for (int i = 0; i < pageSize; i++) {
+					_values[size+i] = values[i];
+				}
+			}
+			appendNulls(page, size, pageSize);
+			return this;
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		double[] _values;
+
+		DoubleColumn() {
+			_values = new double[INITIAL_CAPACITY];
+		}
+
+		/*
+		 * Promote an int or long column
+		 */
+		DoubleColumn(Column other, int size) {
+			_values = new double[Math.max(INITIAL_CAPACITY, 2*size)];
+			for (int i = 0; i < size; i++) {
+				_values[i] = other.getDouble(i);
+			}
+			copyNulls(other);
+		}
+
+		@Override
+		Type type() { return Type.DOUBLE; }
+
+		@Override
+		Column read(ResultSet rs, int index, int row) throws SQLException {
+			double v = rs.getDouble(index);
+			if (rs.wasNull()) setNull(row);
+			if (row == _values.length) _values = Arrays.copyOf(_values, 2*row);
+			_values[row] = v;
+			return this;
+		}
+
+		@Override
+		Object get(int row) { return _values[row]; }
+
+		@Override
+		long getLong(int row) { return (long) _values[row]; }
+
+		@Override
+		double getDouble(int row) { return _values[row]; }
+
+		@Override
+		String getString(int row) { return Double.toString(_values[row]); }
+
+		@Override
+		void append(StringBuilder sb, int row) { sb.append(_values[row]); }
+
+		@Override
+		long key(int row) {
+			double v = _values[row];
+			return v == 0 ? 0 : Double.doubleToLongBits(v);
+		}
+
+		@Override
+		void trim(int size) { _values = Arrays.copyOf(_values, size); }
+
+		@Override
+		long memory() { return 8L*_values.length + nullsMemory(); }
+
+		@Override
+		Column append(Column page, int size, int pageSize) {
+			if (size+pageSize > _values.length) _values = Arrays.copyOf(_values, Math.max(2*_values.length, size+pageSize));
+			if (page instanceof DoubleColumn) {
+				System.arraycopy(((DoubleColumn) page)._values, 0, _values, size, pageSize);
+			} else {
+				for (int i = 0; i < pageSize; i++) {
+					_values[size+i] = page.getDouble(i);
+				}
+			}
+			appendNulls(page, size, pageSize);
+			return this;
+		}
+	}
+
+	/*
+	 * Dictionary encoded strings
+	 */
+	private static class StringColumn extends Column {
+		int[] _codes = new int[INITIAL_CAPACITY];
+		List<String> _dictionary = new ArrayList<>();
+		Map<String, Integer> _index = new HashMap<>();
+
+		@Override
+		Type type() { return Type.STRING; }
+
+		@Override
+		Column read(ResultSet rs, int index, int row) throws SQLException {
+			String v = rs.getString(index);
+			int code = -1;
+			if (v == null) {
+				setNull(row);
+			} else {
+				Integer c = _index.get(v);
+				if (c == null) {
+					c = _dictionary.size();
+					_dictionary.add(v);
+					_index.put(v, c);
+				}
+				code = c;
+			}
+			if (row == _codes.length) _codes = Arrays.copyOf(_codes, 2*row);
+			_codes[row] = code;
+			return this;
+		}
+
+		@Override
+		Object get(int row) { return _dictionary.get(_codes[row]); }
+
+		@Override
+		String getString(int row) { return _dictionary.get(_codes[row]); }
+
+		@Override
+		long key(int row) { return _codes[row]; }
+
+		@Override
+		void trim(int size) { _codes = Arrays.copyOf(_codes, size); }
+
+		@Override
+		long memory() {
+			long bytes = 4L*_codes.length + nullsMemory();
+			for (String v : _dictionary) {
+				// the string, its chars and its entries in the dictionary and the index
+				bytes += 40 + 2L*v.length() + 48;
+			}
+			return bytes;
+		}
+
+		@Override
+		Column append(Column page, int size, int pageSize) {
+			StringColumn other = (StringColumn) page;
+
+			// map the codes of the page to this dictionary
+			int[] map = new int[other._dictionary.size()];
+			for (int i = 0; i < map.length; i++) {
+				String v = other._dictionary.get(i);
+				Integer c = _index.get(v);
+				if (c == null) {
+					c = _dictionary.size();
+					_dictionary.add(v);
+					_index.put(v, c);
+				}
+				map[i] = c;
+			}
+
+			if (size+pageSize > _codes.length) _codes = Arrays.copyOf(_codes, Math.max(2*_codes.length, size+pageSize));
+			for (int i = 0; i < pageSize; i++) {
+				int code = other._codes[i];
+				_codes[size+i] = code < 0 ? code : map[code];
+			}
+			appendNulls(page, size, pageSize);
+			return this;
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+		private ValueReader _reader;
+		private Object[] _values = new Object[INITIAL_CAPACITY];
+		private Map<String, Integer> _keys = null;
+
+		ObjectColumn(ValueReader reader) {
+			_reader = reader;
+		}
+
+		@Override
+		Type type() { return Type.OBJECT; }
+
+		@Override
+		Column read(ResultSet rs, int index, int row) throws SQLException {
+			Object v = _reader.read(rs, index);
+			if (v == null) setNull(row);
+			if (row == _values.length) _values = Arrays.copyOf(_values, 2*row);
+			_values[row] = v;
+			return this;
+		}
+
+		@Override
+		Object get(int row) { return _values[row]; }
+
+		@Override
+		long key(int row) {
+			// not all the data objects implement hashCode
+			if (_keys == null) _keys = new HashMap<>();
+			String text = _values[row].toString();
+			Integer k = _keys.get(text);
+			if (k == null) {
+				k = _keys.size();
+				_keys.put(text, k);
+			}
+			return k;
+		}
+
+		@Override
+		void trim(int size) { _values = Arrays.copyOf(_values, size); }
+
+		// a reference and a small data object per value
+		@Override
+		long memory() { return 40L*_values.length + nullsMemory(); }
+
+		@Override
+		Column append(Column page, int size, int pageSize) {
+			if (size+pageSize > _values.length) _values = Arrays.copyOf(_values, Math.max(2*_values.length, size+pageSize));
+			System.arraycopy(((ObjectColumn) page)._values, 0, _values, size, pageSize);
+			appendNulls(page, size, pageSize);
+			return this;
+		}
+	}
+
+	private static class RowList extends AbstractList<Integer> implements RandomAccess {
+		private int[] _rows;
+		private int _size;
+
+		RowList(int from, int to) {
+			_size = to-from;
+			_rows = new int[Math.max(_size, 16)];
+			for (int i = 0; i < _size; i++) {
+				_rows[i] = from+i;
+			}
+		}
+
+		@Override
+		public Integer get(int index) {
+			if (index >= _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+			return _rows[index];
+		}
+
+		@Override
+		public Integer set(int index, Integer row) {
+			int prev = get(index);
+			_rows[index] = row;
+			return prev;
+		}
+
+		@Override
+		public void add(int index, Integer row) {
+			if (index < 0 || index > _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+			if (_size == _rows.length) _rows = Arrays.copyOf(_rows, 2*_size);
+			System.arraycopy(_rows, index, _rows, index+1, _size-index);
+			_rows[index] = row;
+			_size++;
+			modCount++;
+		}
+
+		@Override
+		public Integer remove(int index) {
+			int prev = get(index);
+			System.arraycopy(_rows, index+1, _rows, index, _size-index-1);
+			_size--;
+			modCount++;
+			return prev;
+		}
+
+		@Override
+		public int size() {
+			return _size;
+		}
+	}
+}
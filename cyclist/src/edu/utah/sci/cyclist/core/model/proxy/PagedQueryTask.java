@@ -0,0 +1,139 @@
+package edu.utah.sci.cyclist.core.model.proxy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javafx.application.Platform;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.TableData;
+import edu.utah.sci.cyclist.core.util.SQLQuery;
+
+/**
+ * Runs a query in the background and delivers the result to the FX thread in pages,
+ * as they are decoded, so a view can render the first rows before the whole result
+ * is available.
+ *
+ * Cancelling the task cancels the running statement, so a query which is superseded
+ * by a new one stops immediately rather than after it completes. Pages that were
+ * already posted are dropped once the task is cancelled.
+ *
+ * A complete result is added to the {@link QueryResultCache}, and a query whose result is
+ * already cached is delivered as a single page without accessing the database.
+ *
+ * The value of the task is the number of rows read.
+ */
+public class PagedQueryTask extends QueryTask<Integer> {
+	static Logger log = Logger.getLogger(PagedQueryTask.class);
+
+	public static final int PAGE_SIZE = 10000;
+
+	/**
+	 * Receives the pages on the FX thread.
+	 */
+	@FunctionalInterface
+	public interface PageConsumer {
+		/**
+		 * @param page the new rows
+		 * @param all all the rows received so far, including the new page
+		 */
+		void accept(TableData page, TableData all);
+	}
+
+	private CyclistDatasource _ds;
+	private SQLQuery _query;
+	private int _limit;
+	private int _pageSize;
+	private PageConsumer _consumer;
+
+	// accessed only on the FX thread
+	private TableData _all = null;
+
+	/**
+	 * @param ds
+	 * @param query
+	 * @param limit max number of rows or -1 for all the rows
+	 * @param pageSize number of rows per page
+	 * @param consumer
+	 */
+	public PagedQueryTask(CyclistDatasource ds, SQLQuery query, int limit, int pageSize, PageConsumer consumer) {
+		_ds = ds;
+		_query = query;
+		_limit = limit;
+		_pageSize = pageSize;
+		_consumer = consumer;
+	}
+
+	@Override
+	protected Integer query() throws Exception {
+		TableData cached = QueryResultCache.getInstance().get(_ds, _query.getKey(), _limit);
+		if (cached != null) {
+			post(cached);
+			return cached.size();
+		}
+
+		int total = 0;
+		boolean complete = false;
+		try (Connection conn = _ds.getConnection()) {
+			try (PreparedStatement stmt = track(_query.prepare(conn))) {
+				if (isCancelled()) return total;
+
+				if (_limit > 0) {
+					stmt.setMaxRows(_limit);
+				}
+				ResultSet rs = stmt.executeQuery();
+				TableData.Reader reader = new TableData.Reader(rs);
+
+				boolean first = true;
+				while (!isCancelled()) {
+					int n = _limit > 0 ? Math.min(_pageSize, _limit-total) : _pageSize;
+					if (n <= 0) break;
+					TableData page = reader.next(n);
+					total += page.size();
+					// the first page is delivered even if it is empty, so the view can clear itself
+					if (first || page.size() > 0) {
+						post(page);
+						first = false;
+					}
+					if (reader.isDone() || (_limit > 0 && total == _limit)) {
+						complete = true;
+						break;
+					}
+				}
+			} finally {
+				_query.release(conn);
+			}
+		} catch (SQLException e) {
+			if (isCancelled()) {
+				log.debug("Query cancelled: "+e.getMessage());
+				return total;
+			}
+			throw e;
+		}
+		if (complete) {
+			// runs after all the pages were appended
+			Platform.runLater(() -> {
+				if (!isCancelled() && _all != null) {
+					QueryResultCache.getInstance().put(_ds, _query.getKey(), _limit, _all);
+				}
+			});
+		}
+		return total;
+	}
+
+	private void post(TableData page) {
+		Platform.runLater(() -> {
+			if (isCancelled()) return;
+			if (_all == null) {
+				_all = page;
+			} else {
+				_all.append(page);
+			}
+			_consumer.accept(page, _all);
+		});
+	}
+}
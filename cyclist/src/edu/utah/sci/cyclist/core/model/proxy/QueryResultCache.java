@@ -0,0 +1,211 @@
+package edu.utah.sci.cyclist.core.model.proxy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.Preferences;
+import edu.utah.sci.cyclist.core.model.TableData;
+import edu.utah.sci.cyclist.core.util.DatabaseFingerprint;
+
+/**
+ * The results of recent queries, shared by all the views of the workspace.
+ *
+ * A result is identified by the data source, the normalized SQL and the row limit. The simulation
+ * is part of the SQL (the SimID filter of the view), so views showing the same data of the same
+ * simulation share a single result regardless of which view ran the query first.
+ *
+ * The cache is bounded by {@link Preferences#getResultCacheMemory()} and evicts the least recently
+ * used results first. A result of a SQLite database is discarded once the database file changes.
+ * Changes to a server database can not be detected cheaply, so its results are discarded after
+ * {@link #SERVER_TTL} ms. {@link #invalidate(CyclistDatasource)} discards the results of a database which was modified by
+ * the application, e.g. by the post processing.
+ *
+ * The cached TableData are shared and must not be modified.
+ */
+public class QueryResultCache {
+	static Logger log = Logger.getLogger(QueryResultCache.class);
+
+	/** how long (ms) the result of a server database is kept */
+	public static final long SERVER_TTL = 60*1000L;
+
+	private static QueryResultCache _instance = new QueryResultCache();
+
+	private Map<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long _memory = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	private static class Entry {
+		String url;
+		DatabaseFingerprint fingerprint;
+		TableData data;
+		long bytes;
+		long time;
+	}
+
+	private QueryResultCache() {
+	}
+
+	public static QueryResultCache getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Find the result of a query
+	 * @param ds
+	 * @param query
+	 * @param limit max number of rows or -1 for all the rows
+	 * @return the result or null if it is not in the cache
+	 */
+	public TableData get(CyclistDatasource ds, String query, int limit) {
+		if (ds == null || ds.getURL() == null) return null;
+
+		DatabaseFingerprint fingerprint = fingerprint(ds);
+		String key = key(ds, query, limit);
+		synchronized (this) {
+			Entry entry = _entries.get(key);
+			if (entry != null && (entry.fingerprint != fingerprint || expired(entry))) {
+				remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				_misses++;
+				return null;
+			}
+			_hits++;
+			return entry.data;
+		}
+	}
+
+	/**
+	 * Add the complete result of a query
+	 * @param ds
+	 * @param query
+	 * @param limit max number of rows the query was limited to or -1
+	 * @param data
+	 */
+	public void put(CyclistDatasource ds, String query, int limit, TableData data) {
+		if (ds == null || ds.getURL() == null) return;
+
+		long budget = Preferences.getInstance().getResultCacheMemory()*1024L*1024L;
+		if (budget <= 0) return;
+		long bytes = data.getMemoryUsage();
+		if (bytes > budget) {
+			log.debug("Query result of "+bytes/1024+"KB is too large to be cached");
+			return;
+		}
+
+		Entry entry = new Entry();
+		entry.url = ds.getURL();
+		entry.fingerprint = fingerprint(ds);
+		entry.data = data;
+		entry.bytes = bytes;
+		entry.time = System.currentTimeMillis();
+
+		String key = key(ds, query, limit);
+		synchronized (this) {
+			remove(key);
+			_entries.put(key, entry);
+			_memory += bytes;
+
+			// evict the least recently used results
+			Iterator<Entry> i = _entries.values().iterator();
+			while (_memory > budget && i.hasNext()) {
+				Entry lru = i.next();
+				_memory -= lru.bytes;
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Discard the results of a data source
+	 * @param ds
+	 */
+	public synchronized void invalidate(CyclistDatasource ds) {
+		String url = ds.getURL();
+		Iterator<Entry> i = _entries.values().iterator();
+		while (i.hasNext()) {
+			Entry entry = i.next();
+			if (entry.url.equals(url)) {
+				_memory -= entry.bytes;
+				i.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		_entries.clear();
+		_memory = 0;
+	}
+
+	/**
+	 * @return the approximate memory used by the cached results in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		return _memory;
+	}
+
+	/**
+	 * @return the fraction of the lookups which found the result in the cache
+	 */
+	public synchronized double getHitRate() {
+		long n = _hits + _misses;
+		return n == 0 ? 0 : _hits/(double) n;
+	}
+
+	private void remove(String key) {
+		Entry entry = _entries.remove(key);
+		if (entry != null) {
+			_memory -= entry.bytes;
+		}
+	}
+
+	/*
+	 * A result without a fingerprint (of a server database) is only valid for SERVER_TTL
+	 */
+	private static boolean expired(Entry entry) {
+		return entry.fingerprint == null && System.currentTimeMillis() - entry.time > SERVER_TTL;
+	}
+
+	/*
+	 * Only the fingerprint of a SQLite database is cheap enough to be checked on every lookup.
+	 * The results of other databases expire after SERVER_TTL, unless they are invalidated or
+	 * evicted first.
+	 */
+	private static DatabaseFingerprint fingerprint(CyclistDatasource ds) {
+		return ds.isSQLite() ? DatabaseFingerprint.of(ds) : null;
+	}
+
+	private static String key(CyclistDatasource ds, String query, int limit) {
+		return ds.getURL()+'\n'+(limit > 0 ? limit : -1)+'\n'+normalize(query);
+	}
+
+	/*
+	 * Collapse the white space outside of quoted literals
+	 */
+	static String normalize(String query) {
+		StringBuilder sb = new StringBuilder(query.length());
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (quote != 0) {
+				if (c == quote) quote = 0;
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			} else if (c == '\'' || c == '"' || c == '`') {
+				quote = c;
+			}
+			if (space && sb.length() > 0) sb.append(' ');
+			space = false;
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
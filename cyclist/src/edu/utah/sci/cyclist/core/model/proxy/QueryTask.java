@@ -0,0 +1,96 @@
+package edu.utah.sci.cyclist.core.model.proxy;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.concurrent.Task;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A background task which runs database queries.
+ *
+ * Cancelling the task also cancels the statement it is currently executing, so a query which
+ * is no longer needed stops immediately rather than after it completes. The statements are
+ * registered with {@link #track(Statement)}, which can be called from any code running on the
+ * task's thread, e.g. a proxy method called by the task.
+ *
+ * A task can be {@link #share() shared} by several consumers, e.g. identical requests de-duplicated by
+ * the {@link edu.utah.sci.cyclist.core.util.TaskScheduler}. A shared task is only cancelled once all
+ * of its consumers have cancelled it, so each consumer must cancel it at most once.
+ */
+public abstract class QueryTask<V> extends Task<V> {
+	static Logger log = Logger.getLogger(QueryTask.class);
+
+	private static ThreadLocal<QueryTask<?>> _current = new ThreadLocal<>();
+
+	private volatile Statement _stmt = null;
+	private final AtomicInteger _consumers = new AtomicInteger(1);
+
+	/**
+	 * The work of the task
+	 * @return the value of the task
+	 * @throws Exception
+	 */
+	protected abstract V query() throws Exception;
+
+	@Override
+	protected final V call() throws Exception {
+		QueryTask<?> prev = _current.get();
+		_current.set(this);
+		try {
+			return query();
+		} finally {
+			_stmt = null;
+			_current.set(prev);
+		}
+	}
+
+	/**
+	 * Register the statement which is about to be executed by the query task running on this thread,
+	 * if any, so it is cancelled with the task.
+	 * @param stmt
+	 * @return the statement
+	 */
+	public static <S extends Statement> S track(S stmt) {
+		QueryTask<?> task = _current.get();
+		if (task != null) {
+			task._stmt = stmt;
+			if (task.isCancelled()) {
+				cancel(stmt);
+			}
+		}
+		return stmt;
+	}
+
+	/**
+	 * Add a consumer of the task
+	 * @return false if the task was already cancelled by all its consumers
+	 */
+	public boolean share() {
+		return _consumers.getAndUpdate(n -> n > 0 ? n+1 : n) > 0;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (_consumers.getAndUpdate(n -> n > 0 ? n-1 : n) > 1) {
+			// other consumers still wait for the result
+			return false;
+		}
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		Statement stmt = _stmt;
+		if (cancelled && stmt != null) {
+			cancel(stmt);
+		}
+		return cancelled;
+	}
+
+	private static void cancel(Statement stmt) {
+		try {
+			stmt.cancel();
+		} catch (SQLException e) {
+			log.debug("Can not cancel query: "+e.getMessage());
+		}
+	}
+}
@@ -1,22 +1,16 @@
 package edu.utah.sci.cyclist.core.model.proxy;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Function;
 
 import org.apache.log4j.Logger;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import edu.utah.sci.cyclist.core.model.CyclistDatasource;
 import edu.utah.sci.cyclist.core.model.Table;
-import edu.utah.sci.cyclist.core.model.TableRow;
-import edu.utah.sci.cyclist.core.util.SQLUtil;
+import edu.utah.sci.cyclist.core.model.TableData;
+import edu.utah.sci.cyclist.core.util.SQLQuery;
 
 public class TableProxy {
 	
@@ -29,51 +23,73 @@ public class TableProxy {
 		_table = table;
 	}
 	
-	public ObservableList<TableRow> getRows(String query) throws SQLException {
-		return getRows(query, -1);
+	public TableData getData(String query) throws SQLException {
+		return getData(query, -1);
 	}
 	
-	public ObservableList<TableRow> getRows(String query, int n) throws SQLException {
+	public TableData getData(String query, int n) throws SQLException {
 		CyclistDatasource ds = _table.getDataSource();
-		return getRows(ds, query, n);
+		return getData(ds, query, n);
 	}
 	
-	public ObservableList<TableRow> getRows(CyclistDatasource ds, String query) throws SQLException {
-		return getRows(ds, query, -1);
+	public TableData getData(CyclistDatasource ds, String query) throws SQLException {
+		return getData(ds, query, -1);
 	}
 	
-	public ObservableList<TableRow> getRows(CyclistDatasource ds, String query, int n) throws SQLException {
-		return getRows(ds, query, n, false);
+	public TableData getData(CyclistDatasource ds, String query, int n) throws SQLException {
+		return getData(ds, query, n, false);
 	}
 	
-	// TODO: for now the 'n' parameter is ignored
-	public ObservableList<TableRow> getRows(CyclistDatasource ds1, final String query, final int n, boolean force) throws SQLException {
-		final CyclistDatasource ds = (!force && _table.getDataSource() != null) ?  _table.getDataSource(): ds1;
+	/**
+	 * Run the query and return the result in columnar form
+	 * @param ds1 the datasource to use if the table does not have its own datasource (or force is true)
+	 * @param query
+	 * @param n max number of rows or -1 for all the rows
+	 * @param force
+	 * @return
+	 * @throws SQLException
+	 */
+	public TableData getData(CyclistDatasource ds1, final String query, final int n, boolean force) throws SQLException {
+		return getData(ds1, new SQLQuery(query), n, force);
+	}
 	
-		List<TableRow> rows = new ArrayList<>();
-		try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
-
-			ResultSet rs = stmt.executeQuery(query);
-
-			ResultSetMetaData rmd = rs.getMetaData();
-			int cols = rmd.getColumnCount();
-			Function<Object, Object> convert[] = SQLUtil.factories(rmd);
-			
-			while (rs.next()) {
-				TableRow row = new TableRow(cols);
-				for (int i=0; i<cols; i++) {
-					row.value[i] = convert[i].apply(rs.getObject(i+1));
+	public TableData getData(CyclistDatasource ds1, final SQLQuery query, final int n, boolean force) throws SQLException {
+		final CyclistDatasource ds = _table.getQueryDataSource((!force && _table.getDataSource() != null) ?  _table.getDataSource(): ds1);
+	
+		TableData data = QueryResultCache.getInstance().get(ds, query.getKey(), n);
+		if (data != null) return data;
+	
+		try (Connection conn = ds.getConnection()) {
+			try (PreparedStatement stmt = query.prepare(conn)) {
+				if (n > 0) {
+					stmt.setMaxRows(n);
 				}
-				rows.add(row);
+				ResultSet rs = stmt.executeQuery();
+				data = TableData.read(rs, n);
+			} finally {
+				query.release(conn);
 			}
+			QueryResultCache.getInstance().put(ds, query.getKey(), n, data);
+			return data;
 		} catch (SQLException e) {
 			log.error("Error parsing sql meta data: "+e.getMessage());
-		} finally {
-			ds.releaseConnection();
 		}
 		
-		return FXCollections.observableList(rows);
+		return TableData.empty();
 	}
-
 	
+	/**
+	 * Create a task which runs the query and delivers the result in pages as they are read.
+	 * The caller is responsible for running the task.
+	 * @param ds1 the datasource to use if the table does not have its own datasource
+	 * @param query
+	 * @param n max number of rows or -1 for all the rows
+	 * @param pageSize
+	 * @param consumer receives the pages on the FX thread
+	 * @return
+	 */
+	public PagedQueryTask getDataPages(CyclistDatasource ds1, SQLQuery query, int n, int pageSize, PagedQueryTask.PageConsumer consumer) {
+		CyclistDatasource ds = _table.getQueryDataSource(_table.getDataSource() != null ?  _table.getDataSource(): ds1);
+		return new PagedQueryTask(ds, query, n, pageSize, consumer);
+	}
 }
@@ -38,6 +38,8 @@ import edu.utah.sci.cyclist.core.controller.IMemento;
 import edu.utah.sci.cyclist.core.model.CyclusJob;
 import edu.utah.sci.cyclist.core.model.CyclusJob.Status;
 import edu.utah.sci.cyclist.core.model.Preferences;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 
 public class CyclusService {
 	public static final String SUBMIT_JOB_PATH = "/api/v1/job";
@@ -255,9 +257,7 @@ public class CyclusService {
 			}
 		});
 
-		Thread th = new Thread(task);
-		th.setDaemon(true);
-		th.start();
+		TaskScheduler.getInstance().submit(task, Priority.BACKGROUND);
 	}
 	
 	final int BUFFER = 2048;
@@ -140,6 +140,44 @@ public class CyclistNumberAxis extends ValueAxis<Number> {
     public final void setTickUnit(double value) { tickUnit.set(value); }
     public final DoubleProperty tickUnitProperty() { return tickUnit; }
 
+    /**
+     * Show only the given range of values. Auto ranging is turned off until resetZoom() is called.
+     *
+     * @param lowerBound The lower bound of the visible range
+     * @param upperBound The upper bound of the visible range
+     */
+    public void zoom(double lowerBound, double upperBound) {
+        if (!(upperBound > lowerBound)) return;
+        // pick a user friendly tick unit for about 10 tick marks
+        final double unit = (upperBound - lowerBound)/10;
+        int rangeIndex = TICK_UNIT_DEFAULTS.length-1;
+        for (int i=0; i<TICK_UNIT_DEFAULTS.length; i++) {
+            if (TICK_UNIT_DEFAULTS[i] > unit) {
+                rangeIndex = i;
+                break;
+            }
+        }
+        setAutoRanging(false);
+        currentRangeIndexProperty.set(rangeIndex);
+        setLowerBound(lowerBound);
+        setUpperBound(upperBound);
+        setTickUnit(TICK_UNIT_DEFAULTS[rangeIndex]);
+    }
+
+    /**
+     * @return true if the axis shows a range set by zoom()
+     */
+    public boolean isZoomed() {
+        return !isAutoRanging();
+    }
+
+    /**
+     * Return to auto ranging
+     */
+    public void resetZoom() {
+        setAutoRanging(true);
+    }
+
     // -------------- CONSTRUCTORS -------------------------------------------------------------------------------------
 
     /**
@@ -45,6 +45,9 @@ import edu.utah.sci.cyclist.core.ui.CyclistView;
 import edu.utah.sci.cyclist.core.ui.panels.SchemaPanel;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
+import edu.utah.sci.cyclist.core.util.Showing;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 
 public class CyclistViewBase extends ViewBase implements CyclistView {
 	static final Logger log = LogManager.getLogger(CyclistViewBase.class.getName());
@@ -75,6 +78,7 @@ public class CyclistViewBase extends ViewBase implements CyclistView {
 	private Button _filterGlyph;
 	private boolean _supportsFiltering = true;
 	private boolean _supportsTables = true;
+	private Task<?> _pendingTask = null;
 	
 	private Simulation _currentSim = null;
 	
@@ -158,6 +162,29 @@ public class CyclistViewBase extends ViewBase implements CyclistView {
 		
 	}
 	
+	/**
+	 * Schedule a task which fetches the data of this view. 
+	 * The task runs in the VIEW lane once the view is showing. A task which is still waiting for
+	 * the view to show is cancelled when a newer task is scheduled.
+	 * @param task
+	 */
+	public void schedule(Task<?> task) {
+		boolean waiting = _pendingTask != null;
+		if (waiting) {
+			_pendingTask.cancel();
+		}
+		_pendingTask = task;
+		if (!waiting) {
+			Showing.whenShowing(this, () -> {
+				Task<?> pending = _pendingTask;
+				_pendingTask = null;
+				if (!pending.isCancelled()) {
+					TaskScheduler.getInstance().submit(pending, Priority.VIEW);
+				}
+			});
+		}
+	}
+	
 	public boolean getSupportsFiltering() {
 		return _supportsFiltering;
 	}
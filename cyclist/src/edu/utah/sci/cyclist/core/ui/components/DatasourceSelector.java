@@ -80,6 +80,7 @@ public class DatasourceSelector extends VBox{
 		_localAllRadio.setUserData(SourceLocation.LOCAL_ALL);
 		_localSubsetRadio.setToggleGroup(_remoteLocalGroup);
 		_localSubsetRadio.setUserData(SourceLocation.LOCAL_SUBSET);
+		_localField.disableProperty().bind(_localSubsetRadio.selectedProperty().not());
 
 		switch(table.getSourceLocation()){
 		case REMOTE:
@@ -95,11 +96,11 @@ public class DatasourceSelector extends VBox{
 		
 		// --- Layout
 		this.getChildren().addAll(
-				aliasBox/*, 
+				aliasBox, 
 				new Text("Data Location:"),
 				remoteBox, 
 				localBox, 
-				subsetBox*/);	
+				subsetBox);	
 	}
 
 	// Get the alias text
@@ -112,9 +113,13 @@ public class DatasourceSelector extends VBox{
 		return (SourceLocation) _remoteLocalGroup.getSelectedToggle().getUserData();
 	}
 	
-	// Get the data subset
+	// Get the data subset (number of rows), 0 if the field is not a positive number
 	public int getDataSubset(){
-		return Integer.parseInt(_localField.getText());
+		try {
+			return Math.max(0, Integer.parseInt(_localField.getText().trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
 	}
 
 }
@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javafx.animation.PauseTransition;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.binding.Bindings;
@@ -45,6 +46,8 @@ import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.DragEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
@@ -55,6 +58,7 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 import javafx.util.converter.TimeStringConverter;
 
 import javax.imageio.ImageIO;
@@ -77,9 +81,11 @@ import edu.utah.sci.cyclist.core.model.Filter;
 import edu.utah.sci.cyclist.core.model.Indicator;
 import edu.utah.sci.cyclist.core.model.Simulation;
 import edu.utah.sci.cyclist.core.model.Table;
-import edu.utah.sci.cyclist.core.model.TableRow;
+import edu.utah.sci.cyclist.core.model.TableData;
+import edu.utah.sci.cyclist.core.model.proxy.PagedQueryTask;
 import edu.utah.sci.cyclist.core.model.proxy.TableProxy;
 import edu.utah.sci.cyclist.core.ui.components.CyclistAxis;
+import edu.utah.sci.cyclist.core.ui.components.CyclistNumberAxis;
 import edu.utah.sci.cyclist.core.ui.components.CyclistViewBase;
 import edu.utah.sci.cyclist.core.ui.components.DistanceIndicator;
 import edu.utah.sci.cyclist.core.ui.components.DropArea;
@@ -87,12 +93,18 @@ import edu.utah.sci.cyclist.core.ui.components.LineIndicator;
 import edu.utah.sci.cyclist.core.ui.components.ViewBase;
 import edu.utah.sci.cyclist.core.ui.panels.SchemaPanel;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
+import edu.utah.sci.cyclist.core.util.Downsampler;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
 import edu.utah.sci.cyclist.core.util.QueryBuilder;
 
 public class ChartView extends CyclistViewBase {
 	public static final String TITLE = "Plot";
 	static Logger log = Logger.getLogger(ChartView.class);
+	
+	private static final int CSV_BUFFER_SIZE = 1 << 16;
+	private static final int DEFAULT_RESOLUTION = 1000;
+	private static final double ZOOM_FACTOR = 0.8;
+	private static final Duration ZOOM_DELAY = Duration.millis(300);
 
 	enum ViewType { CROSS_TAB, BAR, LINE, SCATTER_PLOT, GANTT, NA }
 
@@ -115,6 +127,11 @@ public class ChartView extends CyclistViewBase {
 	private BooleanProperty _xForceZero = new SimpleBooleanProperty(false);
 	private BooleanProperty _yForceZero = new SimpleBooleanProperty(false);
 	
+	// the visible x range when the x axis is zoomed
+	private double[] _xRange = null;
+	private Field _xRangeField = null;
+	private PauseTransition _zoomDelay = new PauseTransition(ZOOM_DELAY);
+	
 	private ObservableList<Indicator> _indicators = FXCollections.observableArrayList();
 	private Map<Indicator, LineIndicator> _lineIndicators = new HashMap<>();
 	private List<DistanceIndicator> _distanceIndicators = new ArrayList<>();
@@ -329,6 +346,11 @@ public class ChartView extends CyclistViewBase {
 	}
 
 	private void fetchData() {
+		if (_xRange != null && (_xArea.getFields().size() != 1 || getXField() != _xRangeField)) {
+			// the zoomed range belongs to a different x field
+			resetZoom();
+		}
+		
 		final Spec spec = determineSpec();
 		
 		if (!spec.valid) {
@@ -355,29 +377,105 @@ public class ChartView extends CyclistViewBase {
 			spec.lod.add(new FieldInfo(field, order.indexOf(field)));
 		}
 		
+		spec.resolution = resolution(spec);
+		spec.xRange = _xRange;
+		
         Simulation currentSim = getCurrentSimulation();
 		CyclistDatasource ds = currentSim != null ? currentSim.getDataSource() : null;
 		
-		Task<ObservableList<TableRow>> task = new Task<ObservableList<TableRow>>() {
-			@Override
-			protected ObservableList<TableRow> call() throws Exception {
-				return _tableProxy.getRows(ds, builder.toString());
-			}
-		};
-		
-		task.valueProperty().addListener( o->{
-			ObjectProperty<ObservableList<TableRow>> op = (ObjectProperty<ObservableList<TableRow>>) o;			
-			ObservableList<TableRow> data = op.get();
-			if (data != null) {
-				processData(data, spec);
+		// the points are added progressively as the pages of the result arrive
+		// the number of rows of the last downsampling
+		final int[] downsampled = {0};
+		Task<Integer> task = _tableProxy.getDataPages(ds, builder.build(), -1, PagedQueryTask.PAGE_SIZE, 
+				(page, all) -> {
+					if (page == all) {
+						processData(all, spec);
+					} else if (spec.resolution > 0 && all.size() > Downsampler.POINTS_PER_BUCKET*spec.resolution) {
+						// downsample all the rows received so far, once their number doubled, 
+						// so the total work stays linear in the number of rows
+						if (all.size() >= 2*downsampled[0]) {
+							assignData(all, spec);
+							downsampled[0] = all.size();
+						}
+					} else {
+						appendData(page, all, spec);
+					}
+				});
+		// the last pages are downsampled once all the rows arrived
+		task.setOnSucceeded(e -> {
+			if (_currentSpec == spec && downsampled[0] > 0 && spec.data.size() > downsampled[0]) {
+				assignData(spec.data, spec);
 			}
 		});
 		
 		setCurrentTask(task);
+		schedule(task);
+	}
+	
+	/*
+	 * The number of pixels along the x axis. Line and scatter charts of numeric fields 
+	 * are downsampled to this resolution. Returns 0 if the chart should not be downsampled.
+	 */
+	private int resolution(Spec spec) {
+		if (spec.type != ViewType.LINE && spec.type != ViewType.SCATTER_PLOT) return 0;
+		if (!isNumeric(spec.x.classification) || !isNumeric(spec.y.classification)) return 0;
+		if (spec.x.mode.get() != CyclistAxis.Mode.LINEAR) return 0;
+		
+		double width = getChart() != null ? getChart().getXAxis().getWidth() : 0;
+		if (width <= 0) width = _pane.getWidth();
+		return width > 0 ? (int) Math.ceil(width) : DEFAULT_RESOLUTION;
+	}
+	
+	private boolean isNumeric(Classification c) {
+		return c == Classification.Qi || c == Classification.Qd;
+	}
+	
+	/*
+	 * Scrolling over the chart zooms the x axis around the mouse position. 
+	 * Once the user stops scrolling the visible range is fetched again at full resolution.
+	 * A double click returns to the full range.
+	 */
+	private void setupZoom() {
+		_zoomDelay.setOnFinished(e->fetchData());
 		
-		Thread th = new Thread(task);
-		th.setDaemon(true);
-		th.start();
+		_stackPane.addEventHandler(ScrollEvent.SCROLL, e->{
+			CyclistNumberAxis axis = getZoomableAxis();
+			if (axis == null || e.getDeltaY() == 0) return;
+			
+			double pos = axis.sceneToLocal(e.getSceneX(), e.getSceneY()).getX();
+			double x = axis.getValueForDisplay(pos).doubleValue();
+			double lower = axis.getLowerBound();
+			double upper = axis.getUpperBound();
+			double factor = e.getDeltaY() > 0 ? ZOOM_FACTOR : 1/ZOOM_FACTOR;
+			
+			_xRange = new double[] { x - (x-lower)*factor, x + (upper-x)*factor };
+			_xRangeField = getXField();
+			axis.zoom(_xRange[0], _xRange[1]);
+			_zoomDelay.playFromStart();
+			e.consume();
+		});
+		
+		_stackPane.addEventHandler(MouseEvent.MOUSE_CLICKED, e->{
+			if (e.getClickCount() == 2 && _xRange != null) {
+				resetZoom();
+				fetchData();
+			}
+		});
+	}
+	
+	private CyclistNumberAxis getZoomableAxis() {
+		if (getChart() == null || _currentSpec == null || _currentSpec.resolution == 0) return null;
+		Axis<?> axis = getChart().getXAxis();
+		return axis instanceof CyclistNumberAxis ? (CyclistNumberAxis) axis : null;
+	}
+	
+	private void resetZoom() {
+		_zoomDelay.stop();
+		_xRange = null;
+		_xRangeField = null;
+		if (getChart() != null && getChart().getXAxis() instanceof CyclistNumberAxis) {
+			((CyclistNumberAxis) getChart().getXAxis()).resetZoom();
+		}
 	}
 	
 	private QueryBuilder createBuilder() {
@@ -444,14 +542,22 @@ public class ChartView extends CyclistViewBase {
 				.aggregates(aggregators)
 				.grouping(grouping)
 				.filters(filtersList);
+		
+		// when zoomed, fetch only the visible range (at full resolution)
+		if (_xRange != null && fields.contains(_xRangeField)) {
+			builder.range(_xRangeField, _xRange[0], _xRange[1]);
+		}
 
 		return builder;
 	}
 		
-	private void processData(List<TableRow> data, Spec spec) {
+	private void processData(TableData data, Spec spec) {
 		if (!compatible(spec, _currentSpec)) {
 			releaseChart();
 			setChart(createChart(spec), spec);
+			if (spec.xRange != null && getChart() != null && getChart().getXAxis() instanceof CyclistNumberAxis) {
+				((CyclistNumberAxis) getChart().getXAxis()).zoom(spec.xRange[0], spec.xRange[1]);
+			}
 		}		
 		assignData(data, spec);
 	}
@@ -472,22 +578,17 @@ public class ChartView extends CyclistViewBase {
 	}
 	
 	@SuppressWarnings("unchecked")
-    private void assignData(List<TableRow> list, Spec spec) {
-		log.debug("chart data has "+list.size()+" rows");
-		if (list.size() == 0) {
+    private void assignData(TableData data, Spec spec) {
+		log.debug("chart data has "+data.size()+" rows");
+		spec.data = data;
+		if (data.size() == 0) {
 			log.debug("no data");
 			getChart().getData().clear();
 			_currentSpec = spec;
 			return;
 		}
 		
-		log.debug("data has "+list.size()+" rows");
-//		if (list.size() > 5000) {
-//			log.warn("Too many data points (>5000). Ignored");
-//			return;
-//		}
-		
-		Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> dataMap = split(list, spec);
+		Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> dataMap = split(data, spec);
 		
 		int c = _currentSpec.seriesMap.size();
 		int r = 0;
@@ -510,8 +611,7 @@ public class ChartView extends CyclistViewBase {
 				add.add(series);
 				n++;
 			}
-			ObservableList<XYChart.Data<Object, Object>> data = dataMap.get(key);
-			series.setData(data);
+			series.setData(dataMap.get(key));
 			spec.seriesMap.put(key, series);			
 		}
 		spec.dataMap = dataMap;
@@ -521,6 +621,33 @@ public class ChartView extends CyclistViewBase {
 		_currentSpec = spec;
 	}
 	
+	/*
+	 * Add the points of another page of the result to the current series
+	 */
+	private void appendData(TableData page, TableData all, Spec spec) {
+		if (_currentSpec != spec || getChart() == null) return;
+		
+		spec.data = all;
+		Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> dataMap = split(page, spec);
+		
+		List<XYChart.Series<Object, Object>> add = new ArrayList<>();
+		for (MultiKey key : dataMap.keySet()) {
+			ObservableList<XYChart.Data<Object, Object>> points = spec.dataMap.get(key);
+			if (points != null) {
+				points.addAll(dataMap.get(key));
+			} else {
+				XYChart.Series<Object, Object> series = new XYChart.Series<Object, Object>();
+				series.setName(createLabel(key));
+				series.setData(dataMap.get(key));
+				spec.seriesMap.put(key, series);
+				spec.dataMap.put(key, dataMap.get(key));
+				add.add(series);
+			}
+		}
+		getChart().getData().addAll(add);
+		getChart().setLegendVisible(spec.seriesMap.size() > 1);
+	}
+	
 	private String createLabel(MultiKey key) {
 		// key = x, y, attributes
 		int n =key.size();
@@ -535,52 +662,125 @@ public class ChartView extends CyclistViewBase {
 		return builder.toString();
 	}
 	
-	private Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> split(List<TableRow> list, Spec spec) {
+	/*
+	 * Split the rows into series by the lod fields. The rows are grouped once on the
+	 * columnar data, so a key is created per series rather than per row.
+	 * Series with more rows than the chart can show are downsampled (M4) to the 
+	 * resolution of the spec.
+	 */
+	private Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> split(TableData data, Spec spec) {
 		Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> map = new HashMap<>();
 
-		int nx = spec.numX();
-		int ny = spec.numY();
-		int cols = spec.cols();
+		int nlod = spec.lod.size();
+		int[] lodCols = new int[nlod];
+		for (int i=0; i<nlod; i++) {
+			lodCols[i] = spec.lod.get(i).index;
+		}
+		TableData.Groups groups = data.groupBy(lodCols);
+		
+		// the rows of group g are grouped[offset[g], offset[g+1])
+		int[] offset = new int[groups.count+1];
+		for (int row=0; row<data.size(); row++) {
+			offset[groups.group[row]+1]++;
+		}
+		for (int g=0; g<groups.count; g++) {
+			offset[g+1] += offset[g];
+		}
+		int[] grouped = new int[data.size()];
+		int[] next = Arrays.copyOf(offset, groups.count);
+		for (int row=0; row<data.size(); row++) {
+			grouped[next[groups.group[row]]++] = row;
+		}
 
 		for (FieldInfo xInfo : spec.xFields) {
 			int ix = xInfo.index;
 			Classification cx = xInfo.field.getClassification();
+			double[] range = spec.resolution > 0 && data.isNumeric(ix) ? xRange(data, ix, spec) : null;
 
 			for (FieldInfo yInfo : spec.yFields) {
 				int iy = yInfo.index;
 				Classification cy = yInfo.field.getClassification();
 
-				for (TableRow row : list) {
-					// pt
-					XYChart.Data<Object, Object> pt = createPoint(row.value[ix], row.value[iy], cx, cy);
+				for (int g=0; g<groups.count; g++) {
+					int n = offset[g+1] - offset[g];
+					List<XYChart.Data<Object, Object>> points;
+					if (range != null && data.isNumeric(iy) && n > Downsampler.POINTS_PER_BUCKET*spec.resolution) {
+						int[] rows = Downsampler.m4(data, grouped, offset[g], n, ix, iy, range[0], range[1], spec.resolution);
+						points = new ArrayList<>(rows.length);
+						for (int row : rows) {
+							points.add(createPoint(data, row, ix, iy, cx, cy));
+						}
+					} else {
+						points = new ArrayList<>(n);
+						for (int i=offset[g]; i<offset[g+1]; i++) {
+							points.add(createPoint(data, grouped[i], ix, iy, cx, cy));
+						}
+					}
 					
-					// key
-					Object [] index = Arrays.copyOfRange(row.value, nx+ny-2, cols); // copy two extra to the left. 
+					// key = x, y, lod values
+					Object[] index = new Object[2+nlod];
 					index[0] = xInfo.field.getName();
 					index[1] = yInfo.field.getName();
-					
-					MultiKey key = new MultiKey(index, false);
-					ObservableList<XYChart.Data<Object, Object>> series = map.get(key);
-					if (series == null) {
-						series = FXCollections.observableArrayList();
-						map.put(key, series);
+					for (int i=0; i<nlod; i++) {
+						index[2+i] = data.getValue(grouped[offset[g]], lodCols[i]);
 					}
-					series.add(pt);
+					map.put(new MultiKey(index, false), FXCollections.observableList(points));
 				}
 			}
 		}
 		return map;
 	}
 	
-	private XYChart.Data<Object, Object> createPoint(Object x, Object y, Classification cx, Classification cy) {
-		x = convert(x, cx);
-		y = convert(y, cy);
+	/*
+	 * The x range to downsample over: the zoomed range or the range of the data
+	 */
+	private double[] xRange(TableData data, int ix, Spec spec) {
+		if (spec.xRange != null) return spec.xRange;
+		
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int row=0; row<data.size(); row++) {
+			if (data.isNull(row, ix)) continue;
+			double x = data.getDouble(row, ix);
+			if (x < min) min = x;
+			if (x > max) max = x;
+		}
+		return min <= max ? new double[] {min, max} : null;
+	}
+	
+	private XYChart.Data<Object, Object> createPoint(TableData data, int row, int ix, int iy, Classification cx, Classification cy) {
+		Object x = convert(data, row, ix, cx);
+		Object y = convert(data, row, iy, cy);
 		XYChart.Data<Object, Object> pt = new XYChart.Data<Object, Object>(x, y);
 		return pt;
 	}
 
 	NumberFormat numFormater = NumberFormat.getInstance();
 	
+	private Object convert(TableData data, int row, int col, Classification c) {
+		if (data.isNull(row, col)) {
+			return null;
+		}
+		
+		// numeric values are read as primitives and boxed only once, into the chart point
+		TableData.Type type = data.getType(col);
+		switch (c) {
+		case C:
+			if (type == TableData.Type.DOUBLE) return numFormater.format(data.getDouble(row, col));
+			if (data.isNumeric(col)) return numFormater.format(data.getLong(row, col));
+			break;
+		case Qi:
+		case Qd:
+			if (type == TableData.Type.DOUBLE) return data.getDouble(row, col);
+			if (type == TableData.Type.LONG) return data.getLong(row, col);
+			if (type == TableData.Type.INT) return data.getInt(row, col);
+			break;
+		default:
+			break;
+		}
+		return convert(data.getValue(row, col), c);
+	}
+	
 	private Object convert(Object v, Classification c) {
 		switch (c) {
 		case C:
@@ -667,6 +867,11 @@ public class ChartView extends CyclistViewBase {
 		
 		Map<MultiKey, XYChart.Series<Object, Object>> seriesMap = new HashMap<>();
 		Map<MultiKey, ObservableList<XYChart.Data<Object, Object>>> dataMap = new HashMap<>();
+		TableData data = null;
+		
+		// max number of buckets (pixels) along x or 0 to show all the points 
+		int resolution = 0;
+		double[] xRange = null;
 	}
 	
 	private Spec determineSpec() {
@@ -847,6 +1052,7 @@ public class ChartView extends CyclistViewBase {
 
 		_pane.setCenter(_stackPane);
 		_pane.setBottom(createControl());
+		setupZoom();
 
 		setContent(_pane);
 
@@ -1160,20 +1366,28 @@ public class ChartView extends CyclistViewBase {
     	            }
     	            f.write("\n");
     	           
-    	            if (_currentSpec.dataMap.size() > 0) {
-    	            	for (MultiKey multikey : _currentSpec.dataMap.keySet()) {
-    	            		StringBuilder sb = new StringBuilder();
-    	            		for (int i=2; i<multikey.size(); i++) {
-    	            			sb.append(",").append(multikey.getKey(i).toString());
+    	            // rows are written directly from the query result
+    	            TableData data = _currentSpec.data;
+    	            if (data != null) {
+    	            	int ix = _currentSpec.xFields.get(0).index;
+    	            	StringBuilder sb = new StringBuilder();
+    	            	for (int row=0; row<data.size(); row++) {
+    	            		data.append(sb, row, ix);
+    	            		for (FieldInfo info : _currentSpec.yFields) {
+    	            			sb.append(", ");
+    	            			data.append(sb, row, info.index);
+    	            		}
+    	            		for (FieldInfo info : _currentSpec.lod) {
+    	            			sb.append(",");
+    	            			data.append(sb, row, info.index);
     	            		}
-    	            		String str = sb.append("\n").toString();
-    	            		for (XYChart.Data<Object, Object> value : _currentSpec.dataMap.get(multikey)) {
-    	            			f.write(value.getXValue().toString());
-    	            			f.write(",");
-    	            			f.write(value.getYValue().toString());
-    	            			f.write(str);
+    	            		sb.append("\n");
+    	            		if (sb.length() > CSV_BUFFER_SIZE) {
+    	            			f.write(sb.toString());
+    	            			sb.setLength(0);
     	            		}
-    	            	}		
+    	            	}
+    	            	f.write(sb.toString());
     	            }
 
 	            }
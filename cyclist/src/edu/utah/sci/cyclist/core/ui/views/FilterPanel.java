@@ -51,6 +51,7 @@ import edu.utah.sci.cyclist.core.ui.components.Spring;
 import edu.utah.sci.cyclist.core.ui.panels.TitledPanel;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
+import edu.utah.sci.cyclist.core.util.Showing;
 
 public class FilterPanel extends TitledPanel {
 	static Logger log = Logger.getLogger(FilterPanel.class);
@@ -62,6 +63,7 @@ public class FilterPanel extends TitledPanel {
 	private ProgressIndicator _indicator;
 	private Button _closeButton;
 	private Task<?> _task;
+	private Runnable _pendingFetch = null;
 	private boolean _reportChange = true;
 	private BooleanProperty _highlight = new SimpleBooleanProperty(false);
 //	MapProperty<Object, Object> _map = new SimpleMapProperty<>();
@@ -109,7 +111,9 @@ public class FilterPanel extends TitledPanel {
 				
 				@Override
 				public void handle(Event event) {
-					log.info("Canceling task: "+_task.cancel());				
+					// the task may be shared by other filters: cancel it only once
+					log.info("Canceling task");
+					setTask(null);
 				}
 			});
 		}
@@ -232,18 +236,8 @@ public class FilterPanel extends TitledPanel {
 		
 		if (!_filter.isValid()) {
 //			System.out.println("FilterPanel: filter is not valid. Fetch data");
-			Field field = _filter.getField();
-			Table table = field.getTable();
-			
-			Task<ObservableList<Object>> task = table.getFieldValues(_filter.getDatasource(),field);
-			setTask(task);
-//			task.valueProperty().addListener(l->{
-//				
-//			});
-			field.valuesProperty().bind(task.valueProperty());
-			Thread th = new Thread(task);
-			th.setDaemon(true);
-			th.start();
+			// query the values only once the panel is on screen
+			scheduleFetch(this::fetchValues);
 			
 		} else {
 //			System.out.println("FilterPanel: filter is valid: populateValues()");
@@ -273,6 +267,34 @@ public class FilterPanel extends TitledPanel {
 		});
 	}
 	
+	/*
+	 * Run a fetch once the panel is showing. Only the latest fetch waits for the panel, so
+	 * rebuilding a hidden panel does not pile up fetches (see CyclistViewBase.schedule)
+	 */
+	private void scheduleFetch(Runnable fetch) {
+		boolean waiting = _pendingFetch != null;
+		_pendingFetch = fetch;
+		if (!waiting) {
+			Showing.whenShowing(this, () -> {
+				Runnable pending = _pendingFetch;
+				_pendingFetch = null;
+				pending.run();
+			});
+		}
+	}
+	
+	/*
+	 * Query the values of the filter field
+	 */
+	private void fetchValues() {
+		Field field = _filter.getField();
+		Table table = field.getTable();
+		
+		Task<ObservableList<Object>> task = table.getFieldValues(_filter.getDatasource(),field);
+		setTask(task);
+		field.valuesProperty().bind(task.valueProperty());
+	}
+	
 	private void populateValues() {
 		_cbBox.getChildren().clear();
 		if (_valuesProperty.get() != null) {
@@ -446,23 +468,7 @@ public class FilterPanel extends TitledPanel {
 		_valueRangeProperty.bind(_filter.valueRangeProperty());
 		
 		if (!_filter.isRangeValid()) {
-			final Field field = _filter.getField();
-			Table table = field.getTable();
-			
-			Task<ObservableValue<Range>> task = table.getFieldRange( _filter.getDatasource(), field);
-			setTask(task);
-			task.valueProperty().addListener(new ChangeListener<ObservableValue<Range>>() {
-
-				@Override
-                public void changed(
-                        ObservableValue<? extends ObservableValue<Range>> observable,
-                        ObservableValue<Range> oldValue,
-                        ObservableValue<Range> newValue) {
-					if (newValue != null) {
-						field.setValueRange(newValue.getValue());
-	                }	                
-                }
-			});
+			scheduleFetch(this::fetchRange);
 		}
 		else{
 			populateRangeValues();
@@ -480,6 +486,29 @@ public class FilterPanel extends TitledPanel {
 		});
 	}
 	
+	/*
+	 * Query the range of the filter field
+	 */
+	private void fetchRange() {
+		final Field field = _filter.getField();
+		Table table = field.getTable();
+		
+		Task<ObservableValue<Range>> task = table.getFieldRange( _filter.getDatasource(), field);
+		setTask(task);
+		task.valueProperty().addListener(new ChangeListener<ObservableValue<Range>>() {
+
+			@Override
+            public void changed(
+                    ObservableValue<? extends ObservableValue<Range>> observable,
+                    ObservableValue<Range> oldValue,
+                    ObservableValue<Range> newValue) {
+				if (newValue != null) {
+					field.setValueRange(newValue.getValue());
+                }	                
+            }
+		});
+	}
+	
 	/* Name: populateRangeValues
 	 * Populates a filter panel for a "measure" type filter.
 	 * In this case there would be a range slider which displays the possible values in the range 
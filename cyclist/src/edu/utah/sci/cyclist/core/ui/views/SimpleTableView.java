@@ -32,8 +32,8 @@ import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
@@ -71,13 +71,14 @@ import edu.utah.sci.cyclist.core.model.Filter;
 import edu.utah.sci.cyclist.core.model.Schema;
 import edu.utah.sci.cyclist.core.model.Simulation;
 import edu.utah.sci.cyclist.core.model.Table;
-import edu.utah.sci.cyclist.core.model.TableRow;
+import edu.utah.sci.cyclist.core.model.TableData;
 import edu.utah.sci.cyclist.core.model.ValueFilter;
 import edu.utah.sci.cyclist.core.model.proxy.TableProxy;
 import edu.utah.sci.cyclist.core.ui.components.CyclistViewBase;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
 import edu.utah.sci.cyclist.core.util.QueryBuilder;
+import edu.utah.sci.cyclist.core.util.SQLQuery;
 
 public class SimpleTableView extends CyclistViewBase {
 	public static final String ID = "table-view";
@@ -85,8 +86,12 @@ public class SimpleTableView extends CyclistViewBase {
 	
 	public static final String SIMULATION_FIELD_NAME = "SimID";
 	static final Logger log = LogManager.getLogger(SimpleTableView.class.getName());
+	
+	private static final int MAX_ROWS = 10000;
+	private static final int PAGE_SIZE = 1000;
 
-	private TableView<TableRow> _tableView;
+	private TableView<Integer> _tableView;
+	private TableData _data = TableData.empty();
 	private Table _currentTable = null;
 	private Field _simField; 
 	private Filter _simFilter; 
@@ -101,7 +106,7 @@ public class SimpleTableView extends CyclistViewBase {
 	private void build() {
 		setTitle(null);
 		
-		_tableView = new TableView<TableRow>();
+		_tableView = new TableView<Integer>();
 		_tableView.getStyleClass().add("simple-table-view");
 		_tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
 		_tableView.getSelectionModel().setCellSelectionEnabled(true);
@@ -163,15 +168,20 @@ public class SimpleTableView extends CyclistViewBase {
 					}
 				}
 	            
-    			for (TableRow row : _tableView.itemsProperty().get()) {
-    				boolean first = true;
-    				for (int c : cols) {
-    					if (first) first = false;
-    					else f.write(", "); 
-    					f.write(row.value[c].toString());
-    				}
-    				f.write("\n");
-    			}
+	            // rows are written in the current (possibly sorted) order of the table 
+	            if (_tableView.getItems() != null) {
+	            	StringBuilder sb = new StringBuilder();
+	            	for (int row : _tableView.getItems()) {
+	            		boolean first = true;
+	            		for (int c : cols) {
+	            			if (first) first = false;
+	            			else sb.append(", "); 
+	            			_data.append(sb, row, c);
+	            		}
+	            		sb.append("\n");
+	            	}
+	            	f.write(sb.toString());
+	            }
     			f.close();
 			} catch (IOException e) {
 	            log.error("Error: Can not write to file ["+e.getMessage()+"]");
@@ -308,12 +318,9 @@ public class SimpleTableView extends CyclistViewBase {
 	}
 	
 	private void loadTable(boolean updateColumns) {
-		_tableView.itemsProperty().unbind();
-		
 		//Clear the table previous data.
-		if(_tableView.getItems() != null){
-			_tableView.getItems().clear();
-		}
+		_tableView.setItems(null);
+		_data = TableData.empty();
 		
 		if (_currentTable == null || updateColumns) _tableView.getColumns().clear();
 		
@@ -321,7 +328,7 @@ public class SimpleTableView extends CyclistViewBase {
 			//TODO: this be done only if the table is active
 			Schema schema = _currentTable.getSchema();	
 			
-			List<TableColumn<TableRow, Object>> cols = new ArrayList<>();
+			List<TableColumn<Integer, Object>> cols = new ArrayList<>();
 			for (int f=0; f<schema.size(); f++) {
 				Field field = schema.getField(f);				
 				cols.add(createColumn(field, f, field.isHidden()));
@@ -335,7 +342,7 @@ public class SimpleTableView extends CyclistViewBase {
 
 	}
 	
-	private String buildQuery() {
+	private SQLQuery buildQuery() {
 		List<Filter> filtersList = new ArrayList<Filter>();
 		
 		if (_simFilter != null)
@@ -359,9 +366,10 @@ public class SimpleTableView extends CyclistViewBase {
 		QueryBuilder builder = _currentTable.queryBuilder()
 			.filters(filtersList);
 		
-		log.debug("TableView Query: "+builder.toString());
+		SQLQuery query = builder.build();
+		log.debug("TableView Query: "+query);
 		
-		return builder.toString();
+		return query;
 	}
 	
 	private void fetchRows() {	
@@ -372,50 +380,51 @@ public class SimpleTableView extends CyclistViewBase {
 			return;
 		}
 		
-		final String query = buildQuery();
+		final SQLQuery query = buildQuery();
 		
-		Task<ObservableList<TableRow>> task = new Task<ObservableList<TableRow>>() {
-
-			@Override
-			protected ObservableList<TableRow> call() throws Exception {
-				TableProxy proxy = new TableProxy(_currentTable);
-				CyclistDatasource ds = currentSim != null? currentSim.getDataSource() : null;
-				
-				return proxy.getRows(ds, query, 10000);
+		TableProxy proxy = new TableProxy(_currentTable);
+		CyclistDatasource ds = currentSim != null? currentSim.getDataSource() : null;
+		
+		// show the first page as soon as it is read and add the rest as it arrives
+		Task<Integer> task = proxy.getDataPages(ds, query, MAX_ROWS, PAGE_SIZE, (page, all) -> {
+			// the items are row indices into the columnar data
+			_data = all;
+			if (page == all || _tableView.getItems() == null) {
+				_tableView.setItems(FXCollections.observableList(all.rows()));
+			} else {
+				_tableView.getItems().addAll(TableData.rows(all.size()-page.size(), all.size()));
 			}
-		};
+		});
 		
 		setCurrentTask(task);
-		_tableView.itemsProperty().bind( task.valueProperty());	
-		
-		Thread th = new Thread(task);
-		th.setDaemon(true);
-		th.start();
+		_tableView.setItems(null);
+		schedule(task);
 	}
 	
-	private TableColumn<TableRow, Object> createColumn(final Field field, final int col, final Boolean isHidden) {
+	private TableColumn<Integer, Object> createColumn(final Field field, final int col, final Boolean isHidden) {
 				
-		TableColumn<TableRow, Object> tc = new TableColumn<>();
+		TableColumn<Integer, Object> tc = new TableColumn<>();
 		tc.setText(field.getName());
 		tc.setVisible(!isHidden);
 		
-		tc.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<TableRow,Object>, ObservableValue<Object>>() {
+		tc.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<Integer,Object>, ObservableValue<Object>>() {
 			@Override
-			public ObservableValue<Object> call(CellDataFeatures<TableRow, Object> cell) {
+			public ObservableValue<Object> call(CellDataFeatures<Integer, Object> cell) {
+				final TableData data = _data;
 				return new SimpleObjectProperty<Object>(cell.getValue(), field.getName()) {		
 					@Override
 					public Object getValue() {
-						TableRow row = (TableRow) getBean();
-						return row.value[col];
+						int row = (Integer) getBean();
+						return row < data.size() && col < data.getColumnCount() ? data.getValue(row, col) : null;
 					}
 				};
 			}
 		});		
 		
-		tc.setCellFactory(new Callback<TableColumn<TableRow, Object>, TableCell<TableRow, Object>>() {
+		tc.setCellFactory(new Callback<TableColumn<Integer, Object>, TableCell<Integer, Object>>() {
 
 			@Override
-			public TableCell<TableRow, Object> call(TableColumn<TableRow, Object> arg0) {
+			public TableCell<Integer, Object> call(TableColumn<Integer, Object> arg0) {
 				return new GenericCell<Object>(field);
 			}
 			
@@ -425,7 +434,7 @@ public class SimpleTableView extends CyclistViewBase {
 					
 	}
 	
-	class GenericCell<T> extends TableCell<TableRow, T> {
+	class GenericCell<T> extends TableCell<Integer, T> {
 		private Field _field; 
 		private Label _label;
 
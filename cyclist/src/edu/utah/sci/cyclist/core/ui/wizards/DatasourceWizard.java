@@ -250,8 +250,6 @@ public class DatasourceWizard extends VBox {
 			_status.setGraphic(GlyphRegistry.get(AwesomeIcon.CHECK));//"FontAwesome|OK"));
 		} catch (Exception e) {
 			_status.setGraphic(GlyphRegistry.get(AwesomeIcon.WARNING));//"FontAwesome|WARNING"));
-		}finally{
-			ds.releaseConnection();
 		}
 	}
 }
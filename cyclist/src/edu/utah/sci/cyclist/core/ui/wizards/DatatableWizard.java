@@ -377,8 +377,6 @@ public class DatatableWizard extends TilePane {
 			} catch (Exception e) {
 				_status.setGraphic(GlyphRegistry.get(AwesomeIcon.WARNING));//"FontAwesome|WARNING"));
 	
-			}finally {
-				ds.releaseConnection();
 			}
 		}
 	}
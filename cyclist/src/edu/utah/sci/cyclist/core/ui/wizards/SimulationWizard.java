@@ -414,8 +414,6 @@ public class SimulationWizard extends TilePane {
 			}
 			catch (Exception e) {
 				_status.setGraphic(GlyphRegistry.get(AwesomeIcon.WARNING));//"FontAwesome|WARNING"));
-			}finally{
-				ds.releaseConnection();
 			}
 		}
 	}
@@ -536,8 +534,6 @@ public class SimulationWizard extends TilePane {
 			}
 		} catch (SQLException e) {
 			log.warn("Error fetching simulation information:"+e.getMessage());
-		} finally {
-			sim.getDataSource().releaseConnection();
 		}
 	}
 	
@@ -397,8 +397,6 @@ public class SqliteLoaderWizard extends VBox {
 			log.warn("Get simulation failed");
 			setErrorDisplay();
 			return null;
-		}finally{
-			ds.releaseConnection();
 		}
 	}
 	
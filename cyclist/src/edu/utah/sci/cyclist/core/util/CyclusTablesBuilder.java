@@ -0,0 +1,371 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Derives the Agents, Inventories, TimeList and QuantityInventoryBase tables from the raw Cyclus
+ * output tables.
+ *
+ * This is the in-process replacement of the external cycpost applications.
+ * For each simulation the resources are read once, ordered by ResourceId, into primitive
+ * arrays. Since a resource is always created after its parents, a single forward pass
+ * knows the owner of every parent when a child resource is created. Each resource is then
+ * split into ownership intervals at its transaction times and ends when it is used to
+ * create a new resource (or at the end of the simulation).
+ *
+ * Each table is built by its own method so the caller can run (and commit) them as separate
+ * steps. All the rows are written with batched prepared inserts. The caller owns the transaction.
+ */
+public class CyclusTablesBuilder {
+	static Logger log = Logger.getLogger(CyclusTablesBuilder.class);
+
+	private static final int BATCH_SIZE = 10000;
+
+	private static final String TABLE_EXISTS_QUERY = "SELECT name FROM sqlite_master WHERE type='table' AND name=?";
+	private static final String SIMULATIONS_QUERY = "SELECT SimId, Duration FROM Info";
+
+	private static final String AGENTS_CREATE =
+			"CREATE TABLE Agents (SimId BLOB, AgentId INTEGER, Kind TEXT, Spec TEXT, Prototype TEXT, ParentId INTEGER, "
+			+ "Lifetime INTEGER, EnterTime INTEGER, ExitTime INTEGER)";
+	private static final String AGENTS_INDEX = "CREATE INDEX IF NOT EXISTS Agents_idx ON Agents (SimId ASC, AgentId ASC)";
+
+	private static final String INVENTORIES_CREATE =
+			"CREATE TABLE Inventories (SimId BLOB, ResourceId INTEGER, AgentId INTEGER, StartTime INTEGER, EndTime INTEGER, "
+			+ "QualId INTEGER, Quantity REAL)";
+	private static final String INVENTORIES_INDEX =
+			"CREATE INDEX IF NOT EXISTS Inventories_idx ON Inventories (SimId ASC, AgentId ASC, StartTime ASC, EndTime ASC, QualId ASC, Quantity ASC)";
+
+	private static final String TIMELIST_CREATE = "CREATE TABLE TimeList (SimId BLOB, Time INTEGER)";
+	private static final String TIMELIST_INDEX = "CREATE INDEX IF NOT EXISTS TimeList_idx ON TimeList (SimId ASC, Time ASC)";
+
+	private static final String QUANTITY_INVENTORY_BASE_CREATE =
+			"CREATE TABLE QuantityInventoryBase (SimId BLOB, Time INTEGER, NucId INTEGER, AgentId INTEGER, Quantity REAL)";
+	private static final String QUANTITY_INVENTORY_BASE_INDEX =
+			"CREATE INDEX IF NOT EXISTS quantityinventory_idx ON quantityinventorybase (simid,agentid,time,nucid,quantity)";
+	private static final String QUANTITY_INVENTORY_BASE_INSERT =
+			"INSERT INTO QuantityInventoryBase (SimId, Time, NucId, AgentId, Quantity) VALUES (?,?,?,?,?)";
+
+	private static final String AGENTS_INSERT =
+			  "INSERT INTO Agents (SimId, AgentId, Kind, Spec, Prototype, ParentId, Lifetime, EnterTime, ExitTime) "
+			+ "SELECT e.SimId, e.AgentId, e.Kind, e.Spec, e.Prototype, e.ParentId, e.Lifetime, e.EnterTime, %s "
+			+ "FROM AgentEntry AS e %s";
+
+	private static final String AGENT_EXIT_JOIN = "LEFT JOIN AgentExit AS x ON x.SimId = e.SimId AND x.AgentId = e.AgentId";
+
+	private static final String TIMELIST_INSERT = "INSERT INTO TimeList (SimId, Time) VALUES (?,?)";
+	private static final String INVENTORY_INSERT =
+			"INSERT INTO Inventories (SimId, ResourceId, AgentId, StartTime, EndTime, QualId, Quantity) VALUES (?,?,?,?,?,?,?)";
+
+	private static final String RESOURCES_QUERY =
+			"SELECT ResourceId, TimeCreated, QualId, Quantity, Parent1, Parent2 FROM Resources WHERE SimId=? ORDER BY ResourceId";
+	private static final String CREATORS_QUERY = "SELECT ResourceId, AgentId FROM ResCreators WHERE SimId=?";
+	private static final String TRANSACTIONS_QUERY =
+			"SELECT ResourceId, Time, ReceiverId FROM Transactions WHERE SimId=? ORDER BY ResourceId, Time, TransactionId";
+
+	private static final int NO_AGENT = -1;
+
+	private Connection _conn;
+	private Consumer<String> _messages;
+
+	public CyclusTablesBuilder(Connection conn, Consumer<String> messages) {
+		_conn = conn;
+		_messages = messages;
+	}
+
+	/**
+	 * (Re)creates the Agents table from AgentEntry and AgentExit.
+	 * @throws SQLException
+	 */
+	public void buildAgents() throws SQLException {
+		_messages.accept("Agents");
+		try (Statement stmt = _conn.createStatement()) {
+			recreate(stmt, "Agents", AGENTS_CREATE);
+			boolean hasExit = tableExists("AgentExit");
+			stmt.executeUpdate(String.format(AGENTS_INSERT, hasExit ? "x.ExitTime" : "NULL", hasExit ? AGENT_EXIT_JOIN : ""));
+			stmt.executeUpdate(AGENTS_INDEX);
+		}
+	}
+
+	/**
+	 * (Re)creates the TimeList table with one row for each time step of each simulation.
+	 * @throws SQLException
+	 */
+	public void buildTimeList() throws SQLException {
+		_messages.accept("TimeList");
+		try (Statement stmt = _conn.createStatement()) {
+			recreate(stmt, "TimeList", TIMELIST_CREATE);
+			for (Simulation sim : getSimulations()) {
+				buildTimeList(sim);
+			}
+			stmt.executeUpdate(TIMELIST_INDEX);
+		}
+	}
+
+	/**
+	 * (Re)creates the Inventories table.
+	 * @param progress receives the fraction of the resources processed so far
+	 * @throws SQLException
+	 */
+	public void buildInventories(DoubleConsumer progress) throws SQLException {
+		_messages.accept("Inventories");
+		try (Statement stmt = _conn.createStatement()) {
+			recreate(stmt, "Inventories", INVENTORIES_CREATE);
+			if (tableExists("Resources")) {
+				List<Simulation> sims = getSimulations();
+				for (int i = 0; i < sims.size(); i++) {
+					final int done = i;
+					buildInventories(sims.get(i), f -> progress.accept((done + f) / sims.size()));
+				}
+			}
+			stmt.executeUpdate(INVENTORIES_INDEX);
+		}
+	}
+
+	/**
+	 * (Re)creates the QuantityInventoryBase table: the amount of each nuclide in each agent at
+	 * each time step. Requires the Agents, TimeList and Inventories tables.
+	 * @param progress receives the fraction of the simulations processed so far
+	 * @throws SQLException
+	 */
+	public void buildQuantityInventoryBase(DoubleConsumer progress) throws SQLException {
+		_messages.accept("QuantityInventoryBase");
+		try (Statement stmt = _conn.createStatement()) {
+			// the insert can only be prepared once the table exists
+			recreate(stmt, "QuantityInventoryBase", QUANTITY_INVENTORY_BASE_CREATE);
+			try (PreparedStatement insert = _conn.prepareStatement(QUANTITY_INVENTORY_BASE_INSERT)) {
+				List<Simulation> sims = getSimulations();
+				for (int i = 0; i < sims.size(); i++) {
+					progress.accept(i / (double) sims.size());
+					byte[] simId = sims.get(i).id;
+					long[] rows = {0};
+					new InventorySweep(_conn, simId).run((time, nucId, agentId, amount) -> {
+						insert.setBytes(1, simId);
+						insert.setInt(2, time);
+						insert.setInt(3, nucId);
+						insert.setInt(4, agentId);
+						insert.setDouble(5, amount);
+						insert.addBatch();
+						if (++rows[0] % BATCH_SIZE == 0) insert.executeBatch();
+					});
+					insert.executeBatch();
+				}
+			}
+			stmt.executeUpdate(QUANTITY_INVENTORY_BASE_INDEX);
+		}
+	}
+
+	private void recreate(Statement stmt, String table, String create) throws SQLException {
+		stmt.executeUpdate("DROP TABLE IF EXISTS "+table);
+		stmt.executeUpdate(create);
+	}
+
+	private boolean tableExists(String name) throws SQLException {
+		try (PreparedStatement stmt = _conn.prepareStatement(TABLE_EXISTS_QUERY)) {
+			stmt.setString(1, name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private List<Simulation> getSimulations() throws SQLException {
+		List<Simulation> list = new ArrayList<>();
+		try (Statement stmt = _conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(SIMULATIONS_QUERY))
+		{
+			while (rs.next()) {
+				list.add(new Simulation(rs.getBytes(1), rs.getInt(2)));
+			}
+		}
+		return list;
+	}
+
+	private void buildTimeList(Simulation sim) throws SQLException {
+		try (PreparedStatement insert = _conn.prepareStatement(TIMELIST_INSERT)) {
+			for (int t = 0; t < sim.duration; t++) {
+				insert.setBytes(1, sim.id);
+				insert.setInt(2, t);
+				insert.addBatch();
+				if ((t+1) % BATCH_SIZE == 0) {
+					insert.executeBatch();
+				}
+			}
+			insert.executeBatch();
+		}
+	}
+
+	private void buildInventories(Simulation sim, DoubleConsumer progress) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		Resources res = readResources(sim);
+		int n = res.size;
+
+		// A resource ends when a new resource is created from it
+		int[] endTime = new int[n];
+		Arrays.fill(endTime, sim.duration);
+		for (int i = 0; i < n; i++) {
+			int p1 = res.indexOf(res.parent1[i]);
+			int p2 = res.indexOf(res.parent2[i]);
+			if (p1 >= 0) endTime[p1] = Math.min(endTime[p1], res.time[i]);
+			if (p2 >= 0) endTime[p2] = Math.min(endTime[p2], res.time[i]);
+		}
+
+		int[] owner = new int[n];
+		Arrays.fill(owner, NO_AGENT);
+		readCreators(sim, res, owner);
+
+		long rows = 0;
+		try (PreparedStatement insert = _conn.prepareStatement(INVENTORY_INSERT);
+			 PreparedStatement query = _conn.prepareStatement(TRANSACTIONS_QUERY))
+		{
+			query.setBytes(1, sim.id);
+			try (ResultSet trs = query.executeQuery()) {
+				boolean more = trs.next();
+
+				for (int i = 0; i < n; i++) {
+					if (i % BATCH_SIZE == 0) {
+						progress.accept(i / (double) n);
+					}
+
+					// a resource which was not created by an agent inherits the owner of its parents
+					if (owner[i] == NO_AGENT) {
+						int p = res.indexOf(res.parent1[i]);
+						if (p < 0) p = res.indexOf(res.parent2[i]);
+						if (p >= 0) owner[i] = owner[p];
+					}
+
+					int start = res.time[i];
+					int id = res.id[i];
+
+					// skip transactions of resources that are not in the Resources table
+					while (more && trs.getInt(1) < id) {
+						more = trs.next();
+					}
+
+					// every transaction moves the resource to a new owner
+					while (more && trs.getInt(1) == id) {
+						int time = trs.getInt(2);
+						if (owner[i] != NO_AGENT && time > start) {
+							addInventory(insert, sim, res, i, owner[i], start, time);
+							if (++rows % BATCH_SIZE == 0) insert.executeBatch();
+						}
+						owner[i] = trs.getInt(3);
+						start = time;
+						more = trs.next();
+					}
+
+					if (owner[i] != NO_AGENT && endTime[i] > start) {
+						addInventory(insert, sim, res, i, owner[i], start, endTime[i]);
+						if (++rows % BATCH_SIZE == 0) insert.executeBatch();
+					}
+				}
+			}
+			insert.executeBatch();
+		}
+
+		log.debug("Inventories: "+n+" resources, "+rows+" rows in "+(System.currentTimeMillis()-t0)/1000.0+" sec");
+	}
+
+	private void addInventory(PreparedStatement insert, Simulation sim, Resources res, int i, int agent, int start, int end)
+			throws SQLException
+	{
+		insert.setBytes(1, sim.id);
+		insert.setInt(2, res.id[i]);
+		insert.setInt(3, agent);
+		insert.setInt(4, start);
+		insert.setInt(5, end);
+		insert.setInt(6, res.qualId[i]);
+		insert.setDouble(7, res.quantity[i]);
+		insert.addBatch();
+	}
+
+	private Resources readResources(Simulation sim) throws SQLException {
+		Resources res = new Resources();
+		try (PreparedStatement stmt = _conn.prepareStatement(RESOURCES_QUERY)) {
+			stmt.setBytes(1, sim.id);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					res.add(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getDouble(4), rs.getInt(5), rs.getInt(6));
+				}
+			}
+		}
+		return res;
+	}
+
+	private void readCreators(Simulation sim, Resources res, int[] owner) throws SQLException {
+		if (!tableExists("ResCreators"))
+			return;
+
+		try (PreparedStatement stmt = _conn.prepareStatement(CREATORS_QUERY)) {
+			stmt.setBytes(1, sim.id);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					int i = res.indexOf(rs.getInt(1));
+					if (i >= 0) owner[i] = rs.getInt(2);
+				}
+			}
+		}
+	}
+
+	private static class Simulation {
+		byte[] id;
+		int duration;
+
+		Simulation(byte[] id, int duration) {
+			this.id = id;
+			this.duration = duration;
+		}
+	}
+
+	/*
+	 * The resources of a single simulation, sorted by ResourceId.
+	 */
+	private static class Resources {
+		int size = 0;
+		int[] id = new int[1024];
+		int[] time = new int[1024];
+		int[] qualId = new int[1024];
+		double[] quantity = new double[1024];
+		int[] parent1 = new int[1024];
+		int[] parent2 = new int[1024];
+
+		void add(int id, int time, int qualId, double quantity, int parent1, int parent2) {
+			if (size == this.id.length) {
+				int capacity = size * 2;
+				this.id = Arrays.copyOf(this.id, capacity);
+				this.time = Arrays.copyOf(this.time, capacity);
+				this.qualId = Arrays.copyOf(this.qualId, capacity);
+				this.quantity = Arrays.copyOf(this.quantity, capacity);
+				this.parent1 = Arrays.copyOf(this.parent1, capacity);
+				this.parent2 = Arrays.copyOf(this.parent2, capacity);
+			}
+			this.id[size] = id;
+			this.time[size] = time;
+			this.qualId[size] = qualId;
+			this.quantity[size] = quantity;
+			this.parent1[size] = parent1;
+			this.parent2[size] = parent2;
+			size++;
+		}
+
+		/*
+		 * @return the index of the resource or -1 if not found.
+		 * Parent ids of 0 denote no parent.
+		 */
+		int indexOf(int resourceId) {
+			if (resourceId <= 0) return -1;
+			int i = Arrays.binarySearch(id, 0, size, resourceId);
+			return i >= 0 ? i : -1;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+
+/**
+ * Identifies the content of a database, so that information derived from it and saved to disk
+ * can be discarded once the database changes.
+ *
+ * For SQLite the fingerprint is the size and modification time of the database file (and of its
+ * WAL) and a hash of its schema. The schema hash is only recomputed when the file changes, and the
+ * same instance is returned as long as the database is unchanged, so fingerprints can be compared
+ * by identity.
+ *
+ * The changes of a database server can not be detected cheaply, so the fingerprint of a server
+ * only identifies the current session: it is created once, without a query, and it is not
+ * {@link #isPersistent() persistent}. Information derived from a server database is kept in
+ * memory for the session and is not saved.
+ */
+public class DatabaseFingerprint {
+	static Logger log = Logger.getLogger(DatabaseFingerprint.class);
+
+	private static final String SQLITE_PREFIX = "jdbc:sqlite:/";
+
+	/**
+	 * Number of bytes written by {@link #write(DataOutput)}
+	 */
+	public static final int BYTES = 3*8;
+
+	// the fingerprints by data source url
+	private static Map<String, DatabaseFingerprint> _fingerprints = new ConcurrentHashMap<>();
+	// the session fingerprints of the database servers, by data source url
+	private static Map<String, DatabaseFingerprint> _sessions = new ConcurrentHashMap<>();
+
+	private final long _size;
+	private final long _modified;
+	private final long _schema;
+	private final boolean _persistent;
+
+	private DatabaseFingerprint(long size, long modified, long schema, boolean persistent) {
+		_size = size;
+		_modified = modified;
+		_schema = schema;
+		_persistent = persistent;
+	}
+
+	/**
+	 * The current fingerprint of a data source
+	 * @param ds
+	 * @return the fingerprint or null if the database is not available
+	 */
+	public static DatabaseFingerprint of(CyclistDatasource ds) {
+		String url = ds.getURL();
+		if (url == null) return null;
+
+		if (!ds.isSQLite()) {
+			return _sessions.computeIfAbsent(url, u -> new DatabaseFingerprint(0, 0, 0, false));
+		}
+
+		File db = getSQLiteFile(ds);
+		File wal = new File(db.getPath()+"-wal");
+		long size = db.length() + wal.length();
+		long modified = Math.max(db.lastModified(), wal.lastModified());
+
+		DatabaseFingerprint fingerprint = _fingerprints.get(url);
+		if (fingerprint != null && fingerprint._size == size && fingerprint._modified == modified) {
+			return fingerprint;
+		}
+
+		// the schema is read without holding any lock, so a lookup never waits for the query of another
+		Long schema = schemaHash(ds);
+		if (schema == null) return null;
+
+		// keep the published fingerprint if it matches, or if it was taken from a later state of the file
+		DatabaseFingerprint created = new DatabaseFingerprint(size, modified, schema, true);
+		fingerprint = _fingerprints.compute(url, (u, prev) ->
+			prev != null && (prev.matches(size, modified, schema) || prev._modified > modified) ? prev : created);
+		return fingerprint.matches(size, modified, schema) ? fingerprint : created;
+	}
+
+	/**
+	 * @param ds a SQLite data source
+	 * @return the database file
+	 */
+	public static File getSQLiteFile(CyclistDatasource ds) {
+		return new File(ds.getURL().replace(SQLITE_PREFIX, ""));
+	}
+
+	/**
+	 * @return true if the fingerprint identifies the database across sessions, so information
+	 * derived from the database can be saved with it
+	 */
+	public boolean isPersistent() {
+		return _persistent;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(_size);
+		out.writeLong(_modified);
+		out.writeLong(_schema);
+	}
+
+	/**
+	 * Read a saved fingerprint and compare it to this one
+	 * @param buf
+	 * @return true if the saved fingerprint is identical
+	 */
+	public boolean matches(ByteBuffer buf) {
+		return matches(buf.getLong(), buf.getLong(), buf.getLong());
+	}
+
+	private boolean matches(long size, long modified, long schema) {
+		return _size == size && _modified == modified && _schema == schema;
+	}
+
+	/*
+	 * Hash of the schema of a SQLite database
+	 */
+	private static Long schemaHash(CyclistDatasource ds) {
+		long hash = 1125899906842597L;
+		try (Connection conn = ds.getConnection();
+			 Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT type, name, sql FROM sqlite_master ORDER BY type, name"))
+		{
+			while (rs.next()) {
+				for (int c = 1; c <= 3; c++) {
+					hash = 31*hash + String.valueOf(rs.getString(c)).hashCode();
+				}
+			}
+		} catch (SQLException e) {
+			log.warn("Can not compute the schema of "+ds.getName()+": "+e.getMessage());
+			return null;
+		}
+		return hash;
+	}
+}
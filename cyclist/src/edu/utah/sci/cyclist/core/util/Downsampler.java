@@ -0,0 +1,100 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.util.Arrays;
+
+import edu.utah.sci.cyclist.core.model.TableData;
+
+/**
+ * M4 downsampling of a series for display.
+ *
+ * The x range is divided into one bucket per pixel column. For each bucket only the rows
+ * with the first and last x and with the min and max y are kept. A line drawn through these
+ * rows covers exactly the same pixels as a line through all the rows, so the chart looks
+ * the same while it holds at most 4 points per pixel column.
+ */
+public class Downsampler {
+	/**
+	 * Number of points per bucket
+	 */
+	public static final int POINTS_PER_BUCKET = 4;
+
+	private Downsampler() {
+	}
+
+	/**
+	 * Select the rows of a single series to draw
+	 * @param data
+	 * @param rows the rows of the series are rows[offset, offset+n). Rows with a null x or y are ignored.
+	 * @param offset
+	 * @param n the number of rows
+	 * @param ix the x column
+	 * @param iy the y column
+	 * @param from lower bound of the x range. Rows outside the range are assigned to the edge buckets
+	 * @param to upper bound of the x range
+	 * @param buckets number of buckets (pixels)
+	 * @return the selected rows, ordered by x
+	 */
+	public static int[] m4(TableData data, int[] rows, int offset, int n, int ix, int iy, double from, double to, int buckets) {
+		int[] first = new int[buckets];
+		int[] last = new int[buckets];
+		int[] min = new int[buckets];
+		int[] max = new int[buckets];
+		Arrays.fill(first, -1);
+
+		double scale = to > from ? buckets/(to-from) : 0;
+		for (int i = offset; i < offset+n; i++) {
+			int row = rows[i];
+			if (data.isNull(row, ix) || data.isNull(row, iy)) continue;
+
+			double x = data.getDouble(row, ix);
+			double y = data.getDouble(row, iy);
+			int b = (int) ((x-from)*scale);
+			if (b < 0) b = 0;
+			else if (b >= buckets) b = buckets-1;
+
+			if (first[b] < 0) {
+				first[b] = last[b] = min[b] = max[b] = row;
+				continue;
+			}
+			if (x < data.getDouble(first[b], ix)) first[b] = row;
+			if (x >= data.getDouble(last[b], ix)) last[b] = row;
+			if (y < data.getDouble(min[b], iy)) min[b] = row;
+			if (y > data.getDouble(max[b], iy)) max[b] = row;
+		}
+
+		int[] selected = new int[POINTS_PER_BUCKET*buckets];
+		int size = 0;
+		int[] bucket = new int[POINTS_PER_BUCKET];
+		for (int b = 0; b < buckets; b++) {
+			if (first[b] < 0) continue;
+
+			// the distinct rows of the bucket, ordered by x
+			int k = 0;
+			k = add(bucket, k, first[b]);
+			k = add(bucket, k, min[b]);
+			k = add(bucket, k, max[b]);
+			k = add(bucket, k, last[b]);
+			for (int i = 1; i < k; i++) {
+				int row = bucket[i];
+				double x = data.getDouble(row, ix);
+				int j = i-1;
+				while (j >= 0 && data.getDouble(bucket[j], ix) > x) {
+					bucket[j+1] = bucket[j];
+					j--;
+				}
+				bucket[j+1] = row;
+			}
+			System.arraycopy(bucket, 0, selected, size, k);
+			size += k;
+		}
+		return Arrays.copyOf(selected, size);
+	}
+
+	private static int add(int[] bucket, int k, int row) {
+		for (int i = 0; i < k; i++) {
+			if (bucket[i] == row) return k;
+		}
+		bucket[k] = row;
+		return k+1;
+	}
+}
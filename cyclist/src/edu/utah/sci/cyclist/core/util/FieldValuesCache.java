@@ -0,0 +1,258 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.Blob;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.neup.model.Nuclide;
+
+/**
+ * A persistent cache of the distinct values of table fields.
+ *
+ * Each (data source, table, field) is stored in its own small binary file
+ * <pre>
+ *  &lt;dir&gt;/&lt;ds-uid&gt;/&lt;table&gt;/&lt;field&gt;.values
+ * </pre>
+ * so a lookup reads (memory maps) only the requested field. The values are stored typed:
+ * ints, longs, doubles, nuclide ids, or UTF-8 strings (strings and blobs).
+ *
+ * Every file records the {@link DatabaseFingerprint} of the database it was computed from.
+ * An entry whose fingerprint does not match the current database is ignored and recomputed,
+ * so the cache is invalidated automatically when the database changes.
+ *
+ * Values are also kept in memory, under the same fingerprint check. The values of a database
+ * server, whose fingerprint is not persistent, are only kept in memory for the session.
+ */
+public class FieldValuesCache {
+	static Logger log = Logger.getLogger(FieldValuesCache.class);
+
+	private static final int MAGIC = 0x43594656; // CYFV
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".values";
+
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte NUCLIDE = 4;
+	private static final byte STRING = 5;
+	private static final byte BLOB = 6;
+
+	private static class Entry {
+		DatabaseFingerprint fingerprint;
+		List<Object> values;
+	}
+
+	// the in memory values by <ds-uid>/<table>/<field>
+	private static Map<String, Entry> _entries = new HashMap<>();
+
+	private FieldValuesCache() {
+	}
+
+	/**
+	 * Find the distinct values of a field
+	 * @param dir the cache directory
+	 * @param ds
+	 * @param table
+	 * @param field
+	 * @return the values or null if they are not in the cache or the database has changed
+	 */
+	public static List<Object> get(String dir, CyclistDatasource ds, String table, String field) {
+		DatabaseFingerprint fingerprint = DatabaseFingerprint.of(ds);
+		if (fingerprint == null) return null;
+
+		String key = key(ds, table, field);
+		synchronized (_entries) {
+			Entry entry = _entries.get(key);
+			if (entry != null && entry.fingerprint == fingerprint) {
+				return entry.values;
+			}
+		}
+
+		File file = file(dir, ds, table, field);
+		if (!fingerprint.isPersistent() || !file.exists()) return null;
+
+		List<Object> values = null;
+		try {
+			values = read(file, fingerprint);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Can not read field values cache "+file+": "+e.getMessage());
+		}
+		if (values == null) {
+			// stale or corrupted
+			file.delete();
+			return null;
+		}
+
+		remember(key, fingerprint, values);
+		return values;
+	}
+
+	/**
+	 * Save the distinct values of a field
+	 * @param dir the cache directory
+	 * @param ds
+	 * @param table
+	 * @param field
+	 * @param values
+	 */
+	public static void put(String dir, CyclistDatasource ds, String table, String field, List<Object> values) {
+		DatabaseFingerprint fingerprint = DatabaseFingerprint.of(ds);
+		if (fingerprint == null) return;
+
+		remember(key(ds, table, field), fingerprint, values);
+		if (!fingerprint.isPersistent()) return;
+
+		byte type = typeOf(values);
+		if (type == 0) {
+			log.debug("Field values of "+table+"."+field+" are not cached to disk: unsupported type");
+			return;
+		}
+
+		File file = file(dir, ds, table, field);
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath()+".tmp");
+		try {
+			write(tmp, fingerprint, type, values);
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				log.warn("Can not save field values cache "+file);
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			log.warn("Can not save field values cache "+file+": "+e.getMessage());
+			tmp.delete();
+		}
+	}
+
+	/*
+	 * Drop the values kept in memory, so the next lookups read the files
+	 */
+	static void forget() {
+		synchronized (_entries) {
+			_entries.clear();
+		}
+	}
+
+	private static void remember(String key, DatabaseFingerprint fingerprint, List<Object> values) {
+		Entry entry = new Entry();
+		entry.fingerprint = fingerprint;
+		entry.values = values;
+		synchronized (_entries) {
+			_entries.put(key, entry);
+		}
+	}
+
+	private static String key(CyclistDatasource ds, String table, String field) {
+		return ds.getUID()+"/"+table+"/"+field;
+	}
+
+	private static File file(String dir, CyclistDatasource ds, String table, String field) {
+		return new File(dir+"/"+ds.getUID()+"/"+safe(table), safe(field)+SUFFIX);
+	}
+
+	private static String safe(String name) {
+		return name.replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+
+	/*
+	 * The storage type of the values, or 0 if they can not be stored
+	 */
+	private static byte typeOf(List<Object> values) {
+		byte type = 0;
+		for (Object value : values) {
+			if (value == null) continue;
+			byte t;
+			if (value instanceof Integer) t = INT;
+			else if (value instanceof Long) t = LONG;
+			else if (value instanceof Double) t = DOUBLE;
+			else if (value instanceof Nuclide) t = NUCLIDE;
+			else if (value instanceof String) t = STRING;
+			else if (value instanceof Blob) t = BLOB;
+			else return 0;
+
+			if (type == 0) type = t;
+			else if (type != t) return 0;
+		}
+		return type == 0 ? STRING : type;
+	}
+
+	/*
+	 * Layout:
+	 *   int magic, int version, fingerprint,
+	 *   byte type, int count, int null index (-1 if none), values of the non null entries
+	 * Strings are stored as int length followed by the UTF-8 bytes.
+	 */
+	private static void write(File file, DatabaseFingerprint fingerprint, byte type, List<Object> values) throws IOException {
+		int nullIndex = values.indexOf(null);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			fingerprint.write(out);
+			out.writeByte(type);
+			out.writeInt(nullIndex < 0 ? values.size() : values.size()-1);
+			out.writeInt(nullIndex);
+			for (Object value : values) {
+				if (value == null) continue;
+				switch (type) {
+				case INT: out.writeInt((Integer) value); break;
+				case LONG: out.writeLong((Long) value); break;
+				case DOUBLE: out.writeDouble((Double) value); break;
+				case NUCLIDE: out.writeInt(((Nuclide) value).getId()); break;
+				default:
+					byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+		}
+	}
+
+	private static List<Object> read(File file, DatabaseFingerprint fingerprint) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (!fingerprint.matches(buf)) return null;
+
+			byte type = buf.get();
+			int count = buf.getInt();
+			int nullIndex = buf.getInt();
+			List<Object> values = new ArrayList<>(count+1);
+			byte[] bytes = new byte[0];
+			for (int i = 0; i < count; i++) {
+				if (i == nullIndex) values.add(null);
+				switch (type) {
+				case INT: values.add(buf.getInt()); break;
+				case LONG: values.add(buf.getLong()); break;
+				case DOUBLE: values.add(buf.getDouble()); break;
+				case NUCLIDE: values.add(Nuclide.create(buf.getInt())); break;
+				case STRING:
+				case BLOB:
+					int n = buf.getInt();
+					if (bytes.length < n) bytes = new byte[n];
+					buf.get(bytes, 0, n);
+					String str = new String(bytes, 0, n, StandardCharsets.UTF_8);
+					values.add(type == STRING ? str : new Blob(str));
+					break;
+				default:
+					return null;
+				}
+			}
+			if (nullIndex == count) values.add(null);
+			return values;
+		}
+	}
+}
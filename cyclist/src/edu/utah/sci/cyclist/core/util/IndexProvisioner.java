@@ -0,0 +1,320 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.neup.model.proxy.SimulationProxy;
+
+/**
+ * Creates the indexes needed by the queries the application runs against a Cyclus database.
+ *
+ * Each registered query template lists the covering indexes that serve it. The provisioner asks
+ * SQLite for the plan of the template (EXPLAIN QUERY PLAN) and creates a candidate index only if
+ * the plan scans its table (or builds an automatic index for it, or skip-scans an index). This is repeated until the plan
+ * does not change, since an index on one table may change the order in which the tables are joined.
+ *
+ * The plan before and after, and the time the template takes with sample parameters, are reported
+ * for every template which received an index.
+ */
+public class IndexProvisioner {
+	static Logger log = Logger.getLogger(IndexProvisioner.class);
+
+	private static final int MAX_ROUNDS = 4;
+	private static final String SAMPLE_QUERY = "SELECT SimId, SenderId FROM Transactions LIMIT 1";
+	private static final String INDEX_EXISTS_QUERY = "SELECT name FROM sqlite_master WHERE type='index' AND name=?";
+	private static final Pattern SCAN = Pattern.compile("^(?:SCAN|SEARCH)(?: TABLE)? (\\w+)");
+
+	/**
+	 * The parameters of a template, bound to sample values when the template is timed
+	 */
+	public enum Param { SIM_ID, AGENT_ID, MIN_TIME, MAX_TIME }
+
+	public static class Index {
+		public final String name;
+		public final String table;
+		public final String columns;
+
+		public Index(String name, String table, String columns) {
+			this.name = name;
+			this.table = table;
+			this.columns = columns;
+		}
+
+		public String ddl() {
+			return "CREATE INDEX IF NOT EXISTS "+name+" ON "+table+" ("+columns+")";
+		}
+	}
+
+	public static class Template {
+		public final String name;
+		public final String sql;
+		public final Param[] params;
+		public final Index[] indexes;
+
+		public Template(String name, String sql, Param[] params, Index... indexes) {
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+			this.indexes = indexes;
+		}
+	}
+
+	/**
+	 * The outcome of a template
+	 */
+	public static class Report {
+		public Template template;
+		public List<String> planBefore;
+		public List<String> planAfter;
+		public List<String> created = new ArrayList<>();
+		/** time (ms) of the template before and after the indexes were created, or -1 */
+		public long before = -1;
+		public long after = -1;
+	}
+
+	public static final Index TRANSACTIONS_SENDER_IDX =
+			new Index("Transactions_sender_idx", "Transactions", "SimId, SenderId, Time, ResourceId, ReceiverId, Commodity");
+	public static final Index TRANSACTIONS_RECEIVER_IDX =
+			new Index("Transactions_receiver_idx", "Transactions", "SimId, ReceiverId, Time, ResourceId, SenderId, Commodity");
+	public static final Index RESOURCES_IDX =
+			new Index("Resources_idx", "Resources", "SimId, ResourceId, QualId, Quantity, Units");
+	public static final Index COMPOSITIONS_IDX =
+			new Index("Compositions_idx", "Compositions", "SimId, QualId, NucId, MassFrac");
+	public static final Index FACILITIES_IDX =
+			new Index("Facilities_idx", "Facilities", "SimId, AgentId");
+	public static final Index QUANTITY_TRANSACTED_IDX =
+			new Index("quantitytransacted_idx", "QuantityTransactedBase", "SimId, AgentId, Time, NucId, Quantity");
+	public static final Index QUANTITY_INVENTORY_IDX =
+			new Index("quantityinventory_idx", "QuantityInventoryBase", "SimId, AgentId, Time, NucId, Quantity");
+
+	private static List<Template> _templates = new ArrayList<>();
+
+	static {
+		Param[] transactions = { Param.SIM_ID, Param.MIN_TIME, Param.MAX_TIME, Param.AGENT_ID };
+		register(new Template("Facilities", SimulationProxy.FACILITIES_QUERY, new Param[] { Param.SIM_ID },
+				FACILITIES_IDX));
+		register(new Template("Commodities", SimulationProxy.COMMODITY_QUERY, new Param[] { Param.SIM_ID },
+				TRANSACTIONS_SENDER_IDX));
+		register(new Template("Outgoing transactions",
+				String.format(SimulationProxy.TRANSACTIONS_QUERY, "SenderId", "AgentId"), transactions,
+				FACILITIES_IDX, TRANSACTIONS_SENDER_IDX, RESOURCES_IDX, COMPOSITIONS_IDX));
+		register(new Template("Incoming transactions",
+				String.format(SimulationProxy.TRANSACTIONS_QUERY, "ReceiverId", "AgentId"), transactions,
+				FACILITIES_IDX, TRANSACTIONS_RECEIVER_IDX, RESOURCES_IDX, COMPOSITIONS_IDX));
+		register(new Template("Inventory compositions", String.format(InventorySweep.COMPOSITIONS_QUERY, ""), new Param[] { Param.SIM_ID },
+				COMPOSITIONS_IDX));
+		register(new Template("Quantity transacted",
+				"SELECT Time, NucId, Quantity FROM QuantityTransactedBase WHERE SimId=? AND AgentId=?",
+				new Param[] { Param.SIM_ID, Param.AGENT_ID },
+				QUANTITY_TRANSACTED_IDX));
+		register(new Template("Quantity inventory",
+				"SELECT Time, NucId, Quantity FROM QuantityInventoryBase WHERE SimId=? AND AgentId=?",
+				new Param[] { Param.SIM_ID, Param.AGENT_ID },
+				QUANTITY_INVENTORY_IDX));
+	}
+
+	private Connection _conn;
+	private Consumer<String> _messages;
+	private boolean _timing = true;
+	private byte[] _simId = null;
+	private int _agentId = 0;
+
+	/**
+	 * @param conn a write connection to the database
+	 * @param messages receives a line for each index that is created
+	 */
+	public IndexProvisioner(Connection conn, Consumer<String> messages) {
+		_conn = conn;
+		_messages = messages;
+	}
+
+	/**
+	 * Add a query template. The templates are provisioned by every subsequent run.
+	 * @param template
+	 */
+	public static synchronized void register(Template template) {
+		_templates.add(template);
+	}
+
+	public static synchronized List<Template> getTemplates() {
+		return new ArrayList<>(_templates);
+	}
+
+	/**
+	 * Whether the templates which receive an index are timed, before and after
+	 * @param timing
+	 * @return this
+	 */
+	public IndexProvisioner timing(boolean timing) {
+		_timing = timing;
+		return this;
+	}
+
+	/**
+	 * Provision the indexes of all the registered templates
+	 * @return a report for each template whose tables exist
+	 * @throws SQLException
+	 */
+	public List<Report> run() throws SQLException {
+		readSample();
+		List<Report> reports = new ArrayList<>();
+		for (Template template : getTemplates()) {
+			try {
+				reports.add(provision(template));
+			} catch (SQLException e) {
+				// e.g. a table which does not exist in this database
+				log.debug("Index provisioning skipped '"+template.name+"': "+e.getMessage());
+			}
+		}
+		return reports;
+	}
+
+	private Report provision(Template template) throws SQLException {
+		Report report = new Report();
+		report.template = template;
+		report.planBefore = plan(template);
+
+		List<String> plan = report.planBefore;
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			Set<String> scanned = scannedTables(plan);
+			List<Index> missing = new ArrayList<>();
+			for (Index index : template.indexes) {
+				if (scanned.contains(index.table.toLowerCase(Locale.ROOT)) && !exists(index)) {
+					missing.add(index);
+				}
+			}
+			if (missing.isEmpty()) break;
+
+			if (report.created.isEmpty() && _timing) {
+				report.before = time(template);
+			}
+			for (Index index : missing) {
+				create(index);
+				report.created.add(index.name);
+			}
+			plan = plan(template);
+		}
+		report.planAfter = plan;
+
+		if (!report.created.isEmpty()) {
+			if (_timing) {
+				report.after = time(template);
+			}
+			log.info("Indexes for '"+template.name+"': "+report.created
+					+"\n  plan before: "+report.planBefore+"\n  plan after:  "+report.planAfter
+					+(report.before >= 0 ? "\n  time: "+report.before+"ms -> "+report.after+"ms" : ""));
+			_messages.accept(template.name+": "+String.join(", ", report.created)
+					+(report.before >= 0 ? " ("+report.before+"ms -> "+report.after+"ms)" : ""));
+		}
+		return report;
+	}
+
+	/*
+	 * The detail lines of the query plan of a template
+	 */
+	private List<String> plan(Template template) throws SQLException {
+		List<String> plan = new ArrayList<>();
+		try (PreparedStatement stmt = _conn.prepareStatement("EXPLAIN QUERY PLAN "+template.sql)) {
+			bind(stmt, template);
+			try (ResultSet rs = stmt.executeQuery()) {
+				int detail = rs.getMetaData().getColumnCount();
+				while (rs.next()) {
+					plan.add(rs.getString(detail));
+				}
+			}
+		}
+		return plan;
+	}
+
+	/*
+	 * The tables which the plan reads entirely, skip-scans (ANY) an index whose leading columns
+	 * are not constrained, or for which SQLite builds a transient index
+	 */
+	static Set<String> scannedTables(List<String> plan) {
+		Set<String> tables = new HashSet<>();
+		for (String line : plan) {
+			Matcher m = SCAN.matcher(line);
+			if (!m.find()) continue;
+			if (line.startsWith("SCAN") || line.contains("AUTOMATIC") || line.contains("ANY(")) {
+				tables.add(m.group(1).toLowerCase(Locale.ROOT));
+			}
+		}
+		return tables;
+	}
+
+	private boolean exists(Index index) throws SQLException {
+		try (PreparedStatement stmt = _conn.prepareStatement(INDEX_EXISTS_QUERY)) {
+			stmt.setString(1, index.name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private void create(Index index) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		try (Statement stmt = _conn.createStatement()) {
+			stmt.executeUpdate(index.ddl());
+			// let the planner know how selective the new index is
+			stmt.executeUpdate("ANALYZE "+index.name);
+		}
+		log.debug("Created "+index.name+" in "+(System.currentTimeMillis()-t0)/1000.0+" sec");
+	}
+
+	private void readSample() {
+		try (Statement stmt = _conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(SAMPLE_QUERY))
+		{
+			if (rs.next()) {
+				_simId = rs.getBytes(1);
+				_agentId = rs.getInt(2);
+			}
+		} catch (SQLException e) {
+			log.debug("No sample parameters: "+e.getMessage());
+		}
+	}
+
+	private void bind(PreparedStatement stmt, Template template) throws SQLException {
+		int i = 1;
+		for (Param param : template.params) {
+			switch (param) {
+			case SIM_ID: stmt.setBytes(i, _simId); break;
+			case AGENT_ID: stmt.setInt(i, _agentId); break;
+			case MIN_TIME: stmt.setInt(i, 0); break;
+			case MAX_TIME: stmt.setInt(i, Integer.MAX_VALUE); break;
+			}
+			i++;
+		}
+	}
+
+	/*
+	 * Run the template with the sample parameters and read all the rows
+	 */
+	private long time(Template template) throws SQLException {
+		if (_simId == null) return -1;
+
+		long t0 = System.currentTimeMillis();
+		try (PreparedStatement stmt = _conn.prepareStatement(template.sql)) {
+			bind(stmt, template);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					/* read all the rows */
+				}
+			}
+		}
+		return System.currentTimeMillis() - t0;
+	}
+}
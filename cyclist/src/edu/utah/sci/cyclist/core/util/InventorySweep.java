@@ -0,0 +1,432 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+
+/**
+ * Computes the per time step nuclide inventories of agents by sweeping over the
+ * inventory intervals instead of joining TimeList with Inventories on a range condition.
+ *
+ * The intervals are sorted by their start and end times. While the time advances, each
+ * interval that starts adds its quantity (times the mass fraction of each of its nuclides)
+ * to a running total per (agent, nuclide), and each interval that ends subtracts it.
+ * At every time step the active totals are emitted. The cost is linear in the number of
+ * intervals plus the size of the output, rather than (time steps x intervals).
+ *
+ * The output is equivalent to
+ * <pre>
+ *  SELECT tl.Time, cmp.NucId, inv.AgentId, SUM(inv.Quantity*cmp.MassFrac)
+ *  FROM TimeList tl
+ *       JOIN Inventories inv ON inv.StartTime <= tl.Time AND inv.EndTime > tl.Time
+ *       JOIN Compositions cmp ON cmp.QualId = inv.QualId
+ *  GROUP BY tl.Time, cmp.NucId, inv.AgentId
+ * </pre>
+ * restricted to a single simulation.
+ */
+public class InventorySweep {
+	static Logger log = Logger.getLogger(InventorySweep.class);
+
+	private static final String TIMELIST_QUERY = "SELECT Time FROM TimeList WHERE SimId=? AND Time >= ? ORDER BY Time";
+	static final String COMPOSITIONS_QUERY = "SELECT QualId, NucId, MassFrac FROM Compositions WHERE SimId=? %s ORDER BY QualId";
+	private static final String INVENTORIES_QUERY =
+			"SELECT inv.AgentId, inv.StartTime, inv.EndTime, inv.QualId, inv.Quantity FROM Inventories AS inv"
+			+ " WHERE inv.SimId=? AND inv.EndTime > inv.StartTime"
+			+ "   AND inv.AgentId IN (SELECT AgentId FROM Agents AS ag WHERE ag.SimId=? %s)";
+	private static final String AGENT_CONDITION = "AND ag.%s = ?";
+	private static final String GROUP_QUERY = "SELECT AgentId FROM Agents WHERE SimId=? AND %s = ?";
+
+	/**
+	 * Receives the inventory of a single (time, nuclide, agent).
+	 */
+	@FunctionalInterface
+	public interface RowConsumer {
+		void accept(int time, int nucId, int agentId, double amount) throws SQLException;
+	}
+
+	/**
+	 * Receives the inventories of groups of agents, see {@link #run(List, List, GroupConsumer)}.
+	 */
+	public interface GroupConsumer {
+		void accept(int group, int time, int nucId, double amount) throws SQLException;
+
+		/**
+		 * Called after the last row of a group
+		 * @param group
+		 * @throws SQLException
+		 */
+		default void done(int group) throws SQLException {
+		}
+	}
+
+	private Connection _conn;
+	private byte[] _simId;
+	private String _agentField = null;
+	private String _agentValue = null;
+	private boolean _perAgent = true;
+	private int _minTime = Integer.MIN_VALUE;
+	private String _nuclideCondition = null;
+
+	public InventorySweep(Connection conn, byte[] simId) {
+		_conn = conn;
+		_simId = simId;
+	}
+
+	/**
+	 * Only include the agents whose field (a column of the Agents table) has the given value.
+	 * @param field
+	 * @param value
+	 */
+	public void setAgents(String field, String value) {
+		_agentField = field;
+		_agentValue = value;
+	}
+
+	/**
+	 * @param value if true (the default) the inventories are reported per agent. Otherwise
+	 * the inventories of all the agents are summed and reported with agentId 0.
+	 */
+	public void setPerAgent(boolean value) {
+		_perAgent = value;
+	}
+
+	/**
+	 * Skip the time steps before the given time.
+	 * @param time
+	 */
+	public void setMinTime(int time) {
+		_minTime = time;
+	}
+
+	/**
+	 * Only include the nuclides which satisfy a condition on the NucId column of the Compositions table.
+	 * The other nuclides are not read, so they take no memory during the sweep.
+	 * @param condition a SQL condition or null for all the nuclides
+	 */
+	public void setNuclideCondition(String condition) {
+		_nuclideCondition = condition;
+	}
+
+	/**
+	 * Run the sweep.
+	 * @param out receives the rows ordered by time
+	 * @return the number of rows emitted
+	 * @throws SQLException
+	 */
+	public long run(RowConsumer out) throws SQLException {
+		String condition = _agentField != null ? String.format(AGENT_CONDITION, _agentField) : "";
+		List<String> values = _agentField != null ? Collections.singletonList(_agentValue) : Collections.emptyList();
+
+		int[] times = readTimes();
+		Compositions comps = readCompositions();
+		Intervals intervals = readIntervals(condition, values, _perAgent);
+		return sweep(times, comps, intervals, out);
+	}
+
+	/**
+	 * Run the sweep for several groups of agents, each summed over its agents (as with setPerAgent(false)).
+	 * Group i holds the agents whose column fields[i] of the Agents table has the value values[i].
+	 * An agent may belong to several groups.
+	 *
+	 * The time steps, compositions and inventories are read once, by a single query for all the
+	 * groups. The groups are then swept one after the other, so each group is delivered as soon
+	 * as it is complete. setAgents and setPerAgent do not apply.
+	 * @param fields
+	 * @param values
+	 * @param out receives the rows of each group ordered by time
+	 * @throws SQLException
+	 */
+	public void run(List<String> fields, List<String> values, GroupConsumer out) throws SQLException {
+		if (fields.isEmpty()) return;
+
+		// the groups of each agent
+		Map<Integer, List<Integer>> groups = new HashMap<>();
+		for (int g = 0; g < fields.size(); g++) {
+			try (PreparedStatement stmt = _conn.prepareStatement(String.format(GROUP_QUERY, fields.get(g)))) {
+				stmt.setBytes(1, _simId);
+				stmt.setString(2, values.get(g));
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						groups.computeIfAbsent(rs.getInt(1), id -> new ArrayList<>()).add(g);
+					}
+				}
+			}
+		}
+
+		StringBuilder condition = new StringBuilder("AND (");
+		for (int g = 0; g < fields.size(); g++) {
+			if (g > 0) condition.append(" OR ");
+			condition.append("ag.").append(fields.get(g)).append(" = ?");
+		}
+		condition.append(")");
+
+		int[] times = readTimes();
+		Compositions comps = readCompositions();
+		Intervals intervals = readIntervals(condition.toString(), values, true);
+
+		// split the intervals by group
+		Intervals[] split = new Intervals[fields.size()];
+		for (int g = 0; g < split.length; g++) {
+			split[g] = new Intervals();
+		}
+		for (int i = 0; i < intervals.size; i++) {
+			List<Integer> of = groups.get(intervals.agent[i]);
+			if (of == null) continue;
+			for (int g : of) {
+				split[g].add(0, intervals.start[i], intervals.end[i], intervals.qual[i], intervals.quantity[i]);
+			}
+		}
+		intervals = null;
+
+		for (int g = 0; g < split.length; g++) {
+			final int group = g;
+			sweep(times, comps, split[g], (time, nucId, agentId, amount) -> out.accept(group, time, nucId, amount));
+			split[g] = null;
+			out.done(group);
+		}
+	}
+
+	private long sweep(int[] times, Compositions comps, Intervals intervals, RowConsumer out) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		int n = intervals.size;
+
+		// sort the start and end events by time. The interval index is packed in the low bits.
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		for (int i = 0; i < n; i++) {
+			starts[i] = ((long) intervals.start[i] << 32) | i;
+			ends[i] = ((long) intervals.end[i] << 32) | i;
+		}
+		Arrays.sort(starts);
+		Arrays.sort(ends);
+
+		Totals totals = new Totals();
+		int s = 0, e = 0;
+		long rows = 0;
+		for (int time : times) {
+			// intervals which started at or before this time
+			while (s < n && (int) (starts[s] >> 32) <= time) {
+				int i = (int) starts[s++];
+				totals.add(intervals, i, comps, +1);
+			}
+			// intervals which ended at or before this time
+			while (e < n && (int) (ends[e] >> 32) <= time) {
+				int i = (int) ends[e++];
+				totals.add(intervals, i, comps, -1);
+			}
+
+			for (int a = 0; a < totals.activeSize; a++) {
+				int k = totals.active[a];
+				out.accept(time, totals.nuc[k], totals.agent[k], totals.sum[k]);
+			}
+			rows += totals.activeSize;
+		}
+
+		log.debug("Inventory sweep: "+n+" intervals, "+times.length+" time steps, "+rows+" rows in "
+				+(System.currentTimeMillis()-t0)/1000.0+" sec");
+		return rows;
+	}
+
+	private int[] readTimes() throws SQLException {
+		int[] times = new int[256];
+		int n = 0;
+		try (PreparedStatement stmt = _conn.prepareStatement(TIMELIST_QUERY)) {
+			stmt.setBytes(1, _simId);
+			stmt.setInt(2, _minTime);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					if (n == times.length) times = Arrays.copyOf(times, 2*n);
+					times[n++] = rs.getInt(1);
+				}
+			}
+		}
+		return Arrays.copyOf(times, n);
+	}
+
+	private Compositions readCompositions() throws SQLException {
+		Compositions comps = new Compositions();
+		String query = String.format(COMPOSITIONS_QUERY, _nuclideCondition != null ? "AND "+_nuclideCondition : "");
+		try (PreparedStatement stmt = _conn.prepareStatement(query)) {
+			stmt.setBytes(1, _simId);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					comps.add(rs.getInt(1), rs.getInt(2), rs.getDouble(3));
+				}
+			}
+		}
+		comps.seal();
+		return comps;
+	}
+
+	/*
+	 * The intervals of the agents which satisfy the condition (on the Agents table 'ag')
+	 */
+	private Intervals readIntervals(String condition, List<String> values, boolean perAgent) throws SQLException {
+		Intervals intervals = new Intervals();
+		String query = String.format(INVENTORIES_QUERY, condition);
+		try (PreparedStatement stmt = QueryTask.track(_conn.prepareStatement(query))) {
+			stmt.setBytes(1, _simId);
+			stmt.setBytes(2, _simId);
+			int p = 3;
+			for (String value : values) {
+				stmt.setString(p++, value);
+			}
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					intervals.add(perAgent ? rs.getInt(1) : 0, rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getDouble(5));
+				}
+			}
+		}
+		return intervals;
+	}
+
+	/*
+	 * Inventory intervals in parallel primitive arrays
+	 */
+	private static class Intervals {
+		int size = 0;
+		int[] agent = new int[1024];
+		int[] start = new int[1024];
+		int[] end = new int[1024];
+		int[] qual = new int[1024];
+		double[] quantity = new double[1024];
+
+		void add(int agent, int start, int end, int qual, double quantity) {
+			if (size == this.agent.length) {
+				int capacity = 2*size;
+				this.agent = Arrays.copyOf(this.agent, capacity);
+				this.start = Arrays.copyOf(this.start, capacity);
+				this.end = Arrays.copyOf(this.end, capacity);
+				this.qual = Arrays.copyOf(this.qual, capacity);
+				this.quantity = Arrays.copyOf(this.quantity, capacity);
+			}
+			this.agent[size] = agent;
+			this.start[size] = start;
+			this.end[size] = end;
+			this.qual[size] = qual;
+			this.quantity[size] = quantity;
+			size++;
+		}
+	}
+
+	/*
+	 * Compositions ordered by QualId: the nuclides of qual[i] are in [offset[i], offset[i+1])
+	 */
+	private static class Compositions {
+		int quals = 0;
+		int[] qual = new int[256];
+		int[] offset = new int[257];
+		int size = 0;
+		int[] nuc = new int[1024];
+		double[] frac = new double[1024];
+
+		void add(int qualId, int nucId, double massFrac) {
+			if (quals == 0 || qual[quals-1] != qualId) {
+				if (quals == qual.length) {
+					// offset keeps one more entry than qual, for seal()
+					qual = Arrays.copyOf(qual, 2*quals);
+					offset = Arrays.copyOf(offset, 2*quals+1);
+				}
+				qual[quals] = qualId;
+				offset[quals] = size;
+				quals++;
+			}
+			if (size == nuc.length) {
+				nuc = Arrays.copyOf(nuc, 2*size);
+				frac = Arrays.copyOf(frac, 2*size);
+			}
+			nuc[size] = nucId;
+			frac[size] = massFrac;
+			size++;
+		}
+
+		void seal() {
+			offset[quals] = size;
+		}
+
+		int indexOf(int qualId) {
+			return Arrays.binarySearch(qual, 0, quals, qualId);
+		}
+	}
+
+	/*
+	 * Running totals per (agent, nuclide) and the set of keys with at least one active interval.
+	 */
+	private static class Totals {
+		LongIntMap keys = new LongIntMap();
+		int size = 0;
+		int[] agent = new int[1024];
+		int[] nuc = new int[1024];
+		double[] sum = new double[1024];
+		int[] count = new int[1024];
+		int[] position = new int[1024];
+
+		int activeSize = 0;
+		int[] active = new int[1024];
+
+		void add(Intervals intervals, int i, Compositions comps, int sign) {
+			int c = comps.indexOf(intervals.qual[i]);
+			if (c < 0) return;
+
+			double quantity = intervals.quantity[i];
+			for (int j = comps.offset[c]; j < comps.offset[c+1]; j++) {
+				int k = key(intervals.agent[i], comps.nuc[j]);
+				if (sign > 0) {
+					sum[k] += quantity*comps.frac[j];
+					if (count[k]++ == 0) activate(k);
+				} else {
+					sum[k] -= quantity*comps.frac[j];
+					if (--count[k] == 0) {
+						// avoid accumulating round off errors
+						sum[k] = 0;
+						deactivate(k);
+					}
+				}
+			}
+		}
+
+		private int key(int agentId, int nucId) {
+			long packed = ((long) agentId << 32) | (nucId & 0xffffffffL);
+			int k = keys.get(packed);
+			if (k < 0) {
+				k = size++;
+				if (k == agent.length) {
+					int capacity = 2*k;
+					agent = Arrays.copyOf(agent, capacity);
+					nuc = Arrays.copyOf(nuc, capacity);
+					sum = Arrays.copyOf(sum, capacity);
+					count = Arrays.copyOf(count, capacity);
+					position = Arrays.copyOf(position, capacity);
+				}
+				agent[k] = agentId;
+				nuc[k] = nucId;
+				keys.put(packed, k);
+			}
+			return k;
+		}
+
+		private void activate(int k) {
+			if (activeSize == active.length) active = Arrays.copyOf(active, 2*activeSize);
+			position[k] = activeSize;
+			active[activeSize++] = k;
+		}
+
+		private void deactivate(int k) {
+			int p = position[k];
+			int last = active[--activeSize];
+			active[p] = last;
+			position[last] = p;
+		}
+	}
+}
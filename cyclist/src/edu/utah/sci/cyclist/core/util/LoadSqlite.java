@@ -137,8 +137,6 @@ public class LoadSqlite {
 		}
 		catch (Exception e) {
 			log.warn("Get simulation failed: " + e.getMessage());
-		}finally{
-			ds.releaseConnection();
 		}
 		
 		progress.result.set((FXCollections.observableArrayList(list)));
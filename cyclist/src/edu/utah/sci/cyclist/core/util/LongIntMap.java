@@ -0,0 +1,58 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from long keys to non negative int values.
+ * get() returns -1 for a missing key.
+ */
+public class LongIntMap {
+	private long[] _keys = new long[1024];
+	private int[] _values = new int[1024];
+	private int _size = 0;
+
+	public LongIntMap() {
+		Arrays.fill(_values, -1);
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public int get(long key) {
+		int mask = _keys.length-1;
+		for (int i = hash(key) & mask; ; i = (i+1) & mask) {
+			if (_values[i] < 0) return -1;
+			if (_keys[i] == key) return _values[i];
+		}
+	}
+
+	public void put(long key, int value) {
+		if (2*(_size+1) > _keys.length) grow();
+		int mask = _keys.length-1;
+		int i = hash(key) & mask;
+		while (_values[i] >= 0 && _keys[i] != key) {
+			i = (i+1) & mask;
+		}
+		if (_values[i] < 0) _size++;
+		_keys[i] = key;
+		_values[i] = value;
+	}
+
+	private void grow() {
+		long[] keys = _keys;
+		int[] values = _values;
+		_keys = new long[2*keys.length];
+		_values = new int[2*values.length];
+		Arrays.fill(_values, -1);
+		_size = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] >= 0) put(keys[i], values[i]);
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
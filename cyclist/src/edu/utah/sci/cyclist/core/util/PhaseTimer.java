@@ -0,0 +1,91 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Records the wall clock time of the phases of a long operation (e.g. restoring the workspace),
+ * so the log shows where the time goes.
+ *
+ * Phases started with {@link #start(String)} run one after the other. A phase which overlaps the
+ * others (e.g. work done in the background) is recorded with {@link #record(String, long)} from
+ * the time it was started. The timings are logged by {@link #report()}.
+ */
+public class PhaseTimer {
+	static Logger log = Logger.getLogger(PhaseTimer.class);
+
+	private final String _name;
+	private final long _start = System.currentTimeMillis();
+	private final Map<String, Long> _phases = new LinkedHashMap<>();
+	private String _phase = null;
+	private long _phaseStart;
+
+	/**
+	 * @param name the name of the operation, used in the log
+	 */
+	public PhaseTimer(String name) {
+		_name = name;
+	}
+
+	/**
+	 * End the current phase, if any, and start a new one
+	 * @param phase
+	 */
+	public synchronized void start(String phase) {
+		end();
+		_phase = phase;
+		_phaseStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * End the current phase
+	 */
+	public synchronized void end() {
+		if (_phase != null) {
+			record(_phase, _phaseStart);
+			_phase = null;
+		}
+	}
+
+	/**
+	 * Record a phase which ends now
+	 * @param phase
+	 * @param since the time the phase started (System.currentTimeMillis)
+	 */
+	public synchronized void record(String phase, long since) {
+		_phases.merge(phase, System.currentTimeMillis()-since, Long::sum);
+	}
+
+	/**
+	 * @return the time of each phase in ms, in the order the phases ended
+	 */
+	public synchronized Map<String, Long> getTimings() {
+		return new LinkedHashMap<>(_phases);
+	}
+
+	/**
+	 * @return the time since the timer was created in ms
+	 */
+	public long getElapsed() {
+		return System.currentTimeMillis()-_start;
+	}
+
+	/**
+	 * End the current phase and log the timings
+	 */
+	public synchronized void report() {
+		end();
+		log.info(this);
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder(_name).append(':');
+		for (Map.Entry<String, Long> entry : _phases.entrySet()) {
+			builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+		}
+		return builder.append(" (total ").append(getElapsed()).append("ms)").toString();
+	}
+}
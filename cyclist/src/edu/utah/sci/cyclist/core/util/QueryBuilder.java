@@ -17,6 +17,9 @@ public class QueryBuilder {
 	private List<Field> _aggregates = new ArrayList<>();
 	private List<Field> _grouping = new ArrayList<>();
 	private List<Filter> _having = new ArrayList<>();
+	private Field _rangeField = null;
+	private double _rangeFrom;
+	private double _rangeTo;
 	
 	private int _limit = -1;
 	
@@ -35,6 +38,21 @@ public class QueryBuilder {
 		return this;
 	}
 	
+	/**
+	 * Restrict the rows to a range of values of a (non aggregated) field, e.g. the 
+	 * visible range of a zoomed axis.
+	 * @param field
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public QueryBuilder range(Field field, double from, double to) {
+		_rangeField = field;
+		_rangeFrom = from;
+		_rangeTo = to;
+		return this;
+	}
+	
 	public QueryBuilder field(Field field) {
 		if (!_fields.contains(field)) {
 //			if (field.getRole() == Role.MEASURE && field.getString(FieldProperties.AGGREGATION_FUNC) != null) {
@@ -69,7 +87,7 @@ public class QueryBuilder {
 		return this;
 	}
 	
-	private boolean append(StringBuilder builder, boolean first, List<Field> list) {
+	private boolean append(SQLQuery builder, boolean first, List<Field> list) {
 		for (Field field : list) {
 			if (first) {
 				builder.append(" ");
@@ -83,7 +101,7 @@ public class QueryBuilder {
 		return first;
 	}
 	
-	private boolean appendFilters(StringBuilder builder, boolean first, List<Filter> list) {
+	private boolean appendFilters(SQLQuery builder, boolean first, List<Filter> list) {
 		for (Filter filter : list) {
 			if (first) {
 				builder.append(" ");
@@ -91,7 +109,7 @@ public class QueryBuilder {
 			} else {
 				builder.append(" and ");
 			}
-			builder.append(filter.toString());
+			builder.append(filter.toSQL());
 		}
 		
 		return first;
@@ -106,9 +124,13 @@ public class QueryBuilder {
 		return order;
 	}
 	
-	public String toString() {
+	/**
+	 * Build the query. The values of the filters are bound as parameters.
+	 * @return
+	 */
+	public SQLQuery build() {
 		boolean first = true;
-		StringBuilder builder = new StringBuilder("Select ");
+		SQLQuery builder = new SQLQuery("Select ");
 		
 		// dims
 		if (!_fields.isEmpty()) {
@@ -138,9 +160,14 @@ public class QueryBuilder {
 		
 		// where
 		first = true;
-		if (_filters.size() > 0) {
+		if (_filters.size() > 0 || _rangeField != null) {
 			builder.append(" where ");
 			first = appendFilters(builder, first, _filters);
+			if (_rangeField != null) {
+				if (!first) builder.append(" and ");
+				builder.append(_rangeField.getName()).append(" >= ").param(_rangeFrom)
+					.append(" and ").append(_rangeField.getName()).append(" <= ").param(_rangeTo);
+			}
 		}
 		
 		// group by
@@ -162,7 +189,7 @@ public class QueryBuilder {
 				} else {
 					builder.append(" AND ");
 				}
-				builder.append(filter.toString());
+				builder.append(filter.toSQL());
 			}
 		}
 		
@@ -174,7 +201,14 @@ public class QueryBuilder {
 			builder.append(" limit ").append(_limit);
 		}
 		
-		return builder.toString();
+		return builder;
+	}
+	
+	/**
+	 * The query with the values of the filters inlined
+	 */
+	public String toString() {
+		return build().toString();
 	}
 	
 }
@@ -0,0 +1,337 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.Blob;
+import edu.utah.sci.cyclist.core.model.CyclistData;
+
+/**
+ * A SQL statement whose values are bound as parameters rather than inlined in the text, so
+ * the text of a query only depends on its structure and the prepared statement can be reused.
+ *
+ * On SQLite a large set of values (e.g. thousands of selected nuclides) is not expanded to a
+ * parameter per value. It is loaded into a temporary table of the connection, which the query
+ * joins with an IN sub query. The table is named by a digest of its values, so the sets with the
+ * same values share a table. The connections are pooled, so the tables are dropped by
+ * {@link #release(Connection)} once the statement is closed.
+ */
+public class SQLQuery {
+	static Logger log = Logger.getLogger(SQLQuery.class);
+
+	/**
+	 * Sets with more values are loaded into a temporary table
+	 */
+	public static final int TEMP_TABLE_THRESHOLD = 256;
+
+	private static final String TEMP_TABLE_PREFIX = "cyclist_values_";
+	private static final int INSERT_BATCH = 1000;
+
+	// the text, parameters and value sets of the statement, in order
+	private List<Object> _parts = new ArrayList<>();
+
+	/*
+	 * A bound value
+	 */
+	private static class Param {
+		Object value;
+
+		Param(Object value) {
+			this.value = value;
+		}
+	}
+
+	/*
+	 * A large set of values
+	 */
+	private static class ValueSet {
+		String table;
+		List<Object> values;
+	}
+
+	public SQLQuery() {
+	}
+
+	/**
+	 * @param sql a statement without parameters
+	 */
+	public SQLQuery(String sql) {
+		_parts.add(sql);
+	}
+
+	/**
+	 * Append SQL text
+	 * @param text
+	 * @return this
+	 */
+	public SQLQuery append(Object text) {
+		_parts.add(String.valueOf(text));
+		return this;
+	}
+
+	/**
+	 * Append a parameter
+	 * @param value
+	 * @return this
+	 */
+	public SQLQuery param(Object value) {
+		_parts.add(new Param(value));
+		return this;
+	}
+
+	/**
+	 * Append the condition 'expr in values'
+	 * @param expr
+	 * @param values
+	 * @return this
+	 */
+	public SQLQuery in(String expr, Collection<?> values) {
+		if (values.isEmpty()) {
+			return append("1=0");
+		}
+
+		append(expr).append(" in (");
+		if (values.size() > TEMP_TABLE_THRESHOLD) {
+			ValueSet set = new ValueSet();
+			set.values = new ArrayList<>(values);
+			set.table = TEMP_TABLE_PREFIX+digest(set.values);
+			_parts.add(set);
+		} else {
+			boolean first = true;
+			for (Object value : values) {
+				if (first) first = false;
+				else append(", ");
+				param(value);
+			}
+		}
+		return append(")");
+	}
+
+	/**
+	 * Append another query, including its parameters
+	 * @param query
+	 * @return this
+	 */
+	public SQLQuery append(SQLQuery query) {
+		_parts.addAll(query._parts);
+		return this;
+	}
+
+	/**
+	 * @return the text of the statement, for a connection which supports temporary tables
+	 */
+	public String getSQL() {
+		return render(true, new ArrayList<>());
+	}
+
+	/**
+	 * @return a text which identifies the statement and its values
+	 */
+	public String getKey() {
+		StringBuilder sb = new StringBuilder();
+		List<Object> values = new ArrayList<>();
+		sb.append(render(true, values));
+		for (Object value : values) {
+			sb.append('\n').append(text(value));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prepare the statement on a connection and bind its parameters. On SQLite the temporary
+	 * tables of the statement are created if the connection does not have them already.
+	 * @param conn
+	 * @return the statement, ready to be executed
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection conn) throws SQLException {
+		boolean tempTables = hasTempTables(conn);
+		List<Object> values = new ArrayList<>();
+		String sql = render(tempTables, values);
+		if (tempTables) {
+			for (Object part : _parts) {
+				if (part instanceof ValueSet) {
+					load(conn, (ValueSet) part);
+				}
+			}
+		}
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		bind(stmt, 1, values);
+		return stmt;
+	}
+
+	/**
+	 * Drop the temporary tables which {@link #prepare(Connection)} created on a connection.
+	 * Call it once the statement is closed, before the connection returns to its pool.
+	 * @param conn
+	 */
+	public void release(Connection conn) {
+		boolean sets = false;
+		for (Object part : _parts) {
+			sets |= part instanceof ValueSet;
+		}
+		if (!sets) return;
+
+		try (Statement stmt = conn.createStatement()) {
+			if (!hasTempTables(conn)) return;
+			for (Object part : _parts) {
+				if (part instanceof ValueSet) {
+					stmt.execute("DROP TABLE IF EXISTS temp."+((ValueSet) part).table);
+				}
+			}
+		} catch (SQLException e) {
+			// the table goes away with the connection
+			log.debug("Can not drop temporary table: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * The statement with the values inlined, for logging
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Object part : _parts) {
+			if (part instanceof Param) {
+				sb.append(text(((Param) part).value));
+			} else if (part instanceof ValueSet) {
+				sb.append("select v from ").append(((ValueSet) part).table);
+			} else {
+				sb.append(part);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean hasTempTables(Connection conn) throws SQLException {
+		return "SQLite".equalsIgnoreCase(conn.getMetaData().getDatabaseProductName());
+	}
+
+	/*
+	 * Build the text of the statement and collect the values of its parameters
+	 */
+	private String render(boolean tempTables, List<Object> values) {
+		StringBuilder sb = new StringBuilder();
+		for (Object part : _parts) {
+			if (part instanceof Param) {
+				sb.append('?');
+				values.add(((Param) part).value);
+			} else if (part instanceof ValueSet) {
+				ValueSet set = (ValueSet) part;
+				if (tempTables) {
+					sb.append("select v from ").append(set.table);
+				} else {
+					for (int i = 0; i < set.values.size(); i++) {
+						sb.append(i == 0 ? "?" : ", ?");
+					}
+					values.addAll(set.values);
+				}
+			} else {
+				sb.append(part);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Bind values to the parameters of a statement
+	 * @param stmt
+	 * @param index the index of the first parameter
+	 * @param values
+	 * @throws SQLException
+	 */
+	public static void bind(PreparedStatement stmt, int index, List<Object> values) throws SQLException {
+		for (Object value : values) {
+			bind(stmt, index++, value);
+		}
+	}
+
+	private static void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+		if (value instanceof Blob) {
+			stmt.setBytes(index, ((Blob) value).getData());
+		} else if (value instanceof CyclistData) {
+			stmt.setObject(index, ((CyclistData) value).toNumber());
+		} else {
+			stmt.setObject(index, value);
+		}
+	}
+
+	private static String text(Object value) {
+		if (value instanceof String) return "'"+((String) value).replace("'", "''")+"'";
+		if (value instanceof CyclistData) return ((CyclistData) value).sqlValue();
+		return String.valueOf(value);
+	}
+
+	/*
+	 * The table is named after its values, so an existing table with the same number of rows
+	 * holds the same values. A table which was only partially loaded is refilled.
+	 */
+	private static void load(Connection conn, ValueSet set) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			// the values are not typed, so the affinity of the column they are compared to applies
+			stmt.execute("CREATE TEMPORARY TABLE IF NOT EXISTS "+set.table+" (v)");
+			try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM "+set.table)) {
+				if (rs.next() && rs.getInt(1) == set.values.size()) return;
+			}
+			stmt.execute("DELETE FROM "+set.table);
+		}
+
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO "+set.table+" VALUES (?)")) {
+			int n = 0;
+			for (Object v : set.values) {
+				bind(insert, 1, v);
+				insert.addBatch();
+				if (++n % INSERT_BATCH == 0) {
+					insert.executeBatch();
+				}
+			}
+			insert.executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/*
+	 * The digest does not depend on the order of the values
+	 */
+	private static String digest(List<Object> values) {
+		List<String> texts = new ArrayList<>(values.size());
+		for (Object value : values) {
+			texts.add(text(value));
+		}
+		Collections.sort(texts);
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (String text : texts) {
+				md.update(text.getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+			}
+			StringBuilder sb = new StringBuilder();
+			byte[] hash = md.digest();
+			for (int i = 0; i < 12; i++) {
+				sb.append(String.format("%02x", hash[i]));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -17,7 +17,6 @@ public class SQLUtil {
 	// TODO: replace with an abstract factory and register these functions.
 	//       will need both the function and a condition for selecting it (based on the rmd and col num)
 	static private Function<Object, Object> noop = o->{return o;};
-	static private Function<Object, Object> nuclide =  o -> { return Nuclide.create(o); };
 	static private Function<Object, Object> blob = o -> { return new Blob((byte[]) o); };
 
 
@@ -33,7 +32,7 @@ public class SQLUtil {
 			for (int c = 0; c < cols; c++) {
 				String name = rmd.getColumnName(c + 1).toLowerCase();
 				if (name.equals("nucid"))
-					func[c] = nuclide;
+					func[c] = new Nuclide.Decoder(); // remembers the nuclides of this result set
 				else if (rmd.getColumnType(c + 1) == Types.BLOB)
 					func[c] = blob;
 				else
@@ -0,0 +1,96 @@
+package edu.utah.sci.cyclist.core.util;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.Window;
+
+/**
+ * Defers work of a node (e.g. fetching the data of a view) until the node is actually on screen.
+ *
+ * A node is showing when it is visible and belongs to a scene whose window is showing. While the
+ * workspace is restored the views are created before the main window is shown, so their queries
+ * only start once the window is up.
+ */
+public class Showing {
+
+	private Showing() {
+	}
+
+	/**
+	 * @param node
+	 * @return true if the node is visible in a window which is showing
+	 */
+	public static boolean isShowing(Node node) {
+		Scene scene = node.getScene();
+		Window window = scene != null ? scene.getWindow() : null;
+		return window != null && window.isShowing() && node.isVisible();
+	}
+
+	/**
+	 * Run an action once the node is showing: immediately if it is showing already, otherwise
+	 * (on the FX thread) as soon as it becomes showing. The action runs at most once.
+	 * @param node
+	 * @param action
+	 */
+	public static void whenShowing(Node node, Runnable action) {
+		if (isShowing(node)) {
+			action.run();
+		} else {
+			new Pending(node, action);
+		}
+	}
+
+	/*
+	 * Follows the scene and window of the node until the node is showing
+	 */
+	private static class Pending implements InvalidationListener {
+		private final Node _node;
+		private final Runnable _action;
+		private Scene _scene = null;
+		private Window _window = null;
+
+		Pending(Node node, Runnable action) {
+			_node = node;
+			_action = action;
+			_node.sceneProperty().addListener(this);
+			_node.visibleProperty().addListener(this);
+			follow();
+		}
+
+		@Override
+		public void invalidated(Observable observable) {
+			if (isShowing(_node)) {
+				_node.sceneProperty().removeListener(this);
+				_node.visibleProperty().removeListener(this);
+				follow(null, null);
+				_action.run();
+			} else {
+				follow();
+			}
+		}
+
+		private void follow() {
+			Scene scene = _node.getScene();
+			follow(scene, scene != null ? scene.getWindow() : null);
+		}
+
+		/*
+		 * Listen to the current scene and window only, so a node which is removed from the scene
+		 * is not kept alive by the window
+		 */
+		private void follow(Scene scene, Window window) {
+			if (scene != _scene) {
+				if (_scene != null) _scene.windowProperty().removeListener(this);
+				if (scene != null) scene.windowProperty().addListener(this);
+				_scene = scene;
+			}
+			if (window != _window) {
+				if (_window != null) _window.showingProperty().removeListener(this);
+				if (window != null) window.showingProperty().addListener(this);
+				_window = window;
+			}
+		}
+	}
+}
@@ -1,38 +1,31 @@
 package edu.utah.sci.cyclist.core.util;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
 
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Task;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
-import edu.utah.sci.cyclist.core.Resources1;
 import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.proxy.QueryResultCache;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 
 public class SimulationTablesPostProcessor {
 	static Logger log = Logger.getLogger(SimulationTablesPostProcessor.class);
 	
-	//Calling external applications for post processing of sqlite database.
-	private static final String  EXTERNAL_APPS = "externalApps";
-	private static final String WINDOWS_OS = "windows";
-	private static final String SAVED_POSTFIX = ".saved";
-	
-	
 	private static final String FIX_AGENTS_TABLE_PHASE1 = "UPDATE Agents set ExitTime = EnterTime+(select Duration from Info where Agents.SimId=Info.SimId ) "+
 			  "where ExitTime is null and Lifetime = -1";
 
@@ -59,20 +52,6 @@ public class SimulationTablesPostProcessor {
 	private static final String UPDATED_INDICATION_TABLE_CREATE = "create table if not exists UpdatedIndication (flag INTEGER DEFAULT 1)";
 	private static final String TEST_UPDATED_QUERY = "SELECT name FROM sqlite_master WHERE type='table' AND name='UpdatedIndication'";
 	
-	private static final String QUANTITY_INVENTORY_BASE_CREATE = 
-								   	"CREATE table if not exists QuantityInventoryBase as "
-								   + "SELECT inv.SimId as SimId, tl.Time AS Time,cmp.NucId AS NucId,ag.AgentID as AgentID, "
-								   + "  	cast(SUM(inv.Quantity*cmp.MassFrac) as REAL) AS Quantity "
-								   + " FROM "
-								   + "		Timelist AS tl "
-								   + "		INNER JOIN Inventories AS inv ON inv.StartTime <= tl.Time AND inv.EndTime > tl.Time "
-								   + "		INNER JOIN Agents AS ag ON ag.AgentId = inv.AgentId "
-								   + "		INNER JOIN Compositions AS cmp ON cmp.QualId = inv.QualId "
-								   + "	WHERE "
-								   + "		inv.SimId = cmp.SimId AND inv.SimId = ag.SimId and tl.SimId=inv.SimId "
-								   + "	GROUP BY inv.SimId, tl.Time, cmp.NucId, ag.AgentID; "
-								   + "CREATE INDEX IF NOT EXISTS quantitytransacted_idx ON quantitytransactedbase (simid,agentid,time,nucid,quantity)";
-	
 	private static final String QUANTITY_INVENTORY_VIEW_CREATE = 
 								  "CREATE view if not exists  QuantityInventory as "
 								+ " SELECT base.SimID as SimID, Time, Quantity, NucId, base.AgentId as AgentId, Kind, Spec, Prototype"
@@ -95,7 +74,7 @@ public class SimulationTablesPostProcessor {
 								+ "		tr.SimId = res.SimId AND ag.SimId = tr.SimId and cmp.SimId=res.SimId "
 							    + "	GROUP BY res.SimId, cmp.NucId, tr.Time, ag.AgentID"
 								+ "	ORDER BY tr.Time ASC;"
-							    + " CREATE INDEX IF NOT EXISTS quantityinventory_idx ON quantityinventorybase (simid,agentid,time,nucid,quantity); ";
+							    + " CREATE INDEX IF NOT EXISTS quantitytransacted_idx ON quantitytransactedbase (simid,agentid,time,nucid,quantity); ";
 
 	
 	private static final String QUANTITY_TRANSACTED_VIEW_CREATE = 
@@ -107,39 +86,47 @@ public class SimulationTablesPostProcessor {
 			+ "		base.SimID = ag.SimID "
 			+ " AND base.AgentId = ag.AgentId";
 	
+	private static final String STEPS_TABLE_CREATE = "create table if not exists PostProcessSteps (Step TEXT PRIMARY KEY, Rows INTEGER, Seconds REAL)";
+	private static final String STEPS_QUERY = "SELECT Step FROM PostProcessSteps";
+	private static final String STEP_DONE_UPDATE = "replace into PostProcessSteps (Step, Rows, Seconds) values (?,?,?)";
+	private static final String TEST_STEPS_QUERY = "SELECT name FROM sqlite_master WHERE type='table' AND name='PostProcessSteps'";
+	private static final String STEP_DONE_QUERY = "SELECT Step FROM PostProcessSteps WHERE Step=?";
+	
+	private static final String INDEX_STEP_NAME = "Provision indexes";
+	
+	//Creates the indexes of the query templates. Databases which were updated before
+	//this step existed still require an update (see isDbUpdateRequired), which runs only this step.
+	private final QueryOperation INDEX_STEP =
+			new QueryOperation(INDEX_STEP_NAME, (conn, p) -> new IndexProvisioner(conn, SimulationTablesPostProcessor::postMsg).run(), null, 2);
+	
+	//Each operation runs in its own transaction and records its completion in the PostProcessSteps table,
+	//so an interrupted post processing resumes from the first step that did not complete.
+	//The weight is the relative cost of the operation, used for reporting the progress.
 	private QueryOperation[] UpdateTablesRunningOrderTbl = 
 		{
+			 new QueryOperation("Create Agents table", (conn, p) -> builder(conn).buildAgents(), "Agents", 1),
+			 new QueryOperation("Create TimeList table", (conn, p) -> builder(conn).buildTimeList(), "TimeList", 1),
+			 new QueryOperation("Create Inventories table", (conn, p) -> builder(conn).buildInventories(p), "Inventories", 5),
+			
 			 new QueryOperation("Fix Agents table phase #1",FIX_AGENTS_TABLE_PHASE1),
 		     new QueryOperation("Fix Agents table phase #2",FIX_AGENTS_TABLE_PHASE2),
 		     
 		     new QueryOperation("Create Facilitites table",FACILITIES_TABLE_CREATE),
-		     new QueryOperation("Update Facilitites table",FACILITIES_TABLE_UPDATE),
+		     new QueryOperation("Update Facilitites table",FACILITIES_TABLE_UPDATE, "Facilities", 1),
 		     new QueryOperation("Create Facilitites index",FACILITIES_TABLE_INDEX),
 		     
-		     new QueryOperation("Create base table QuantityInventoryBase",QUANTITY_INVENTORY_BASE_CREATE),
+		     new QueryOperation("Create base table QuantityInventoryBase", (conn, p) -> builder(conn).buildQuantityInventoryBase(p), "QuantityInventoryBase", 5),
 		     new QueryOperation("Create view QuantityInventory",QUANTITY_INVENTORY_VIEW_CREATE),
 		     
-		     new QueryOperation("Create base table QuantityTransactedBase",QUANTITY_TRANSACTED_BASE_CREATE),
+		     new QueryOperation("Create base table QuantityTransactedBase",QUANTITY_TRANSACTED_BASE_CREATE, "QuantityTransactedBase", 3),
 		     new QueryOperation("Create view QuantityTransacted",QUANTITY_TRANSACTED_VIEW_CREATE),
 		     
+		     INDEX_STEP,
+		     
 		     new QueryOperation("Create table UpdatedIndication",UPDATED_INDICATION_TABLE_CREATE)
 		};
+
 	
-	private static final Map<String,String> applicationsMap;
-    static
-    {
-    	applicationsMap = new HashMap<String, String>();
-    	applicationsMap.put("darwin-64", "cycpost-darwin-amd64");
-    	applicationsMap.put("darwin-386", "cycpost-darwin-386");
-    	applicationsMap.put("mac-64", "cycpost-darwin-amd64");
-    	applicationsMap.put("mac-386", "cycpost-darwin-386");
-    	applicationsMap.put("windows-64", "cycpost-windows-amd64.exe");
-    	applicationsMap.put("windows-386", "cycpost-windows-386.exe");
-    	applicationsMap.put("linux-64", "cycpost-linux-amd64");
-    	applicationsMap.put("linux-386", "cycpost-linux-386");
-    	applicationsMap.put("linux-arm", "cycpost-linux-arm");
-    }
-    
     private static ObjectProperty<String> _message = new SimpleObjectProperty<String>("");
     private static boolean _onlyLastMsg = false;
     
@@ -150,6 +137,12 @@ public class SimulationTablesPostProcessor {
     		_message.set( _message.get()+s+"\n");
     }
     
+    private static DoubleProperty _progress = new SimpleDoubleProperty(0);
+    
+    private static void postProgress(double value) {
+    	_progress.set(value);
+    }
+    
 	public Task<Boolean> process(CyclistDatasource ds){
 		return process(ds, false);
 	}
@@ -158,140 +151,120 @@ public class SimulationTablesPostProcessor {
 		_onlyLastMsg = last;
 		Task<Boolean> task = new Task<Boolean>() {
 	         @Override protected Boolean call() throws Exception {
-	        	 _message.addListener(new ChangeListener<String>() {	 
+	        	 ChangeListener<String> messageListener = new ChangeListener<String>() {	 
 	 		        @Override 
 	 		        public void changed(ObservableValue<? extends String> arg0,String oldVal, String newVal) {
 	 		        	updateMessage(_message.getValue());
 	 		        }
-	 		    });
-	        	return processTask(ds);
+	 		    };
+	 		    ChangeListener<Number> progressListener = new ChangeListener<Number>() {
+	        		 @Override
+	        		 public void changed(ObservableValue<? extends Number> arg0, Number oldVal, Number newVal) {
+	        			 updateProgress(newVal.doubleValue(), 1);
+	        		 }
+	        	 };
+	        	 // the properties are static: the listeners of a task are removed when it is done
+	        	 _message.addListener(messageListener);
+	        	 _progress.addListener(progressListener);
+	        	 try {
+	        		 return processTask(ds);
+	        	 } finally {
+	        		 _message.removeListener(messageListener);
+	        		 _progress.removeListener(progressListener);
+	        	 }
 	         }
 		 };
-		 Thread th = new Thread(task);
-         th.setDaemon(true);
-         th.start();
+		 TaskScheduler.getInstance().submit(task, Priority.BACKGROUND);
 	     return task;
 	}
     
+    /*
+     * Each post processing step runs in its own transaction on the writer connection of the database.
+     * If a step fails only its own changes are rolled back. The completed steps are recorded in
+     * the database, so the next run resumes from the failed step rather than starting from scratch.
+     * SQLite only journals the pages that are actually modified, so there is no need to copy
+     * the whole database file before starting.
+     */
     public Boolean processTask(CyclistDatasource ds){
 		_message.set("");
-		Boolean isUpdated = false;
-		Connection conn = null;
-		
-		//First check if db is already updated.
-		try{
-			conn = ds.getConnection();
-			isUpdated = dbIsUpdated(conn);
-		}catch(Exception ex){
-			ex.printStackTrace();
-		}finally{
-			//Need to close connection to enable updates of the database by external applications.
-			try {
-				conn.close();
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
-			ds.releaseConnection();
-		}
+		postProgress(0);
 		
-		//
-		if(!isUpdated){
-			Boolean result = true;
-			String dsPath = ds.getProperties().getProperty("path");
-			//Save the current db in a temporary file
-			String savedPath = saveSqliteFile(dsPath);
-			if(!savedPath.isEmpty()){
-				result = updateSqliteSimTables(ds);
-				//If result is true it means the new tables have been created by the external applications, 
-				//Should also add the internal tables needed for the simulation database.
-				if(result){
-					result = createAdditionalTables(ds);
+		try (Connection conn = ds.getWriteConnection()) {
+			//First check if db is already updated.
+			//This is done on the writer connection, so concurrent updates of the same file are not possible.
+			if(dbIsUpdated(conn)){
+				postMsg("database is already updated ");
+				if(!readCompletedSteps(conn).contains(INDEX_STEP.name)){
+					postMsg(INDEX_STEP.name);
+					runStep(conn, INDEX_STEP, f -> postProgress(f));
 				}
-				//If one of the updates has failed - roll back to the saved database.
-				if(!result){
-					cancelDbChanges(savedPath,dsPath);
-					postMsg("Update database failed!");
+				postProgress(1);
+				return true;
+			}
+			
+			Set<String> completed = readCompletedSteps(conn);
+			
+			double total = 0;
+			for(QueryOperation queryOp : UpdateTablesRunningOrderTbl){
+				total += queryOp.weight;
+			}
+			
+			double done = 0;
+			postMsg("running queries:");
+			for(QueryOperation queryOp : UpdateTablesRunningOrderTbl){
+				if(completed.contains(queryOp.name)){
+					postMsg(queryOp.name+" (already done)");
 				}else{
-					//No need for the saved file anymore.
-					File file = new File(savedPath);
-					if(file.exists()){
-						file.delete();
+					postMsg(queryOp.name);
+					final double base = done, size = total;
+					DoubleConsumer progress = f -> postProgress((base + f*queryOp.weight)/size);
+					if(!runStep(conn, queryOp, progress)){
+						postMsg("Update database failed!");
+						return false;
 					}
 				}
-				postMsg("Done");
-				return result;
+				done += queryOp.weight;
+				postProgress(done/total);
 			}
-			return false;
-		}else{
-			postMsg("database is already updated ");
+			postMsg("Done");
 			return true;
+		} catch (SQLException e) {
+			log.warn("Update database failed: "+e.getMessage());
+			postMsg("Update database failed!");
+			return false;
+		} finally {
+			// the cached results of the database may be stale
+			QueryResultCache.getInstance().invalidate(ds);
 		}
 	}
 	
 	/**
-	 * Checks if the update indication table exists in the current database.
-	 * If it exists, it means the database is already updated, and no further update is required.
+	 * Checks if the update indication table exists in the current database, and if the indexes
+	 * were provisioned. A database which was updated before the indexes step existed only
+	 * requires that step.
 	 * @param ds - the data source to check.
-	 * @return Boolean - true if the indication table was found, false otherwise.
+	 * @return Boolean - true if the indication table or the indexes step were not found, false otherwise.
 	 */
 	public static Boolean isDbUpdateRequired(CyclistDatasource ds){
-		Statement stmt;
-		try (Connection conn = ds.getConnection()) {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(TEST_UPDATED_QUERY);
-			return !rs.next();
+		try (Connection conn = ds.getConnection();
+			 Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery(TEST_UPDATED_QUERY)) {
+				if (!rs.next()) return true;
+			}
+			// the connection is read only, so the steps table can not be created here
+			try (ResultSet rs = stmt.executeQuery(TEST_STEPS_QUERY)) {
+				if (!rs.next()) return true;
+			}
+			try (PreparedStatement query = conn.prepareStatement(STEP_DONE_QUERY)) {
+				query.setString(1, INDEX_STEP_NAME);
+				try (ResultSet rs = query.executeQuery()) {
+					return !rs.next();
+				}
+			}
 		}catch (SQLException e) {
 			// TODO: should NOT catch this rather let it propagate up
 			log.error("SQL error while testing if db needs post processing: "+e.getMessage());
 			return false;
-		}finally{
-			ds.releaseConnection();
-		}
-	}
-	
-	/*
-	 * Saves the selected data source in a temporary file, until being sure
-	 * that all the db operations have succeeded.
-	 * @param CyclistDatasource ds - the datasource to copy.
-	 */
-	private static String saveSqliteFile(String path){
-		if(! path.isEmpty()){
-			String copiedPath = path+SAVED_POSTFIX;
-			File oldFile = new File(path);
-			File newFile = new File(copiedPath);
-			try {
-				if(newFile.exists()){
-					newFile.delete();
-				}
-				FileUtils.copyFile(oldFile, newFile);
-				return copiedPath;
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return "";
-			}
-		}else{
-			return "";
-		}
-	}
-	
-	/*
-	 * In case that the db changes have failed, get back the old saved file.
-	 */
-	private static void cancelDbChanges(String savedPath, String path){
-		File file = new File(path);
-		if(file.exists()){
-			file.delete();
-		}
-		File savedFile = new File(savedPath);
-		if(savedFile.exists()){
-			try {
-				FileUtils.copyFile(savedFile, file);
-				savedFile.delete();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
 		}
 	}
 	
@@ -319,124 +292,96 @@ public class SimulationTablesPostProcessor {
 	}
 		
 	/*
-	 * Runs an application which creates the tables for the simulation.
-	 * The application is chosen based on the operating system and its architecture.
-	 * @param : Connection conn - the connection to the database.
-	 * @param : CyclistDatasource ds - the data source to work on.
+	 * Returns the names of the post processing steps which have already been completed.
+	 * @param conn - a write connection to the database.
 	 */
-	private static Boolean updateSqliteSimTables(CyclistDatasource ds){
-		String dsPath = ds.getProperties().getProperty("path");
-		
-		String currPath = Resources1.getCurrentPath();
-		
-		//Path always contains one directory below the main directory
-		//e.g bin/ or the jar 
-		//Go one directory up to be in the main level.
-		//Then go to the external applications directory.
-		int lastIndex = currPath.lastIndexOf("/");
-		if(lastIndex >= 0){
-			currPath = currPath.substring(0,lastIndex)+"/"+EXTERNAL_APPS;
-		}
-		
-		String os = OsUtil.getOsDef();
-		postMsg("Running external application. os="+os);
-		String app = applicationsMap.get(os);
-		
-		Process process = null;
-		
-		if(app == null || app.isEmpty()){
-			postMsg("No app has been found for os: " + os);
-			return false;
-		}
-		
-		if(os.indexOf(WINDOWS_OS)>=0){
-				currPath += "/" + app;
-		} else{
-				currPath ="/" + currPath+ "/"+ app;
-			
-				File file = new File(currPath);
-				file.setExecutable(true, false);
-		        file.setReadable(true, false);
-		        file.setWritable(true, false);
-		}
-		
-		postMsg("path= " + currPath);
-			
-		//Indication whether or not the new tables have been produced.
-	    Boolean isAlreadyProcessed = false;
-	    
-		if(!currPath.isEmpty()){
-			try{
-				process = Runtime.getRuntime().exec(new String[]{currPath,dsPath});
-				InputStream is = process.getInputStream();
-			    InputStreamReader isr = new InputStreamReader(is);
-			    BufferedReader br = new BufferedReader(isr);
-			    String line;
-			    
-			    while ((line = br.readLine()) != null) {
-			      postMsg(line);
-			      //Tables already exist - no need to reproduce additional tables.
-			      if(line.indexOf("post processed") > -1){
-//			    	  //If reached here the "UpdatedIndication" table doesn't exit. It means some of the other tables
-			    	  //are missing, so even though the external applications update is not needed,
-			    	  //it should try to produce the other tables anyway.
-//			    	  isAlreadyProcessed = true;  
-			    	  ;
-			      }else{
-			    	  //An error occurred - should not continue.
-			    	  return false;
-			      }
-			    }
-			} catch(Exception ex){
-				return false;
+	private static Set<String> readCompletedSteps(Connection conn) throws SQLException {
+		Set<String> steps = new HashSet<>();
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate(STEPS_TABLE_CREATE);
+			ResultSet rs = stmt.executeQuery(STEPS_QUERY);
+			while (rs.next()) {
+				steps.add(rs.getString(1));
 			}
-		    
-		}else{
-			//If no path to run the table creation application 
-			//Send true, so the following process steps won't be run.
-			isAlreadyProcessed = true;
 		}
-	    return !isAlreadyProcessed;
+		return steps;
 	}
 	
 	/*
-	 * Runs SQL queries to create the facilities tables, based on the tables created by the post processing apps.
-	 * @param conn - the connection to the database.
+	 * Runs a single post processing step in its own transaction, and records its completion
+	 * (and the number of rows it produced) in the same transaction.
+	 * @param conn - a write connection to the database.
 	 * @return true if succeed , false if fails.
 	 */
-	private Boolean createAdditionalTables(CyclistDatasource ds){
-		Statement stmt;
-		Connection conn = null;
-		
-		try {
-			conn = ds.getConnection();
-			stmt = conn.createStatement();
-			postMsg("running queries:");
-			for(QueryOperation queryOp : UpdateTablesRunningOrderTbl){
-				postMsg(queryOp.name);
-				stmt.executeUpdate(queryOp.query);
+	private static boolean runStep(Connection conn, QueryOperation queryOp, DoubleConsumer progress) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		boolean result = false;
+		conn.setAutoCommit(false);
+		try (Statement stmt = conn.createStatement()) {
+			long rows;
+			if(queryOp.operation != null){
+				queryOp.operation.run(conn, progress);
+				rows = -1;
+			}else{
+				rows = stmt.executeUpdate(queryOp.query);
 			}
-			return true;
-		} catch (SQLException e) {
-			log.warn("Create additional table failed");
-			return false;
-		}finally{
-			try {
-				conn.close();
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			if(queryOp.table != null){
+				ResultSet rs = stmt.executeQuery("select count(*) from "+queryOp.table);
+				rows = rs.next() ? rs.getLong(1) : rows;
+			}
+			
+			try (PreparedStatement update = conn.prepareStatement(STEP_DONE_UPDATE)) {
+				update.setString(1, queryOp.name);
+				update.setLong(2, rows);
+				update.setDouble(3, (System.currentTimeMillis()-t0)/1000.0);
+				update.executeUpdate();
+			}
+			result = true;
+		} catch (SQLException | RuntimeException e) {
+			log.warn("Post processing step '"+queryOp.name+"' failed: "+e.getMessage(), e);
+			postMsg(e.getMessage() != null ? e.getMessage() : e.toString());
+		} finally {
+			if(result){
+				conn.commit();
+			}else{
+				conn.rollback();
 			}
-			ds.releaseConnection();
+			conn.setAutoCommit(true);
 		}
+		return result;
+	}
+	
+	private static CyclusTablesBuilder builder(Connection conn) {
+		return new CyclusTablesBuilder(conn, SimulationTablesPostProcessor::postMsg);
+	}
+	
+	/*
+	 * A post processing operation which is not a single SQL query.
+	 */
+	@FunctionalInterface
+	public interface Operation {
+		void run(Connection conn, DoubleConsumer progress) throws SQLException;
 	}
 	
 	public class QueryOperation{
 		public QueryOperation(String name,String query){
+			this(name, query, null, 1);
+		}
+		public QueryOperation(String name, String query, String table, double weight){
 			this.name = name;
 			this.query = query;
+			this.table = table;
+			this.weight = weight;
+		}
+		public QueryOperation(String name, Operation operation, String table, double weight){
+			this(name, (String) null, table, weight);
+			this.operation = operation;
 		}
 		public String name;
 		public String query;
+		public Operation operation;
+		//The table whose number of rows is recorded when the step completes.
+		public String table;
+		public double weight;
 	}
 }
@@ -0,0 +1,574 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.Preferences;
+import edu.utah.sci.cyclist.core.model.Table;
+import edu.utah.sci.cyclist.core.model.Table.SourceLocation;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
+
+/**
+ * A local SQLite copy of a table of a remote database, for the tables whose source location is
+ * LOCAL_ALL (the whole table) or LOCAL_SUBSET (a stratified sample of {@link Table#getDataSubset()} rows).
+ *
+ * {@link #resolve(Table, CyclistDatasource, String)} returns the data source the queries of a table
+ * should run on: the replica once it is available and the remote data source until then. The replica
+ * is built by a background task which streams the remote table in batches, so the first queries
+ * of a table do not wait for it.
+ *
+ * The replica records how it was built, when it was built and last checked, the columns of the
+ * table and the number of remote rows. Once it is older than {@link Preferences#getReplicaMaxAge()}
+ * a background check compares the columns and number of rows of the remote table and rebuilds
+ * the replica if they changed. Updates which keep the number of rows are picked up by an
+ * explicit {@link #refresh(Table, CyclistDatasource, String)}. Queries keep running on the current
+ * copy while it is refreshed; the new copy replaces the file once it is complete. The caches which
+ * are keyed by the fingerprint of a database (statistics, field values and query results) see the
+ * new file as a changed database.
+ *
+ * The sample of LOCAL_SUBSET is stratified by the column with the fewest distinct values (according to
+ * the {@link TableStatistics} of the remote table), so every value of that column keeps a share of the
+ * sample in proportion to its share of the table.
+ */
+public class TableReplica {
+	static Logger log = Logger.getLogger(TableReplica.class);
+
+	private static final int BATCH_SIZE = 10000;
+	private static final long SEED = 1;
+	private static final String DIR = "replica";
+	private static final String SQLITE_PREFIX = "jdbc:sqlite:/";
+
+	private static final String INFO_TABLE = "CyclistReplica";
+	private static final String INFO_CREATE =
+			"CREATE TABLE "+INFO_TABLE+" (Mode TEXT, Subset INTEGER, Rows INTEGER, RemoteRows INTEGER, Columns TEXT, Created INTEGER, Checked INTEGER)";
+	private static final String INFO_INSERT = "INSERT INTO "+INFO_TABLE+" VALUES (?,?,?,?,?,?,?)";
+	private static final String INFO_QUERY = "SELECT Mode, Subset, Rows, RemoteRows, Columns, Created, Checked FROM "+INFO_TABLE;
+	private static final String CHECKED_UPDATE = "UPDATE "+INFO_TABLE+" SET Checked=?";
+
+	/**
+	 * How and when a replica was built
+	 */
+	public static class Info {
+		public SourceLocation mode;
+		/** the requested number of rows of a sample, 0 for a full copy */
+		public int subset;
+		/** number of rows of the replica */
+		public long rows;
+		/** number of rows of the remote table when the replica was built */
+		public long remoteRows;
+		public String columns;
+		/** when the replica was built and when it was last found to be up to date (ms) */
+		public long created;
+		public long checked;
+	}
+
+	// the replicas by <ds-uid>/<table>
+	private static Map<String, TableReplica> _replicas = new ConcurrentHashMap<>();
+
+	private final CyclistDatasource _remote;
+	private final String _table;
+	private final String _dir;
+	private final File _file;
+	private final CyclistDatasource _local;
+	private volatile Info _info = null;
+	private boolean _loaded = false;
+
+	private TableReplica(CyclistDatasource remote, String table, String dir) {
+		_remote = remote;
+		_table = table;
+		_dir = dir;
+		_file = getFile(dir, remote, table);
+
+		_local = new CyclistDatasource();
+		_local.setURL(SQLITE_PREFIX+_file.getAbsolutePath());
+		Properties p = _local.getProperties();
+		p.setProperty("driver", "sqlite");
+		p.setProperty("type", "SQLite");
+		p.setProperty("path", _file.getAbsolutePath());
+		p.setProperty("name", remote.getName()+" ("+table+" local)");
+	}
+
+	/**
+	 * @param dir the workspace directory
+	 * @param ds
+	 * @param table
+	 * @return the file of the replica of a table
+	 */
+	public static File getFile(String dir, CyclistDatasource ds, String table) {
+		return new File(dir+"/"+ds.getUID()+"/"+DIR, table.replaceAll("[^A-Za-z0-9_.-]", "_")+".sqlite");
+	}
+
+	/**
+	 * The data source to query a table on. Starts building or refreshing the replica of the table
+	 * in the background if needed.
+	 * @param table
+	 * @param ds the data source of the table
+	 * @param dir the workspace directory
+	 * @return the replica if the table is replicated and its replica is available, otherwise ds
+	 */
+	public static CyclistDatasource resolve(Table table, CyclistDatasource ds, String dir) {
+		if (!isReplicated(table, ds)) return ds;
+		return get(ds, table.getName(), dir).use(table.getSourceLocation(), subset(table));
+	}
+
+	/**
+	 * Rebuild the replica of a table in the background, even if it seems up to date
+	 * @param table
+	 * @param ds
+	 * @param dir the workspace directory
+	 */
+	public static void refresh(Table table, CyclistDatasource ds, String dir) {
+		if (!isReplicated(table, ds)) return;
+		get(ds, table.getName(), dir).schedule(table.getSourceLocation(), subset(table), true);
+	}
+
+	/**
+	 * @param table
+	 * @param ds
+	 * @param dir the workspace directory
+	 * @return how the current replica of the table was built, or null if there is none
+	 */
+	public static Info getInfo(Table table, CyclistDatasource ds, String dir) {
+		if (!isReplicated(table, ds)) return null;
+		TableReplica replica = get(ds, table.getName(), dir);
+		synchronized (replica) {
+			replica.load();
+			return replica._info;
+		}
+	}
+
+	private static boolean isReplicated(Table table, CyclistDatasource ds) {
+		if (table == null || ds == null || ds.getURL() == null || table.getSourceLocation() == null) return false;
+		switch (table.getSourceLocation()) {
+		case LOCAL_ALL:
+			// a sqlite file is already local
+			return !ds.isSQLite();
+		case LOCAL_SUBSET:
+			return table.getDataSubset() > 0;
+		default:
+			return false;
+		}
+	}
+
+	private static int subset(Table table) {
+		return table.getSourceLocation() == SourceLocation.LOCAL_SUBSET ? table.getDataSubset() : 0;
+	}
+
+	private static TableReplica get(CyclistDatasource ds, String table, String dir) {
+		return _replicas.computeIfAbsent(ds.getUID()+"/"+table, k -> new TableReplica(ds, table, dir));
+	}
+
+	/**
+	 * @return the data source of the replica if it matches the request, otherwise the remote data source
+	 */
+	private synchronized CyclistDatasource use(SourceLocation mode, int subset) {
+		load();
+		Info info = _info;
+		if (info == null || info.mode != mode || info.subset != subset) {
+			schedule(mode, subset, true);
+			return _remote;
+		}
+		long maxAge = Preferences.getInstance().getReplicaMaxAge()*60*1000L;
+		if (maxAge > 0 && System.currentTimeMillis() - info.checked > maxAge) {
+			schedule(mode, subset, false);
+		}
+		return _local;
+	}
+
+	/*
+	 * Read the info of a replica which was built in a previous session
+	 */
+	private void load() {
+		if (_loaded) return;
+		_loaded = true;
+		if (!_file.exists()) return;
+
+		try (Connection conn = _local.getConnection();
+			 Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(INFO_QUERY))
+		{
+			if (rs.next()) {
+				Info info = new Info();
+				info.mode = SourceLocation.valueOf(rs.getString(1));
+				info.subset = rs.getInt(2);
+				info.rows = rs.getLong(3);
+				info.remoteRows = rs.getLong(4);
+				info.columns = rs.getString(5);
+				info.created = rs.getLong(6);
+				info.checked = rs.getLong(7);
+				_info = info;
+			}
+		} catch (SQLException | RuntimeException e) {
+			log.warn("Ignoring the replica "+_file+": "+e.getMessage());
+		}
+	}
+
+	/*
+	 * Build or check the replica in the background. Requests for the same replica share one task.
+	 */
+	private void schedule(SourceLocation mode, int subset, boolean rebuild) {
+		String key = "replica:"+_remote.getUID()+"/"+_table+"/"+mode+"/"+subset+(rebuild ? "/build" : "/check");
+		TaskScheduler.getInstance().submit(key, Priority.BACKGROUND, () -> new QueryTask<Info>() {
+			@Override
+			protected Info query() throws Exception {
+				Info info = rebuild ? null : check();
+				if (info == null && !isCancelled()) {
+					updateMessage("replicating "+_table);
+					info = build(mode, subset, this);
+				}
+				return info;
+			}
+		});
+	}
+
+	/*
+	 * Compare the remote table to the replica
+	 * @return the updated info if the replica is up to date, otherwise null
+	 */
+	private Info check() throws SQLException {
+		Info info = _info;
+		if (info == null) return null;
+
+		long rows;
+		String columns;
+		try (Connection conn = _remote.getConnection(); Statement stmt = QueryTask.track(conn.createStatement())) {
+			try (ResultSet rs = stmt.executeQuery("SELECT * FROM "+_table+" WHERE 1=0")) {
+				columns = columns(rs.getMetaData());
+			}
+			try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM "+_table)) {
+				rs.next();
+				rows = rs.getLong(1);
+			}
+		}
+		if (rows != info.remoteRows || !columns.equals(info.columns)) {
+			log.info("Replica of "+_table+" is stale: "+info.remoteRows+" -> "+rows+" rows");
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		try (Connection conn = _local.getWriteConnection(); PreparedStatement stmt = conn.prepareStatement(CHECKED_UPDATE)) {
+			stmt.setLong(1, now);
+			stmt.executeUpdate();
+		}
+		info.checked = now;
+		return info;
+	}
+
+	/*
+	 * Stream the remote table into a new file which then replaces the replica
+	 */
+	private Info build(SourceLocation mode, int subset, QueryTask<?> task) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		_file.getParentFile().mkdirs();
+		File tmp = new File(_file.getPath()+".tmp");
+		tmp.delete();
+
+		Info info = new Info();
+		info.mode = mode;
+		info.subset = subset;
+		info.remoteRows = count();
+		Sampler sampler = subset > 0 && subset < info.remoteRows ? sampler(subset, info.remoteRows, task) : null;
+
+		try (Connection remote = _remote.getConnection();
+			 Statement stmt = QueryTask.track(remote.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+			 Connection local = DriverManager.getConnection("jdbc:sqlite:"+tmp.getAbsolutePath()))
+		{
+			// MySQL only streams the rows with this fetch size, otherwise it reads the whole table into memory
+			stmt.setFetchSize(_remote.getURL().startsWith("jdbc:mysql") ? Integer.MIN_VALUE : BATCH_SIZE);
+			try (Statement ddl = local.createStatement()) {
+				ddl.execute("PRAGMA journal_mode=OFF");
+				ddl.execute("PRAGMA synchronous=OFF");
+			}
+			local.setAutoCommit(false);
+
+			try (ResultSet rs = stmt.executeQuery("SELECT * FROM "+_table)) {
+				ResultSetMetaData md = rs.getMetaData();
+				int n = md.getColumnCount();
+				info.columns = columns(md);
+				try (Statement ddl = local.createStatement()) {
+					ddl.execute(createTable(md));
+				}
+
+				try (PreparedStatement insert = local.prepareStatement(insert(n))) {
+					while (rs.next()) {
+						Object[] row = new Object[n];
+						for (int c = 0; c < n; c++) {
+							row[c] = value(rs.getObject(c+1));
+						}
+						if (sampler != null) {
+							sampler.offer(row);
+						} else {
+							add(insert, row);
+							if (++info.rows % BATCH_SIZE == 0) {
+								insert.executeBatch();
+								local.commit();
+								if (task.isCancelled()) break;
+							}
+						}
+					}
+					if (sampler != null) {
+						for (Object[] row : sampler.rows()) {
+							add(insert, row);
+							info.rows++;
+						}
+					}
+					insert.executeBatch();
+				}
+			}
+
+			if (task.isCancelled()) {
+				local.rollback();
+				return null;
+			}
+
+			info.created = info.checked = System.currentTimeMillis();
+			try (Statement ddl = local.createStatement()) {
+				ddl.execute(INFO_CREATE);
+			}
+			try (PreparedStatement insert = local.prepareStatement(INFO_INSERT)) {
+				insert.setString(1, info.mode.name());
+				insert.setInt(2, info.subset);
+				insert.setLong(3, info.rows);
+				insert.setLong(4, info.remoteRows);
+				insert.setString(5, info.columns);
+				insert.setLong(6, info.created);
+				insert.setLong(7, info.checked);
+				insert.executeUpdate();
+			}
+			local.commit();
+		} finally {
+			if (task.isCancelled()) tmp.delete();
+		}
+
+		replace(tmp);
+		_info = info;
+		log.info("Replicated "+_table+" ("+mode+"): "+info.rows+" of "+info.remoteRows+" rows in "
+				+(System.currentTimeMillis()-t0)/1000.0+" sec");
+		return info;
+	}
+
+	/*
+	 * The connections which read the previous file are drained and closed before the move
+	 */
+	private void replace(File tmp) throws SQLException {
+		try {
+			_local.replaceFile(tmp);
+		} catch (IOException e) {
+			tmp.delete();
+			throw new SQLException("Can not replace the replica "+_file, e);
+		}
+	}
+
+	private long count() throws SQLException {
+		try (Connection conn = _remote.getConnection();
+			 Statement stmt = QueryTask.track(conn.createStatement());
+			 ResultSet rs = stmt.executeQuery("SELECT count(*) FROM "+_table))
+		{
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	/*
+	 * Allocate the sample to the values of the stratification column, in proportion to their
+	 * number of rows (largest remainder), at least one row per value when the sample is large enough
+	 */
+	private Sampler sampler(int size, long rows, QueryTask<?> task) throws SQLException {
+		TableStatistics stats = TableStatistics.getOrCompute(_dir, _remote, _table, task::isCancelled);
+		TableStatistics.Column strata = null;
+		int index = -1;
+		if (stats != null) {
+			List<TableStatistics.Column> columns = stats.getColumns();
+			for (int i = 0; i < columns.size(); i++) {
+				TableStatistics.Column c = columns.get(i);
+				if (c.getDistinctCount() > 1 && c.getDistinctCount() <= Math.min(size, TableStatistics.DISTINCT_LIMIT)
+						&& (strata == null || c.getDistinctCount() < strata.getDistinctCount())) {
+					strata = c;
+					index = i;
+				}
+			}
+		}
+		if (strata == null) {
+			log.debug("Sample of "+_table+" is not stratified");
+			return new Sampler(-1, size, null);
+		}
+
+		Map<Object, Long> counts = new HashMap<>();
+		try (Connection conn = _remote.getConnection();
+			 Statement stmt = QueryTask.track(conn.createStatement());
+			 ResultSet rs = stmt.executeQuery("SELECT "+strata.getName()+", count(*) FROM "+_table+" GROUP BY "+strata.getName()))
+		{
+			while (rs.next()) {
+				counts.put(value(rs.getObject(1)), rs.getLong(2));
+			}
+		}
+
+		Map<Object, Integer> quota = new HashMap<>();
+		List<Object> keys = new ArrayList<>(counts.keySet());
+		double[] remainder = new double[keys.size()];
+		int allocated = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			double share = size * (double) counts.get(keys.get(i)) / rows;
+			int q = Math.max(keys.size() <= size ? 1 : 0, (int) share);
+			quota.put(keys.get(i), q);
+			remainder[i] = share - (int) share;
+			allocated += q;
+		}
+		while (allocated < size) {
+			int best = 0;
+			for (int i = 1; i < remainder.length; i++) {
+				if (remainder[i] > remainder[best]) best = i;
+			}
+			if (remainder[best] < 0) break;
+			quota.merge(keys.get(best), 1, Integer::sum);
+			remainder[best] = -1;
+			allocated++;
+		}
+		log.debug("Sample of "+_table+" is stratified by "+strata.getName()+" ("+keys.size()+" values)");
+		return new Sampler(index, size, quota);
+	}
+
+	/*
+	 * A reservoir sample of each stratum
+	 */
+	private static class Sampler {
+		private final int _column;
+		private final int _size;
+		private final Map<Object, Integer> _quota;
+		private final Map<Object, Reservoir> _reservoirs = new HashMap<>();
+		private final Random _random = new Random(SEED);
+
+		private static class Reservoir {
+			int capacity;
+			long seen = 0;
+			List<Object[]> rows = new ArrayList<>();
+		}
+
+		/**
+		 * @param column the index of the stratification column or -1
+		 * @param size
+		 * @param quota the number of rows of each value of the column
+		 */
+		Sampler(int column, int size, Map<Object, Integer> quota) {
+			_column = column;
+			_size = size;
+			_quota = quota;
+		}
+
+		void offer(Object[] row) {
+			Object key = _column < 0 ? null : row[_column];
+			Reservoir r = _reservoirs.get(key);
+			if (r == null) {
+				r = new Reservoir();
+				// a value which was added after the strata were counted has no quota
+				r.capacity = _column < 0 ? _size : _quota.getOrDefault(key, 0);
+				_reservoirs.put(key, r);
+			}
+			r.seen++;
+			if (r.rows.size() < r.capacity) {
+				r.rows.add(row);
+			} else {
+				long j = (long) (_random.nextDouble() * r.seen);
+				if (j < r.capacity) {
+					r.rows.set((int) j, row);
+				}
+			}
+		}
+
+		List<Object[]> rows() {
+			List<Object[]> rows = new ArrayList<>();
+			for (Reservoir r : _reservoirs.values()) {
+				rows.addAll(r.rows);
+			}
+			return rows;
+		}
+	}
+
+	private static String columns(ResultSetMetaData md) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 1; c <= md.getColumnCount(); c++) {
+			if (c > 1) sb.append(',');
+			sb.append(md.getColumnName(c)).append(':').append(md.getColumnType(c));
+		}
+		return sb.toString();
+	}
+
+	private String createTable(ResultSetMetaData md) throws SQLException {
+		StringBuilder sb = new StringBuilder("CREATE TABLE ").append(_table).append(" (");
+		for (int c = 1; c <= md.getColumnCount(); c++) {
+			if (c > 1) sb.append(", ");
+			sb.append('"').append(md.getColumnName(c).replace("\"", "\"\"")).append("\" ").append(affinity(md.getColumnType(c)));
+		}
+		return sb.append(")").toString();
+	}
+
+	private String insert(int n) {
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(_table).append(" VALUES (");
+		for (int c = 0; c < n; c++) {
+			sb.append(c == 0 ? "?" : ",?");
+		}
+		return sb.append(")").toString();
+	}
+
+	private static void add(PreparedStatement insert, Object[] row) throws SQLException {
+		for (int c = 0; c < row.length; c++) {
+			insert.setObject(c+1, row[c]);
+		}
+		insert.addBatch();
+	}
+
+	/*
+	 * The value as SQLite stores it
+	 */
+	private static Object value(Object value) {
+		if (value instanceof BigDecimal) return ((BigDecimal) value).doubleValue();
+		if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+		if (value instanceof java.util.Date) return value.toString();
+		return value;
+	}
+
+	private static String affinity(int type) {
+		switch (type) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return "INTEGER";
+		case Types.FLOAT:
+		case Types.REAL:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return "REAL";
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return "BLOB";
+		default:
+			return "TEXT";
+		}
+	}
+}
@@ -0,0 +1,614 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.CyclistData;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+
+/**
+ * A catalog of statistics of the columns of a table: min, max, null count, an estimate of the
+ * number of distinct values and an equi-depth histogram.
+ *
+ * The statistics of all the columns of a SQLite table are computed in a single scan of the table.
+ * The distinct values of the columns with at most {@link #DISTINCT_LIMIT} values are saved to the
+ * {@link FieldValuesCache} by the same scan.
+ *
+ * The rows of a table on a database server are not transferred: its statistics are computed by
+ * aggregate queries on the server, and its columns have no histogram. Since these aggregate every
+ * column, they are only computed on demand, by the sampling of a {@link TableReplica}; the field
+ * values and ranges of a server table query the single field instead.
+ *
+ * The catalog of a SQLite table is saved next to the database, in &lt;db&gt;.stats/&lt;table&gt;.stats,
+ * or in the workspace when that directory is not writable. It records the {@link DatabaseFingerprint}
+ * of the database and is recomputed once the database changes. The catalog of a server table is
+ * only kept for the session.
+ */
+public class TableStatistics {
+	static Logger log = Logger.getLogger(TableStatistics.class);
+
+	/**
+	 * Max number of distinct values of a column that are collected exactly
+	 */
+	public static final int DISTINCT_LIMIT = 1000;
+
+	/**
+	 * Number of buckets of the histograms
+	 */
+	public static final int HISTOGRAM_BUCKETS = 20;
+
+	private static final int SAMPLE_SIZE = 10000;
+	private static final int MAGIC = 0x43595354; // CYST
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".stats";
+
+	/**
+	 * The statistics of a single column
+	 */
+	public static class Column {
+		private String _name;
+		private long _nulls = 0;
+		private long _distinct = 0;
+		private boolean _numeric = false;
+		private double _min = Double.NaN;
+		private double _max = Double.NaN;
+		private double[] _histogram = new double[0];
+
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * @return number of null values
+		 */
+		public long getNullCount() {
+			return _nulls;
+		}
+
+		/**
+		 * @return the number of distinct (non null) values. Exact up to DISTINCT_LIMIT, estimated above it.
+		 */
+		public long getDistinctCount() {
+			return _distinct;
+		}
+
+		/**
+		 * @return true if all the non null values are numbers
+		 */
+		public boolean isNumeric() {
+			return _numeric;
+		}
+
+		/**
+		 * @return the min value of a numeric column or NaN
+		 */
+		public double getMin() {
+			return _min;
+		}
+
+		/**
+		 * @return the max value of a numeric column or NaN
+		 */
+		public double getMax() {
+			return _max;
+		}
+
+		/**
+		 * The equi-depth histogram of a numeric column: bucket i is [h[i], h[i+1]] and holds about
+		 * the same number of rows as every other bucket.
+		 * @return the bucket boundaries or an empty array (e.g. for a column of a server table)
+		 */
+		public double[] getHistogram() {
+			return _histogram;
+		}
+	}
+
+	private static Map<String, TableStatistics> _catalogs = new HashMap<>();
+	private static Map<String, Object> _locks = new ConcurrentHashMap<>();
+
+	private DatabaseFingerprint _fingerprint;
+	private long _rows = 0;
+	private Map<String, Column> _columns = new HashMap<>();
+	private List<Column> _list = new ArrayList<>();
+
+	private TableStatistics() {
+	}
+
+	/**
+	 * @return number of rows of the table
+	 */
+	public long getRowCount() {
+		return _rows;
+	}
+
+	/**
+	 * @param name
+	 * @return the statistics of a column or null if the table has no such column
+	 */
+	public Column getColumn(String name) {
+		return _columns.get(name.toLowerCase());
+	}
+
+	public List<Column> getColumns() {
+		return _list;
+	}
+
+	/**
+	 * Find the statistics of a table, if they were already computed
+	 * @param dir the workspace directory
+	 * @param ds
+	 * @param table
+	 * @return the statistics or null if they are not available or the database has changed
+	 */
+	public static TableStatistics get(String dir, CyclistDatasource ds, String table) {
+		DatabaseFingerprint fingerprint = DatabaseFingerprint.of(ds);
+		if (fingerprint == null) return null;
+
+		String key = key(ds, table);
+		synchronized (_catalogs) {
+			TableStatistics stats = _catalogs.get(key);
+			if (stats != null && stats._fingerprint == fingerprint) {
+				return stats;
+			}
+		}
+
+		File file = file(dir, ds, table);
+		if (!fingerprint.isPersistent() || !file.exists()) return null;
+
+		TableStatistics stats = null;
+		try {
+			stats = read(file, fingerprint);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Can not read table statistics "+file+": "+e.getMessage());
+		}
+		if (stats == null) {
+			file.delete();
+			return null;
+		}
+		remember(key, stats);
+		return stats;
+	}
+
+	/**
+	 * Find the statistics of a table, computing them if needed. Concurrent requests for
+	 * the same table wait for a single computation.
+	 * @param dir the workspace directory
+	 * @param ds
+	 * @param table
+	 * @param cancelled polled during the scan
+	 * @return the statistics, or null if the computation was cancelled
+	 * @throws SQLException
+	 */
+	public static TableStatistics getOrCompute(String dir, CyclistDatasource ds, String table, BooleanSupplier cancelled) throws SQLException {
+		Object lock = _locks.computeIfAbsent(key(ds, table), k->new Object());
+		synchronized (lock) {
+			TableStatistics stats = get(dir, ds, table);
+			if (stats == null) {
+				stats = compute(dir, ds, table, cancelled);
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * Compute the statistics of a table in a single scan and save them
+	 * @param dir the workspace directory
+	 * @param ds
+	 * @param table
+	 * @param cancelled polled during the scan
+	 * @return the statistics, or null if the computation was cancelled
+	 * @throws SQLException
+	 */
+	public static TableStatistics compute(String dir, CyclistDatasource ds, String table, BooleanSupplier cancelled) throws SQLException {
+		DatabaseFingerprint fingerprint = DatabaseFingerprint.of(ds);
+		if (fingerprint == null) return null;
+
+		long t0 = System.currentTimeMillis();
+		TableStatistics stats = new TableStatistics();
+		stats._fingerprint = fingerprint;
+
+		// the distinct values of the columns which have few of them
+		Map<String, List<Object>> values = ds.isSQLite() ? stats.scan(ds, table, cancelled) : stats.aggregate(ds, table, cancelled);
+		if (values == null) return null;
+		for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+			FieldValuesCache.put(dir, ds, table, entry.getKey(), entry.getValue());
+		}
+
+		log.debug("Statistics of "+table+": "+stats._rows+" rows, "+stats._list.size()+" columns in "
+				+(System.currentTimeMillis()-t0)/1000.0+" sec");
+
+		remember(key(ds, table), stats);
+		if (fingerprint.isPersistent()) {
+			save(file(dir, ds, table), stats);
+		}
+		return stats;
+	}
+
+	/*
+	 * Read all the rows of the table once
+	 */
+	private Map<String, List<Object>> scan(CyclistDatasource ds, String table, BooleanSupplier cancelled) throws SQLException {
+		Collector[] collectors;
+
+		try (Connection conn = ds.getConnection(); Statement stmt = QueryTask.track(conn.createStatement())) {
+			ResultSet rs = stmt.executeQuery("SELECT * FROM "+table);
+			ResultSetMetaData rmd = rs.getMetaData();
+			Function<Object, Object> convert[] = SQLUtil.factories(rmd);
+
+			collectors = new Collector[rmd.getColumnCount()];
+			for (int c = 0; c < collectors.length; c++) {
+				collectors[c] = new Collector(rmd.getColumnName(c+1));
+			}
+
+			while (rs.next()) {
+				if ((_rows & 0xffff) == 0 && cancelled.getAsBoolean()) {
+					stmt.cancel();
+					return null;
+				}
+				for (int c = 0; c < collectors.length; c++) {
+					Object value = rs.getObject(c+1);
+					collectors[c].add(value == null ? null : convert[c].apply(value));
+				}
+				_rows++;
+			}
+		}
+
+		Map<String, List<Object>> values = new LinkedHashMap<>();
+		for (Collector collector : collectors) {
+			add(collector.finish());
+			if (collector.values != null) {
+				values.put(collector.column._name, collector.sortedValues());
+			}
+		}
+		return values;
+	}
+
+	/*
+	 * Compute the counts, min and max of the columns with a single aggregate query on the server, and
+	 * read the distinct values of the columns which have few of them.
+	 */
+	private Map<String, List<Object>> aggregate(CyclistDatasource ds, String table, BooleanSupplier cancelled) throws SQLException {
+		Map<String, List<Object>> values = new LinkedHashMap<>();
+
+		try (Connection conn = ds.getConnection()) {
+			List<String> names = new ArrayList<>();
+			List<Boolean> numeric = new ArrayList<>();
+			try (Statement stmt = QueryTask.track(conn.createStatement());
+				 ResultSet rs = stmt.executeQuery("SELECT * FROM "+table+" WHERE 1=0"))
+			{
+				ResultSetMetaData rmd = rs.getMetaData();
+				for (int c = 1; c <= rmd.getColumnCount(); c++) {
+					names.add(rmd.getColumnName(c));
+					numeric.add(isNumeric(rmd.getColumnType(c)));
+				}
+			}
+
+			StringBuilder query = new StringBuilder("SELECT COUNT(*)");
+			for (int c = 0; c < names.size(); c++) {
+				String name = names.get(c);
+				query.append(", COUNT(").append(name).append("), COUNT(DISTINCT ").append(name).append(")");
+				if (numeric.get(c)) {
+					query.append(", MIN(").append(name).append("), MAX(").append(name).append(")");
+				}
+			}
+			query.append(" FROM ").append(table);
+
+			if (cancelled.getAsBoolean()) return null;
+			try (Statement stmt = QueryTask.track(conn.createStatement());
+				 ResultSet rs = stmt.executeQuery(query.toString()))
+			{
+				rs.next();
+				_rows = rs.getLong(1);
+				int i = 2;
+				for (int c = 0; c < names.size(); c++) {
+					Column column = new Column();
+					column._name = names.get(c);
+					column._nulls = _rows - rs.getLong(i++);
+					column._distinct = rs.getLong(i++);
+					if (numeric.get(c)) {
+						column._min = rs.getDouble(i++);
+						if (rs.wasNull()) column._min = Double.NaN;
+						column._max = rs.getDouble(i++);
+						if (rs.wasNull()) column._max = Double.NaN;
+						column._numeric = column._nulls < _rows;
+					}
+					add(column);
+				}
+			}
+
+			for (Column column : _list) {
+				if (column._distinct > DISTINCT_LIMIT) continue;
+				if (cancelled.getAsBoolean()) return null;
+				String name = column._name;
+				try (Statement stmt = QueryTask.track(conn.createStatement());
+					 ResultSet rs = stmt.executeQuery("SELECT DISTINCT "+name+" FROM "+table+" ORDER BY "+name))
+				{
+					Function<Object, Object> convert[] = SQLUtil.factories(rs.getMetaData());
+					List<Object> list = new ArrayList<>();
+					while (rs.next()) {
+						Object value = rs.getObject(1);
+						list.add(value == null ? null : convert[0].apply(value));
+					}
+					values.put(name, list);
+				}
+			}
+		}
+		return values;
+	}
+
+	private void add(Column column) {
+		_columns.put(column._name.toLowerCase(), column);
+		_list.add(column);
+	}
+
+	private static boolean isNumeric(int type) {
+		switch (type) {
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+		case Types.BIGINT:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static void remember(String key, TableStatistics stats) {
+		synchronized (_catalogs) {
+			_catalogs.put(key, stats);
+		}
+	}
+
+	private static String key(CyclistDatasource ds, String table) {
+		return ds.getUID()+"/"+table;
+	}
+
+	private static File file(String dir, CyclistDatasource ds, String table) {
+		String name = table.replaceAll("[^A-Za-z0-9_.-]", "_")+SUFFIX;
+		if (ds.isSQLite()) {
+			File db = DatabaseFingerprint.getSQLiteFile(ds);
+			File parent = db.getAbsoluteFile().getParentFile();
+			if (parent != null && parent.canWrite()) {
+				return new File(db.getPath()+SUFFIX, name);
+			}
+		}
+		return new File(dir+"/"+ds.getUID(), name);
+	}
+
+	/*
+	 * Layout:
+	 *   int magic, int version, fingerprint, long rows, int columns, and for each column
+	 *   name (int length + UTF-8 bytes), long nulls, long distinct, byte numeric, double min, double max,
+	 *   int histogram size, histogram boundaries
+	 */
+	private static void save(File file, TableStatistics stats) {
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath()+".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				stats._fingerprint.write(out);
+				out.writeLong(stats._rows);
+				out.writeInt(stats._list.size());
+				for (Column column : stats._list) {
+					byte[] name = column._name.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(name.length);
+					out.write(name);
+					out.writeLong(column._nulls);
+					out.writeLong(column._distinct);
+					out.writeByte(column._numeric ? 1 : 0);
+					out.writeDouble(column._min);
+					out.writeDouble(column._max);
+					out.writeInt(column._histogram.length);
+					for (double h : column._histogram) {
+						out.writeDouble(h);
+					}
+				}
+			}
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				log.warn("Can not save table statistics "+file);
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			log.warn("Can not save table statistics "+file+": "+e.getMessage());
+			tmp.delete();
+		}
+	}
+
+	private static TableStatistics read(File file, DatabaseFingerprint fingerprint) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (!fingerprint.matches(buf)) return null;
+
+			TableStatistics stats = new TableStatistics();
+			stats._fingerprint = fingerprint;
+			stats._rows = buf.getLong();
+			int n = buf.getInt();
+			for (int i = 0; i < n; i++) {
+				Column column = new Column();
+				byte[] name = new byte[buf.getInt()];
+				buf.get(name);
+				column._name = new String(name, StandardCharsets.UTF_8);
+				column._nulls = buf.getLong();
+				column._distinct = buf.getLong();
+				column._numeric = buf.get() != 0;
+				column._min = buf.getDouble();
+				column._max = buf.getDouble();
+				column._histogram = new double[buf.getInt()];
+				for (int h = 0; h < column._histogram.length; h++) {
+					column._histogram[h] = buf.getDouble();
+				}
+				stats._columns.put(column._name.toLowerCase(), column);
+				stats._list.add(column);
+			}
+			return stats;
+		}
+	}
+
+	/*
+	 * Collects the statistics of a single column
+	 */
+	private static class Collector {
+		private static final int P = 11;
+		private static final int M = 1 << P;
+
+		Column column = new Column();
+		long count = 0;
+		boolean numeric = true;
+		// the distinct values, by their key
+		Map<Object, Object> values = new HashMap<>();
+		byte[] registers = new byte[M];
+
+		long numbers = 0;
+		double[] sample = new double[SAMPLE_SIZE];
+		Random random = new Random(0);
+
+		Collector(String name) {
+			column._name = name;
+		}
+
+		void add(Object value) {
+			if (value == null) {
+				column._nulls++;
+				return;
+			}
+			count++;
+
+			// Blob does not define hashCode
+			Object key = value instanceof Number || value instanceof CyclistData ? value : value.toString();
+			if (values != null && values.putIfAbsent(key, value) == null && values.size() > DISTINCT_LIMIT) {
+				values = null;
+			}
+
+			// HyperLogLog
+			long hash = mix(value instanceof Number ? Double.doubleToLongBits(((Number) value).doubleValue()) : key.hashCode());
+			int r = (int) (hash >>> (64-P));
+			byte rank = (byte) (Long.numberOfLeadingZeros((hash << P) | (1L << (P-1))) + 1);
+			if (rank > registers[r]) registers[r] = rank;
+
+			if (numeric && value instanceof Number) {
+				double v = ((Number) value).doubleValue();
+				if (numbers == 0 || v < column._min) column._min = v;
+				if (numbers == 0 || v > column._max) column._max = v;
+				// reservoir sample for the histogram
+				if (numbers < SAMPLE_SIZE) {
+					sample[(int) numbers] = v;
+				} else {
+					long j = (long) (random.nextDouble()*(numbers+1));
+					if (j < SAMPLE_SIZE) sample[(int) j] = v;
+				}
+				numbers++;
+			} else {
+				numeric = false;
+			}
+		}
+
+		Column finish() {
+			if (values != null) {
+				column._distinct = values.size();
+			} else {
+				column._distinct = estimate();
+			}
+
+			column._numeric = numeric && numbers > 0;
+			if (column._numeric) {
+				double[] s = Arrays.copyOf(sample, (int) Math.min(numbers, SAMPLE_SIZE));
+				Arrays.sort(s);
+				double[] h = new double[HISTOGRAM_BUCKETS+1];
+				for (int b = 0; b <= HISTOGRAM_BUCKETS; b++) {
+					h[b] = s[(int) ((long) b*(s.length-1)/HISTOGRAM_BUCKETS)];
+				}
+				h[0] = column._min;
+				h[HISTOGRAM_BUCKETS] = column._max;
+				column._histogram = h;
+			} else {
+				column._min = Double.NaN;
+				column._max = Double.NaN;
+			}
+			return column;
+		}
+
+		/*
+		 * The distinct values ordered as SQL orders them: numbers before text
+		 */
+		List<Object> sortedValues() {
+			List<Object> list = new ArrayList<>(values.values());
+			list.sort(Comparator.comparing(Collector::rank).thenComparing(Collector::compare));
+			if (column._nulls > 0) list.add(0, null);
+			return list;
+		}
+
+		private static int rank(Object value) {
+			return value instanceof Number || value instanceof CyclistData ? 0 : 1;
+		}
+
+		private static int compare(Object a, Object b) {
+			if (rank(a) == 0 && rank(b) == 0) {
+				return Double.compare(number(a), number(b));
+			}
+			return a.toString().compareTo(b.toString());
+		}
+
+		private static double number(Object value) {
+			return value instanceof Number ? ((Number) value).doubleValue() : ((CyclistData) value).toNumber().doubleValue();
+		}
+
+		private long estimate() {
+			double sum = 0;
+			int zeros = 0;
+			for (byte r : registers) {
+				sum += 1.0 / (1L << r);
+				if (r == 0) zeros++;
+			}
+			double e = 0.7213/(1+1.079/M) * M * M / sum;
+			if (e <= 2.5*M && zeros > 0) {
+				e = M * Math.log((double) M / zeros);
+			}
+			return Math.min(Math.round(e), count);
+		}
+
+		private static long mix(long h) {
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package edu.utah.sci.cyclist.core.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javafx.concurrent.Task;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+
+/**
+ * Runs all the background tasks of the application on bounded worker pools.
+ *
+ * Queries are executed by a fixed pool, in the order of their {@link Priority} lane and, within a lane,
+ * in the order they were submitted. Long jobs (post processing, downloads) run on a separate small pool
+ * so they do not hold the query workers.
+ *
+ * Tasks submitted with a key are de-duplicated: while a task with the same key is queued or running,
+ * submitting the key again returns the existing task, which counts one more consumer. The task is only
+ * cancelled once every consumer has cancelled it, so one consumer can not cancel the work of the others.
+ *
+ * A task which is cancelled while it is queued is skipped when its turn comes. Tasks which run queries
+ * should extend {@link edu.utah.sci.cyclist.core.model.proxy.QueryTask} so cancellation
+ * also cancels their running statement.
+ */
+public class TaskScheduler {
+	static Logger log = Logger.getLogger(TaskScheduler.class);
+
+	/**
+	 * Priority lanes, from the most urgent
+	 */
+	public enum Priority {
+		/** data of a visible view */
+		VIEW,
+		/** values and ranges of filters */
+		FILTER,
+		/** data which is not displayed yet */
+		PREFETCH,
+		/** long running jobs. These run on their own pool */
+		BACKGROUND
+	}
+
+	private static final int QUERY_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private static final int BACKGROUND_WORKERS = 2;
+	private static final long SLOW_WAIT = 1000;
+
+	private static TaskScheduler _instance = new TaskScheduler();
+
+	private ExecutorService _queries;
+	private ExecutorService _background;
+	private Map<String, QueryTask<?>> _inflight = new ConcurrentHashMap<>();
+	private AtomicLong _sequence = new AtomicLong();
+	private Lane[] _lanes = new Lane[Priority.values().length];
+
+	/*
+	 * Metrics of a lane
+	 */
+	private static class Lane {
+		AtomicInteger queued = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+		AtomicLong started = new AtomicLong();
+		AtomicLong totalWait = new AtomicLong();
+		AtomicLong maxWait = new AtomicLong();
+	}
+
+	/*
+	 * A task in a lane
+	 */
+	private class Job implements Runnable, Comparable<Job> {
+		Task<?> task;
+		Priority priority;
+		String key;
+		long seq = _sequence.incrementAndGet();
+		long submitted = System.currentTimeMillis();
+
+		Job(Task<?> task, Priority priority, String key) {
+			this.task = task;
+			this.priority = priority;
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			Lane lane = _lanes[priority.ordinal()];
+			lane.queued.decrementAndGet();
+			try {
+				if (task.isCancelled()) return;
+
+				long wait = System.currentTimeMillis() - submitted;
+				lane.started.incrementAndGet();
+				lane.totalWait.addAndGet(wait);
+				lane.maxWait.accumulateAndGet(wait, Math::max);
+				if (wait > SLOW_WAIT) {
+					log.debug(priority+" task waited "+wait/1000.0+" sec. queued: "+getQueueDepth());
+				}
+
+				lane.running.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					lane.running.decrementAndGet();
+				}
+			} finally {
+				if (key != null) {
+					_inflight.remove(key, task);
+				}
+			}
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int c = priority.compareTo(other.priority);
+			return c != 0 ? c : Long.compare(seq, other.seq);
+		}
+	}
+
+	private TaskScheduler() {
+		for (int i = 0; i < _lanes.length; i++) {
+			_lanes[i] = new Lane();
+		}
+		_queries = new ThreadPoolExecutor(QUERY_WORKERS, QUERY_WORKERS, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), factory("cyclist-query-"));
+		_background = new ThreadPoolExecutor(BACKGROUND_WORKERS, BACKGROUND_WORKERS, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), factory("cyclist-background-"));
+	}
+
+	public static TaskScheduler getInstance() {
+		return _instance;
+	}
+
+	private static ThreadFactory factory(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, prefix+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Schedule a task
+	 * @param task
+	 * @param priority
+	 * @return the task
+	 */
+	public <T extends Task<?>> T submit(T task, Priority priority) {
+		schedule(new Job(task, priority, null));
+		return task;
+	}
+
+	/**
+	 * Schedule a task unless an identical one is already queued or running
+	 * @param key identifies the request, e.g. the query
+	 * @param priority
+	 * @param factory creates the task if there is no task with the same key
+	 * @return the new task or the task in flight with the same key. Each caller must cancel the task at
+	 * most once, when it no longer needs the result
+	 */
+	@SuppressWarnings("unchecked")
+	public <V, T extends QueryTask<V>> T submit(String key, Priority priority, Supplier<T> factory) {
+		while (true) {
+			QueryTask<?> current = _inflight.get(key);
+			if (current != null && current.share()) {
+				return (T) current;
+			}
+			T task = factory.get();
+			boolean added = current == null ? _inflight.putIfAbsent(key, task) == null : _inflight.replace(key, current, task);
+			if (added) {
+				schedule(new Job(task, priority, key));
+				return task;
+			}
+		}
+	}
+
+	private void schedule(Job job) {
+		_lanes[job.priority.ordinal()].queued.incrementAndGet();
+		if (job.priority == Priority.BACKGROUND) {
+			_background.execute(job);
+		} else {
+			_queries.execute(job);
+		}
+	}
+
+	/**
+	 * @param priority
+	 * @return number of tasks waiting in a lane
+	 */
+	public int getQueueDepth(Priority priority) {
+		return _lanes[priority.ordinal()].queued.get();
+	}
+
+	/**
+	 * @return number of tasks waiting in all the lanes
+	 */
+	public int getQueueDepth() {
+		int n = 0;
+		for (Lane lane : _lanes) {
+			n += lane.queued.get();
+		}
+		return n;
+	}
+
+	/**
+	 * @param priority
+	 * @return number of tasks of a lane which are running
+	 */
+	public int getRunning(Priority priority) {
+		return _lanes[priority.ordinal()].running.get();
+	}
+
+	/**
+	 * @param priority
+	 * @return the average time (ms) the tasks of a lane waited before they started
+	 */
+	public double getAverageWait(Priority priority) {
+		Lane lane = _lanes[priority.ordinal()];
+		long n = lane.started.get();
+		return n == 0 ? 0 : lane.totalWait.get()/(double) n;
+	}
+
+	/**
+	 * @param priority
+	 * @return the longest time (ms) a task of a lane waited before it started
+	 */
+	public long getMaxWait(Priority priority) {
+		return _lanes[priority.ordinal()].maxWait.get();
+	}
+}
@@ -3,5 +3,7 @@ package edu.utah.sci.cyclist.neup.model;
 public class Inventory {
 	public int time;
 	public int nucid;
+	// the index of nucid in the nuclide dictionary of the simulation
+	public int nuc = -1;
 	public double amount;
 }
@@ -2,18 +2,36 @@ package edu.utah.sci.cyclist.neup.model;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import edu.utah.sci.cyclist.core.model.CyclistData;
 import edu.utah.sci.cyclist.core.util.NuclideUtils;
 
+/**
+ * A nuclide, identified by its id (ZZZAAASSSS). Nuclides are unique: there is a single instance per id.
+ *
+ * The nuclides in id form with Z <= {@link #MAX_Z}, A <= {@link #MAX_A} and a state below
+ * {@link #STATES}, and the natural elements, are created once in a table indexed by (Z, A, state),
+ * so decoding them is an array lookup. The table is never modified, so it is read without locking
+ * by the query threads. Other ids are kept in a concurrent map.
+ */
 public class Nuclide implements CyclistData {
-	static private Map<Integer, Nuclide> _cache = new HashMap<>();
+	/** largest Z in the table */
+	public static final int MAX_Z = 118;
+	/** largest A in the table */
+	public static final int MAX_A = 299;
+	/** number of states (ground and metastable) in the table */
+	public static final int STATES = 2;
+
 	static private Nuclide UNKNOWN = new Nuclide(0, "<Illegal>");
-	
-	private Integer _id;
-	private String _name = null;
+	static private final Nuclide[] _table = createTable();
+	static private final Map<Integer, Nuclide> _others = new ConcurrentHashMap<>();
+
+	private final int _id;
+	private String _name;
 
-	private Nuclide(Integer id, String name) {
+	private Nuclide(int id, String name) {
 		_id = id;
 		_name = name;
 	}
@@ -21,20 +39,34 @@ public class Nuclide implements CyclistData {
 	public boolean equals(Nuclide other) {
 		return this == other; // Nuclides are unique
 	}
-	
+
 	public int hashCode() {
-		return _id.hashCode();
+		return _id;
 	}
-	
+
 	public String toString() {
-		return _name;
+		// the name of a nuclide of the table is created when it is first displayed
+		String name = _name;
+		if (name == null) {
+			try {
+				name = NuclideUtils.name(_id);
+			} catch (NotNuclide | IndeterminateNuclideForm e) {
+				name = UNKNOWN._name;
+			}
+			_name = name;
+		}
+		return name;
+	}
+
+	public int getId() {
+		return _id;
 	}
 
 	@Override
 	public Number toNumber() {
 		return _id;
 	}
-	
+
 	@Override
 	public String sqlValue() {
 		return String.valueOf(_id);
@@ -58,44 +90,104 @@ public class Nuclide implements CyclistData {
 //	@Override
 //    public double doubleValue() {
 //	    return _id;
-//	}	  
-	
-	static public Nuclide create(Integer nuc) {
-		try {
-			Nuclide nuclide = _cache.get(nuc) ;
-			if (nuclide == null) {
-				nuclide = new Nuclide(nuc, NuclideUtils.name(nuc));
-				_cache.put(nuc, nuclide);
+//	}
+
+	static public Nuclide create(int nuc) {
+		// id form: ZZZ AAA SSSS
+		if (nuc > 0) {
+			int z = nuc / 10000000;
+			int a = (nuc / 10000) % 1000;
+			int s = nuc % 10000;
+			if (z <= MAX_Z && a <= MAX_A && s < STATES) {
+				Nuclide nuclide = _table[index(z, a, s)];
+				if (nuclide != null) {
+					return nuclide;
+				}
 			}
-			return nuclide;
-		} catch (NotNuclide | IndeterminateNuclideForm e) {
-			e.printStackTrace();
-			return UNKNOWN;
 		}
+		return _others.computeIfAbsent(nuc, id -> {
+			try {
+				return new Nuclide(id, NuclideUtils.name(id));
+			} catch (NotNuclide | IndeterminateNuclideForm e) {
+				e.printStackTrace();
+				return UNKNOWN;
+			}
+		});
+	}
+
+	static public Nuclide create(Integer nuc) {
+		return create(nuc.intValue());
 	}
-	
+
 	static public Nuclide create(String code) {
 		try {
-			Integer nuc = NuclideUtils.id(code);
-			Nuclide nuclide = _cache.get(nuc) ;
-			if (nuclide == null) {
-				nuclide = new Nuclide(nuc, code);
-				_cache.put(nuc, nuclide);
-			}
-			return nuclide;
+			return create(NuclideUtils.id(code));
 		} catch (NotNuclide | IndeterminateNuclideForm e) {
 			e.printStackTrace();
 			return UNKNOWN;
 		}
 	}
-	
+
 	static public Nuclide create(Object key) {
 		if (key instanceof Integer)
-			return create((Integer)key);
-		
+			return create(((Integer)key).intValue());
+
 		if (key instanceof String)
 			return create((String) key);
-		
+
 		return UNKNOWN;
 	}
+
+	/**
+	 * Decodes the nuclides of a single result set. Integer ids are looked up in the nuclide table
+	 * and the other keys (e.g. names) are remembered, so each distinct key is parsed once.
+	 * A decoder is not thread safe: create one per result set.
+	 */
+	static public class Decoder implements Function<Object, Object> {
+		private final Map<Object, Nuclide> _memo = new HashMap<>();
+
+		@Override
+		public Nuclide apply(Object key) {
+			if (key instanceof Integer) {
+				return create(((Integer) key).intValue());
+			}
+			if (key == null) {
+				return UNKNOWN;
+			}
+			Nuclide nuclide = _memo.get(key);
+			if (nuclide == null) {
+				nuclide = create(key);
+				_memo.put(key, nuclide);
+			}
+			return nuclide;
+		}
+	}
+
+	private static int index(int z, int a, int s) {
+		return (z*(MAX_A+1) + a)*STATES + s;
+	}
+
+	/*
+	 * Creates the nuclides which NuclideUtils.id keeps as is (Z <= A <= 7Z, or a natural element)
+	 * and which have a name.
+	 */
+	private static Nuclide[] createTable() {
+		Nuclide[] table = new Nuclide[index(MAX_Z+1, 0, 0)];
+		for (int z = 1; z <= MAX_Z; z++) {
+			int element = z*10000000;
+			try {
+				NuclideUtils.name(element);
+			} catch (NotNuclide | IndeterminateNuclideForm e) {
+				// unknown element
+				continue;
+			}
+			table[index(z, 0, 0)] = new Nuclide(element, null);
+			for (int a = z; a <= Math.min(7*z, MAX_A); a++) {
+				for (int s = 0; s < STATES; s++) {
+					table[index(z, a, s)] = new Nuclide(element + a*10000 + s, null);
+				}
+			}
+		}
+		return table;
+	}
 }
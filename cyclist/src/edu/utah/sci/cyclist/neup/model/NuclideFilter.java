@@ -0,0 +1,206 @@
+package edu.utah.sci.cyclist.neup.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A set of nuclides, described as a union of ranges of nuclide ids (ZZZAAAMMMM).
+ *
+ * An element Z is the range [Z*ELEM_FACTOR, (Z+1)*ELEM_FACTOR) and an isotope ZZZAAA is the range
+ * [ZZZAAA*ISO_FACTOR, (ZZZAAA+1)*ISO_FACTOR), so the same set can be tested in memory, pushed into
+ * the WHERE clause of a query as range conditions on the NucId column (which can use an index
+ * and do not depend on how the database divides integers), or turned into a bitset over the
+ * nuclide dictionary of a simulation.
+ */
+public class NuclideFilter implements IntPredicate {
+	public static final NuclideFilter ALL = new NuclideFilter(new long[] { Integer.MIN_VALUE, Integer.MAX_VALUE });
+
+	private static final Pattern SPEC = Pattern.compile("(\\d+)( *- *(\\d+))?");
+
+	// sorted, disjoint and inclusive [from, to] pairs
+	private final long[] _ranges;
+
+	private NuclideFilter(long[] ranges) {
+		_ranges = ranges;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the nuclides whose id is in [from, to]
+	 */
+	public static NuclideFilter range(long from, long to) {
+		return new NuclideFilter(new long[] { from, to });
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the nuclides of the elements (atomic numbers) from..to
+	 */
+	public static NuclideFilter elements(int from, int to) {
+		return range((long) from*NuclideFiltersLibrary.ELEM_FACTOR, (to+1L)*NuclideFiltersLibrary.ELEM_FACTOR-1);
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the nuclides of the isotopes (ZZZAAA) from..to
+	 */
+	public static NuclideFilter isotopeRange(int from, int to) {
+		return range((long) from*NuclideFiltersLibrary.ISO_FACTOR, (to+1L)*NuclideFiltersLibrary.ISO_FACTOR-1);
+	}
+
+	/**
+	 * @param isos
+	 * @return the nuclides of the given isotopes (ZZZAAA)
+	 */
+	public static NuclideFilter isotopes(int... isos) {
+		NuclideFilter filter = null;
+		for (int iso : isos) {
+			NuclideFilter f = isotopeRange(iso, iso);
+			filter = filter == null ? f : filter.or(f);
+		}
+		return filter;
+	}
+
+	/**
+	 * Parse a comma separated list of elements (ZZ), isotopes (ZZAAA) or nuclides (ZZAAAMMMM),
+	 * each optionally a range, e.g. "92, 94-96, 95241".
+	 * @param spec
+	 * @return the filter
+	 * @throws IllegalArgumentException if an entry is not valid
+	 */
+	public static NuclideFilter parse(String spec) {
+		NuclideFilter filter = null;
+		for (String entry : spec.split(",")) {
+			Matcher matcher = SPEC.matcher(entry);
+			if (!matcher.find()) continue;
+
+			String from = matcher.group(1);
+			String to = matcher.group(3) == null ? from : matcher.group(3);
+			int l = from.length();
+			if (!(l == 2 || l == 5 || l == 9) || to.length() != l) {
+				throw new IllegalArgumentException("Illegal nuclide filter: "+entry.trim());
+			}
+			int f = Integer.parseInt(from);
+			int t = Integer.parseInt(to);
+			NuclideFilter range = l == 9 ? range(f, t) : l == 5 ? isotopeRange(f, t) : elements(f, t);
+			filter = filter == null ? range : filter.or(range);
+		}
+		if (filter == null) {
+			throw new IllegalArgumentException("Illegal nuclide filter: "+spec);
+		}
+		return filter;
+	}
+
+	/**
+	 * @param other
+	 * @return the union of this and other
+	 */
+	public NuclideFilter or(NuclideFilter other) {
+		long[] all = new long[_ranges.length+other._ranges.length];
+		System.arraycopy(_ranges, 0, all, 0, _ranges.length);
+		System.arraycopy(other._ranges, 0, all, _ranges.length, other._ranges.length);
+
+		// sort the ranges by their start and merge the ones that overlap or touch
+		Integer[] order = new Integer[all.length/2];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(all[2*a], all[2*b]));
+
+		List<Long> merged = new ArrayList<>();
+		for (int i : order) {
+			long from = all[2*i], to = all[2*i+1];
+			int n = merged.size();
+			if (n > 0 && from <= merged.get(n-1)+1) {
+				merged.set(n-1, Math.max(merged.get(n-1), to));
+			} else {
+				merged.add(from);
+				merged.add(to);
+			}
+		}
+		long[] ranges = new long[merged.size()];
+		for (int i = 0; i < ranges.length; i++) ranges[i] = merged.get(i);
+		return new NuclideFilter(ranges);
+	}
+
+	public boolean isAll() {
+		return equals(ALL);
+	}
+
+	@Override
+	public boolean test(int nucid) {
+		// the last range which starts at or before nucid
+		int lo = 0, hi = _ranges.length/2-1, r = -1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (_ranges[2*mid] <= nucid) {
+				r = mid;
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return r >= 0 && nucid <= _ranges[2*r+1];
+	}
+
+	/**
+	 * @param column the nuclide id column, e.g. "NucId" or "Compositions.NucId"
+	 * @return a SQL condition which selects the nuclides of the filter
+	 */
+	public String toSQL(String column) {
+		if (isAll()) return "1=1";
+
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < _ranges.length; i += 2) {
+			if (i > 0) sb.append(" OR ");
+			if (_ranges[i] == _ranges[i+1]) {
+				sb.append(column).append(" = ").append(_ranges[i]);
+			} else {
+				sb.append(column).append(" BETWEEN ").append(_ranges[i]).append(" AND ").append(_ranges[i+1]);
+			}
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * @param dictionary sorted nuclide ids
+	 * @return the indices of the dictionary entries which pass the filter
+	 */
+	public BitSet select(int[] dictionary) {
+		BitSet set = new BitSet(dictionary.length);
+		for (int i = 0; i < _ranges.length; i += 2) {
+			int from = lowerBound(dictionary, _ranges[i]);
+			int to = lowerBound(dictionary, _ranges[i+1]+1);
+			set.set(from, to);
+		}
+		return set;
+	}
+
+	private static int lowerBound(int[] dictionary, long value) {
+		if (value <= Integer.MIN_VALUE) return 0;
+		if (value > Integer.MAX_VALUE) return dictionary.length;
+		int i = Arrays.binarySearch(dictionary, (int) value);
+		return i >= 0 ? i : -i-1;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof NuclideFilter && Arrays.equals(_ranges, ((NuclideFilter) o)._ranges);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(_ranges);
+	}
+
+	@Override
+	public String toString() {
+		return toSQL("NucId");
+	}
+}
@@ -2,7 +2,6 @@ package edu.utah.sci.cyclist.neup.model;
 
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.function.IntPredicate;
 
 public class NuclideFiltersLibrary {
 	public static int ELEM_FACTOR = 10000000;
@@ -10,61 +9,34 @@ public class NuclideFiltersLibrary {
 	
 	private static NuclideFiltersLibrary _instance = new NuclideFiltersLibrary();
 	
-	private Map<String, IntPredicate> _filters = new TreeMap<>();
+	private Map<String, NuclideFilter> _filters = new TreeMap<>();
 	
 	public static NuclideFiltersLibrary getInstance() {
 		return _instance;	
 	}
 	
-	public Map<String, IntPredicate> getFilters() {
+	public Map<String, NuclideFilter> getFilters() {
 		return _filters;
 	}
 	
 	private NuclideFiltersLibrary() {
-		_filters.put("Actinides",n->{
-				int elem = n/ELEM_FACTOR;
-				return 89 <= elem && elem <= 103;
-			});
+		_filters.put("Actinides", NuclideFilter.elements(89, 103));
 		
-		_filters.put("Transuranics", n->{
-			int elem = n/ELEM_FACTOR;
-			return 93 <= elem && elem <= 103;
-		});
+		_filters.put("Transuranics", NuclideFilter.elements(93, 103));
 		
-		_filters.put("Minor Actinides", n->{
-			int elem = n/ELEM_FACTOR;
-			return elem==93 || (95 <= elem && elem <= 103);
-		});
+		_filters.put("Minor Actinides", NuclideFilter.elements(93, 93).or(NuclideFilter.elements(95, 103)));
 		
-		_filters.put("Fissile nuclides", n->{
-			int iso = n/ISO_FACTOR;
-			return iso==92233 || iso==92235 || iso==94239 || iso== 94231 || iso==95242 || iso==96243 || iso==96245;
-		});
+		_filters.put("Fissile nuclides", NuclideFilter.isotopes(92233, 92235, 94239, 94231, 95242, 96243, 96245));
 		
-		_filters.put("Fissile Uranium ", n->{
-			int iso = n/ISO_FACTOR;
-			return iso==92233 || iso==92235;
-		});
+		_filters.put("Fissile Uranium ", NuclideFilter.isotopes(92233, 92235));
 		
-		_filters.put("Fissile Plutonium ", n->{
-			int iso = n/ISO_FACTOR;
-			return iso==94239 || iso==94241;
-		});
+		_filters.put("Fissile Plutonium ", NuclideFilter.isotopes(94239, 94241));
 		
-		_filters.put("Long-lived fission", n->{
-			int iso = n/ISO_FACTOR;
-			return iso==55135 || iso==3129 || iso==43099 || iso==46107 || iso==4009 || iso==34079;
-		});
+		_filters.put("Long-lived fission", NuclideFilter.isotopes(55135, 3129, 43099, 46107, 4009, 34079));
 		
-		_filters.put("Lanthanides", n->{
-			int elem = n/ELEM_FACTOR;
-			return 57 <= elem && elem <= 70;
-		});
+		_filters.put("Lanthanides", NuclideFilter.elements(57, 70));
 		
-		_filters.put("Noble gases", n->{
-			int elem = n/ELEM_FACTOR;
-			return elem==36 || elem==54;
-		});
+		_filters.put("Noble gases", NuclideFilter.elements(36, 36).or(NuclideFilter.elements(54, 54)));
 	}
 	
 }
@@ -0,0 +1,227 @@
+package edu.utah.sci.cyclist.neup.model;
+
+import java.util.Arrays;
+
+/**
+ * A value per time step, kept in primitive arrays ordered by time.
+ *
+ * A series does not change once it is built. Its derived views (the cumulative sum, the
+ * difference from the previous step and the magnitudes used to scale a chart) are computed on
+ * first use and cached.
+ */
+public class TimeSeries {
+	public static final TimeSeries EMPTY = new TimeSeries(new int[0], new double[0], 0);
+
+	private final int[] _time;
+	private final double[] _value;
+	private final int _size;
+
+	private double[] _cumulative = null;
+	private double[] _delta = null;
+	private double _sumAbs = Double.NaN;
+	private double _maxAbsDelta = Double.NaN;
+
+	/**
+	 * @param time the time steps in increasing order
+	 * @param value
+	 * @param size the number of entries used in the arrays
+	 */
+	public TimeSeries(int[] time, double[] value, int size) {
+		_time = time;
+		_value = value;
+		_size = size;
+	}
+
+	/**
+	 * Sum the amounts of the inventory at each time step
+	 * @param inventory rows ordered by time
+	 * @return the series
+	 */
+	public static TimeSeries of(Iterable<Inventory> inventory) {
+		int[] time = new int[64];
+		double[] value = new double[64];
+		int n = 0;
+		for (Inventory i : inventory) {
+			if (n > 0 && time[n-1] == i.time) {
+				value[n-1] += i.amount;
+			} else {
+				if (n == time.length) {
+					time = Arrays.copyOf(time, 2*n);
+					value = Arrays.copyOf(value, 2*n);
+				}
+				time[n] = i.time;
+				value[n] = i.amount;
+				n++;
+			}
+		}
+		return new TimeSeries(time, value, n);
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public int time(int i) {
+		return _time[i];
+	}
+
+	public double value(int i) {
+		return _value[i];
+	}
+
+	/**
+	 * @return the last time step or 0 if the series is empty
+	 */
+	public int lastTime() {
+		return _size == 0 ? 0 : _time[_size-1];
+	}
+
+	/**
+	 * @param i
+	 * @return the sum of the values up to and including i
+	 */
+	public double cumulative(int i) {
+		if (_cumulative == null) {
+			double[] c = new double[_size];
+			double sum = 0;
+			for (int j = 0; j < _size; j++) {
+				sum += _value[j];
+				c[j] = sum;
+			}
+			_cumulative = c;
+		}
+		return _cumulative[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the value minus the previous value (the first value is relative to 0)
+	 */
+	public double delta(int i) {
+		if (_delta == null) {
+			double[] d = new double[_size];
+			double prev = 0;
+			for (int j = 0; j < _size; j++) {
+				d[j] = _value[j]-prev;
+				prev = _value[j];
+			}
+			_delta = d;
+		}
+		return _delta[i];
+	}
+
+	/**
+	 * @return the sum of the absolute values
+	 */
+	public double sumAbs() {
+		if (Double.isNaN(_sumAbs)) {
+			double sum = 0;
+			for (int i = 0; i < _size; i++) {
+				sum += Math.abs(_value[i]);
+			}
+			_sumAbs = sum;
+		}
+		return _sumAbs;
+	}
+
+	/**
+	 * @return the largest absolute delta
+	 */
+	public double maxAbsDelta() {
+		if (Double.isNaN(_maxAbsDelta)) {
+			double max = 0;
+			for (int i = 0; i < _size; i++) {
+				max = Math.max(max, Math.abs(delta(i)));
+			}
+			_maxAbsDelta = max;
+		}
+		return _maxAbsDelta;
+	}
+
+	/**
+	 * The sum of several series (the top of their stack), maintained incrementally as series are
+	 * added and removed. The sum is kept densely over the time steps seen so far.
+	 */
+	public static class Total {
+		private int _from = 0;
+		private double[] _sum = new double[0];
+		// the number of series with a value at each time step
+		private int[] _count = new int[0];
+		private TimeSeries _series = EMPTY;
+
+		public void add(TimeSeries series) {
+			if (series.isEmpty()) return;
+			cover(series.time(0), series.lastTime());
+			for (int i = 0; i < series.size(); i++) {
+				int t = series.time(i)-_from;
+				_sum[t] += series.value(i);
+				_count[t]++;
+			}
+			_series = null;
+		}
+
+		/**
+		 * @param series a series which was added
+		 */
+		public void remove(TimeSeries series) {
+			for (int i = 0; i < series.size(); i++) {
+				int t = series.time(i)-_from;
+				if (--_count[t] == 0) {
+					// avoid accumulating round off errors
+					_sum[t] = 0;
+				} else {
+					_sum[t] -= series.value(i);
+				}
+			}
+			_series = null;
+		}
+
+		/**
+		 * @return the total at the time steps where at least one series has a value
+		 */
+		public TimeSeries getSeries() {
+			if (_series == null) {
+				int n = 0;
+				for (int c : _count) {
+					if (c > 0) n++;
+				}
+				int[] time = new int[n];
+				double[] value = new double[n];
+				int j = 0;
+				for (int t = 0; t < _count.length; t++) {
+					if (_count[t] > 0) {
+						time[j] = _from+t;
+						value[j] = _sum[t];
+						j++;
+					}
+				}
+				_series = new TimeSeries(time, value, n);
+			}
+			return _series;
+		}
+
+		/*
+		 * Grow the dense arrays to include [from, to]
+		 */
+		private void cover(int from, int to) {
+			if (_count.length == 0) {
+				_from = from;
+			}
+			int lo = Math.min(from, _from);
+			int hi = Math.max(to, _from+_count.length-1);
+			if (lo == _from && hi-lo+1 == _count.length) return;
+
+			double[] sum = new double[hi-lo+1];
+			int[] count = new int[hi-lo+1];
+			System.arraycopy(_sum, 0, sum, _from-lo, _sum.length);
+			System.arraycopy(_count, 0, count, _from-lo, _count.length);
+			_sum = sum;
+			_count = count;
+			_from = lo;
+		}
+	}
+}
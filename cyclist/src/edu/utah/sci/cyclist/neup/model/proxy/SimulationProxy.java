@@ -6,15 +6,26 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 import org.apache.log4j.Logger;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import edu.utah.sci.cyclist.core.event.Pair;
 import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+import edu.utah.sci.cyclist.core.util.InventorySweep;
 import edu.utah.sci.cyclist.neup.model.Facility;
 import edu.utah.sci.cyclist.neup.model.Inventory;
+import edu.utah.sci.cyclist.neup.model.NuclideFilter;
 import edu.utah.sci.cyclist.neup.model.Range;
 import edu.utah.sci.cyclist.neup.model.Transaction;
 
@@ -23,10 +34,16 @@ public class SimulationProxy {
 	
 	private Simulation _sim;
 	private ObservableList<Facility> _facilities;
+	private volatile TransactionStore _transactions = null;
+	private volatile int[] _nuclides = null;
+	private Map<NuclideFilter, BitSet> _nuclideSets = new HashMap<>();
 	
 	public static final String FACILITIES_QUERY =
 			"SELECT AgentId, Spec, Prototype, InstitutionId, RegionId FROM Facilities where SimId=?";
 	
+	public static final String NUCLIDES_QUERY =
+			"SELECT DISTINCT NucId FROM Compositions WHERE SimId=? ORDER BY NucId";
+	
 	public static final String COMMODITY_QUERY = 
 			"SELECT distinct(Commodity) FROM Transactions where SimId=?";
 	
@@ -41,19 +58,49 @@ public class SimulationProxy {
 			+ " and Time >= ? and Time <= ? "
 			+"  and Facilities.%s = ?";
 	
-	public static final String INVENTORY_QUERY = 
-			"SELECT tl.Time as time, cmp.NucId as nucId, SUM(inv.Quantity*cmp.MassFrac) as amount"
-			+ "	FROM "
-			+ "		TimeList AS tl"
-			+ "			INNER JOIN Inventories AS inv ON inv.StartTime <= tl.Time AND inv.EndTime > tl.Time "
-			+ "			INNER JOIN Agents AS ag ON ag.AgentId = inv.AgentId "
-			+ "			INNER JOIN Compositions AS cmp ON cmp.QualId = inv.QualId "
-			+ "	WHERE"
-			+ "		inv.SimId = cmp.SimId AND inv.SimId = ag.SimId"
-			+ "		AND inv.SimId = ?"
-			+ "		AND ag.%s = ?"
-			+ "     AND tl.Time > 0 "
-			+ "	GROUP BY tl.Time,cmp.NucId";
+	/*
+	 * A branch of the batched transactions query: the transactions of all the nodes which share
+	 * the same type and direction. The Branch and NodeValue columns identify the node of each row.
+	 */
+	public static final String TRANSACTIONS_BRANCH_QUERY =
+			 "SELECT  %d as Branch, Facilities.%s as NodeValue, SenderId, ReceiverId, Commodity, NucId, Quantity*MassFrac as Amount, Units"
+			+ " FROM Transactions "
+			+ "      JOIN Facilities on (Transactions.SimId = Facilities.SimId and Transactions.%s = Facilities.AgentId) "
+			+ "      JOIN Resources on (Transactions.SimId = Resources.SimId and Transactions.ResourceId = Resources.ResourceId)"
+			+ "      JOIN Compositions on (Transactions.SimId = Compositions.SimId and Compositions.QualId = Resources.QualId)"
+			+ " WHERE" 
+			+ "     Transactions.SimId = ?"
+			+ " and Time >= ? and Time <= ? "
+			+"  and Facilities.%s IN (%s)";
+	
+	/**
+	 * Identifies the transactions of a flow node: the facilities whose 'type' field has the given value,
+	 * and whether the transactions are outgoing (forward) or incoming.
+	 */
+	public static class NodeKey {
+		public final String type;
+		public final String value;
+		public final boolean forward;
+		
+		public NodeKey(String type, String value, boolean forward) {
+			this.type = type;
+			this.value = value;
+			this.forward = forward;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof NodeKey)) return false;
+			NodeKey other = (NodeKey) o;
+			return forward == other.forward && type.equals(other.type) && value.equals(other.value);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, value, forward);
+		}
+	}
 	
 	public SimulationProxy(Simulation sim) {
 		_sim = sim;
@@ -82,8 +129,6 @@ public class SimulationProxy {
 			}	
 		} catch (SQLException e) {
 			log.error("fetchFacilities ",e);
-		} finally {
-			_sim.getDataSource().releaseConnection();
 		}
 		
 		return FXCollections.observableList(list);
@@ -103,17 +148,83 @@ public class SimulationProxy {
 			}
 		} catch (SQLException e) {
 			log.error("getCommodities ",e);
-		} finally {
-			_sim.getDataSource().releaseConnection();
 		}
 		return FXCollections.observableList(list);
 	}
 	
+	/**
+	 * Load the transactions of the simulation into memory so that subsequent calls to getTransactions 
+	 * do not query the database.
+	 * @param maxBytes the maximum memory the transactions may use 
+	 * @return true if the transactions were loaded, false if they exceed maxBytes
+	 * @throws SQLException
+	 */
+	public boolean preloadTransactions(long maxBytes) throws SQLException {
+		if (_transactions != null) return true;
+		
+		getFacilities();
+		try (Connection conn = _sim.getDataSource().getConnection()) {
+			_transactions = TransactionStore.load(conn, _sim.getSimulationId().getData(), maxBytes);
+		}
+		return _transactions != null;
+	}
+	
+	public boolean isTransactionsPreloaded() {
+		return _transactions != null;
+	}
+	
+	/**
+	 * @return the memory used by the preloaded transactions in bytes, or 0 if they are not preloaded
+	 */
+	public long getTransactionsMemoryUsage() {
+		TransactionStore store = _transactions;
+		return store == null ? 0 : store.getMemoryUsage();
+	}
+	
+	/*
+	 * The ids of the facilities whose 'type' field has the given value,
+	 * or null if type is not a field of the facilities
+	 */
+	private BitSet agents(String type, String value) {
+		BitSet agents = new BitSet();
+		for (Facility f : _facilities) {
+			Object v;
+			switch (type.toLowerCase()) {
+			case "agentid": v = f.id; break;
+			case "spec": v = f.spec; break;
+			case "prototype": v = f.prototype; break;
+			case "institutionid": v = f.intitution; break;
+			case "regionid": v = f.region; break;
+			default: return null;
+			}
+			if (v != null && v.toString().equals(value)) {
+				agents.set(f.id);
+			}
+		}
+		return agents;
+	}
+	
+	/*
+	 * The transactions of a node from the preloaded transactions, or null if they are not available
+	 */
+	private List<Transaction> preloaded(String type, String value, Range<Integer> timerange, boolean forward) {
+		TransactionStore store = _transactions;
+		if (store == null) return null;
+		
+		BitSet agents = agents(type, value);
+		return agents == null ? null : store.select(agents, forward, timerange);
+	}
+	
 	public ObservableList<Transaction> getTransactions(String type, String value, Range<Integer> timerange, boolean forward) throws SQLException {
+		List<Transaction> preloaded = preloaded(type, value, timerange, forward);
+		if (preloaded != null) {
+			return FXCollections.observableList(preloaded);
+		}
+		
 		List<Transaction> list = new ArrayList<>();
 		try (Connection conn = _sim.getDataSource().getConnection()) {
 			String query = String.format(TRANSACTIONS_QUERY, forward? "SenderId" : "ReceiverId", type);
-			try (PreparedStatement stmt = conn.prepareStatement(query)) {
+			try (PreparedStatement stmt = QueryTask.track(conn.prepareStatement(query))) {
 				stmt.setBytes(1, _sim.getSimulationId().getData());
 
 				stmt.setInt(2, timerange.from);
@@ -135,72 +246,253 @@ public class SimulationProxy {
 			}
 		} catch (SQLException e) {
 			log.error("getTransactions ",e);
-		} finally {
-			_sim.getDataSource().releaseConnection();
 		}
 		
 		log.debug("retrieived "+list.size()+" transactions");
 		return  FXCollections.observableList(list);
 	}
 	
-	public ObservableList<Inventory> getInventory(String type, String value) throws SQLException {
-		List<Inventory> list = new ArrayList<>();
+	/**
+	 * Retrieve the transactions of several nodes in a single query.
+	 * 
+	 * The nodes are grouped by their type and direction. Each group becomes one branch of a UNION ALL query 
+	 * which selects the values of the group with an IN list, and the rows are assigned back to their nodes
+	 * by the branch and the node value.
+	 * 
+	 * @param keys
+	 * @param timerange
+	 * @return the transactions of each key. Every key is in the map, possibly with an empty list.
+	 * @throws SQLException
+	 */
+	public Map<NodeKey, ObservableList<Transaction>> getTransactions(List<NodeKey> keys, Range<Integer> timerange) throws SQLException {
+		Map<NodeKey, ObservableList<Transaction>> result = new HashMap<>();
+		if (keys.isEmpty()) return result;
 		
-		String query = String.format(INVENTORY_QUERY, type);
-		long t0 = System.currentTimeMillis();
+		// group the keys by (type, direction)
+		Map<String, List<NodeKey>> groups = new LinkedHashMap<>();
+		for (NodeKey key : keys) {
+			if (result.containsKey(key)) continue;
+			List<Transaction> preloaded = preloaded(key.type, key.value, timerange, key.forward);
+			if (preloaded != null) {
+				result.put(key, FXCollections.observableList(preloaded));
+				continue;
+			}
+			result.put(key, FXCollections.observableArrayList());
+			groups.computeIfAbsent(key.type+(key.forward ? ":src" : ":dest"), k->new ArrayList<>()).add(key);
+		}
+		
+		if (groups.isEmpty()) return result;
+		
+		List<Map<String, NodeKey>> branches = new ArrayList<>();
+		StringBuilder query = new StringBuilder();
+		for (List<NodeKey> group : groups.values()) {
+			NodeKey first = group.get(0);
+			StringBuilder params = new StringBuilder();
+			Map<String, NodeKey> values = new HashMap<>();
+			for (NodeKey key : group) {
+				if (params.length() > 0) params.append(",");
+				params.append("?");
+				values.put(key.value, key);
+			}
+			if (query.length() > 0) query.append(" UNION ALL ");
+			query.append(String.format(TRANSACTIONS_BRANCH_QUERY, branches.size(), first.type,
+					first.forward ? "SenderId" : "ReceiverId", first.type, params));
+			branches.add(values);
+		}
+		
+		int n = 0;
 		try (Connection conn = _sim.getDataSource().getConnection()) {
-			try (PreparedStatement stmt = conn.prepareStatement(query)) {
-				stmt.setBytes(1, _sim.getSimulationId().getData());
-				stmt.setString(2, value);				
-
+			try (PreparedStatement stmt = QueryTask.track(conn.prepareStatement(query.toString()))) {
+				int p = 1;
+				for (List<NodeKey> group : groups.values()) {
+					stmt.setBytes(p++, _sim.getSimulationId().getData());
+					stmt.setInt(p++, timerange.from);
+					stmt.setInt(p++, timerange.to);
+					for (NodeKey key : group) {
+						stmt.setString(p++, key.value);
+					}
+				}
+				
 				ResultSet rs = stmt.executeQuery();
-				long t1 = System.currentTimeMillis();
 				while (rs.next()) {
-					Inventory i = new Inventory();
-					i.time = rs.getInt(1);
-					i.nucid = rs.getInt(2);
-					i.amount = rs.getDouble(3);
-					list.add(i);
+					NodeKey key = branches.get(rs.getInt("Branch")).get(rs.getString("NodeValue"));
+					if (key == null) continue;
+					
+					Transaction tr = new Transaction();
+					tr.sender = rs.getInt("SenderId");
+					tr.receiver = rs.getInt("ReceiverId");
+					tr.commodity = rs.getString("Commodity");
+					tr.nucid = rs.getInt("NucId");
+					tr.amount = rs.getDouble("Amount");
+					tr.units = rs.getString("Units");
+					
+					result.get(key).add(tr);
+					n++;
 				}
-				long t2 = System.currentTimeMillis();
-				
-				log.debug("Inventory size:"+list.size()+"  timing: "+(t2-t0)/1000.0+"sec, execute:"+(t1-t0)/1000.0+"sec, "+(t2-t1)/(float)(list.size())+" ms/item");
 			}
 		} catch (SQLException e) {
-			log.error("getInventory ",e);
-		} finally {
-			_sim.getDataSource().releaseConnection();
+			log.error("getTransactions ",e);
 		}
 		
+		log.debug("retrieived "+n+" transactions for "+result.size()+" nodes");
+		return result;
+	}
+	
+	/**
+	 * The nuclide dictionary of the simulation: the sorted ids of all the nuclides it uses.
+	 * @return the dictionary
+	 * @throws SQLException
+	 */
+	public int[] getNuclides() throws SQLException {
+		if (_nuclides == null) {
+			try (Connection conn = _sim.getDataSource().getConnection()) {
+				readNuclides(conn);
+			}
+		}
+		return _nuclides;
+	}
+	
+	/**
+	 * The nuclides of a filter, as a set of indices into the nuclide dictionary. The set of each
+	 * filter is computed once, so testing a row against the filter is a single bit lookup on its
+	 * {@link Inventory#nuc} index.
+	 * @param filter
+	 * @return the set or null if the dictionary was not read yet (by {@link #getNuclides()} or an inventory query)
+	 */
+	public BitSet getNuclideSet(NuclideFilter filter) {
+		int[] nuclides = _nuclides;
+		if (nuclides == null) return null;
+		synchronized (_nuclideSets) {
+			return _nuclideSets.computeIfAbsent(filter, f -> f.select(nuclides));
+		}
+	}
+	
+	private void readNuclides(Connection conn) throws SQLException {
+		if (_nuclides != null) return;
+		
+		int[] nuclides = new int[256];
+		int n = 0;
+		try (PreparedStatement stmt = conn.prepareStatement(NUCLIDES_QUERY)) {
+			stmt.setBytes(1, _sim.getSimulationId().getData());
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					if (n == nuclides.length) nuclides = Arrays.copyOf(nuclides, 2*n);
+					nuclides[n++] = rs.getInt(1);
+				}
+			}
+		}
+		_nuclides = Arrays.copyOf(nuclides, n);
+	}
+	
+	public ObservableList<Inventory> getInventory(String type, String value) throws SQLException {
+		return getInventory(type, value, NuclideFilter.ALL);
+	}
+	
+	/**
+	 * @param type
+	 * @param value
+	 * @param nuclides only the inventory of these nuclides is computed. The filter is part of the query.
+	 * @return the inventory
+	 * @throws SQLException
+	 */
+	public ObservableList<Inventory> getInventory(String type, String value, NuclideFilter nuclides) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		List<Inventory> list = getInventory2(type, value, nuclides);
+		long t1 = System.currentTimeMillis();
+		log.debug("Inventory size:"+list.size()+"  timing: "+(t1-t0)/1000.0+"sec, "+(t1-t0)/(float)(list.size())+" ms/item");
+		
 		return FXCollections.observableArrayList(list);
 	}
 	
+	/*
+	 * The inventory of all the agents whose 'type' field has the given value, summed over the agents,
+	 * for each time step (excluding time 0) and nuclide.
+	 */
 	public List<Inventory> getInventory2(String type, String value) throws SQLException {
+		return getInventory2(type, value, NuclideFilter.ALL);
+	}
+	
+	/*
+	 * As above, only for the nuclides of the filter. Each row also receives the index of its
+	 * nuclide in the nuclide dictionary.
+	 */
+	public List<Inventory> getInventory2(String type, String value, NuclideFilter nuclides) throws SQLException {
 		List<Inventory> list = new ArrayList<>();
 		
-		String query = String.format(INVENTORY_QUERY, type);
-		log.debug("query: "+query);
 		try (Connection conn = _sim.getDataSource().getConnection()) {
-			try (PreparedStatement stmt = conn.prepareStatement(query)) {
-//				stmt.setString(1, _sim.getSimulationId());
-				stmt.setBytes(1, _sim.getSimulationId().getData());
-				stmt.setString(2, value);				
-
-				ResultSet rs = stmt.executeQuery();
-				while (rs.next()) {
-					Inventory i = new Inventory();
-					i.time = rs.getInt(1);
-					i.nucid = rs.getInt(2);
-					i.amount = rs.getDouble(3);
-					list.add(i);
-				}
+			readNuclides(conn);
+			final int[] dictionary = _nuclides;
+			
+			InventorySweep sweep = new InventorySweep(conn, _sim.getSimulationId().getData());
+			sweep.setAgents(type, value);
+			sweep.setPerAgent(false);
+			sweep.setMinTime(1);
+			if (!nuclides.isAll()) {
+				sweep.setNuclideCondition(nuclides.toSQL("NucId"));
 			}
+			sweep.run((time, nucid, agent, amount) -> {
+				Inventory i = new Inventory();
+				i.time = time;
+				i.nucid = nucid;
+				i.nuc = Arrays.binarySearch(dictionary, nucid);
+				i.amount = amount;
+				list.add(i);
+			});
 		} catch (SQLException e) {
 			log.error("getInventory2 ",e);
-		} finally {
-			_sim.getDataSource().releaseConnection();
 		}
 		
 		return list;
 	}
+	
+	/**
+	 * The inventories of several sets of agents (as in {@link #getInventory2(String, String, NuclideFilter)}),
+	 * computed from a single read of the time steps, compositions and inventories of the simulation.
+	 * @param keys the (type, value) of each set of agents
+	 * @param nuclides
+	 * @param out receives the index of each key and its inventory, as soon as the inventory is complete
+	 * @throws SQLException
+	 */
+	public void getInventories(List<Pair<String, String>> keys, NuclideFilter nuclides, BiConsumer<Integer, List<Inventory>> out) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		List<String> fields = new ArrayList<>();
+		List<String> values = new ArrayList<>();
+		for (Pair<String, String> key : keys) {
+			fields.add(key.v1);
+			values.add(key.v2);
+		}
+		
+		try (Connection conn = _sim.getDataSource().getConnection()) {
+			readNuclides(conn);
+			final int[] dictionary = _nuclides;
+			
+			InventorySweep sweep = new InventorySweep(conn, _sim.getSimulationId().getData());
+			sweep.setMinTime(1);
+			if (!nuclides.isAll()) {
+				sweep.setNuclideCondition(nuclides.toSQL("NucId"));
+			}
+			sweep.run(fields, values, new InventorySweep.GroupConsumer() {
+				private List<Inventory> _list = new ArrayList<>();
+				
+				@Override
+				public void accept(int group, int time, int nucid, double amount) {
+					Inventory i = new Inventory();
+					i.time = time;
+					i.nucid = nucid;
+					i.nuc = Arrays.binarySearch(dictionary, nucid);
+					i.amount = amount;
+					_list.add(i);
+				}
+				
+				@Override
+				public void done(int group) {
+					out.accept(group, _list);
+					_list = new ArrayList<>();
+				}
+			});
+		} catch (SQLException e) {
+			log.error("getInventories ",e);
+		}
+		log.debug("Inventories of "+keys.size()+" agents: "+(System.currentTimeMillis()-t0)/1000.0+"sec");
+	}
 }
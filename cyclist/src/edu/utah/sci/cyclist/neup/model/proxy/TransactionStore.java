@@ -0,0 +1,209 @@
+package edu.utah.sci.cyclist.neup.model.proxy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
+import edu.utah.sci.cyclist.neup.model.Range;
+import edu.utah.sci.cyclist.neup.model.Transaction;
+
+/**
+ * The (nuclide level) transactions of a simulation, preloaded into memory and indexed by time.
+ *
+ * The transactions are kept in parallel primitive arrays sorted by time, with the offset of
+ * each time step, so the transactions of a node over a time range are a binary search followed
+ * by a scan of the rows of that range. Commodities and units are dictionary encoded.
+ *
+ * Each row takes {@link #ROW_BYTES} bytes. The store is not loaded if it would take more than
+ * the given limit.
+ */
+public class TransactionStore {
+	static Logger log = Logger.getLogger(TransactionStore.class);
+
+	/**
+	 * Approximate memory used by a single row
+	 */
+	public static final int ROW_BYTES = 6*4 + 8;
+
+	private static final String QUERY =
+			 "SELECT Time, SenderId, ReceiverId, Commodity, NucId, Quantity*MassFrac as Amount, Units"
+			+ " FROM Transactions "
+			+ "      JOIN Resources on (Transactions.SimId = Resources.SimId and Transactions.ResourceId = Resources.ResourceId)"
+			+ "      JOIN Compositions on (Transactions.SimId = Compositions.SimId and Compositions.QualId = Resources.QualId)"
+			+ " WHERE Transactions.SimId = ?"
+			+ " ORDER BY Time";
+
+	private int _size = 0;
+	private int[] _sender;
+	private int[] _receiver;
+	private int[] _commodity;
+	private int[] _nucid;
+	private double[] _amount;
+	private int[] _units;
+	private String[] _dictionary;
+
+	// the rows of _times[i] are [_offset[i], _offset[i+1])
+	private int[] _times;
+	private int[] _offset;
+
+	private TransactionStore() {
+	}
+
+	/**
+	 * Load the transactions of a simulation
+	 * @param conn
+	 * @param simId
+	 * @param maxBytes the maximum memory the store may use
+	 * @return the store or null if the transactions do not fit in maxBytes
+	 * @throws SQLException
+	 */
+	public static TransactionStore load(Connection conn, byte[] simId, long maxBytes) throws SQLException {
+		long t0 = System.currentTimeMillis();
+		long maxRows = maxBytes/ROW_BYTES;
+
+		TransactionStore store = new TransactionStore();
+		int capacity = 1024;
+		int[] time = new int[capacity];
+		store._sender = new int[capacity];
+		store._receiver = new int[capacity];
+		store._commodity = new int[capacity];
+		store._nucid = new int[capacity];
+		store._amount = new double[capacity];
+		store._units = new int[capacity];
+		Map<String, Integer> codes = new HashMap<>();
+		List<String> dictionary = new ArrayList<>();
+
+		try (PreparedStatement stmt = QueryTask.track(conn.prepareStatement(QUERY))) {
+			stmt.setBytes(1, simId);
+			try (ResultSet rs = stmt.executeQuery()) {
+				int n = 0;
+				while (rs.next()) {
+					if (n == maxRows) {
+						log.info("Transactions of simulation exceed "+maxBytes/(1024*1024)+"MB. Not preloaded");
+						return null;
+					}
+					if (n == capacity) {
+						capacity = (int) Math.min(2L*capacity, maxRows);
+						time = Arrays.copyOf(time, capacity);
+						store._sender = Arrays.copyOf(store._sender, capacity);
+						store._receiver = Arrays.copyOf(store._receiver, capacity);
+						store._commodity = Arrays.copyOf(store._commodity, capacity);
+						store._nucid = Arrays.copyOf(store._nucid, capacity);
+						store._amount = Arrays.copyOf(store._amount, capacity);
+						store._units = Arrays.copyOf(store._units, capacity);
+					}
+					time[n] = rs.getInt(1);
+					store._sender[n] = rs.getInt(2);
+					store._receiver[n] = rs.getInt(3);
+					store._commodity[n] = code(codes, dictionary, rs.getString(4));
+					store._nucid[n] = rs.getInt(5);
+					store._amount[n] = rs.getDouble(6);
+					store._units[n] = code(codes, dictionary, rs.getString(7));
+					n++;
+				}
+				store._size = n;
+			}
+		}
+		store._dictionary = dictionary.toArray(new String[dictionary.size()]);
+		store.index(time);
+
+		log.info("Preloaded "+store._size+" transactions, "+store.getMemoryUsage()/1024+"KB in "
+				+(System.currentTimeMillis()-t0)/1000.0+" sec");
+		return store;
+	}
+
+	private static int code(Map<String, Integer> codes, List<String> dictionary, String value) {
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = dictionary.size();
+			codes.put(value, code);
+			dictionary.add(value);
+		}
+		return code;
+	}
+
+	/*
+	 * Build the per time step offsets. The rows are ordered by time.
+	 */
+	private void index(int[] time) {
+		int steps = 0;
+		for (int i = 0; i < _size; i++) {
+			if (i == 0 || time[i] != time[i-1]) steps++;
+		}
+		_times = new int[steps];
+		_offset = new int[steps+1];
+		int s = 0;
+		for (int i = 0; i < _size; i++) {
+			if (i == 0 || time[i] != time[i-1]) {
+				_times[s] = time[i];
+				_offset[s] = i;
+				s++;
+			}
+		}
+		_offset[steps] = _size;
+	}
+
+	/**
+	 * @return number of transaction rows (one per nuclide)
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the approximate memory used by the store in bytes
+	 */
+	public long getMemoryUsage() {
+		return (long) _sender.length*ROW_BYTES + _offset.length*8L;
+	}
+
+	/**
+	 * Select the transactions of a set of agents.
+	 * @param agents the ids of the agents
+	 * @param forward if true, the transactions sent by the agents. Otherwise the transactions they received.
+	 * @param timerange
+	 * @return the transactions ordered by time
+	 */
+	public List<Transaction> select(BitSet agents, boolean forward, Range<Integer> timerange) {
+		List<Transaction> list = new ArrayList<>();
+		int[] agent = forward ? _sender : _receiver;
+
+		int s = lowerBound(timerange.from);
+		int end = lowerBound(timerange.to == Integer.MAX_VALUE ? timerange.to : timerange.to+1);
+		for (; s < end; s++) {
+			int time = _times[s];
+			for (int i = _offset[s]; i < _offset[s+1]; i++) {
+				if (!agents.get(agent[i])) continue;
+
+				Transaction tr = new Transaction();
+				tr.time = time;
+				tr.sender = _sender[i];
+				tr.receiver = _receiver[i];
+				tr.commodity = _dictionary[_commodity[i]];
+				tr.nucid = _nucid[i];
+				tr.amount = _amount[i];
+				tr.units = _dictionary[_units[i]];
+				list.add(tr);
+			}
+		}
+		return list;
+	}
+
+	/*
+	 * The index of the first time step >= time
+	 */
+	private int lowerBound(int time) {
+		int i = Arrays.binarySearch(_times, time);
+		return i >= 0 ? i : -i-1;
+	}
+}
@@ -1,7 +1,8 @@
 package edu.utah.sci.cyclist.neup.ui.views.flow;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javafx.application.Platform;
@@ -9,6 +10,7 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import javafx.collections.ObservableList;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.chart.LineChart;
@@ -22,11 +24,11 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import edu.utah.sci.cyclist.core.event.Pair;
 import edu.utah.sci.cyclist.core.ui.components.CyclistAxis;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
 import edu.utah.sci.cyclist.neup.model.Range;
+import edu.utah.sci.cyclist.neup.model.TimeSeries;
 
 public class FlowChart extends VBox {
 	private static final String NET_CHART_LABEL = "Shiped - Recieved";
@@ -64,7 +66,7 @@ public class FlowChart extends VBox {
 	
 	public class ChartInfo {
 		public Label title;
-		public Collection<Pair<Integer, Double>> values;
+		public TimeSeries values;
 		public XYChart.Series<Number, Number> series;
 		public double scale;
 		public int last;
@@ -95,13 +97,10 @@ public class FlowChart extends VBox {
 		updateAll();
 	}
 	
-	public void add(InventoryEntry entry, String title, Collection<Pair<Integer, Double>> values) {
-		if (values.size() == 0) return;
+	public void add(InventoryEntry entry, String title, TimeSeries values) {
+		if (values.isEmpty()) return;
 		
-		int last = 0;
-		for (Pair<Integer, Double> p : values) {
-			last = Math.max(last, p.v1);
-		}
+		int last = values.lastTime();
 		if (last > _upperBound) {
 			_upperBound = last;
 		}
@@ -178,42 +177,33 @@ public class FlowChart extends VBox {
 	}
 
 	
-	private double computeScale(Collection<Pair<Integer, Double>> values) {
-		double max = 0;
-		if (getChartType().equals(COMMULATIVE_CHART_LABEL)) {
-			double sum = 0;
-			for (Pair<Integer, Double> value : values) {
-				sum += Math.abs(value.v2);
-			}
-			max = sum;
-		} else {
-			double prev = 0;
-			for (Pair<Integer, Double> value : values) {
-				max = Math.max(max, Math.abs(value.v2-prev));
-				prev = value.v2;
-			}
-		}
+	private double computeScale(TimeSeries values) {
+		double max = getChartType().equals(COMMULATIVE_CHART_LABEL) ? values.sumAbs() : values.maxAbsDelta();
 		if (max == 0) max = 1;
 		double s = Math.pow(10, 3*Math.floor(Math.log10(max)/3));
 		return s;
 	}
 	
-	private void updateSeries(XYChart.Series<Number, Number> series, Collection<Pair<Integer, Double>> values) {
-		series.getData().clear();
-
-		if (getChartType().equals(COMMULATIVE_CHART_LABEL)) {
-			double sum = 0;
-			for (Pair<Integer, Double> value : values) {
-				sum += value.v2/_scale;
-				series.getData().add(new XYChart.Data<Number, Number>(value.v1, sum));
+	private void updateSeries(XYChart.Series<Number, Number> series, TimeSeries values) {
+		boolean cumulative = getChartType().equals(COMMULATIVE_CHART_LABEL);
+		int n = values.size();
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			y[i] = (cumulative ? values.cumulative(i) : values.delta(i))/_scale;
+		}
+		
+		// switching the chart type only changes the y values of the existing points
+		ObservableList<XYChart.Data<Number, Number>> data = series.getData();
+		if (data.size() == n) {
+			for (int i = 0; i < n; i++) {
+				data.get(i).setYValue(y[i]);
 			}
 		} else {
-			double prev = 0;
-			for (Pair<Integer, Double> value : values) {
-				double v = value.v2/_scale;
-				series.getData().add(new XYChart.Data<Number, Number>(value.v1, v-prev));
-				prev = v;
+			List<XYChart.Data<Number, Number>> list = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				list.add(new XYChart.Data<Number, Number>(values.time(i), y[i]));
 			}
+			data.setAll(list);
 		}
 	}
 
@@ -13,6 +13,7 @@ import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import javafx.animation.PauseTransition;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.DoubleProperty;
@@ -56,6 +57,7 @@ import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 
 import javax.imageio.ImageIO;
 
@@ -68,15 +70,21 @@ import edu.utah.sci.cyclist.core.event.Pair;
 import edu.utah.sci.cyclist.core.event.dnd.DnD;
 import edu.utah.sci.cyclist.core.model.Context;
 import edu.utah.sci.cyclist.core.model.Field;
+import edu.utah.sci.cyclist.core.model.Preferences;
 import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
 import edu.utah.sci.cyclist.core.ui.components.CyclistViewBase;
 import edu.utah.sci.cyclist.core.ui.components.RangeField;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
 import edu.utah.sci.cyclist.core.util.MementoUtils;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
+import edu.utah.sci.cyclist.core.util.TaskScheduler.Priority;
 import edu.utah.sci.cyclist.neup.model.Facility;
 import edu.utah.sci.cyclist.neup.model.Inventory;
+import edu.utah.sci.cyclist.neup.model.NuclideFilter;
 import edu.utah.sci.cyclist.neup.model.Range;
+import edu.utah.sci.cyclist.neup.model.TimeSeries;
 import edu.utah.sci.cyclist.neup.model.Transaction;
 import edu.utah.sci.cyclist.neup.model.proxy.SimulationProxy;
 
@@ -97,6 +105,9 @@ public class FlowView extends CyclistViewBase {
   public static final int INIT_TIMESTEP = 1;
   public static final int MIN_TIMESTEP = 1;
 
+  // rapid time changes (e.g. holding the step buttons) within this delay are coalesced into a single query
+  private static final Duration TIME_CHANGE_DELAY = Duration.millis(150);
+
   static final Logger log = LogManager.getLogger(FlowView.class.getName());
 
   private FlowLine _line[]; 
@@ -111,6 +122,7 @@ public class FlowView extends CyclistViewBase {
   private SimulationProxy _simProxy = null;
   private int _targetLine = -1;
   private boolean _changingKid = false;
+  private PauseTransition _timeChangeDelay = new PauseTransition(TIME_CHANGE_DELAY);
 
   /*
    * Properties
@@ -160,6 +172,8 @@ public class FlowView extends CyclistViewBase {
 	kindFactory.put("Prototype", f->f.prototype);
 	kindFactory.put("AgentID", f->f.id);
 	kindFactory.put("InstitutionID", f->f.intitution);
+
+	_timeChangeDelay.setOnFinished(e->queryExplicitNodes());
   }
 
   private void update() {
@@ -172,8 +186,34 @@ public class FlowView extends CyclistViewBase {
 	}
 	_simProxy = new SimulationProxy(currentSim);
 
-	if (_simProxy != null)
+	if (_simProxy != null) {
 		fetchInfo();
+		preloadTransactions();
+	}
+  }
+
+  /*
+   * Load the simulation transactions into memory, if they fit, so changing the time step does not query the database
+   */
+  private void preloadTransactions() {
+	final SimulationProxy proxy = _simProxy;
+	final long maxBytes = Preferences.getInstance().getTransactionsMemory()*1024L*1024L;
+	if (maxBytes <= 0) return;
+
+	Task<Boolean> task = new QueryTask<Boolean>() {
+	  @Override
+	  protected Boolean query() throws Exception {
+		return proxy.preloadTransactions(maxBytes);
+	  }
+	};
+
+	task.valueProperty().addListener((o, p, n)->{
+	  if (n != null && n) {
+		log.info("Transactions preloaded: "+proxy.getTransactionsMemoryUsage()/(1024*1024)+"MB");
+	  }
+	});
+
+	TaskScheduler.getInstance().submit(task, Priority.PREFETCH);
   }
 
   private void fetchInfo() {
@@ -203,9 +243,7 @@ public class FlowView extends CyclistViewBase {
 	  }
 	});
 	
-	Thread th = new Thread(task);
-	th.setDaemon(true);
-	th.start();
+	schedule(task);
   }
   private void updateTransactionsPredicate() {
 	_transactionsPredicateProperty.set(_commodityPredicate.and(_isoPredicate));
@@ -230,6 +268,16 @@ public class FlowView extends CyclistViewBase {
   }
 
   private void timeChanged(Range<Integer> range) {
+	if (_simProxy != null && _simProxy.isTransactionsPreloaded()) {
+	  // in memory queries are fast enough to follow every change
+	  queryExplicitNodes();
+	} else {
+	  // only query the latest time step once the changes settle
+	  _timeChangeDelay.playFromStart();
+	}
+  }
+
+  private void queryExplicitNodes() {
 	// connect explicit nodes
 	List<FlowNode> list = new ArrayList<>();
 	for (FlowNode node : _line[SRC].getNodes()) {
@@ -394,31 +442,13 @@ public class FlowView extends CyclistViewBase {
 	// assume the data is sorted based on time
 	// multiple items per timestep
 	// TODO: apply filters
-	List<Pair<Integer, Double>> series = new ArrayList<>();
-	Pair<Integer, Double> current =  null;
-	for (Inventory i : values) {
-	  if (current == null || current.v1 != i.time) {
-		if (current != null) {
-		  series.add(current);
-		}
-		current = new Pair<>();
-		current.v1 = i.time;
-		current.v2 = i.amount;
-	  } else {
-		current.v2 += i.amount;
-	  }
-	}
-	if (current != null) {
-	  series.add(current);
-	}
-
-	_chart.add(entry, entry.getName(), series);
+	_chart.add(entry, entry.getName(), TimeSeries.of(values));
   }
 
   private ReadOnlyObjectProperty<ObservableList<Inventory>> queryInventory(FlowNode node) {
-	Task<ObservableList<Inventory>> task = new Task<ObservableList<Inventory>>() {
+	Task<ObservableList<Inventory>> task = new QueryTask<ObservableList<Inventory>>() {
 	  @Override
-	  protected ObservableList<Inventory> call() throws Exception {
+	  protected ObservableList<Inventory> query() throws Exception {
 		long t = System.currentTimeMillis();
 		ObservableList<Inventory> list = _simProxy.getInventory(node.getType(), node.getValue().toString());
 		long t1 = System.currentTimeMillis();
@@ -427,9 +457,7 @@ public class FlowView extends CyclistViewBase {
 	  }	
 	};
 
-	Thread thread = new Thread(task);
-	thread.setDaemon(true);
-	thread.start();
+	schedule(task);
 
 	node.setTask(task);
 
@@ -437,12 +465,13 @@ public class FlowView extends CyclistViewBase {
   }
 
   private void queryMaterialFlow(final FlowNode node) {
-	final int timestep = getTimeRange().from;
-	Task<ObservableList<Transaction>> task = new Task<ObservableList<Transaction>>() {
+	final Range<Integer> range = getTimeRange();
+	final int timestep = range.from;
+	Task<ObservableList<Transaction>> task = new QueryTask<ObservableList<Transaction>>() {
 	  @Override
-	  protected ObservableList<Transaction> call() throws Exception {
+	  protected ObservableList<Transaction> query() throws Exception {
 		long t = System.currentTimeMillis();
-		ObservableList<Transaction> list =  _simProxy.getTransactions(node.getType(), node.getValue().toString(), getTimeRange(), node.isSRC());
+		ObservableList<Transaction> list =  _simProxy.getTransactions(node.getType(), node.getValue().toString(), range, node.isSRC());
 		long t1 = System.currentTimeMillis();
 		log.debug("query material flow: "+(t1-t)/1000.0);
 		return list;
@@ -456,28 +485,32 @@ public class FlowView extends CyclistViewBase {
 	  }
 	});
 
-	Thread thread = new Thread(task);
-	thread.setDaemon(true);
-	thread.start();
+	schedule(task);
 
 	setCurrentTask(task);
   }
 
   private void queryTransactions(final List<FlowNode> list) {
-	final int timestep = getTimeRange().from;
+	final Range<Integer> range = getTimeRange();
+	final int timestep = range.from;
 
-	Task<ObservableMap<FlowNode, ObservableList<Transaction>>> task = new Task<ObservableMap<FlowNode, ObservableList<Transaction>>>() {
+	Task<ObservableMap<FlowNode, ObservableList<Transaction>>> task = new QueryTask<ObservableMap<FlowNode, ObservableList<Transaction>>>() {
 	  @Override
-	  protected ObservableMap<FlowNode,ObservableList<Transaction>> call() throws Exception {
-		Map<FlowNode, ObservableList<Transaction>> map = new HashMap<>();
+	  protected ObservableMap<FlowNode,ObservableList<Transaction>> query() throws Exception {
+		List<SimulationProxy.NodeKey> keys = new ArrayList<>();
 		for (FlowNode node : list) {
-		  long t = System.currentTimeMillis();
-		  ObservableList<Transaction> list = _simProxy.getTransactions(node.getType(), node.getValue().toString(), getTimeRange(), node.isSRC());
-		  long t1 = System.currentTimeMillis();
-		  log.debug("getTransaction: node="+node.getValue().toString()+" time:"+(t1-t)/1000.0);
-		  map.put(node, list);
+		  keys.add(new SimulationProxy.NodeKey(node.getType(), node.getValue().toString(), node.isSRC()));
 		}
 
+		long t = System.currentTimeMillis();
+		Map<SimulationProxy.NodeKey, ObservableList<Transaction>> transactions = _simProxy.getTransactions(keys, range);
+		long t1 = System.currentTimeMillis();
+		log.debug("getTransactions: "+list.size()+" nodes time:"+(t1-t)/1000.0);
+
+		Map<FlowNode, ObservableList<Transaction>> map = new HashMap<>();
+		for (int i = 0; i < list.size(); i++) {
+		  map.put(list.get(i), transactions.get(keys.get(i)));
+		}
 		return FXCollections.observableMap(map);
 	  }	
 	};
@@ -495,9 +528,7 @@ public class FlowView extends CyclistViewBase {
 	  }
 	});
 
-	Thread thread = new Thread(task);
-	thread.setDaemon(true);
-	thread.start();
+	schedule(task);
 
 	setCurrentTask(task);
   }
@@ -606,13 +637,14 @@ public class FlowView extends CyclistViewBase {
 	} else {
 	  try {
 		final int n = Integer.parseInt(value);	
-		_isoPredicate =  
+		final NuclideFilter filter =  
 			n< 200 ? 
-				t->Math.floorDiv(t.nucid, 1000*10000) == n:
+				NuclideFilter.elements(n, n):
 				  n < 200000 ?
-					  t->Math.floorDiv(t.nucid, 10000) == n:
-						t->t.nucid == n  ;
-						updateTransactionsPredicate();
+					  NuclideFilter.isotopes(n):
+						NuclideFilter.range(n, n);
+		_isoPredicate = t->filter.test(t.nucid);
+		updateTransactionsPredicate();
 	  } catch (Exception e)  {
 		log.debug("*** TODO: Indicate to user iso was invalid number");
 	  }
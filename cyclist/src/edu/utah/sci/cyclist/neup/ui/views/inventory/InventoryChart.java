@@ -1,7 +1,6 @@
 package edu.utah.sci.cyclist.neup.ui.views.inventory;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +9,7 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.ObservableList;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.chart.AreaChart;
@@ -20,9 +20,9 @@ import javafx.scene.chart.XYChart;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Path;
-import edu.utah.sci.cyclist.core.event.Pair;
 import edu.utah.sci.cyclist.core.ui.components.CyclistAxis;
 import edu.utah.sci.cyclist.core.util.ColorUtil;
+import edu.utah.sci.cyclist.neup.model.TimeSeries;
 import edu.utah.sci.cyclist.neup.ui.views.inventory.InventoryView.AgentInfo;
 
 public class InventoryChart extends VBox {
@@ -50,13 +50,14 @@ public class InventoryChart extends VBox {
 	
 	private Map<AgentInfo, ChartInfo> _items = new HashMap<>();
 	private XYChart.Series<Number, Number> _totalSeries = null;
+	private TimeSeries.Total _total = new TimeSeries.Total();
 	private String totalStyle = "#00000055; -fx-stroke-width: 1px; -fx-effect: dropshadow(gaussian, #c0c0c0, 2,1, 1,1)";
 	
 	private ObjectProperty<CyclistAxis.Mode> _axisMode = new SimpleObjectProperty<>(CyclistAxis.Mode.LINEAR);
 	private BooleanProperty _forceZero = new SimpleBooleanProperty(false);
 	
 	public class ChartInfo {
-		public Collection<Pair<Integer, Double>> values;
+		public TimeSeries values;
 		public XYChart.Series<Number, Number> series;
 		public double scale;
 		public int last;
@@ -104,6 +105,9 @@ public class InventoryChart extends VBox {
 		
 	}
 	
+	/*
+	 * The total is maintained by add and remove. Only its chart series is created here.
+	 */
 	private void updateTotal() {
 		if (_items.size() < 2) {
 			_chart.getData().remove(_totalSeries);
@@ -111,49 +115,27 @@ public class InventoryChart extends VBox {
 			return;
 		}
 		
-		int min_x = (int) Math.round(_xAxis.getLowerBound());
-		int max_x = (int) Math.round(_xAxis.getUpperBound());
-		
-		double total[] = new double[max_x-min_x+1];
-		for (int i=0; i< total.length; i++)
-			total[i] = 0;
-		
-		for (AgentInfo info : _items.keySet()) {
-			for (Pair<Integer, Double> pt : info.series) {	
-				total[pt.v1-min_x] += pt.v2;
-			}
-		}
-		int last = total.length-1;
-		while (last >= 0 && total[last] == 0) last--;
-		List<Pair<Integer, Double>> pts = new ArrayList<>();
-		int i = 0;
-		while (total[i] == 0 && i<= last) i++;
-		for (;i<total.length; i++) {
-			pts.add(new Pair<Integer, Double>(i, total[i]));
-		}
-		
 		if (_totalSeries != null) {
 			_chart.getData().remove(_totalSeries);
 		}
-		_totalSeries = createSeries(pts, totalStyle);
-//		double scale = computeScale(pts); // relative to the current chart type
-//		if (scale > _scale) {
-//			updateScale(scale);
-//		}	
+		_totalSeries = createSeries(_total.getSeries(), totalStyle);
 	}
 	
 	public void add(AgentInfo entry) {
 		ChartInfo info = _items.remove(entry);
 		if (info != null) {
 			_chart.getData().remove(info.series);
+			_total.remove(info.values);
 		}
 		
-		if (entry.series.size() == 0) return;
-		
-		int last = 0;
-		for (Pair<Integer, Double> p : entry.series) {
-			last = Math.max(last, p.v1);
+		if (entry.series.isEmpty()) {
+			if (_showTotal.getValue()) {
+				updateTotal();
+			}
+			return;
 		}
+		
+		int last = entry.series.lastTime();
 		if (last > _upperBound) {
 			_upperBound = last;
 		}
@@ -169,6 +151,7 @@ public class InventoryChart extends VBox {
 		info.last = last;
 		info.style = style;
 		_items.put(entry, info);
+		_total.add(entry.series);
 		
 		if (_showTotal.getValue()) {
 			updateTotal();
@@ -177,7 +160,7 @@ public class InventoryChart extends VBox {
 		}
 	}
 	
-	public XYChart.Series<Number, Number> createSeries(Collection<Pair<Integer, Double>> data, String style) {
+	public XYChart.Series<Number, Number> createSeries(TimeSeries data, String style) {
 		final XYChart.Series<Number, Number> series = new XYChart.Series<>();
 		
 		series.nodeProperty().addListener(o->{
@@ -222,6 +205,7 @@ public class InventoryChart extends VBox {
 		}
 				
 		_chart.getData().remove(info.series);
+		_total.remove(info.values);
 		double s = 1;
 		_upperBound = 0;
 		for (ChartInfo ci : _items.values()) {
@@ -270,61 +254,59 @@ public class InventoryChart extends VBox {
 		}
 	}
 	
-	private double computeScale(Collection<Pair<Integer, Double>> values) {
-		double max = 0;
-		if (_type == ChartType.INVENTORY) {
-			double sum = 0;
-			for (Pair<Integer, Double> value : values) {
-				sum += Math.abs(value.v2);
-			}
-			max = sum;
-		} else {
-			double prev = 0;
-			for (Pair<Integer, Double> value : values) {
-				max = Math.max(max, Math.abs(value.v2-prev));
-				prev = value.v2;
-			}
-		}
+	private double computeScale(TimeSeries values) {
+		double max = _type == ChartType.INVENTORY ? values.sumAbs() : values.maxAbsDelta();
 		if (max == 0) max = 1;
 		double s = Math.pow(10, 3*Math.floor(Math.log10(max)/3));
 		return s;
 	}
 	
-	private void updateSeries(XYChart.Series<Number, Number> series, Collection<Pair<Integer, Double>> values) {
-		List<XYChart.Data<Number, Number>> list = new ArrayList<>();
+	private void updateSeries(XYChart.Series<Number, Number> series, TimeSeries values) {
+		int n = values.size();
+		if (n == 0) {
+			series.getData().clear();
+			return;
+		}
 		
-		if (_type == ChartType.INVENTORY) {
-			double sum = 0;
-
-			for (Pair<Integer, Double> value : values) {
-				if (list.isEmpty()) {
-					list.add(new XYChart.Data<Number, Number>(value.v1-1, 0));
-				}
-//				if (!list.isEmpty())
-//					list.add(new XYChart.Data<Number, Number>(((float)value.v1)-0.1, sum));
-				sum = value.v2/_scale;
-				list.add(new XYChart.Data<Number, Number>(value.v1, sum));
-				
+		// a leading zero point at the step before the first one
+		boolean lead = _type == ChartType.INVENTORY || values.time(0) > 0;
+		int offset = lead ? 1 : 0;
+		int[] x = new int[n+offset];
+		double[] y = new double[n+offset];
+		if (lead) {
+			x[0] = values.time(0)-1;
+			y[0] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			x[i+offset] = values.time(i);
+			if (_type == ChartType.INVENTORY) {
+				y[i+offset] = values.value(i)/_scale;
+			} else {
+				// without a leading point the series starts from its first value
+				y[i+offset] = lead || i > 0 ? values.delta(i)/_scale : 0;
+			}
+		}
+		setData(series, x, y);
+	}
+	
+	/*
+	 * Reuse the existing data points when the number of points did not change, e.g. when the chart type changes
+	 */
+	private void setData(XYChart.Series<Number, Number> series, int[] x, double[] y) {
+		ObservableList<XYChart.Data<Number, Number>> data = series.getData();
+		if (data.size() == x.length) {
+			for (int i = 0; i < x.length; i++) {
+				XYChart.Data<Number, Number> d = data.get(i);
+				d.setXValue(x[i]);
+				d.setYValue(y[i]);
 			}
 		} else {
-			double prev = 0;
-			boolean first = true;
-			for (Pair<Integer, Double> value : values) {
-				double v = value.v2/_scale;
-				if (first) {
-					if (value.v1 > 0)
-						list.add(new XYChart.Data<Number, Number>(value.v1-1, 0));
-					else
-						prev = v;
-					first = false;
-				}
-				list.add(new XYChart.Data<Number, Number>(value.v1, v-prev));
-				
-				prev = v;
+			List<XYChart.Data<Number, Number>> list = new ArrayList<>(x.length);
+			for (int i = 0; i < x.length; i++) {
+				list.add(new XYChart.Data<Number, Number>(x[i], y[i]));
 			}
+			data.setAll(list);
 		}
-		
-		series.getData().setAll(list);
 	}
 	
 	public ObjectProperty<InventoryChart.ChartMode> getMode(){
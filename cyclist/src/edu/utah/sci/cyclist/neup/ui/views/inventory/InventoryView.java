@@ -3,24 +3,22 @@ package edu.utah.sci.cyclist.neup.ui.views.inventory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.function.Consumer;
-import java.util.function.IntPredicate;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javafx.animation.Animation;
 import javafx.animation.Interpolator;
 import javafx.animation.RotateTransition;
+import javafx.application.Platform;
 import javafx.beans.Observable;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ListProperty;
 import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleListProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -67,6 +65,7 @@ import edu.utah.sci.cyclist.core.model.Configuration;
 import edu.utah.sci.cyclist.core.model.Context;
 import edu.utah.sci.cyclist.core.model.Field;
 import edu.utah.sci.cyclist.core.model.Simulation;
+import edu.utah.sci.cyclist.core.model.proxy.QueryTask;
 import edu.utah.sci.cyclist.core.ui.components.CyclistAxis;
 import edu.utah.sci.cyclist.core.ui.components.CyclistViewBase;
 import edu.utah.sci.cyclist.core.ui.components.Spring;
@@ -74,8 +73,12 @@ import edu.utah.sci.cyclist.core.ui.panels.TitledPanel;
 import edu.utah.sci.cyclist.core.util.AwesomeIcon;
 import edu.utah.sci.cyclist.core.util.ColorUtil;
 import edu.utah.sci.cyclist.core.util.GlyphRegistry;
+import edu.utah.sci.cyclist.core.util.Showing;
+import edu.utah.sci.cyclist.core.util.TaskScheduler;
 import edu.utah.sci.cyclist.neup.model.Inventory;
+import edu.utah.sci.cyclist.neup.model.NuclideFilter;
 import edu.utah.sci.cyclist.neup.model.NuclideFiltersLibrary;
+import edu.utah.sci.cyclist.neup.model.TimeSeries;
 import edu.utah.sci.cyclist.neup.model.proxy.SimulationProxy;
 import edu.utah.sci.cyclist.neup.ui.views.inventory.InventoryChart.ChartMode;
 import edu.utah.sci.cyclist.neup.ui.views.inventory.InventoryChart.ChartType;
@@ -89,8 +92,11 @@ public class InventoryView extends CyclistViewBase {
 	private ObservableList<AgentInfo> _agents = FXCollections.observableArrayList();
 	private List<String> _acceptableFields = new ArrayList<>();
 	
-	private Map<String, IntPredicate> _nuclideFilters = new TreeMap<>();
+	private Map<String, NuclideFilter> _nuclideFilters = new TreeMap<>();
 	private ObservableList<String> _nuclideFilterNames = FXCollections.observableArrayList();
+	private NuclideFilter _currentNuclideFilter = NuclideFilter.ALL;
+	private NuclideFilter _predicateFilter = NuclideFilter.ALL;
+	private BitSet _predicateSet = null;
 	private ObjectProperty<Predicate<Inventory>> _currentNuclideFilterProperty = new SimpleObjectProperty<>();
 	
 	private TitledPanel _agentListPanel;
@@ -99,6 +105,7 @@ public class InventoryView extends CyclistViewBase {
 	private CyclistAxis.Mode _saveAxisMode;
 
 	private SimulationProxy _simProxy = null;
+	private List<AgentInfo> _pendingFetch = new ArrayList<>();
 		
 	private InventoryChart _chart = new InventoryChart();
 	ComboBox<String> _filters = new ComboBox<>();
@@ -120,8 +127,7 @@ public class InventoryView extends CyclistViewBase {
 		_simProxy = currentSim == null ?  null : new SimulationProxy(currentSim);
 		
 		for (AgentInfo info : _agents) {
-			info.inventory.unbind();
-			info.inventory.bind(fetchInventory(info)); 
+			fetchInventory(info);
 		}
 	}
 	
@@ -134,8 +140,8 @@ public class InventoryView extends CyclistViewBase {
 		// default no-op filter
 		_currentNuclideFilterProperty.set(inventory->true);
 		
-		_nuclideFilters.put("", i->true);
-		for (Entry<String, IntPredicate> entry :  NuclideFiltersLibrary.getInstance().getFilters().entrySet())  {
+		_nuclideFilters.put("", NuclideFilter.ALL);
+		for (Entry<String, NuclideFilter> entry :  NuclideFiltersLibrary.getInstance().getFilters().entrySet())  {
 			_nuclideFilters.put(entry.getKey(), entry.getValue());
 			_nuclideFilterNames.add(entry.getKey());
 		}
@@ -145,66 +151,69 @@ public class InventoryView extends CyclistViewBase {
 		_chart.selectChartType(type);
 	}
 	
+	/*
+	 * The inventories are fetched with the current filter pushed into the query. A filter which
+	 * only narrows the fetched nuclides is applied in memory; a wider one fetches the inventory again.
+	 */
 	private void selectNuclideFilter(String key) {	
-		IntPredicate p = key.matches(" *") ? n->true : _nuclideFilters.get(key);
+		NuclideFilter filter = key == null || key.matches(" *") ? NuclideFilter.ALL : _nuclideFilters.get(key);
 
-		if (p == null) {
-			p = createNuclideFilter(key);
-			_nuclideFilters.put(key, p);
+		if (filter == null) {
+			try {
+				filter = NuclideFilter.parse(key);
+			} catch (IllegalArgumentException e) {
+				// TODO: indicate an error
+				log.error(e.getMessage());
+				filter = NuclideFilter.ALL; // ignore the spec
+			}
+			_nuclideFilters.put(key, filter);
 			_nuclideFilterNames.add(key);
 		}
-		final IntPredicate predicate = p;
-		_currentNuclideFilterProperty.set(inventory->predicate.test(inventory.nucid));
-	}
-	
-	Pattern pattern = Pattern.compile("(\\d+)( *- *(\\d+))?");
-	
-	private IntPredicate createNuclideFilter(String spec) {
-		IntPredicate predicate = null;
-		String specs[] = spec.split(",");
-		for (int i=0; i<specs.length; i++) {
-			Matcher matcher = pattern.matcher(specs[i]);
-			if (matcher.find()) {
-				if (!valid(matcher.group(1), matcher.group(3))) {
-					// TODO: indicate an error
-					log.error("Illegal filter");
-					return n->true; // ignore the spec;
-				}
-				IntPredicate p;
-				if (matcher.group(3) == null) {
-					p = createPredicate(matcher.group(1));
-				} else {
-					p = createPredicate(matcher.group(1), matcher.group(3));
-				}
-				predicate = predicate == null ? p : predicate.or(p);
-			} 
+		_currentNuclideFilter = filter;
+		
+		for (AgentInfo info : _agents) {
+			if (!covers(info.nuclides, filter)) {
+				fetchInventory(info);
+			}
 		}
-		return  predicate;
-	}
-	
-	private boolean valid(String from, String to) {
-		int l = from.length();
-		return (l == 2 || l==5 || l==9) && (to==null || to.length() == l);
+		updateNuclidePredicate();
 	}
 	
-	private IntPredicate createPredicate(String str) {
-		int v = Integer.parseInt(str);
-		int l = str.length();
-		return l >7 ? n->n == v :
-			l > 4 ? n->n/10000 == v:
-				n->n/10000000 == v;		
-	}
-	
-	private IntPredicate createPredicate(String from, String to) {
-		int f = Integer.parseInt(from);
-		int t = Integer.parseInt(to);
-		int l = from.length();
+	/*
+	 * Whether the nuclides of 'filter' are a subset of the nuclides of 'fetched'
+	 */
+	private boolean covers(NuclideFilter fetched, NuclideFilter filter) {
+		if (fetched.isAll() || fetched.equals(filter)) return true;
+		if (_simProxy == null) return false;
+		
+		BitSet have = _simProxy.getNuclideSet(fetched);
+		BitSet want = _simProxy.getNuclideSet(filter);
+		if (have == null || want == null) return false;
 		
-		return l >7 ? n->n>=f && n<=t :
-			l > 4 ? n->n/10000>=f && n/10000<=t:
-				n->n/10000000<=f && n/10000000<=t;		
+		BitSet missing = (BitSet) want.clone();
+		missing.andNot(have);
+		return missing.isEmpty();
 	}
 	
+	/*
+	 * Test the rows by their index in the nuclide dictionary once the dictionary is available
+	 */
+	private void updateNuclidePredicate() {
+		final NuclideFilter filter = _currentNuclideFilter;
+		final BitSet set = filter.isAll() || _simProxy == null ? null : _simProxy.getNuclideSet(filter);
+		
+		if (filter == _predicateFilter && set == _predicateSet) return;
+		_predicateFilter = filter;
+		_predicateSet = set;
+		
+		if (filter.isAll()) {
+			_currentNuclideFilterProperty.set(inventory->true);
+		} else if (set == null) {
+			_currentNuclideFilterProperty.set(inventory->filter.test(inventory.nucid));
+		} else {
+			_currentNuclideFilterProperty.set(inventory->inventory.nuc >= 0 && set.get(inventory.nuc));
+		}
+	}
 
 	private Node createExportActions() {
 		final Button button = new Button("Export", GlyphRegistry.get(AwesomeIcon.CARET_DOWN));
@@ -422,58 +431,94 @@ public class InventoryView extends CyclistViewBase {
 
 	private void addAgent(final AgentInfo info) {
 		_agents.add(info);
-		info.inventory.bind(fetchInventory(info));
+		fetchInventory(info);
+	}
+	
+	/*
+	 * The agents which are fetched during the same pulse (e.g. all the agents of a restored
+	 * workspace, or all the agents when the simulation changes) are fetched together by a single task.
+	 * Each agent has its own Fetch, so cancelling one agent does not cancel the others.
+	 * The agents wait until the view is showing, so a batch is never replaced by a newer one.
+	 */
+	private void fetchInventory(AgentInfo info) {
+		if (_pendingFetch.isEmpty()) {
+			Platform.runLater(()->Showing.whenShowing(this, ()->fetchPending()));
+		}
+		if (!_pendingFetch.contains(info)) {
+			_pendingFetch.add(info);
+		}
+		info.inventory.set(null);
 	}
 	
-	private ReadOnlyObjectProperty<ObservableList<Inventory>>  fetchInventory(AgentInfo info) {
-		final String field = info.field;
-		final String value = info.value;
+	private void fetchPending() {
+		final List<AgentInfo> infos = new ArrayList<>(_pendingFetch);
+		_pendingFetch.clear();
+		infos.retainAll(_agents);
+		if (infos.isEmpty() || _simProxy == null) return;
+		
+		final SimulationProxy proxy = _simProxy;
+		final NuclideFilter nuclides = _currentNuclideFilter;
+		final List<Pair<String, String>> keys = new ArrayList<>();
+		for (AgentInfo info : infos) {
+			keys.add(new Pair<>(info.field, info.value));
+		}
 		
-		Task<ObservableList<Inventory>> task = new Task<ObservableList<Inventory>>() {
+		final List<Fetch> fetches = new ArrayList<>();
+		Task<Void> task = new QueryTask<Void>() {
 			@Override
-			protected ObservableList<Inventory> call() throws Exception {
-				ObservableList<Inventory> list = FXCollections.observableArrayList();
-				list.setAll(_simProxy.getInventory2(field, value));
-
-				List<Integer> nuclides = new ArrayList<>();
-				for (Inventory i : list) {
-					if (!nuclides.contains(i.nucid))
-						nuclides.add(i.nucid);
-				}
-				return list;
+			protected Void query() throws Exception {
+				// each agent is shown as soon as its inventory is complete
+				proxy.getInventories(keys, nuclides, (i, list)->{
+					AgentInfo info = infos.get(i);
+					Fetch fetch = fetches.get(i);
+					Platform.runLater(()->{
+						if (fetch.deliver() && info.getFetch() == fetch) {
+							info.inventory.set(FXCollections.observableArrayList(list));
+						}
+					});
+				});
+				return null;
 			}	
 		};
 		
-		info.setTask(task);
+		for (AgentInfo info : infos) {
+			Fetch fetch = new Fetch(task, fetches);
+			fetches.add(fetch);
+			info.nuclides = nuclides;
+			info.setFetch(fetch);
+		}
 		
-		Thread thread = new Thread(task);
-		thread.setDaemon(true);
-		thread.start();	
-				
-		return task.valueProperty();
+		task.stateProperty().addListener((o, prev, state)->{
+			switch (state) {
+			case CANCELLED:
+				// the agents which were not cancelled on their own are fetched again
+				for (int i = 0; i < infos.size(); i++) {
+					AgentInfo info = infos.get(i);
+					if (fetches.get(i).deliver() && info.getFetch() == fetches.get(i) && _agents.contains(info)) {
+						fetchInventory(info);
+					}
+				}
+				break;
+			case FAILED:
+				log.error("Inventory query failed: "+task.getException());
+				for (Fetch fetch : fetches) {
+					fetch.deliver();
+				}
+				break;
+			case SUCCEEDED:
+				for (Fetch fetch : fetches) {
+					fetch.deliver();
+				}
+				break;
+			default:
+				break;
+			}
+		});
+		TaskScheduler.getInstance().submit(task, TaskScheduler.Priority.VIEW);
 	}
 	
 	private void addToChart(AgentInfo info) {
-		List<Pair<Integer, Double>> series = new ArrayList<>();
-		Pair<Integer, Double> current =  null;
-		
-		for (Inventory i : info.filteredInventory) {
-			if (current == null || current.v1 != i.time) {
-				if (current != null) {
-					series.add(current);
-				}
-				current = new Pair<>();
-				current.v1 = i.time;
-				current.v2 = i.amount;
-			} else {
-				current.v2 += i.amount;
-			}
-		}
-		if (current != null) {
-			series.add(current);
-		}
-		
-		info.series = series;
+		info.series = TimeSeries.of(info.filteredInventory);
 		if (info.active)
 			_chart.add(info);
 	}
@@ -613,10 +658,12 @@ public class InventoryView extends CyclistViewBase {
 		public Color color;
 		public Boolean active;
 		public ListProperty<Inventory> inventory = new SimpleListProperty<>();
+		// the nuclides the inventory was fetched with
+		public NuclideFilter nuclides = NuclideFilter.ALL;
 		public FilteredList<Inventory> filteredInventory; 
 		
-		public List<Pair<Integer, Double>> series = null;
-		public ObjectProperty<Task<?>> taskProperty = new SimpleObjectProperty<>();
+		public TimeSeries series = null;
+		public ObjectProperty<Fetch> fetchProperty = new SimpleObjectProperty<>();
 		
 		public AgentInfo(String field, String value) {
 			this.field = field;
@@ -626,6 +673,7 @@ public class InventoryView extends CyclistViewBase {
 			
 			inventory.addListener((Observable o)->{
 				if (inventory.get() != null) {
+					updateNuclidePredicate();
 					filteredInventory = new FilteredList<Inventory>(inventory.get());
 					filteredInventory.addListener((Observable e)->{
 						addToChart(this);
@@ -639,12 +687,46 @@ public class InventoryView extends CyclistViewBase {
 			return field+"="+value;
 		}
 		
-		public void setTask(Task<?> task) {
-			taskProperty.set(task);
+		public void setFetch(Fetch fetch) {
+			fetchProperty.set(fetch);
+		}
+		
+		public Fetch getFetch() {
+			return fetchProperty.get();
+		}
+	}
+	
+	/*
+	 * The fetch of the inventory of one agent by a batch task. Cancelling it drops the agent from the
+	 * batch, and the batch task is cancelled once all its agents are cancelled.
+	 * Used on the FX thread only.
+	 */
+	class Fetch {
+		public SimpleBooleanProperty running = new SimpleBooleanProperty(true);
+		private Task<?> _batch;
+		private List<Fetch> _fetches;
+		
+		public Fetch(Task<?> batch, List<Fetch> fetches) {
+			_batch = batch;
+			_fetches = fetches;
+		}
+		
+		/*
+		 * Mark the inventory as delivered
+		 * @return false if the fetch was already delivered or cancelled
+		 */
+		public boolean deliver() {
+			if (!running.get()) return false;
+			running.set(false);
+			return true;
 		}
 		
-		public Task<?> getTask() {
-			return taskProperty.get();
+		public void cancel() {
+			if (!deliver()) return;
+			for (Fetch fetch : _fetches) {
+				if (fetch.running.get()) return;
+			}
+			_batch.cancel();
 		}
 	}
 	
@@ -667,7 +749,7 @@ public class InventoryView extends CyclistViewBase {
 			_status = new Status();
 			getChildren().addAll(text, new Spring(), _status, button);
 			
-			info.taskProperty.addListener(o->_status.setTask(info.getTask()));
+			info.fetchProperty.addListener(o->_status.setFetch(info.getFetch()));
 			setOnMouseEntered(e->{
 				button.setVisible(true);
 				getStyleClass().add("hover");
@@ -699,18 +781,18 @@ public class InventoryView extends CyclistViewBase {
 			HBox.setHgrow(text, Priority.ALWAYS);
 		}
 		
-		public void setTask(Task<?> task) {
-			_status.setTask(task);
+		public void setFetch(Fetch fetch) {
+			_status.setFetch(fetch);
 		}
 		
 		public void setOnClose(Consumer<AgentEntry> cb) {
-			setTask(null);
+			setFetch(null);
 			_onClose = cb;
 		}
 	}
 	
 	class Status extends Pane {
-		private Task<?> _task = null;
+		private Fetch _fetch = null;
 		private Node _icon;
 		private RotateTransition _animation; 
 		
@@ -726,33 +808,29 @@ public class InventoryView extends CyclistViewBase {
 			_animation.setCycleCount(Animation.INDEFINITE);
 			_animation.setInterpolator(Interpolator.LINEAR);
 			setVisible(false);
-			setOnMouseClicked(e->_task.cancel());
+			setOnMouseClicked(e->{
+				if (_fetch != null) _fetch.cancel();
+			});
+			visibleProperty().addListener(o->{
+				if (isVisible()) {
+					_animation.play();
+				} else {
+					_animation.stop();
+				}
+			});
 		}
 		
-		public void setTask(Task<?> task) {
-			if (_task != null) {
-				_task.cancel();
-				_animation.stop();
+		public void setFetch(Fetch fetch) {
+			if (_fetch != null) {
+				_fetch.cancel();
 				visibleProperty().unbind();
-				log.info("Task Canceled");
+				setVisible(false);
 			}
 			
-			_task = task;
-			if (_task != null) {
-				visibleProperty().bind(task.runningProperty());
-				_task.runningProperty().addListener(o->{
-					SimpleBooleanProperty running= (SimpleBooleanProperty) o;
-					if (running.get()) {
-						_animation.play();
-					} else {
-						_animation.stop();
-					}
-				});
-
-				task.setOnFailed(e->{
-					log.error(_task.getMessage());
-					setTask(null);
-				});
+			_fetch = fetch;
+			if (_fetch != null) {
+				// the spinner stops as soon as the inventory of this agent arrives
+				visibleProperty().bind(_fetch.running);
 			}
 		}
 		
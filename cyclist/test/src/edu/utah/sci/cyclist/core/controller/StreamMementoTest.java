@@ -0,0 +1,105 @@
+package edu.utah.sci.cyclist.core.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Saves a memento and reads it back, with StreamMemento and with XMLMemento
+ */
+public class StreamMementoTest {
+	private static final String SPECIAL = "a<b>c&d\"e'f\tg\nh\r\ni  j";
+	private static final int VALUES = 2000;
+
+	@Test
+	public void roundTrip() throws Exception {
+		StreamMemento root = workspace();
+		StreamMemento copy = StreamMemento.createReadRoot(new StringReader(save(root)));
+
+		assertEquals(root.contentHash(), copy.contentHash());
+		check(copy);
+	}
+
+	@Test
+	public void readByXMLMemento() throws Exception {
+		XMLMemento copy = XMLMemento.createReadRoot(new StringReader(save(workspace())));
+		check(copy);
+	}
+
+	@Test
+	public void readXMLMemento() throws Exception {
+		XMLMemento root = XMLMemento.createWriteRoot("workspace");
+		fill(root);
+		StringWriter writer = new StringWriter();
+		root.save(writer);
+
+		StreamMemento copy = StreamMemento.createReadRoot(new StringReader(writer.toString()));
+		// the attributes are in the order of the DOM, so only the content is compared
+		check(copy);
+	}
+
+	@Test
+	public void savedTwice() throws Exception {
+		StreamMemento root = workspace();
+		String text = save(root);
+		assertEquals(text, save(StreamMemento.createReadRoot(new StringReader(text))));
+	}
+
+	private static StreamMemento workspace() {
+		StreamMemento root = StreamMemento.createWriteRoot("workspace");
+		fill(root);
+		return root;
+	}
+
+	private static void fill(IMemento root) {
+		root.putString("version", "0.3");
+		root.putString("special", SPECIAL);
+
+		IMemento view = root.createChild("view", "v1");
+		view.putInteger("x", 10);
+		view.putDouble("scale", 0.125);
+		view.putBoolean("visible", true);
+
+		IMemento filter = root.createChild("filter");
+		filter.putString("field", "NucId");
+		for (int i = 0; i < VALUES; i++) {
+			filter.createChild("value").putString("v", Integer.toString(i));
+		}
+
+		root.createChild("note").putTextData(SPECIAL);
+		root.createChild("empty");
+	}
+
+	private static void check(IMemento root) {
+		assertEquals("workspace", root.getType());
+		assertEquals("0.3", root.getString("version"));
+		assertEquals(SPECIAL, root.getString("special"));
+		assertNull(root.getString("missing"));
+
+		IMemento view = root.getChild("view");
+		assertEquals("v1", view.getID());
+		assertEquals(Integer.valueOf(10), view.getInteger("x"));
+		assertEquals(0.125, view.getDouble("scale"), 0);
+		assertEquals(Boolean.TRUE, view.getBoolean("visible"));
+
+		IMemento[] values = root.getChild("filter").getChildren("value");
+		assertEquals(VALUES, values.length);
+		for (int i = 0; i < VALUES; i++) {
+			assertEquals(Integer.toString(i), values[i].getString("v"));
+		}
+
+		assertEquals(SPECIAL, root.getChild("note").getTextData());
+		assertArrayEquals(new String[0], root.getChild("empty").getAttributeKeys());
+	}
+
+	private static String save(StreamMemento memento) throws Exception {
+		StringWriter writer = new StringWriter();
+		memento.save(writer);
+		return writer.toString();
+	}
+}
@@ -0,0 +1,115 @@
+package edu.utah.sci.cyclist.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The checkout, return and close counts of the pool. A SQLite file stands in for the server.
+ */
+public class JdbcConnectionPoolTest {
+	private File _file;
+	private JdbcConnectionPool _pool;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_file = File.createTempFile("pool", ".sqlite");
+		_pool = new JdbcConnectionPool("jdbc:sqlite:"+_file.getPath(), new Properties(), 1, 2, 0);
+	}
+
+	@After
+	public void tearDown() {
+		_pool.closeIdle();
+		_file.delete();
+	}
+
+	@Test
+	public void reuse() throws SQLException {
+		try (Connection conn = _pool.getConnection()) {
+			assertEquals(1, _pool.getActive());
+			assertEquals(0, _pool.getIdle());
+		}
+		assertEquals(0, _pool.getActive());
+		assertEquals(1, _pool.getIdle());
+
+		try (Connection conn = _pool.getConnection()) {
+			query(conn);
+		}
+		assertEquals(2, _pool.getBorrowed());
+		assertEquals(1, _pool.getOpened());
+		assertEquals(0, _pool.getClosed());
+	}
+
+	@Test
+	public void concurrentCheckouts() throws SQLException {
+		try (Connection a = _pool.getConnection(); Connection b = _pool.getConnection()) {
+			assertEquals(2, _pool.getActive());
+			assertEquals(2, _pool.getOpened());
+		}
+		assertEquals(0, _pool.getActive());
+		assertEquals(2, _pool.getIdle());
+	}
+
+	@Test
+	public void closeTwice() throws SQLException {
+		Connection conn = _pool.getConnection();
+		conn.close();
+		conn.close();
+		assertTrue(conn.isClosed());
+		assertEquals(0, _pool.getActive());
+		assertEquals(1, _pool.getIdle());
+	}
+
+	@Test
+	public void returnedConnection() throws SQLException {
+		Connection conn = _pool.getConnection();
+		conn.close();
+		try {
+			conn.createStatement();
+			fail("a returned connection can not be used");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void closeIdle() throws SQLException {
+		try (Connection a = _pool.getConnection(); Connection b = _pool.getConnection()) {
+			query(a);
+			query(b);
+		}
+		_pool.closeIdle();
+		assertEquals(0, _pool.getIdle());
+		assertEquals(2, _pool.getClosed());
+	}
+
+	@Test
+	public void evict() throws Exception {
+		try (Connection a = _pool.getConnection(); Connection b = _pool.getConnection()) {
+			query(a);
+			query(b);
+		}
+		Thread.sleep(5);
+		_pool.evict();
+		// the minimum idle connection is kept
+		assertEquals(1, _pool.getIdle());
+		assertEquals(1, _pool.getClosed());
+	}
+
+	private static void query(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeQuery("SELECT 1").close();
+		}
+	}
+}
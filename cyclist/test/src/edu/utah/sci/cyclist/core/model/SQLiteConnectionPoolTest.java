@@ -0,0 +1,146 @@
+package edu.utah.sci.cyclist.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reader reuse, the writer lane and the exclusive operations of the pool of a SQLite file
+ */
+public class SQLiteConnectionPoolTest {
+	private static final long BLOCKED = 300;
+
+	private File _file;
+	private SQLiteConnectionPool _pool;
+	private ExecutorService _executor = Executors.newSingleThreadExecutor();
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_file = File.createTempFile("pool", ".sqlite");
+		create(_file, 1);
+		_pool = SQLiteConnectionPool.get("jdbc:sqlite:"+_file.getPath(), new Properties());
+	}
+
+	@After
+	public void tearDown() {
+		_executor.shutdownNow();
+		_pool.closeIdle();
+		_file.delete();
+	}
+
+	@Test
+	public void readerReuse() throws SQLException {
+		String first;
+		try (Connection conn = _pool.getReadConnection()) {
+			assertEquals(1, value(conn));
+			first = conn.toString();
+		}
+		try (Connection conn = _pool.getReadConnection()) {
+			assertEquals(first, conn.toString());
+		}
+	}
+
+	@Test
+	public void returnedConnection() throws SQLException {
+		Connection conn = _pool.getReadConnection();
+		conn.close();
+		conn.close();
+		assertTrue(conn.isClosed());
+		try {
+			conn.createStatement();
+			fail("a returned connection can not be used");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void writerDrainsReaders() throws Exception {
+		Future<Integer> reader;
+		try (Connection writer = _pool.getWriteConnection()) {
+			assertFalse(_pool.isWAL());
+			reader = _executor.submit(() -> {
+				try (Connection conn = _pool.getReadConnection()) {
+					return value(conn);
+				}
+			});
+			assertBlocked(reader);
+			try (Statement stmt = writer.createStatement()) {
+				stmt.executeUpdate("UPDATE t SET v = 2");
+			}
+		}
+		assertEquals(Integer.valueOf(2), reader.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void exclusiveWaitsForReaders() throws Exception {
+		File next = File.createTempFile("pool", ".sqlite");
+		create(next, 3);
+
+		Future<?> replace;
+		String before;
+		try (Connection conn = _pool.getReadConnection()) {
+			before = conn.toString();
+			replace = _executor.submit(() -> {
+				_pool.exclusive(() -> Files.move(next.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING));
+				return null;
+			});
+			assertBlocked(replace);
+			assertEquals(1, value(conn));
+		}
+		replace.get(5, TimeUnit.SECONDS);
+
+		// the idle reader of the previous file was closed
+		try (Connection conn = _pool.getReadConnection()) {
+			assertNotEquals(before, conn.toString());
+			assertEquals(3, value(conn));
+		}
+	}
+
+	private static void assertBlocked(Future<?> future) throws Exception {
+		try {
+			future.get(BLOCKED, TimeUnit.MILLISECONDS);
+			fail("should wait for the connection");
+		} catch (TimeoutException e) {
+			// expected
+		}
+	}
+
+	private static void create(File file, int value) throws SQLException {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+			 Statement stmt = conn.createStatement())
+		{
+			stmt.executeUpdate("CREATE TABLE t (v INTEGER)");
+			stmt.executeUpdate("INSERT INTO t VALUES ("+value+")");
+		}
+	}
+
+	private static int value(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT v FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+}
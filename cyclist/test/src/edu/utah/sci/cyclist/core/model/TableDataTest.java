@@ -0,0 +1,144 @@
+package edu.utah.sci.cyclist.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The rows of a query are read into a column per field, typed by the declared type of the field.
+ *
+ * SQLite types a column without a declared type by the value of its first row, so the
+ * numeric columns are promoted when a later value does not fit
+ */
+public class TableDataTest {
+	private Connection _conn;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement stmt = _conn.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE c (i INTEGER, d REAL, s TEXT)");
+			stmt.executeUpdate("INSERT INTO c VALUES (1, 0.5, 'a'), (NULL, NULL, NULL), (3, 2.5, 'a'), (4, -1, 'b')");
+			stmt.executeUpdate("CREATE TABLE t (id INTEGER, v)");
+			stmt.executeUpdate("INSERT INTO t VALUES (1, 1), (2, NULL), (3, 2.5), (4, 7)");
+			stmt.executeUpdate("CREATE TABLE l (id INTEGER, v)");
+			stmt.executeUpdate("INSERT INTO l VALUES (1, 1), (2, 9007199254740993), (3, 0.25)");
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		_conn.close();
+	}
+
+	@Test
+	public void columns() throws SQLException {
+		TableData data = query("SELECT i, d, s FROM c", -1);
+		assertEquals(4, data.size());
+		assertEquals(3, data.getColumnCount());
+		assertEquals("d", data.getName(1));
+		assertEquals(2, data.indexOf("s"));
+
+		assertEquals(TableData.Type.INT, data.getType(0));
+		assertEquals(TableData.Type.DOUBLE, data.getType(1));
+		assertEquals(TableData.Type.STRING, data.getType(2));
+		assertTrue(data.isNumeric(1));
+
+		assertEquals(3, data.getInt(2, 0));
+		assertEquals(0.5, data.getDouble(0, 1), 0);
+		assertEquals("b", data.getString(3, 2));
+		assertEquals(Integer.valueOf(4), data.getValue(3, 0));
+
+		for (int c = 0; c < 3; c++) {
+			assertTrue(data.isNull(1, c));
+			assertNull(data.getValue(1, c));
+		}
+		StringBuilder sb = new StringBuilder();
+		data.append(sb, 1, 0);
+		data.append(sb, 2, 2);
+		assertEquals("a", sb.toString());
+	}
+
+	@Test
+	public void limit() throws SQLException {
+		assertEquals(2, query("SELECT i FROM c", 2).size());
+		assertEquals(0, query("SELECT i FROM c WHERE i > 10", -1).size());
+	}
+
+	@Test
+	public void groupBy() throws SQLException {
+		TableData data = query("SELECT i, s FROM c", -1);
+		TableData.Groups groups = data.groupBy(1);
+		// a, null, b
+		assertEquals(3, groups.count);
+		assertEquals(groups.group[0], groups.group[2]);
+		assertEquals(1, groups.first[groups.group[1]]);
+		assertEquals(4, data.groupBy(0, 1).count);
+	}
+
+	@Test
+	public void intToDouble() throws SQLException {
+		TableData data = read("SELECT v FROM t ORDER BY id", -1);
+		assertEquals(TableData.Type.DOUBLE, data.getType(0));
+		assertEquals(1.0, data.getDouble(0, 0), 0);
+		assertTrue(data.isNull(1, 0));
+		assertEquals(2.5, data.getDouble(2, 0), 0);
+		assertEquals(7.0, data.getDouble(3, 0), 0);
+	}
+
+	@Test
+	public void longKeepsPrecision() throws SQLException {
+		TableData data = read("SELECT v FROM l WHERE id < 3 ORDER BY id", -1);
+		assertEquals(TableData.Type.LONG, data.getType(0));
+		assertEquals(9007199254740993L, data.getLong(1, 0));
+	}
+
+	@Test
+	public void longToDouble() throws SQLException {
+		TableData data = read("SELECT v FROM l ORDER BY id", -1);
+		assertEquals(TableData.Type.DOUBLE, data.getType(0));
+		assertEquals(0.25, data.getDouble(2, 0), 0);
+	}
+
+	@Test
+	public void promotedPages() throws SQLException {
+		TableData data = read("SELECT v FROM t ORDER BY id", 2);
+		assertEquals(TableData.Type.DOUBLE, data.getType(0));
+		assertEquals(4, data.size());
+		assertEquals(1.0, data.getDouble(0, 0), 0);
+		assertTrue(data.isNull(1, 0));
+		assertEquals(2.5, data.getDouble(2, 0), 0);
+		assertEquals(7.0, data.getDouble(3, 0), 0);
+	}
+
+	private TableData query(String query, int limit) throws SQLException {
+		try (Statement stmt = _conn.createStatement(); ResultSet rs = stmt.executeQuery(query)) {
+			return TableData.read(rs, limit);
+		}
+	}
+
+	/*
+	 * Read all the rows, in pages of the given size
+	 */
+	private TableData read(String query, int pageSize) throws SQLException {
+		try (Statement stmt = _conn.createStatement(); ResultSet rs = stmt.executeQuery(query)) {
+			TableData.Reader reader = new TableData.Reader(rs);
+			TableData data = reader.next(pageSize);
+			while (!reader.isDone()) {
+				data.append(reader.next(pageSize));
+			}
+			return data;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package edu.utah.sci.cyclist.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utah.sci.cyclist.core.model.Blob;
+import edu.utah.sci.cyclist.core.model.CyclistData;
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+import edu.utah.sci.cyclist.neup.model.Nuclide;
+
+/**
+ * The values written to a field values file are read back the same, including the null entry
+ */
+public class FieldValuesCacheTest {
+	private File _db;
+	private File _dir;
+	private CyclistDatasource _ds;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_db = File.createTempFile("values", ".sqlite");
+		_dir = Files.createTempDirectory("values").toFile();
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+_db.getPath());
+			 Statement stmt = conn.createStatement())
+		{
+			stmt.executeUpdate("CREATE TABLE t (v INTEGER)");
+		}
+
+		_ds = new CyclistDatasource();
+		_ds.setURL("jdbc:sqlite:/"+_db.getAbsolutePath());
+		_ds.getProperties().setProperty("type", "SQLite");
+	}
+
+	@After
+	public void tearDown() {
+		_ds.closeIdleConnections();
+		delete(_dir);
+		_db.delete();
+	}
+
+	@Test
+	public void types() {
+		roundTrip("ints", Arrays.asList(-7, 0, 1, Integer.MAX_VALUE));
+		roundTrip("longs", Arrays.asList(Long.MIN_VALUE, 3L, 1L << 40));
+		roundTrip("doubles", Arrays.asList(-0.5, 0.0, 1e300, Double.MIN_VALUE));
+		roundTrip("nuclides", Arrays.asList(Nuclide.create(922350000), Nuclide.create(942390000)));
+		roundTrip("strings", Arrays.asList("", "a", "na\u00efve \u2622", "with\nnewline"));
+		roundTrip("blobs", Arrays.asList(new Blob("0a1b"), new Blob("ff")));
+	}
+
+	@Test
+	public void nulls() {
+		List<Object> values = Arrays.asList(1, 2, 3);
+		for (int at = 0; at <= values.size(); at++) {
+			List<Object> list = new ArrayList<>(values);
+			list.add(at, null);
+			roundTrip("int"+at, list);
+
+			List<Object> strings = new ArrayList<>(Arrays.asList("x", "y", "z"));
+			strings.add(at, null);
+			roundTrip("string"+at, strings);
+		}
+		roundTrip("null", Arrays.asList((Object) null));
+		roundTrip("empty", new ArrayList<>());
+	}
+
+	@Test
+	public void changed() throws SQLException {
+		FieldValuesCache.put(_dir.getPath(), _ds, "t", "v", Arrays.asList(1, 2));
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+_db.getPath());
+			 Statement stmt = conn.createStatement())
+		{
+			stmt.executeUpdate("CREATE TABLE u (w INTEGER)");
+		}
+		FieldValuesCache.forget();
+		assertNull(FieldValuesCache.get(_dir.getPath(), _ds, "t", "v"));
+	}
+
+	/*
+	 * Write the values, drop them from memory and read the file
+	 */
+	private void roundTrip(String field, List<Object> values) {
+		FieldValuesCache.put(_dir.getPath(), _ds, "t", field, values);
+		FieldValuesCache.forget();
+		List<Object> read = FieldValuesCache.get(_dir.getPath(), _ds, "t", field);
+		assertNotNull(field, read);
+		assertEquals(field, values.size(), read.size());
+		for (int i = 0; i < values.size(); i++) {
+			Object expected = values.get(i);
+			Object actual = read.get(i);
+			if (expected == null) {
+				assertNull(field+" "+i, actual);
+			} else {
+				assertEquals(field+" "+i, expected.getClass(), actual.getClass());
+				assertEquals(field+" "+i, key(expected), key(actual));
+			}
+		}
+	}
+
+	private static Object key(Object value) {
+		return value instanceof Nuclide ? ((CyclistData) value).toNumber().intValue() : value.toString();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,142 @@
+package edu.utah.sci.cyclist.core.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the sweep with the range join it replaces
+ */
+public class InventorySweepTest {
+	private static final byte[] SIM = { 1, 2, 3, 4 };
+	private static final int AGENTS = 20;
+	private static final int TIMES = 60;
+	private static final int NUCLIDES = 12;
+
+	private static final String RANGE_JOIN =
+			"SELECT tl.Time, cmp.NucId, inv.AgentId, SUM(inv.Quantity*cmp.MassFrac)"
+			+ " FROM TimeList tl"
+			+ "   JOIN Inventories inv ON inv.StartTime <= tl.Time AND inv.EndTime > tl.Time AND inv.SimId = tl.SimId"
+			+ "   JOIN Compositions cmp ON cmp.QualId = inv.QualId AND cmp.SimId = inv.SimId"
+			+ " WHERE tl.SimId = ? %s"
+			+ " GROUP BY tl.Time, cmp.NucId, inv.AgentId";
+
+	private Connection _conn;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement stmt = _conn.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE TimeList (SimId BLOB, Time INTEGER)");
+			stmt.executeUpdate("CREATE TABLE Agents (SimId BLOB, AgentId INTEGER, Prototype TEXT)");
+			stmt.executeUpdate("CREATE TABLE Compositions (SimId BLOB, QualId INTEGER, NucId INTEGER, MassFrac REAL)");
+			stmt.executeUpdate("CREATE TABLE Inventories (SimId BLOB, AgentId INTEGER, StartTime INTEGER, EndTime INTEGER,"
+					+ " QualId INTEGER, Quantity REAL)");
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		_conn.close();
+	}
+
+	@Test
+	public void manyQualities() throws SQLException {
+		// more qualities than the initial capacity of the compositions, and more than twice of it
+		fill(1500, 3000, 7);
+		assertEquals(rangeJoin(""), sweep(null));
+	}
+
+	@Test
+	public void fewQualities() throws SQLException {
+		fill(10, 200, 11);
+		assertEquals(rangeJoin(""), sweep(null));
+	}
+
+	@Test
+	public void agentsOfPrototype() throws SQLException {
+		fill(700, 1000, 13);
+		assertEquals(rangeJoin("AND inv.AgentId IN (SELECT AgentId FROM Agents WHERE Prototype = 'p1')"), sweep("p1"));
+	}
+
+	private void fill(int qualities, int inventories, long seed) throws SQLException {
+		Random random = new Random(seed);
+		_conn.setAutoCommit(false);
+		try (PreparedStatement time = _conn.prepareStatement("INSERT INTO TimeList VALUES (?, ?)");
+			 PreparedStatement agent = _conn.prepareStatement("INSERT INTO Agents VALUES (?, ?, ?)");
+			 PreparedStatement comp = _conn.prepareStatement("INSERT INTO Compositions VALUES (?, ?, ?, ?)");
+			 PreparedStatement inv = _conn.prepareStatement("INSERT INTO Inventories VALUES (?, ?, ?, ?, ?, ?)"))
+		{
+			for (int t = 0; t < TIMES; t++) {
+				time.setBytes(1, SIM);
+				time.setInt(2, t);
+				time.executeUpdate();
+			}
+			for (int a = 1; a <= AGENTS; a++) {
+				agent.setBytes(1, SIM);
+				agent.setInt(2, a);
+				agent.setString(3, "p"+(a % 3));
+				agent.executeUpdate();
+			}
+			for (int q = 1; q <= qualities; q++) {
+				int n = 1+random.nextInt(4);
+				for (int i = 0; i < n; i++) {
+					comp.setBytes(1, SIM);
+					comp.setInt(2, q);
+					comp.setInt(3, 922350000+10000*((q+i) % NUCLIDES));
+					// fractions which are exact in binary, so the sums do not depend on the order
+					comp.setDouble(4, 1.0/(1 << (1+i)));
+					comp.executeUpdate();
+				}
+			}
+			for (int i = 0; i < inventories; i++) {
+				int start = random.nextInt(TIMES);
+				inv.setBytes(1, SIM);
+				inv.setInt(2, 1+random.nextInt(AGENTS));
+				inv.setInt(3, start);
+				inv.setInt(4, start+1+random.nextInt(TIMES/4));
+				inv.setInt(5, 1+random.nextInt(qualities));
+				inv.setDouble(6, random.nextInt(1000));
+				inv.executeUpdate();
+			}
+		}
+		_conn.commit();
+		_conn.setAutoCommit(true);
+	}
+
+	private Map<String, Double> rangeJoin(String condition) throws SQLException {
+		Map<String, Double> rows = new TreeMap<>();
+		try (PreparedStatement stmt = _conn.prepareStatement(String.format(RANGE_JOIN, condition))) {
+			stmt.setBytes(1, SIM);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					rows.put(rs.getInt(1)+"/"+rs.getInt(2)+"/"+rs.getInt(3), rs.getDouble(4));
+				}
+			}
+		}
+		return rows;
+	}
+
+	private Map<String, Double> sweep(String prototype) throws SQLException {
+		Map<String, Double> rows = new TreeMap<>();
+		InventorySweep sweep = new InventorySweep(_conn, SIM);
+		if (prototype != null) {
+			sweep.setAgents("Prototype", prototype);
+		}
+		sweep.run((time, nucId, agentId, amount) -> rows.put(time+"/"+nucId+"/"+agentId, amount));
+		return rows;
+	}
+}
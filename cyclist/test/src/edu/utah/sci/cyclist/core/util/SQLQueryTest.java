@@ -0,0 +1,102 @@
+package edu.utah.sci.cyclist.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The values of a query are bound as parameters, and the large value sets are joined through
+ * temporary tables, which are dropped once the query is released
+ */
+public class SQLQueryTest {
+	private static final int ROWS = 2000;
+
+	private Connection _conn;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement stmt = _conn.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE t (v INTEGER)");
+			for (int i = 0; i < ROWS; i++) {
+				stmt.executeUpdate("INSERT INTO t VALUES ("+i+")");
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		_conn.close();
+	}
+
+	@Test
+	public void largeSet() throws SQLException {
+		SQLQuery query = query(4*SQLQuery.TEMP_TABLE_THRESHOLD);
+		assertTrue(query.getSQL().length() < 200);
+		try (PreparedStatement stmt = query.prepare(_conn)) {
+			assertEquals(1, tempTables());
+		} finally {
+			query.release(_conn);
+		}
+		assertEquals(0, tempTables());
+
+		assertEquals(2*SQLQuery.TEMP_TABLE_THRESHOLD, count(query));
+		assertEquals(0, tempTables());
+	}
+
+	@Test
+	public void smallSet() throws SQLException {
+		SQLQuery query = query(10);
+		assertEquals(5, count(query));
+		assertEquals(0, tempTables());
+	}
+
+	@Test
+	public void sameKey() {
+		assertEquals(query(10).getKey(), query(10).getKey());
+		assertNotEquals(query(10).getKey(), query(12).getKey());
+	}
+
+	/*
+	 * Select the even values below n
+	 */
+	private SQLQuery query(int n) {
+		List<Object> values = new ArrayList<>();
+		for (int i = 0; i < n; i += 2) {
+			values.add(i);
+		}
+		return new SQLQuery("SELECT count(*) FROM t WHERE ").in("v", values);
+	}
+
+	private int count(SQLQuery query) throws SQLException {
+		try (PreparedStatement stmt = query.prepare(_conn); ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			query.release(_conn);
+		}
+	}
+
+	private int tempTables() throws SQLException {
+		try (Statement stmt = _conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT count(*) FROM sqlite_temp_master WHERE type = 'table'"))
+		{
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package edu.utah.sci.cyclist.core.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utah.sci.cyclist.core.model.CyclistDatasource;
+
+/**
+ * A database which was post processed before the indexes step existed receives its indexes
+ */
+public class SimulationTablesPostProcessorTest {
+	private File _db;
+	private CyclistDatasource _ds;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		_db = File.createTempFile("processed", ".sqlite");
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+_db.getPath());
+			 Statement stmt = conn.createStatement())
+		{
+			// the tables of an older post processing: no PostProcessSteps, no index
+			stmt.executeUpdate("CREATE TABLE QuantityTransactedBase (SimId BLOB, AgentId INTEGER, Time INTEGER, NucId INTEGER, Quantity REAL)");
+			for (int i = 0; i < 100; i++) {
+				stmt.executeUpdate("INSERT INTO QuantityTransactedBase VALUES (x'01', "+(i%10)+", "+i+", 922350000, 1.5)");
+			}
+			stmt.executeUpdate("CREATE TABLE UpdatedIndication (flag INTEGER DEFAULT 1)");
+		}
+
+		_ds = new CyclistDatasource();
+		_ds.setURL("jdbc:sqlite:/"+_db.getAbsolutePath());
+		_ds.getProperties().setProperty("type", "SQLite");
+	}
+
+	@After
+	public void tearDown() {
+		_ds.closeIdleConnections();
+		_db.delete();
+	}
+
+	@Test
+	public void alreadyProcessed() throws SQLException {
+		assertTrue(SimulationTablesPostProcessor.isDbUpdateRequired(_ds));
+		assertFalse(hasIndex("quantitytransacted_idx"));
+
+		assertTrue(new SimulationTablesPostProcessor().processTask(_ds));
+
+		assertTrue(hasIndex("quantitytransacted_idx"));
+		assertFalse(SimulationTablesPostProcessor.isDbUpdateRequired(_ds));
+	}
+
+	private boolean hasIndex(String name) throws SQLException {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:"+_db.getPath());
+			 Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='index' AND name='"+name+"'"))
+		{
+			return rs.next();
+		}
+	}
+}
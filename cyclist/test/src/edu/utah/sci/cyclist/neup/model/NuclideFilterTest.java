@@ -0,0 +1,150 @@
+package edu.utah.sci.cyclist.neup.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+/**
+ * The range filters select the same nuclides as the predicates they replaced
+ */
+public class NuclideFilterTest {
+	private static final int ELEM = NuclideFiltersLibrary.ELEM_FACTOR;
+	private static final int ISO = NuclideFiltersLibrary.ISO_FACTOR;
+
+	/*
+	 * The predicates of the library before the filters were ranges
+	 */
+	private static Map<String, IntPredicate> predicates() {
+		Map<String, IntPredicate> map = new HashMap<>();
+		map.put("Actinides", n -> 89 <= n/ELEM && n/ELEM <= 103);
+		map.put("Transuranics", n -> 93 <= n/ELEM && n/ELEM <= 103);
+		map.put("Minor Actinides", n -> n/ELEM == 93 || (95 <= n/ELEM && n/ELEM <= 103));
+		map.put("Fissile nuclides", n -> {
+			int iso = n/ISO;
+			return iso==92233 || iso==92235 || iso==94239 || iso==94231 || iso==95242 || iso==96243 || iso==96245;
+		});
+		map.put("Fissile Uranium ", n -> n/ISO == 92233 || n/ISO == 92235);
+		map.put("Fissile Plutonium ", n -> n/ISO == 94239 || n/ISO == 94241);
+		map.put("Long-lived fission", n -> {
+			int iso = n/ISO;
+			return iso==55135 || iso==3129 || iso==43099 || iso==46107 || iso==4009 || iso==34079;
+		});
+		map.put("Lanthanides", n -> 57 <= n/ELEM && n/ELEM <= 70);
+		map.put("Noble gases", n -> n/ELEM == 36 || n/ELEM == 54);
+		return map;
+	}
+
+	/*
+	 * Sorted nuclide ids of every element, with ground and excited states
+	 */
+	private static int[] dictionary() {
+		int[] ids = new int[0];
+		int n = 0;
+		for (int z = 1; z <= 118; z++) {
+			for (int a = z; a <= 3*z+10; a++) {
+				for (int m = 0; m < 2; m++) {
+					if (n == ids.length) ids = Arrays.copyOf(ids, 2*n+64);
+					ids[n++] = z*ELEM + a*ISO + m;
+				}
+			}
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	@Test
+	public void library() {
+		int[] dictionary = dictionary();
+		Map<String, NuclideFilter> filters = NuclideFiltersLibrary.getInstance().getFilters();
+		Map<String, IntPredicate> predicates = predicates();
+		assertEquals(predicates.keySet(), filters.keySet());
+
+		for (Map.Entry<String, NuclideFilter> entry : filters.entrySet()) {
+			IntPredicate predicate = predicates.get(entry.getKey());
+			NuclideFilter filter = entry.getValue();
+			BitSet selected = filter.select(dictionary);
+			int matches = 0;
+			for (int i = 0; i < dictionary.length; i++) {
+				boolean expected = predicate.test(dictionary[i]);
+				assertEquals(entry.getKey()+" "+dictionary[i], expected, filter.test(dictionary[i]));
+				assertEquals(entry.getKey()+" "+dictionary[i], expected, selected.get(i));
+				if (expected) matches++;
+			}
+			assertTrue(entry.getKey(), matches > 0);
+		}
+	}
+
+	@Test
+	public void merge() {
+		// overlapping
+		assertEquals(NuclideFilter.range(10, 30), NuclideFilter.range(10, 20).or(NuclideFilter.range(15, 30)));
+		// adjacent
+		assertEquals(NuclideFilter.range(10, 30), NuclideFilter.range(21, 30).or(NuclideFilter.range(10, 20)));
+		// contained
+		assertEquals(NuclideFilter.range(10, 30), NuclideFilter.range(10, 30).or(NuclideFilter.range(12, 13)));
+		// adjacent elements are a single range
+		assertEquals(NuclideFilter.elements(92, 94), NuclideFilter.elements(92, 92).or(NuclideFilter.elements(93, 94)));
+
+		NuclideFilter disjoint = NuclideFilter.range(10, 20).or(NuclideFilter.range(22, 30));
+		assertEquals("(NucId BETWEEN 10 AND 20 OR NucId BETWEEN 22 AND 30)", disjoint.toSQL("NucId"));
+		assertTrue(disjoint.test(20));
+		assertFalse(disjoint.test(21));
+		assertTrue(disjoint.test(22));
+		assertFalse(disjoint.test(9));
+		assertFalse(disjoint.test(31));
+
+		assertTrue(NuclideFilter.ALL.isAll());
+		assertEquals("1=1", NuclideFilter.ALL.toSQL("NucId"));
+		assertEquals(3, NuclideFilter.ALL.select(new int[] { -5, 0, Integer.MAX_VALUE }).cardinality());
+	}
+
+	@Test
+	public void select() {
+		int[] dictionary = { 10, 20, 30, 40, 50 };
+		NuclideFilter filter = NuclideFilter.range(15, 30).or(NuclideFilter.range(50, 60));
+		BitSet expected = new BitSet();
+		expected.set(1);
+		expected.set(2);
+		expected.set(4);
+		assertEquals(expected, filter.select(dictionary));
+		assertEquals(0, NuclideFilter.range(41, 49).select(dictionary).cardinality());
+		assertEquals(0, NuclideFilter.range(10, 50).select(new int[0]).cardinality());
+	}
+
+	@Test
+	public void parse() {
+		assertEquals(NuclideFilter.elements(92, 92), NuclideFilter.parse("92"));
+		assertEquals(NuclideFilter.elements(94, 96), NuclideFilter.parse(" 94 - 96 "));
+		assertEquals(NuclideFilter.isotopes(95241), NuclideFilter.parse("95241"));
+		assertEquals(NuclideFilter.range(922350000, 922350001), NuclideFilter.parse("922350000-922350001"));
+		assertEquals(NuclideFilter.elements(92, 92).or(NuclideFilter.elements(94, 96)).or(NuclideFilter.isotopes(95241)),
+				NuclideFilter.parse("92, 94-96, 95241"));
+
+		// an element range includes both ends
+		NuclideFilter range = NuclideFilter.parse("92-94");
+		assertTrue(range.test(920000000));
+		assertTrue(range.test(942410000));
+		assertFalse(range.test(910000000));
+		assertFalse(range.test(950000000));
+	}
+
+	@Test
+	public void invalid() {
+		for (String spec : new String[] { "", "abc", "923", "92-9424", "9423-94241", "1234567890", " , " }) {
+			try {
+				NuclideFilter.parse(spec);
+				fail("'"+spec+"' is not a valid filter");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
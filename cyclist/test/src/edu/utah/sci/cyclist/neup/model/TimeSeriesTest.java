@@ -0,0 +1,144 @@
+package edu.utah.sci.cyclist.neup.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * The running total of several series matches the sum computed from scratch
+ */
+public class TimeSeriesTest {
+	private static final double EPS = 1e-9;
+
+	@Test
+	public void derived() {
+		TimeSeries series = series(2, 1.0, 3, -2.0, 7, 4.0);
+		assertEquals(3, series.size());
+		assertEquals(7, series.lastTime());
+		assertEquals(3.0, series.cumulative(2), EPS);
+		assertEquals(-3.0, series.delta(1), EPS);
+		assertEquals(7.0, series.sumAbs(), EPS);
+		assertEquals(6.0, series.maxAbsDelta(), EPS);
+		assertEquals(0, TimeSeries.EMPTY.lastTime());
+	}
+
+	@Test
+	public void addRemove() {
+		TimeSeries a = series(10, 1.0, 11, 2.0, 15, 3.0);
+		// overlaps a
+		TimeSeries b = series(11, 10.0, 12, 20.0);
+		// disjoint, before the first time step of a
+		TimeSeries c = series(-5, 100.0, 0, 200.0);
+		// disjoint, after a
+		TimeSeries d = series(40, 7.0);
+
+		TimeSeries.Total total = new TimeSeries.Total();
+		List<TimeSeries> added = new ArrayList<>();
+		for (TimeSeries s : new TimeSeries[] { a, b, c, d }) {
+			total.add(s);
+			added.add(s);
+			check(added, total);
+		}
+
+		total.remove(b);
+		added.remove(b);
+		check(added, total);
+
+		total.remove(c);
+		added.remove(c);
+		check(added, total);
+
+		total.add(TimeSeries.EMPTY);
+		check(added, total);
+
+		total.remove(a);
+		total.remove(d);
+		added.clear();
+		check(added, total);
+		assertTrue(total.getSeries().isEmpty());
+	}
+
+	@Test
+	public void cached() {
+		TimeSeries.Total total = new TimeSeries.Total();
+		total.add(series(1, 1.0));
+		TimeSeries series = total.getSeries();
+		assertSame(series, total.getSeries());
+		total.add(series(1, 1.0));
+		assertEquals(2.0, total.getSeries().value(0), EPS);
+	}
+
+	@Test
+	public void random() {
+		Random random = new Random(7);
+		TimeSeries.Total total = new TimeSeries.Total();
+		List<TimeSeries> added = new ArrayList<>();
+		for (int step = 0; step < 500; step++) {
+			if (!added.isEmpty() && random.nextInt(3) == 0) {
+				TimeSeries s = added.remove(random.nextInt(added.size()));
+				total.remove(s);
+			} else {
+				TimeSeries s = randomSeries(random);
+				total.add(s);
+				added.add(s);
+			}
+			check(added, total);
+		}
+	}
+
+	private static TimeSeries randomSeries(Random random) {
+		int n = random.nextInt(20);
+		int[] time = new int[n];
+		double[] value = new double[n];
+		int t = random.nextInt(200)-100;
+		for (int i = 0; i < n; i++) {
+			t += 1+random.nextInt(5);
+			time[i] = t;
+			value[i] = random.nextDouble()*10-5;
+		}
+		return new TimeSeries(time, value, n);
+	}
+
+	/*
+	 * Compare the running total with the sum of the series
+	 */
+	private static void check(List<TimeSeries> added, TimeSeries.Total total) {
+		Map<Integer, Double> expected = new TreeMap<>();
+		for (TimeSeries s : added) {
+			for (int i = 0; i < s.size(); i++) {
+				expected.merge(s.time(i), s.value(i), Double::sum);
+			}
+		}
+
+		TimeSeries actual = total.getSeries();
+		assertEquals(expected.size(), actual.size());
+		int i = 0;
+		for (Map.Entry<Integer, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey().intValue(), actual.time(i));
+			assertEquals(entry.getValue(), actual.value(i), 1e-6);
+			i++;
+		}
+	}
+
+	/*
+	 * (time, value) pairs
+	 */
+	private static TimeSeries series(Object... pairs) {
+		int n = pairs.length/2;
+		int[] time = new int[n];
+		double[] value = new double[n];
+		for (int i = 0; i < n; i++) {
+			time[i] = (Integer) pairs[2*i];
+			value[i] = (Double) pairs[2*i+1];
+		}
+		return new TimeSeries(time, value, n);
+	}
+}